@@ -28,6 +28,7 @@ import java.nio.channels.SocketChannel;
 
 import javax.net.SocketFactory;
 
+import org.apache.activemq.transport.nio.NIOBufferPool;
 import org.apache.activemq.transport.nio.NIOOutputStream;
 import org.apache.activemq.transport.nio.SelectorManager;
 import org.apache.activemq.transport.nio.SelectorSelection;
@@ -49,8 +50,6 @@ public class AmqpNioTransport extends TcpTransport {
     private SelectorSelection selection;
     private final AmqpFrameParser frameReader = new AmqpFrameParser(this);
 
-    private ByteBuffer inputBuffer;
-
     public AmqpNioTransport(WireFormat wireFormat, SocketFactory socketFactory, URI remoteLocation, URI localLocation) throws UnknownHostException, IOException {
         super(wireFormat, socketFactory, remoteLocation, localLocation);
 
@@ -87,7 +86,6 @@ public class AmqpNioTransport extends TcpTransport {
             }
         });
 
-        inputBuffer = ByteBuffer.allocate(8 * 1024);
         NIOOutputStream outPutStream = new NIOOutputStream(channel, 8 * 1024);
         this.dataOut = new DataOutputStream(outPutStream);
         this.buffOut = outPutStream;
@@ -96,6 +94,8 @@ public class AmqpNioTransport extends TcpTransport {
     boolean magicRead = false;
 
     private void serviceRead() {
+        // only held while reading, the codec copies what it keeps
+        ByteBuffer inputBuffer = NIOBufferPool.getInstance().acquireHeap(8 * 1024);
         try {
 
             while (isStarted()) {
@@ -122,6 +122,8 @@ public class AmqpNioTransport extends TcpTransport {
             onException(e);
         } catch (Throwable e) {
             onException(IOExceptionSupport.create(e));
+        } finally {
+            NIOBufferPool.getInstance().release(inputBuffer);
         }
     }
 
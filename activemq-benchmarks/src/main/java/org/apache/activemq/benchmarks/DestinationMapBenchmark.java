@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.benchmarks;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.filter.DestinationMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Looks up destinations in a DestinationMap holding a mix of plain and
+ * wildcard entries, as is done to find the policy, security and subscription
+ * matches for a destination.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DestinationMapBenchmark {
+
+    @Param({"100", "10000"})
+    public int entries;
+
+    private DestinationMap map;
+    private ActiveMQDestination[] lookups;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        map = new DestinationMap();
+        for (int i = 0; i < entries; i++) {
+            map.put(new ActiveMQTopic("market." + (i % 10) + ".stock." + i), "entry-" + i);
+        }
+        map.put(new ActiveMQTopic("market.>"), "all-markets");
+        map.put(new ActiveMQTopic("market.*.stock.*"), "all-stocks");
+
+        lookups = new ActiveMQDestination[1024];
+        for (int i = 0; i < lookups.length; i++) {
+            int id = i * 7 % entries;
+            lookups[i] = new ActiveMQTopic("market." + (id % 10) + ".stock." + id);
+        }
+    }
+
+    @Benchmark
+    @SuppressWarnings("rawtypes")
+    public Set get() {
+        return map.get(lookups[next++ & (lookups.length - 1)]);
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.benchmarks;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.region.MessageReference;
+import org.apache.activemq.broker.region.cursors.OrderedPendingList;
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Exercises the pending list used by store and VM cursors: appending
+ * messages, draining them in order through the iterator, and removing them
+ * by reference in an arbitrary order as acks arrive.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OrderedPendingListBenchmark {
+
+    @Param({"1000", "100000"})
+    public int messages;
+
+    private MessageReference[] references;
+    private int[] removeOrder;
+
+    @Setup
+    public void setUp() {
+        ProducerId producerId = new ProducerId("ID:benchmark-1:1:1:1");
+        references = new MessageReference[messages];
+        for (int i = 0; i < messages; i++) {
+            ActiveMQMessage message = new ActiveMQMessage();
+            message.setMessageId(new MessageId(producerId, i));
+            message.setDestination(new ActiveMQQueue("benchmark.queue"));
+            references[i] = message;
+        }
+
+        removeOrder = new int[messages];
+        for (int i = 0; i < messages; i++) {
+            removeOrder[i] = i;
+        }
+        Random random = new Random(42);
+        for (int i = messages - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = removeOrder[i];
+            removeOrder[i] = removeOrder[j];
+            removeOrder[j] = t;
+        }
+    }
+
+    @Benchmark
+    public int addAndDrain() {
+        OrderedPendingList list = new OrderedPendingList();
+        for (MessageReference reference : references) {
+            list.addMessageLast(reference);
+        }
+        int count = 0;
+        for (Iterator<MessageReference> iterator = list.iterator(); iterator.hasNext();) {
+            iterator.next();
+            iterator.remove();
+            count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int addAndRemoveOutOfOrder() {
+        OrderedPendingList list = new OrderedPendingList();
+        for (MessageReference reference : references) {
+            list.addMessageLast(reference);
+        }
+        for (int index : removeOrder) {
+            list.remove(references[index]);
+        }
+        return list.size();
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.broker.region.DispatchedList;
+import org.apache.activemq.broker.region.MessageReference;
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fills a subscription's prefetch window and acknowledges it, the way
+ * PrefetchSubscription tracks dispatched messages.  Both cases remove the
+ * whole window: one with an ack per message, arriving in a random order,
+ * the other with a single ranged ack, which is counted and walked from its
+ * first message as the subscription does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefetchAckBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int prefetch;
+
+    private MessageReference[] window;
+    private int[] ackOrder;
+    private DispatchedList dispatched;
+
+    @Setup
+    public void setUp() {
+        ProducerId producerId = new ProducerId("ID:benchmark-1:1:1:1");
+        window = new MessageReference[prefetch];
+        for (int i = 0; i < prefetch; i++) {
+            ActiveMQMessage message = new ActiveMQMessage();
+            message.setMessageId(new MessageId(producerId, i));
+            message.setDestination(new ActiveMQQueue("benchmark.queue"));
+            window[i] = message;
+        }
+
+        ackOrder = new int[prefetch];
+        for (int i = 0; i < prefetch; i++) {
+            ackOrder[i] = i;
+        }
+        Random random = new Random(42);
+        for (int i = prefetch - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = ackOrder[i];
+            ackOrder[i] = ackOrder[j];
+            ackOrder[j] = t;
+        }
+        dispatched = new DispatchedList();
+    }
+
+    @Benchmark
+    public int individualAcks() {
+        for (MessageReference reference : window) {
+            dispatched.add(reference);
+        }
+        for (int index : ackOrder) {
+            MessageReference node = dispatched.get(window[index].getMessageId());
+            dispatched.remove(node);
+        }
+        return dispatched.size();
+    }
+
+    @Benchmark
+    public int rangedAck() {
+        for (MessageReference reference : window) {
+            dispatched.add(reference);
+        }
+        MessageId first = window[0].getMessageId();
+        MessageId last = window[prefetch - 1].getMessageId();
+        int count = dispatched.countRange(first, last);
+        if (count != prefetch) {
+            throw new IllegalStateException("Unmatched range: " + count);
+        }
+        List<MessageReference> range = new ArrayList<MessageReference>(count);
+        for (Iterator<MessageReference> iter = dispatched.iterator(first); range.size() < count;) {
+            range.add(iter.next());
+        }
+        for (MessageReference node : range) {
+            dispatched.remove(node);
+        }
+        return dispatched.size();
+    }
+}
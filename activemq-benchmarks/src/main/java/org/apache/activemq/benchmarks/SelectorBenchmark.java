@@ -0,0 +1,84 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.filter.BooleanExpression;
+import org.apache.activemq.filter.MessageEvaluationContext;
+import org.apache.activemq.selector.SelectorParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses selectors and evaluates them against a message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectorBenchmark {
+
+    @Param({
+        "region = 'emea'",
+        "region IN ('apac', 'emea', 'amer') AND priority > 3",
+        "symbol LIKE 'ACT%' OR (price BETWEEN 10 AND 20 AND JMSPriority > 4)"
+    })
+    public String selector;
+
+    private BooleanExpression expression;
+    private MessageEvaluationContext context;
+
+    @Setup
+    public void setUp() throws Exception {
+        expression = SelectorParser.parse(selector);
+
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        message.setDestination(new ActiveMQQueue("benchmark.queue"));
+        message.setStringProperty("region", "emea");
+        message.setIntProperty("priority", 4);
+        message.setStringProperty("symbol", "ACTV");
+        message.setDoubleProperty("price", 15.5);
+        message.setText("body");
+
+        context = new MessageEvaluationContext();
+        context.setMessageReference(message);
+    }
+
+    @Benchmark
+    public BooleanExpression parse() throws Exception {
+        return SelectorParser.parse(selector);
+    }
+
+    @Benchmark
+    public boolean matches() throws Exception {
+        return expression.matches(context);
+    }
+}
@@ -71,6 +71,8 @@ import org.apache.activemq.broker.jmx.JobSchedulerViewMBean;
 import org.apache.activemq.broker.jmx.Log4JConfigView;
 import org.apache.activemq.broker.jmx.ManagedRegionBroker;
 import org.apache.activemq.broker.jmx.ManagementContext;
+import org.apache.activemq.broker.jmx.NIOBufferPoolView;
+import org.apache.activemq.broker.jmx.NIOBufferPoolViewMBean;
 import org.apache.activemq.broker.jmx.NetworkConnectorView;
 import org.apache.activemq.broker.jmx.NetworkConnectorViewMBean;
 import org.apache.activemq.broker.jmx.ProxyConnectorView;
@@ -80,6 +82,7 @@ import org.apache.activemq.broker.region.DestinationFactory;
 import org.apache.activemq.broker.region.DestinationFactoryImpl;
 import org.apache.activemq.broker.region.DestinationInterceptor;
 import org.apache.activemq.broker.region.RegionBroker;
+import org.apache.activemq.broker.region.cursors.SharedMessageSpool;
 import org.apache.activemq.broker.region.policy.PolicyMap;
 import org.apache.activemq.broker.region.virtual.MirroredQueue;
 import org.apache.activemq.broker.region.virtual.VirtualDestination;
@@ -110,6 +113,7 @@ import org.apache.activemq.thread.Scheduler;
 import org.apache.activemq.thread.TaskRunnerFactory;
 import org.apache.activemq.transport.TransportFactorySupport;
 import org.apache.activemq.transport.TransportServer;
+import org.apache.activemq.transport.nio.NIOBufferPool;
 import org.apache.activemq.transport.vm.VMTransportFactory;
 import org.apache.activemq.usage.SystemUsage;
 import org.apache.activemq.util.BrokerSupport;
@@ -204,6 +208,7 @@ public class BrokerService implements Service {
     private volatile DestinationInterceptor[] destinationInterceptors;
     private ActiveMQDestination[] destinations;
     private PListStore tempDataStore;
+    private SharedMessageSpool sharedMessageSpool;
     private int persistenceThreadPriority = Thread.MAX_PRIORITY;
     private boolean useLocalHostBrokerName;
     private final CountDownLatch stoppedLatch = new CountDownLatch(1);
@@ -789,6 +794,7 @@ public class BrokerService implements Service {
             tempDataStore.stop();
             tempDataStore = null;
         }
+        sharedMessageSpool = null;
         try {
             stopper.stop(persistenceAdapter);
             persistenceAdapter = null;
@@ -1738,6 +1744,20 @@ public class BrokerService implements Service {
         }
     }
 
+    /**
+     * @return the spool that topic subscriptions share to hold the messages
+     *         they write to the temp store, or null if there is no temp store
+     */
+    public synchronized SharedMessageSpool getSharedMessageSpool() {
+        if (sharedMessageSpool == null) {
+            PListStore store = getTempDataStore();
+            if (store != null) {
+                sharedMessageSpool = new SharedMessageSpool(store, getStoreOpenWireVersion());
+            }
+        }
+        return sharedMessageSpool;
+    }
+
     public int getPersistenceThreadPriority() {
         return persistenceThreadPriority;
     }
@@ -2335,6 +2355,14 @@ public class BrokerService implements Service {
                 throw IOExceptionSupport.create("Status MBean could not be registered in JMX: "
                         + e.getMessage(), e);
             }
+            NIOBufferPoolViewMBean bufferPoolView = new NIOBufferPoolView(NIOBufferPool.getInstance());
+            try {
+                ObjectName objectName = BrokerMBeanSupport.createNIOBufferPoolServiceName(getBrokerObjectName());
+                AnnotatedMBean.registerMBean(getManagementContext(), bufferPoolView, objectName);
+            } catch (Throwable e) {
+                throw IOExceptionSupport.create("NIO buffer pool MBean could not be registered in JMX: "
+                        + e.getMessage(), e);
+            }
         }
         if (isAdvisorySupport()) {
             broker = new AdvisoryBroker(broker);
@@ -61,6 +61,7 @@ import org.apache.activemq.command.IntegerResponse;
 import org.apache.activemq.command.KeepAliveInfo;
 import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageAck;
+import org.apache.activemq.command.MessageBatch;
 import org.apache.activemq.command.MessageDispatch;
 import org.apache.activemq.command.MessageDispatchNotification;
 import org.apache.activemq.command.MessagePull;
@@ -543,6 +544,29 @@ public class TransportConnection implements Connection, Task, CommandVisitor {
         return null;
     }
 
+    @Override
+    public Response processMessageBatch(MessageBatch batch) throws Exception {
+        // the messages were sent asynchronously, so a failed send does not
+        // stop the ones after it
+        Exception failure = null;
+        Message[] messages = batch.getMessages();
+        if (messages != null) {
+            for (Message messageSend : messages) {
+                try {
+                    processMessage(messageSend);
+                } catch (Exception e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return null;
+    }
+
     @Override
     public Response processMessageAck(MessageAck ack) throws Exception {
         ConsumerBrokerExchange consumerExchange = getConsumerBrokerExchange(ack.getConsumerId());
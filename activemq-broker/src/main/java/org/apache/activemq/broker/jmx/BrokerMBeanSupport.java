@@ -240,6 +240,17 @@ public class BrokerMBeanSupport {
         return objectName;
     }
 
+    public static ObjectName createNIOBufferPoolServiceName(ObjectName brokerObjectName) throws MalformedObjectNameException {
+        return createNIOBufferPoolServiceName(brokerObjectName.toString());
+    }
+
+    public static ObjectName createNIOBufferPoolServiceName(String brokerObjectName) throws MalformedObjectNameException {
+        String objectNameStr = brokerObjectName;
+        objectNameStr += ",service=NIOBufferPool";
+        ObjectName objectName = new ObjectName(objectNameStr);
+        return objectName;
+    }
+
     // MBean Query Creation
 
     public static ObjectName createConnectionQuery(String jmxDomainName, String brokerName, String name) throws MalformedObjectNameException {
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.jmx;
+
+import org.apache.activemq.transport.nio.NIOBufferPool;
+
+public class NIOBufferPoolView implements NIOBufferPoolViewMBean {
+
+    private final NIOBufferPool pool;
+
+    public NIOBufferPoolView(NIOBufferPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public boolean isDirect() {
+        return pool.isDirect();
+    }
+
+    @Override
+    public int getMaxBufferSize() {
+        return pool.getMaxBufferSize();
+    }
+
+    @Override
+    public long getMaxPoolSize() {
+        return pool.getMaxPoolSize();
+    }
+
+    @Override
+    public long getPooledBytes() {
+        return pool.getPooledBytes();
+    }
+
+    @Override
+    public long getAcquireCount() {
+        return pool.getAcquireCount();
+    }
+
+    @Override
+    public long getAllocateCount() {
+        return pool.getAllocateCount();
+    }
+
+    @Override
+    public long getReleaseCount() {
+        return pool.getReleaseCount();
+    }
+
+    @Override
+    public long getDiscardCount() {
+        return pool.getDiscardCount();
+    }
+
+    @Override
+    public void resetStatistics() {
+        pool.resetStatistics();
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.jmx;
+
+/**
+ * Statistics of the read buffer pool shared by the NIO transports.
+ */
+public interface NIOBufferPoolViewMBean {
+
+    @MBeanInfo("Pool hands out direct buffers.")
+    boolean isDirect();
+
+    @MBeanInfo("Largest buffer size that is pooled.")
+    int getMaxBufferSize();
+
+    @MBeanInfo("Maximum bytes kept in the pool for reuse.")
+    long getMaxPoolSize();
+
+    @MBeanInfo("Bytes currently held in the pool waiting for reuse.")
+    long getPooledBytes();
+
+    @MBeanInfo("Number of buffers handed out.")
+    long getAcquireCount();
+
+    @MBeanInfo("Number of buffers handed out that had to be newly allocated.")
+    long getAllocateCount();
+
+    @MBeanInfo("Number of buffers returned to the pool.")
+    long getReleaseCount();
+
+    @MBeanInfo("Number of returned buffers that were not kept for reuse.")
+    long getDiscardCount();
+
+    @MBeanInfo("Resets the statistics.")
+    void resetStatistics();
+}
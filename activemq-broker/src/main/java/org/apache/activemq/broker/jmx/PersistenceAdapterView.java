@@ -26,6 +26,9 @@ public class PersistenceAdapterView implements PersistenceAdapterViewMBean {
 
     private Callable<String> inflightTransactionViewCallable;
     private Callable<String> dataViewCallable;
+    private Callable<Long> indexCacheHitCountCallable;
+    private Callable<Long> indexCacheMissCountCallable;
+    private Callable<Long> indexCacheEvictionCountCallable;
 
     public PersistenceAdapterView(PersistenceAdapter adapter) {
         this.name = adapter.toString();
@@ -47,6 +50,21 @@ public class PersistenceAdapterView implements PersistenceAdapterViewMBean {
         return invoke(dataViewCallable);
     }
 
+    @Override
+    public long getIndexCacheHitCount() {
+        return invokeCount(indexCacheHitCountCallable);
+    }
+
+    @Override
+    public long getIndexCacheMissCount() {
+        return invokeCount(indexCacheMissCountCallable);
+    }
+
+    @Override
+    public long getIndexCacheEvictionCount() {
+        return invokeCount(indexCacheEvictionCountCallable);
+    }
+
     @Override
     public long getSize() {
         return persistenceAdapter.size();
@@ -64,10 +82,34 @@ public class PersistenceAdapterView implements PersistenceAdapterViewMBean {
         return result;
     }
 
+    private long invokeCount(Callable<Long> callable) {
+        long result = 0;
+        if (callable != null) {
+            try {
+                result = callable.call();
+            } catch (Exception e) {
+                result = -1;
+            }
+        }
+        return result;
+    }
+
     public void setDataViewCallable(Callable<String> dataViewCallable) {
         this.dataViewCallable = dataViewCallable;
     }
 
+    public void setIndexCacheHitCountCallable(Callable<Long> indexCacheHitCountCallable) {
+        this.indexCacheHitCountCallable = indexCacheHitCountCallable;
+    }
+
+    public void setIndexCacheMissCountCallable(Callable<Long> indexCacheMissCountCallable) {
+        this.indexCacheMissCountCallable = indexCacheMissCountCallable;
+    }
+
+    public void setIndexCacheEvictionCountCallable(Callable<Long> indexCacheEvictionCountCallable) {
+        this.indexCacheEvictionCountCallable = indexCacheEvictionCountCallable;
+    }
+
     public void setInflightTransactionViewCallable(Callable<String> inflightTransactionViewCallable) {
         this.inflightTransactionViewCallable = inflightTransactionViewCallable;
     }
@@ -27,6 +27,15 @@ public interface PersistenceAdapterViewMBean {
     @MBeanInfo("Current data.")
     String getData();
 
+    @MBeanInfo("Number of index page reads served by the off heap index cache.")
+    long getIndexCacheHitCount();
+
+    @MBeanInfo("Number of index page reads that missed the off heap index cache.")
+    long getIndexCacheMissCount();
+
+    @MBeanInfo("Number of index pages evicted from the off heap index cache.")
+    long getIndexCacheEvictionCount();
+
     @MBeanInfo("Current size.")
     long getSize();
 }
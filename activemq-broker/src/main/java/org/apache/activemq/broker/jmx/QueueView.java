@@ -25,6 +25,7 @@ import javax.jms.JMSException;
 import org.apache.activemq.broker.ConnectionContext;
 import org.apache.activemq.broker.region.Queue;
 import org.apache.activemq.broker.region.QueueMessageReference;
+import org.apache.activemq.broker.region.cursors.StoreQueueCursor;
 import org.apache.activemq.command.ActiveMQDestination;
 import org.apache.activemq.command.Message;
 import org.apache.activemq.util.BrokerSupport;
@@ -244,4 +245,43 @@ public class QueueView extends DestinationView implements QueueViewMBean {
         Queue queue = (Queue) destination;
         return queue.isDispatchPaused();
     }
+
+    @Override
+    public long getLastExpiredCount() {
+        Queue queue = (Queue) destination;
+        return queue.getLastExpiredCount();
+    }
+
+    @Override
+    public long getLastExpireSweepDuration() {
+        Queue queue = (Queue) destination;
+        return queue.getLastExpireSweepDuration();
+    }
+
+    @Override
+    public long getCursorHitCount() {
+        Queue queue = (Queue) destination;
+        if (queue.getMessages() instanceof StoreQueueCursor) {
+            return ((StoreQueueCursor) queue.getMessages()).getReadAheadHitCount();
+        }
+        return 0;
+    }
+
+    @Override
+    public long getCursorMissCount() {
+        Queue queue = (Queue) destination;
+        if (queue.getMessages() instanceof StoreQueueCursor) {
+            return ((StoreQueueCursor) queue.getMessages()).getReadAheadMissCount();
+        }
+        return 0;
+    }
+
+    @Override
+    public int getCursorReadAheadBatchSize() {
+        Queue queue = (Queue) destination;
+        if (queue.getMessages() instanceof StoreQueueCursor) {
+            return ((StoreQueueCursor) queue.getMessages()).getReadAheadBatchSize();
+        }
+        return 0;
+    }
 }
@@ -219,5 +219,37 @@ public interface QueueViewMBean extends DestinationViewMBean {
     @MBeanInfo("Dispatch to consumers is paused")
     boolean isPaused();
 
+    /**
+     * @return the number of messages expired while the last expiry sweep ran
+     */
+    @MBeanInfo("Number of messages expired by the last expiry sweep")
+    long getLastExpiredCount();
+
+    /**
+     * @return the duration of the last expiry sweep in milliseconds
+     */
+    @MBeanInfo("Duration of the last expiry sweep in milliseconds")
+    long getLastExpireSweepDuration();
+
+    /**
+     * @return the number of batches of persistent messages that were read
+     *         ahead from the store by the time they were needed
+     */
+    @MBeanInfo("Number of batches of persistent messages the cursor found read ahead from the store")
+    long getCursorHitCount();
+
+    /**
+     * @return the number of batches of persistent messages read from the
+     *         store on dispatch
+     */
+    @MBeanInfo("Number of batches of persistent messages the cursor read from the store on dispatch")
+    long getCursorMissCount();
+
+    /**
+     * @return the number of persistent messages last read ahead
+     */
+    @MBeanInfo("Number of persistent messages the cursor last read ahead from the store")
+    int getCursorReadAheadBatchSize();
+
 
 }
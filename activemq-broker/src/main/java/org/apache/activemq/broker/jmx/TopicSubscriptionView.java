@@ -18,6 +18,7 @@ package org.apache.activemq.broker.jmx;
 
 import org.apache.activemq.broker.region.DurableTopicSubscription;
 import org.apache.activemq.broker.region.TopicSubscription;
+import org.apache.activemq.broker.region.cursors.FilePendingMessageCursor;
 
 /**
  *
@@ -59,6 +60,39 @@ public class TopicSubscriptionView extends SubscriptionView implements TopicSubs
         }
     }
 
+    public long getSpooledMessageCount() {
+        FilePendingMessageCursor cursor = getFileCursor();
+        return cursor != null ? cursor.getSpooledMessageCount() : 0;
+    }
+
+    public double getSpoolRate() {
+        FilePendingMessageCursor cursor = getFileCursor();
+        return cursor != null ? cursor.getSpoolRate() : 0;
+    }
+
+    public double getAverageSpoolBatchTime() {
+        FilePendingMessageCursor cursor = getFileCursor();
+        return cursor != null ? cursor.getAverageSpoolBatchTime() : 0;
+    }
+
+    public long getMaxSpoolBatchTime() {
+        FilePendingMessageCursor cursor = getFileCursor();
+        return cursor != null ? cursor.getMaxSpoolBatchTime() : 0;
+    }
+
+    public long getReadAheadMessageCount() {
+        FilePendingMessageCursor cursor = getFileCursor();
+        return cursor != null ? cursor.getReadAheadMessageCount() : 0;
+    }
+
+    private FilePendingMessageCursor getFileCursor() {
+        TopicSubscription topicSubscription = getTopicSubscription();
+        if (topicSubscription != null && topicSubscription.getMatched() instanceof FilePendingMessageCursor) {
+            return (FilePendingMessageCursor) topicSubscription.getMatched();
+        }
+        return null;
+    }
+
     @Override
     public boolean isActive() {
         if (subscription instanceof DurableTopicSubscription) {
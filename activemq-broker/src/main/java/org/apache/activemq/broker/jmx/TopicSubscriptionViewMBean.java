@@ -35,5 +35,36 @@ public interface TopicSubscriptionViewMBean extends SubscriptionViewMBean {
     int getMaximumPendingQueueSize();
     
     void setMaximumPendingQueueSize(int max);
+
+    /**
+     * @return the number of pending messages written to the temp store in
+     *         batches by the spool task.
+     */
+    @MBeanInfo("Number of pending messages written to the temp store by the spool task")
+    long getSpooledMessageCount();
+
+    /**
+     * @return the number of messages a second the spool task writes.
+     */
+    @MBeanInfo("Number of messages a second the spool task writes to the temp store")
+    double getSpoolRate();
+
+    /**
+     * @return the average time in milliseconds to write a batch.
+     */
+    @MBeanInfo("Average time in milliseconds the spool task takes to write a batch")
+    double getAverageSpoolBatchTime();
+
+    /**
+     * @return the longest time in milliseconds to write a batch.
+     */
+    @MBeanInfo("Longest time in milliseconds the spool task took to write a batch")
+    long getMaxSpoolBatchTime();
+
+    /**
+     * @return the number of messages read ahead from the temp store.
+     */
+    @MBeanInfo("Number of pending messages read ahead from the temp store by the spool task")
+    long getReadAheadMessageCount();
     
 }
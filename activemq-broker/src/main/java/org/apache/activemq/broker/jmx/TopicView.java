@@ -24,4 +24,29 @@ public class TopicView extends DestinationView implements TopicViewMBean {
         super(broker, destination);
     }
 
+    @Override
+    public boolean isConcurrentSend() {
+        return ((Topic)destination).isConcurrentSend();
+    }
+
+    @Override
+    public int getConcurrentSendStripes() {
+        return ((Topic)destination).getConcurrentSendStripes();
+    }
+
+    @Override
+    public long getSendLockContentionCount() {
+        return ((Topic)destination).getSendLockContentionCount();
+    }
+
+    @Override
+    public long getSendLockWaitTime() {
+        return ((Topic)destination).getSendLockWaitTime();
+    }
+
+    @Override
+    public void resetSendLockStatistics() {
+        ((Topic)destination).resetSendLockStatistics();
+    }
+
 }
@@ -17,4 +17,34 @@
 package org.apache.activemq.broker.jmx;
 
 public interface TopicViewMBean extends DestinationViewMBean {
+
+    /**
+     * @return true if sends from different producers are dispatched concurrently.
+     */
+    @MBeanInfo("Sends from different producers are stored and dispatched concurrently.")
+    boolean isConcurrentSend();
+
+    /**
+     * @return the number of locks producer sends are spread across.
+     */
+    @MBeanInfo("Number of send locks producers are spread across.")
+    int getConcurrentSendStripes();
+
+    /**
+     * @return the number of sends that had to wait for another send to complete.
+     */
+    @MBeanInfo("Number of sends that had to wait for another send to this topic to complete.")
+    long getSendLockContentionCount();
+
+    /**
+     * @return the total time sends have spent waiting for other sends to complete.
+     */
+    @MBeanInfo("Total time in milliseconds sends have spent waiting for other sends to this topic to complete.")
+    long getSendLockWaitTime();
+
+    /**
+     * Resets the send lock contention statistics.
+     */
+    @MBeanInfo("Resets the send lock contention statistics.")
+    void resetSendLockStatistics();
 }
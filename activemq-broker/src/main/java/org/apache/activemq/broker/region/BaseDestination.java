@@ -75,6 +75,7 @@ public abstract class BaseDestination implements Destination {
     private int maxPageSize = MAX_PAGE_SIZE;
     private int maxBrowsePageSize = MAX_BROWSE_PAGE_SIZE;
     private boolean useCache = true;
+    private boolean useStoreReadAhead;
     private int minimumMessageSize = 1024;
     private boolean lazyDispatch = false;
     private boolean advisoryForSlowConsumers;
@@ -349,6 +350,19 @@ public abstract class BaseDestination implements Destination {
         this.useCache = useCache;
     }
 
+    public boolean isUseStoreReadAhead() {
+        return useStoreReadAhead;
+    }
+
+    /**
+     * @param useStoreReadAhead
+     *      read the next batch of persistent messages from the store ahead
+     *      of dispatch, takes effect for cursors started after it is set
+     */
+    public void setUseStoreReadAhead(boolean useStoreReadAhead) {
+        this.useStoreReadAhead = useStoreReadAhead;
+    }
+
     @Override
     public int getMinimumMessageSize() {
         return minimumMessageSize;
@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.apache.activemq.command.MessageId;
+
+/**
+ * Holds the messages dispatched to a subscription that have not yet been
+ * acknowledged, in dispatch order.
+ *
+ * Nodes are indexed by MessageId so an individual ack can find and remove its
+ * message without walking the prefetch window, and a ranged ack only walks the
+ * messages it covers.
+ *
+ * Not thread safe, callers are expected to hold the subscription's dispatch lock.
+ */
+public class DispatchedList implements Iterable<MessageReference> {
+
+    private final Map<MessageId, Node> index = new HashMap<MessageId, Node>();
+    private Node head;
+    private Node tail;
+    private int size;
+    private long nextSequence;
+
+    public void add(MessageReference reference) {
+        Node node = new Node(reference, nextSequence++);
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+            node.prev = tail;
+        }
+        tail = node;
+        size++;
+        index.put(reference.getMessageId(), node);
+    }
+
+    /**
+     * Removes the given reference from the list.
+     *
+     * @return true if the reference was found and removed.
+     */
+    public boolean remove(MessageReference reference) {
+        Node node = index.get(reference.getMessageId());
+        if (node != null && node.reference == reference) {
+            unlink(node);
+            return true;
+        }
+
+        // fall back to a scan for a reference that was not indexed, this only
+        // happens if the same MessageId was dispatched twice.
+        for (node = head; node != null; node = node.next) {
+            if (node.reference == reference) {
+                unlink(node);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public MessageReference get(MessageId messageId) {
+        Node node = index.get(messageId);
+        return node != null ? node.reference : null;
+    }
+
+    public boolean contains(MessageId messageId) {
+        return index.containsKey(messageId);
+    }
+
+    /**
+     * Determines if the range first..last is present in the list with first
+     * dispatched no later than last.  A null first id denotes the head of the
+     * list.
+     */
+    public boolean containsRange(MessageId first, MessageId last) {
+        Node end = index.get(last);
+        if (end == null) {
+            return false;
+        }
+        if (first == null) {
+            return true;
+        }
+        Node start = index.get(first);
+        return start != null && start.sequence <= end.sequence;
+    }
+
+    /**
+     * Counts the messages in the range first..last inclusive, if last is not
+     * in the list the count runs to the tail.  A null first id denotes the
+     * head of the list.
+     *
+     * @return the count, or -1 if first is not in the list or comes after last.
+     */
+    public int countRange(MessageId first, MessageId last) {
+        Node start = first == null ? head : index.get(first);
+        if (start == null) {
+            return first == null ? 0 : -1;
+        }
+        Node end = last == null ? null : index.get(last);
+        if (end != null && end.sequence < start.sequence) {
+            return -1;
+        }
+        int count = 0;
+        for (Node node = start; node != null; node = node.next) {
+            count++;
+            if (node == end) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        index.clear();
+        head = null;
+        tail = null;
+        size = 0;
+    }
+
+    /**
+     * @return a snapshot of the list contents in dispatch order.
+     */
+    public List<MessageReference> values() {
+        List<MessageReference> result = new ArrayList<MessageReference>(size);
+        for (Node node = head; node != null; node = node.next) {
+            result.add(node.reference);
+        }
+        return result;
+    }
+
+    @Override
+    public Iterator<MessageReference> iterator() {
+        return new DispatchedIterator(head);
+    }
+
+    /**
+     * Iterates from the given message to the tail, a null id iterates the
+     * whole list and an id that is not present yields an empty iterator.
+     */
+    public Iterator<MessageReference> iterator(MessageId from) {
+        return new DispatchedIterator(from == null ? head : index.get(from));
+    }
+
+    private void unlink(Node node) {
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.removed = true;
+        size--;
+
+        MessageId messageId = node.reference.getMessageId();
+        if (index.get(messageId) == node) {
+            index.remove(messageId);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DispatchedList(" + System.identityHashCode(this) + "),size=" + size;
+    }
+
+    private static final class Node {
+        final MessageReference reference;
+        final long sequence;
+        Node prev;
+        Node next;
+        boolean removed;
+
+        Node(MessageReference reference, long sequence) {
+            this.reference = reference;
+            this.sequence = sequence;
+        }
+    }
+
+    private final class DispatchedIterator implements Iterator<MessageReference> {
+        private Node current;
+        private Node next;
+
+        DispatchedIterator(Node start) {
+            this.next = start;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public MessageReference next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            next = next.next;
+            return current.reference;
+        }
+
+        @Override
+        public void remove() {
+            if (current == null || current.removed) {
+                throw new IllegalStateException();
+            }
+            unlink(current);
+            current = null;
+        }
+    }
+}
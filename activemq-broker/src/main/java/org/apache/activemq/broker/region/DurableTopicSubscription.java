@@ -210,9 +210,10 @@ public class DurableTopicSubscription extends PrefetchSubscription implements Us
 
                 // Before we add these back to pending they need to be in producer order not
                 // dispatch order so we can add them to the front of the pending list.
-                Collections.reverse(dispatched);
+                List<MessageReference> redispatch = dispatched.values();
+                Collections.reverse(redispatch);
 
-                for (final MessageReference node : dispatched) {
+                for (final MessageReference node : redispatch) {
                     // Mark the dispatched messages as redelivered for next time.
                     if (lastDeliveredSequenceId == 0 || (lastDeliveredSequenceId > 0 && node.getMessageId().getBrokerSequenceId() <= lastDeliveredSequenceId)) {
                         Integer count = redeliveredMessages.get(node.getMessageId());
@@ -231,7 +232,7 @@ public class DurableTopicSubscription extends PrefetchSubscription implements Us
                 }
 
                 if (!topicsToDeactivate.isEmpty()) {
-                    savedDispateched = new ArrayList<MessageReference>(dispatched);
+                    savedDispateched = redispatch;
                 }
                 dispatched.clear();
             }
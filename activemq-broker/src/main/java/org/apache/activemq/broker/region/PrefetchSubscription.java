@@ -55,7 +55,7 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
     protected final Scheduler scheduler;
 
     protected PendingMessageCursor pending;
-    protected final List<MessageReference> dispatched = new ArrayList<MessageReference>();
+    protected final DispatchedList dispatched = new DispatchedList();
     protected final AtomicInteger prefetchExtension = new AtomicInteger();
     protected boolean usePrefetchExtension = true;
     protected long enqueueCounter;
@@ -213,31 +213,23 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
 
                 // Acknowledge all dispatched messages up till the message id of
                 // the acknowledgment.
-                int index = 0;
-                boolean inAckRange = false;
                 List<MessageReference> removeList = new ArrayList<MessageReference>();
-                for (final MessageReference node : dispatched) {
+                for (Iterator<MessageReference> iter = dispatched.iterator(ack.getFirstMessageId()); iter.hasNext();) {
+                    final MessageReference node = iter.next();
                     MessageId messageId = node.getMessageId();
-                    if (ack.getFirstMessageId() == null
-                            || ack.getFirstMessageId().equals(messageId)) {
-                        inAckRange = true;
+                    // Don't remove the nodes until we are committed.
+                    if (!context.isInTransaction()) {
+                        dequeueCounter++;
+                        ((Destination)node.getRegionDestination()).getDestinationStatistics().getInflight().decrement();
+                        removeList.add(node);
+                    } else {
+                        registerRemoveSync(context, node);
                     }
-                    if (inAckRange) {
-                        // Don't remove the nodes until we are committed.
-                        if (!context.isInTransaction()) {
-                            dequeueCounter++;
-                            ((Destination)node.getRegionDestination()).getDestinationStatistics().getInflight().decrement();
-                            removeList.add(node);
-                        } else {
-                            registerRemoveSync(context, node);
-                        }
-                        index++;
-                        acknowledge(context, ack, node);
-                        if (ack.getLastMessageId().equals(messageId)) {
-                            destination = (Destination) node.getRegionDestination();
-                            callDispatchMatched = true;
-                            break;
-                        }
+                    acknowledge(context, ack, node);
+                    if (ack.getLastMessageId().equals(messageId)) {
+                        destination = (Destination) node.getRegionDestination();
+                        callDispatchMatched = true;
+                        break;
                     }
                 }
                 for (final MessageReference node : removeList) {
@@ -250,34 +242,18 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
                 }
             } else if (ack.isIndividualAck()) {
                 // Message was delivered and acknowledge - but only delete the
-                // individual message
-                for (final MessageReference node : dispatched) {
-                    MessageId messageId = node.getMessageId();
-                    if (ack.getLastMessageId().equals(messageId)) {
-                        // Don't remove the nodes until we are committed - immediateAck option
-                        if (!context.isInTransaction()) {
-                            dequeueCounter++;
-                            ((Destination)node.getRegionDestination()).getDestinationStatistics().getInflight().decrement();
-                            dispatched.remove(node);
-                        } else {
-                            registerRemoveSync(context, node);
-                        }
-
-                        if (usePrefetchExtension && getPrefetchSize() != 0 && ack.isInTransaction()) {
-                            // allow transaction batch to exceed prefetch
-                            while (true) {
-                                int currentExtension = prefetchExtension.get();
-                                int newExtension = Math.max(currentExtension, currentExtension + 1);
-                                if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
-                                    break;
-                                }
-                            }
-                        }
-
-                        acknowledge(context, ack, node);
-                        destination = (Destination) node.getRegionDestination();
+                // individual message, or the run of messages dispatched one
+                // after another that the consumer batched its acks into
+                if (ack.getFirstMessageId() != null && ack.getMessageCount() > 1) {
+                    for (MessageReference node : getIndividualAckRange(ack)) {
+                        destination = acknowledgeIndividual(context, ack, node);
+                    }
+                    callDispatchMatched = true;
+                } else {
+                    final MessageReference node = dispatched.get(ack.getLastMessageId());
+                    if (node != null) {
+                        destination = acknowledgeIndividual(context, ack, node);
                         callDispatchMatched = true;
-                        break;
                     }
                 }
             }else if (ack.isDeliveredAck() || ack.isExpiredAck()) {
@@ -319,20 +295,9 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
             } else if (ack.isRedeliveredAck()) {
                 // Message was re-delivered but it was not yet considered to be
                 // a DLQ message.
-                boolean inAckRange = false;
-                for (final MessageReference node : dispatched) {
-                    MessageId messageId = node.getMessageId();
-                    if (ack.getFirstMessageId() == null
-                            || ack.getFirstMessageId().equals(messageId)) {
-                        inAckRange = true;
-                    }
-                    if (inAckRange) {
-                        if (ack.getLastMessageId().equals(messageId)) {
-                            destination = (Destination) node.getRegionDestination();
-                            callDispatchMatched = true;
-                            break;
-                        }
-                    }
+                if (dispatched.containsRange(ack.getFirstMessageId(), ack.getLastMessageId())) {
+                    destination = (Destination) dispatched.get(ack.getLastMessageId()).getRegionDestination();
+                    callDispatchMatched = true;
                 }
                 if (!callDispatchMatched) {
                     throw new JMSException(
@@ -348,35 +313,29 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
                             + ack);
                 }
                 int index = 0;
-                boolean inAckRange = false;
                 List<MessageReference> removeList = new ArrayList<MessageReference>();
-                for (final MessageReference node : dispatched) {
+                for (Iterator<MessageReference> iter = dispatched.iterator(ack.getFirstMessageId()); iter.hasNext();) {
+                    final MessageReference node = iter.next();
                     MessageId messageId = node.getMessageId();
-                    if (ack.getFirstMessageId() == null
-                            || ack.getFirstMessageId().equals(messageId)) {
-                        inAckRange = true;
-                    }
-                    if (inAckRange) {
-                        sendToDLQ(context, node, ack.getPoisonCause());
-                        Destination nodeDest = (Destination) node.getRegionDestination();
-                        nodeDest.getDestinationStatistics()
-                                .getInflight().decrement();
-                        removeList.add(node);
-                        dequeueCounter++;
-                        index++;
-                        acknowledge(context, ack, node);
-                        if (ack.getLastMessageId().equals(messageId)) {
-                            while (true) {
-                                int currentExtension = prefetchExtension.get();
-                                int newExtension = Math.max(0, currentExtension - (index + 1));
-                                if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
-                                    break;
-                                }
+                    sendToDLQ(context, node, ack.getPoisonCause());
+                    Destination nodeDest = (Destination) node.getRegionDestination();
+                    nodeDest.getDestinationStatistics()
+                            .getInflight().decrement();
+                    removeList.add(node);
+                    dequeueCounter++;
+                    index++;
+                    acknowledge(context, ack, node);
+                    if (ack.getLastMessageId().equals(messageId)) {
+                        while (true) {
+                            int currentExtension = prefetchExtension.get();
+                            int newExtension = Math.max(0, currentExtension - (index + 1));
+                            if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
+                                break;
                             }
-                            destination = nodeDest;
-                            callDispatchMatched = true;
-                            break;
                         }
+                        destination = nodeDest;
+                        callDispatchMatched = true;
+                        break;
                     }
                 }
                 for (final MessageReference node : removeList) {
@@ -403,6 +362,55 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
         }
     }
 
+    /**
+     * called with dispatchLock held
+     */
+    private Destination acknowledgeIndividual(ConnectionContext context, MessageAck ack, MessageReference node) throws Exception {
+        // Don't remove the nodes until we are committed - immediateAck option
+        if (!context.isInTransaction()) {
+            dequeueCounter++;
+            ((Destination)node.getRegionDestination()).getDestinationStatistics().getInflight().decrement();
+            dispatched.remove(node);
+        } else {
+            registerRemoveSync(context, node);
+        }
+
+        if (usePrefetchExtension && getPrefetchSize() != 0 && ack.isInTransaction()) {
+            // allow transaction batch to exceed prefetch
+            while (true) {
+                int currentExtension = prefetchExtension.get();
+                int newExtension = Math.max(currentExtension, currentExtension + 1);
+                if (prefetchExtension.compareAndSet(currentExtension, newExtension)) {
+                    break;
+                }
+            }
+        }
+
+        acknowledge(context, ack, node);
+        return (Destination) node.getRegionDestination();
+    }
+
+    /**
+     * Finds the messages covered by a ranged individual ack, which must all
+     * still be dispatched, one after another, as nothing else in the range
+     * may be acknowledged.
+     *  called with dispatchLock held
+     */
+    private List<MessageReference> getIndividualAckRange(MessageAck ack) throws JMSException {
+        int count = dispatched.contains(ack.getLastMessageId()) ? dispatched.countRange(ack.getFirstMessageId(), ack.getLastMessageId()) : -1;
+        if (count != ack.getMessageCount()) {
+            throw new JMSException("Unmatched acknowledge: " + ack
+                    + "; Expected message count (" + ack.getMessageCount()
+                    + ") differs from count in dispatched-list (" + count
+                    + ")");
+        }
+        List<MessageReference> range = new ArrayList<MessageReference>(count);
+        for (Iterator<MessageReference> iter = dispatched.iterator(ack.getFirstMessageId()); range.size() < count;) {
+            range.add(iter.next());
+        }
+        return range;
+    }
+
     private void registerRemoveSync(ConnectionContext context, final MessageReference node) {
         // setup a Synchronization to remove nodes from the
         // dispatched list.
@@ -453,26 +461,10 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
     protected void assertAckMatchesDispatched(MessageAck ack) throws JMSException {
         MessageId firstAckedMsg = ack.getFirstMessageId();
         MessageId lastAckedMsg = ack.getLastMessageId();
-        int checkCount = 0;
-        boolean checkFoundStart = false;
-        boolean checkFoundEnd = false;
-        for (MessageReference node : dispatched) {
-
-            if (firstAckedMsg == null) {
-                checkFoundStart = true;
-            } else if (!checkFoundStart && firstAckedMsg.equals(node.getMessageId())) {
-                checkFoundStart = true;
-            }
-
-            if (checkFoundStart) {
-                checkCount++;
-            }
-
-            if (lastAckedMsg != null && lastAckedMsg.equals(node.getMessageId())) {
-                checkFoundEnd = true;
-                break;
-            }
-        }
+        // the start is only found if it is dispatched at or before the end of the ack
+        int checkCount = dispatched.countRange(firstAckedMsg, lastAckedMsg);
+        boolean checkFoundStart = checkCount >= 0;
+        boolean checkFoundEnd = lastAckedMsg != null && dispatched.contains(lastAckedMsg);
         if (!checkFoundStart && firstAckedMsg != null)
             throw new JMSException("Unmatched acknowledge: " + ack
                     + "; Could not find Message-ID " + firstAckedMsg
@@ -589,10 +581,14 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
 
     @Override
     public List<MessageReference> remove(ConnectionContext context, Destination destination) throws Exception {
-        return remove(context, destination, dispatched);
+        return doRemove(context, destination, dispatched);
     }
 
     public List<MessageReference> remove(ConnectionContext context, Destination destination, List<MessageReference> dispatched) throws Exception {
+        return doRemove(context, destination, dispatched);
+    }
+
+    private List<MessageReference> doRemove(ConnectionContext context, Destination destination, Iterable<MessageReference> dispatched) throws Exception {
         List<MessageReference> rc = new ArrayList<MessageReference>();
         synchronized(pendingLock) {
             super.remove(context, destination);
@@ -617,17 +613,18 @@ public abstract class PrefetchSubscription extends AbstractSubscription {
         return rc;
     }
 
-    private void updateDestinationStats(List<MessageReference> rc, Destination destination, List<MessageReference> dispatched) {
-        ArrayList<MessageReference> references = new ArrayList<MessageReference>();
-        for (MessageReference r : dispatched) {
+    private void updateDestinationStats(List<MessageReference> rc, Destination destination, Iterable<MessageReference> dispatched) {
+        int removed = 0;
+        for (Iterator<MessageReference> iter = dispatched.iterator(); iter.hasNext();) {
+            MessageReference r = iter.next();
             if (r.getRegionDestination() == destination) {
-                references.add(r);
+                rc.add(r);
+                iter.remove();
+                removed++;
             }
         }
-        rc.addAll(references);
-        destination.getDestinationStatistics().getDispatched().subtract(references.size());
-        destination.getDestinationStatistics().getInflight().subtract(references.size());
-        dispatched.removeAll(references);
+        destination.getDestinationStatistics().getDispatched().subtract(removed);
+        destination.getDestinationStatistics().getInflight().subtract(removed);
     }
 
     // made public so it can be used in MQTTProtocolConverter
@@ -22,6 +22,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
@@ -29,12 +30,20 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.DelayQueue;
 import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
@@ -111,16 +120,21 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
     private final ReentrantReadWriteLock pagedInPendingDispatchLock = new ReentrantReadWriteLock();
     protected PendingList pagedInPendingDispatch = new OrderedPendingList();
     protected PendingList redeliveredWaitingDispatch = new OrderedPendingList();
+    // Messages being expired from the store, which must not be paged in until they are removed from it
+    private final Set<MessageId> expiringFromStore = Collections.newSetFromMap(new ConcurrentHashMap<MessageId, Boolean>());
     private MessageGroupMap messageGroupOwners;
     private DispatchPolicy dispatchPolicy = new RoundRobinDispatchPolicy();
     private MessageGroupMapFactory messageGroupMapFactory = new CachedMessageGroupMapFactory();
     final Lock sendLock = new ReentrantLock();
     private ExecutorService executor;
+    private ExecutorService dispatchExecutor;
+    private final AtomicLong parallelMatchCount = new AtomicLong();
     private final Map<MessageId, Runnable> messagesWaitingForSpace = new LinkedHashMap<MessageId, Runnable>();
     private boolean useConsumerPriority = true;
     private boolean strictOrderDispatch = false;
     private final QueueDispatchSelector dispatchSelector;
     private boolean optimizedDispatch = false;
+    private int dispatchThreads = 1;
     private boolean iterationRunning = false;
     private boolean firstConsumer = false;
     private int timeBeforeDispatchStarts = 0;
@@ -128,6 +142,7 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
     private CountDownLatch consumersBeforeStartsLatch;
     private final AtomicLong pendingWakeups = new AtomicLong();
     private boolean allConsumersExclusiveByDefault = false;
+    private boolean useCompactPendingList = false;
     private final AtomicBoolean started = new AtomicBoolean();
 
     private boolean resetNeeded;
@@ -144,6 +159,8 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
             expireMessages();
         }
     };
+    private volatile long lastExpiredCount;
+    private volatile long lastExpireSweepDuration;
 
     private final Object iteratingMutex = new Object();
 
@@ -358,7 +375,7 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
 
         if (this.messages == null) {
             if (destination.isTemporary() || broker == null || store == null) {
-                this.messages = new VMPendingMessageCursor(isPrioritizedMessages());
+                this.messages = new VMPendingMessageCursor(isPrioritizedMessages(), isUseCompactPendingList());
             } else {
                 this.messages = new StoreQueueCursor(broker, this);
             }
@@ -906,11 +923,134 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
     private void expireMessages() {
         LOG.debug("{} expiring messages ..", getActiveMQDestination().getQualifiedName());
 
-        // just track the insertion count
-        List<Message> browsedMessages = new InsertionCountList<Message>();
-        doBrowse(browsedMessages, this.getMaxExpirePageSize());
+        long start = System.currentTimeMillis();
+        long expired = destinationStatistics.getExpired().getCount();
+        if (!expireMessagesFromStore()) {
+            // just track the insertion count
+            List<Message> browsedMessages = new InsertionCountList<Message>();
+            doBrowse(browsedMessages, this.getMaxExpirePageSize());
+        }
+        lastExpiredCount = destinationStatistics.getExpired().getCount() - expired;
+        lastExpireSweepDuration = System.currentTimeMillis() - start;
         asyncWakeup();
-        LOG.debug("{} expiring messages done.", getActiveMQDestination().getQualifiedName());
+        LOG.debug("{} expiring messages done, expired {} in {} ms.", new Object[]{getActiveMQDestination().getQualifiedName(), lastExpiredCount, lastExpireSweepDuration});
+    }
+
+    /**
+     * Expires the messages found by a range scan of the store's expiration
+     * index, rather than paging in the destination to look for them.  Messages
+     * that are already paged in are checked in memory, as a browse would.
+     * Non persistent messages are not in the store and expire when they are
+     * paged in.
+     *
+     * @return false if the store keeps no expiration index
+     */
+    private boolean expireMessagesFromStore() {
+        if (store == null || !(messages instanceof StoreQueueCursor)) {
+            return false;
+        }
+        final ConnectionContext connectionContext = createConnectionContext();
+        try {
+            final List<Message> due = new ArrayList<Message>();
+            boolean indexed = store.recoverExpired(System.currentTimeMillis(), getMaxExpirePageSize(), new MessageRecoveryListener() {
+                @Override
+                public boolean recoverMessage(Message message) throws Exception {
+                    due.add(message);
+                    return true;
+                }
+
+                @Override
+                public boolean recoverMessageReference(MessageId messageReference) throws Exception {
+                    Message message = loadMessage(messageReference);
+                    if (message != null) {
+                        due.add(message);
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean hasSpace() {
+                    return true;
+                }
+
+                @Override
+                public boolean isDuplicate(MessageId id) {
+                    return false;
+                }
+            });
+            if (!indexed) {
+                return false;
+            }
+            for (Message message : due) {
+                message.setRegionDestination(this);
+                QueueMessageReference ref = createMessageReference(message);
+                boolean pagedIn;
+                boolean expired = false;
+                // the message is taken out of the cursor and marked as expiring
+                // while both locks are held, so a page in either has it
+                // already or skips it until it is removed from the store
+                messagesLock.writeLock().lock();
+                try {
+                    pagedInMessagesLock.readLock().lock();
+                    try {
+                        pagedIn = pagedInMessages.get(message.getMessageId()) != null;
+                        if (!pagedIn && broker.isExpired(ref)) {
+                            expiringFromStore.add(message.getMessageId());
+                            messages.remove(ref);
+                            expired = true;
+                        }
+                    } finally {
+                        pagedInMessagesLock.readLock().unlock();
+                    }
+                } finally {
+                    messagesLock.writeLock().unlock();
+                }
+                if (pagedIn) {
+                    continue;
+                }
+                if (expired) {
+                    LOG.debug("expiring from store: {}", ref);
+                    try {
+                        messageExpired(connectionContext, ref);
+                    } finally {
+                        expiringFromStore.remove(message.getMessageId());
+                    }
+                } else {
+                    ref.decrementReferenceCount();
+                }
+            }
+            if (!due.isEmpty()) {
+                // the cursor only tracks the messages it has loaded
+                messagesLock.writeLock().lock();
+                try {
+                    messages.rebase();
+                } finally {
+                    messagesLock.writeLock().unlock();
+                }
+            }
+
+            List<Message> browsedMessages = new InsertionCountList<Message>();
+            doBrowseList(browsedMessages, getMaxExpirePageSize(), redeliveredWaitingDispatch, pagedInPendingDispatchLock, connectionContext, "redeliveredWaitingDispatch");
+            doBrowseList(browsedMessages, getMaxExpirePageSize(), pagedInPendingDispatch, pagedInPendingDispatchLock, connectionContext, "pagedInPendingDispatch");
+            doBrowseList(browsedMessages, getMaxExpirePageSize(), pagedInMessages, pagedInMessagesLock, connectionContext, "pagedInMessages");
+        } catch (Exception e) {
+            LOG.error("Problem expiring messages from the store", e);
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of messages expired while the last expiry sweep ran
+     */
+    public long getLastExpiredCount() {
+        return lastExpiredCount;
+    }
+
+    /**
+     * @return the duration of the last expiry sweep in milliseconds
+     */
+    public long getLastExpireSweepDuration() {
+        return lastExpireSweepDuration;
     }
 
     @Override
@@ -972,6 +1112,7 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
                 ThreadPoolUtils.shutdownNow(executor);
                 executor = null;
             }
+            stopDispatchExecutor();
 
             scheduler.cancel(expireMessagesTask);
 
@@ -1061,6 +1202,20 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
         this.optimizedDispatch = optimizedDispatch;
     }
 
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    /**
+     * When greater than one, consumer selectors are evaluated against paged in
+     * messages on a pool of this many threads (the queue's own dispatch thread
+     * included) so a queue with many selective consumers is not limited to a
+     * single core. Not used with optimizedDispatch.
+     */
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = Math.max(1, dispatchThreads);
+    }
+
     public int getTimeBeforeDispatchStarts() {
         return timeBeforeDispatchStarts;
     }
@@ -1085,6 +1240,20 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
         return allConsumersExclusiveByDefault;
     }
 
+    public boolean isUseCompactPendingList() {
+        return useCompactPendingList;
+    }
+
+    /**
+     * Holds the messages of a queue that are kept in memory rather than in a
+     * store in a compact list, which takes less memory for each pending
+     * message than the default list.  Does not apply to queues with
+     * prioritized messages.
+     */
+    public void setUseCompactPendingList(boolean useCompactPendingList) {
+        this.useCompactPendingList = useCompactPendingList;
+    }
+
     public boolean isResetNeeded() {
         return resetNeeded;
     }
@@ -1912,6 +2081,9 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
                     while (messages.hasNext() && count < toPageIn) {
                         MessageReference node = messages.next();
                         messages.remove();
+                        if (expiringFromStore.contains(node.getMessageId())) {
+                            continue;
+                        }
 
                         QueueMessageReference ref = createMessageReference(node.getMessage());
                         if (processExpired && ref.isExpired()) {
@@ -1941,7 +2113,10 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
                     resultList = new OrderedPendingList();
                 }
                 for (QueueMessageReference ref : result) {
-                    if (!pagedInMessages.contains(ref)) {
+                    if (expiringFromStore.contains(ref.getMessageId())) {
+                        // expired from the store since it left the cursor
+                        ref.decrementReferenceCount();
+                    } else if (!pagedInMessages.contains(ref)) {
                         pagedInMessages.addMessageLast(ref);
                         resultList.addMessageLast(ref);
                     } else {
@@ -2028,8 +2203,10 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
         }
 
         Set<Subscription> fullConsumers = new HashSet<Subscription>(this.consumers.size());
+        SelectorMatches selectorMatches = matchSelectors(list, consumers);
+        int position = 0;
 
-        for (Iterator<MessageReference> iterator = list.iterator(); iterator.hasNext();) {
+        for (Iterator<MessageReference> iterator = list.iterator(); iterator.hasNext(); position++) {
 
             MessageReference node = iterator.next();
             Subscription target = null;
@@ -2039,7 +2216,7 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
                 }
                 if (!fullConsumers.contains(s)) {
                     if (!s.isFull()) {
-                        if (dispatchSelector.canSelect(s, node) && assignMessageGroup(s, (QueueMessageReference)node) && !((QueueMessageReference) node).isAcked() ) {
+                        if (canSelect(s, node, selectorMatches, position) && assignMessageGroup(s, (QueueMessageReference)node) && !((QueueMessageReference) node).isAcked() ) {
                             // Dispatch it.
                             s.add(node);
                             LOG.trace("assigned {} to consumer {}", node.getMessageId(), s.getConsumerInfo().getConsumerId());
@@ -2084,6 +2261,178 @@ public class Queue extends BaseDestination implements Task, UsageListener, Index
         return list;
     }
 
+    private boolean canSelect(Subscription s, MessageReference node, SelectorMatches selectorMatches, int position) throws Exception {
+        if (selectorMatches != null) {
+            Integer index = selectorMatches.consumerIndex.get(s);
+            int matched = selectorMatches.matched[position];
+            // the consumers after the one that matched were not evaluated
+            if (index != null && (matched < 0 || index <= matched)) {
+                return dispatchSelector.canSelect(s, index == matched);
+            }
+        }
+        return dispatchSelector.canSelect(s, node);
+    }
+
+    /**
+     * With more than one dispatch thread, evaluates the consumers' selectors
+     * against the list up front, partitioning the messages across the
+     * dispatch executor. Only the consumers that can take a message are
+     * tried, in dispatch order and up to the first that matches; any other
+     * match dispatch asks for is evaluated inline. Assignment to consumers,
+     * message groups and exclusive consumers are then handled in order on
+     * the dispatching thread from the precomputed matches.
+     *
+     * @return the matches, or null if selectors should be evaluated inline
+     */
+    private SelectorMatches matchSelectors(PendingList list, List<Subscription> consumers) throws Exception {
+        if (dispatchThreads <= 1 || optimizedDispatch || list.size() < dispatchThreads * 2) {
+            return null;
+        }
+        boolean hasSelectors = false;
+        for (Subscription s : consumers) {
+            if (s.getConsumerInfo().getSelector() != null) {
+                hasSelectors = true;
+                break;
+            }
+        }
+        ExecutorService matchExecutor = hasSelectors ? getDispatchExecutor() : null;
+        if (matchExecutor == null) {
+            return null;
+        }
+
+        List<MessageReference> nodes = new ArrayList<MessageReference>(list.size());
+        for (MessageReference node : list) {
+            nodes.add(node);
+        }
+        SelectorMatches selectorMatches = new SelectorMatches(destination, consumers, dispatchSelector, nodes.size());
+        int partitionSize = (nodes.size() + dispatchThreads - 1) / dispatchThreads;
+        List<Future<Void>> partitions = new ArrayList<Future<Void>>(dispatchThreads);
+        boolean rejected = false;
+        try {
+            for (int start = partitionSize; start < nodes.size(); start += partitionSize) {
+                partitions.add(matchExecutor.submit(selectorMatches.match(nodes, start, Math.min(start + partitionSize, nodes.size()))));
+            }
+        } catch (RejectedExecutionException e) {
+            // the queue is stopping, fall back to matching inline
+            rejected = true;
+        }
+        // the dispatching thread matches the first partition itself
+        selectorMatches.match(nodes, 0, Math.min(partitionSize, nodes.size())).call();
+        for (Future<Void> partition : partitions) {
+            try {
+                partition.get();
+            } catch (CancellationException e) {
+                // the queue stopped before the partition was matched
+                rejected = true;
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+        if (rejected) {
+            return null;
+        }
+        parallelMatchCount.incrementAndGet();
+        return selectorMatches;
+    }
+
+    /**
+     * @return the number of dispatches that matched selectors on the dispatch executor
+     */
+    long getParallelMatchCount() {
+        return parallelMatchCount.get();
+    }
+
+    private synchronized ExecutorService getDispatchExecutor() {
+        if (dispatchExecutor == null && started.get()) {
+            final String threadName = "ActiveMQ Queue Dispatch: " + destination.getPhysicalName();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(dispatchThreads - 1, dispatchThreads - 1, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, threadName);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pool.allowCoreThreadTimeOut(true);
+            dispatchExecutor = pool;
+        }
+        return dispatchExecutor;
+    }
+
+    private synchronized void stopDispatchExecutor() {
+        if (dispatchExecutor != null) {
+            // a dispatch waiting on a partition that never ran falls back to matching inline
+            for (Runnable pending : ThreadPoolUtils.shutdownNow(dispatchExecutor)) {
+                if (pending instanceof Future) {
+                    ((Future<?>) pending).cancel(false);
+                }
+            }
+            dispatchExecutor = null;
+        }
+    }
+
+    /**
+     * The result of matching the consumers' selectors against a list of
+     * messages, indexed by position in the list.  As the consumers are tried
+     * in order up to the first match, a message only records the index of
+     * the one that matched, or -1 if none did.
+     */
+    private static final class SelectorMatches {
+        private final ActiveMQDestination destination;
+        private final Subscription[] subscriptions;
+        private final Map<Subscription, Integer> consumerIndex;
+        private final int[] matched;
+
+        SelectorMatches(ActiveMQDestination destination, List<Subscription> consumers, QueueDispatchSelector dispatchSelector, int size) {
+            this.destination = destination;
+            List<Subscription> candidates = new ArrayList<Subscription>(consumers.size());
+            for (Subscription s : consumers) {
+                // browsers track their own progress, so they are left to match inline,
+                // as are the consumers that could not take a message now
+                if (!(s instanceof QueueBrowserSubscription) && !s.isFull() && dispatchSelector.canSelect(s, true)) {
+                    candidates.add(s);
+                }
+            }
+            this.subscriptions = candidates.toArray(new Subscription[candidates.size()]);
+            this.consumerIndex = new IdentityHashMap<Subscription, Integer>(subscriptions.length);
+            for (int i = 0; i < subscriptions.length; i++) {
+                consumerIndex.put(subscriptions[i], i);
+            }
+            this.matched = new int[size];
+        }
+
+        Callable<Void> match(final List<MessageReference> nodes, final int start, final int end) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    MessageEvaluationContext msgContext = new NonCachedMessageEvaluationContext();
+                    msgContext.setDestination(destination);
+                    try {
+                        for (int i = start; i < end; i++) {
+                            MessageReference node = nodes.get(i);
+                            msgContext.setMessageReference(node);
+                            matched[i] = -1;
+                            for (int j = 0; j < subscriptions.length; j++) {
+                                if (subscriptions[j].matches(node, msgContext)) {
+                                    // dispatch will most likely stop at the first match
+                                    matched[i] = j;
+                                    break;
+                                }
+                            }
+                        }
+                    } finally {
+                        msgContext.clear();
+                    }
+                    return null;
+                }
+            };
+        }
+    }
+
     protected boolean assignMessageGroup(Subscription subscription, QueueMessageReference node) throws Exception {
         boolean result = true;
         // Keep message groups together.
@@ -61,6 +61,18 @@ public class QueueDispatchSelector extends SimpleDispatchSelector {
         return result;
     }
 
+    /**
+     * As {@link #canSelect(Subscription, MessageReference)} for a message
+     * whose match against the subscription's selector is already known.
+     */
+    public boolean canSelect(Subscription subscription, boolean matches) {
+        boolean result = !paused && matches;
+        if (result && !subscription.isBrowser()) {
+            result = exclusiveConsumer == null || exclusiveConsumer == subscription;
+        }
+        return result;
+    }
+
     public void pause() {
         paused = true;
     }
@@ -25,6 +25,9 @@ import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.activemq.advisory.AdvisorySupport;
@@ -64,6 +67,7 @@ import org.slf4j.LoggerFactory;
  */
 public class Topic extends BaseDestination implements Task {
     protected static final Logger LOG = LoggerFactory.getLogger(Topic.class);
+    public static final int DEFAULT_CONCURRENT_SEND_STRIPES = 16;
     private final TopicMessageStore topicStore;
     protected final CopyOnWriteArrayList<Subscription> consumers = new CopyOnWriteArrayList<Subscription>();
     private final ReentrantReadWriteLock dispatchLock = new ReentrantReadWriteLock();
@@ -72,6 +76,11 @@ public class Topic extends BaseDestination implements Task {
     private final ConcurrentHashMap<SubscriptionKey, DurableTopicSubscription> durableSubscribers = new ConcurrentHashMap<SubscriptionKey, DurableTopicSubscription>();
     private final TaskRunner taskRunner;
     private final LinkedList<Runnable> messagesWaitingForSpace = new LinkedList<Runnable>();
+    private boolean concurrentSend;
+    private ReentrantLock[] sendLocks = new ReentrantLock[] { new ReentrantLock() };
+    private final ReentrantLock storeSendLock = new ReentrantLock();
+    private final AtomicLong sendLockContentionCount = new AtomicLong();
+    private final AtomicLong sendLockWaitTime = new AtomicLong();
     private final Runnable sendMessagesWaitingForSpaceTask = new Runnable() {
         @Override
         public void run() {
@@ -450,19 +459,59 @@ public class Topic extends BaseDestination implements Task {
      * do send the message - this needs to be synchronized to ensure messages
      * are stored AND dispatched in the right order
      *
+     * When concurrentSend is enabled the send lock is striped by producer so
+     * sends from different producers proceed in parallel, messages that are
+     * persisted to the topic store still take a topic wide lock so store order
+     * matches dispatch order for durable subscribers.
+     *
      * @param producerExchange
      * @param message
      * @throws IOException
      * @throws Exception
      */
-    synchronized void doMessageSend(final ProducerBrokerExchange producerExchange, final Message message)
+    void doMessageSend(final ProducerBrokerExchange producerExchange, final Message message)
+            throws IOException, Exception {
+        final ReentrantLock[] locks = sendLocks;
+        final ReentrantLock sendLock = locks.length == 1 ? locks[0] :
+            locks[(message.getProducerId().hashCode() & Integer.MAX_VALUE) % locks.length];
+        lockForSend(sendLock);
+        try {
+            if (locks.length > 1 && isStoredMessage(message)) {
+                lockForSend(storeSendLock);
+                try {
+                    doMessageSendLocked(producerExchange, message);
+                } finally {
+                    storeSendLock.unlock();
+                }
+            } else {
+                doMessageSendLocked(producerExchange, message);
+            }
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    private void lockForSend(ReentrantLock lock) {
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            sendLockContentionCount.incrementAndGet();
+            sendLockWaitTime.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private boolean isStoredMessage(Message message) {
+        return topicStore != null && message.isPersistent() && !canOptimizeOutPersistence();
+    }
+
+    private void doMessageSendLocked(final ProducerBrokerExchange producerExchange, final Message message)
             throws IOException, Exception {
         final ConnectionContext context = producerExchange.getConnectionContext();
         message.setRegionDestination(this);
         message.getMessageId().setBrokerSequenceId(getDestinationSequenceId());
         Future<Object> result = null;
 
-        if (topicStore != null && message.isPersistent() && !canOptimizeOutPersistence()) {
+        if (isStoredMessage(message)) {
             if (systemUsage.getStoreUsage().isFull(getStoreUsageHighWaterMark())) {
                 final String logMessage = "Persistent store is Full, " + getStoreUsageHighWaterMark() + "% of "
                         + systemUsage.getStoreUsage().getLimit() + ". Stopping producer (" + message.getProducerId()
@@ -671,6 +720,52 @@ public class Topic extends BaseDestination implements Task {
         this.dispatchPolicy = dispatchPolicy;
     }
 
+    public boolean isConcurrentSend() {
+        return concurrentSend;
+    }
+
+    /**
+     * Allows sends from different producers to be stored and dispatched
+     * concurrently, ordering is only maintained per producer. Must be set
+     * before the topic is in use.
+     */
+    public void setConcurrentSend(boolean concurrentSend) {
+        setConcurrentSend(concurrentSend, DEFAULT_CONCURRENT_SEND_STRIPES);
+    }
+
+    public void setConcurrentSend(boolean concurrentSend, int stripes) {
+        int count = concurrentSend ? Math.max(1, stripes) : 1;
+        ReentrantLock[] locks = new ReentrantLock[count];
+        for (int i = 0; i < count; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.sendLocks = locks;
+        this.concurrentSend = concurrentSend && count > 1;
+    }
+
+    public int getConcurrentSendStripes() {
+        return sendLocks.length;
+    }
+
+    /**
+     * @return the number of sends that had to wait for a send lock
+     */
+    public long getSendLockContentionCount() {
+        return sendLockContentionCount.get();
+    }
+
+    /**
+     * @return the total time in milliseconds sends have waited for a send lock
+     */
+    public long getSendLockWaitTime() {
+        return TimeUnit.NANOSECONDS.toMillis(sendLockWaitTime.get());
+    }
+
+    public void resetSendLockStatistics() {
+        sendLockContentionCount.set(0);
+        sendLockWaitTime.set(0);
+    }
+
     public SubscriptionRecoveryPolicy getSubscriptionRecoveryPolicy() {
         return subscriptionRecoveryPolicy;
     }
@@ -702,7 +797,13 @@ public class Topic extends BaseDestination implements Task {
 
         dispatchLock.readLock().lock();
         try {
-            if (!subscriptionRecoveryPolicy.add(context, message)) {
+            if (concurrentSend) {
+                synchronized (subscriptionRecoveryPolicy) {
+                    if (!subscriptionRecoveryPolicy.add(context, message)) {
+                        return;
+                    }
+                }
+            } else if (!subscriptionRecoveryPolicy.add(context, message)) {
                 return;
             }
             synchronized (consumers) {
@@ -710,8 +811,13 @@ public class Topic extends BaseDestination implements Task {
                     onMessageWithNoConsumers(context, message);
                     return;
                 }
+                if (consumers.size() > 1) {
+                    // marshalled once for all the connections it is dispatched on
+                    message.setMarshalledFormShared(true);
+                }
             }
-            msgContext = context.getMessageEvaluationContext();
+            // concurrent sends from producers sharing a connection can't share its context
+            msgContext = concurrentSend ? new MessageEvaluationContext() : context.getMessageEvaluationContext();
             msgContext.setDestination(destination);
             msgContext.setMessageReference(message);
             if (!dispatchPolicy.dispatch(message, msgContext, consumers)) {
@@ -16,25 +16,42 @@
  */
 package org.apache.activemq.broker.region.cursors;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.ListIterator;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import org.apache.activemq.broker.region.Destination;
 import org.apache.activemq.broker.region.MessageReference;
 import org.apache.activemq.broker.region.Subscription;
 import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageId;
 import org.apache.activemq.store.MessageRecoveryListener;
+import org.apache.activemq.thread.Task;
+import org.apache.activemq.thread.TaskRunner;
+import org.apache.activemq.thread.TaskRunnerFactory;
+import org.apache.activemq.usage.MemoryUsage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  *  Store based cursor
  *
+ * By default the next batch of messages is read from the store when the
+ * batch in memory runs out, on the thread that dispatches.  With a read ahead
+ * task runner factory it is instead read on a task once the batch falls to a
+ * quarter of the size last read, and handed over when the batch runs out.
+ * The messages read ahead are as many as are dispatched in a second at the
+ * rate seen, at most the max batch size and as many as fit in the memory
+ * left below the high water mark.  The task and the cursor take turns
+ * moving the store's batch position under the read ahead lock, and the
+ * messages read ahead are dropped whenever the position is moved.
  */
 public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor implements MessageRecoveryListener {
     private static final Logger LOG = LoggerFactory.getLogger(AbstractStoreCursor.class);
@@ -48,6 +65,22 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     private static int ASYNC_ADD = 1;
     final MessageId[] lastCachedIds = new MessageId[2];
     protected boolean hadSpace = false;
+    private static final int MIN_READ_AHEAD_BATCH_SIZE = 10;
+    private static final long READ_AHEAD_PERIOD = 1000;
+    private TaskRunnerFactory readAheadTaskRunnerFactory;
+    private TaskRunner readAheadTask;
+    private final ReentrantLock readAheadLock = new ReentrantLock();
+    // guarded by readAheadLock, the messages or message ids read ahead
+    private int readAheadRequest;
+    private List<Object> readAheadList;
+    private boolean readAheadPending;
+    private int readAheadBatchSize;
+    private long readAheadTime;
+    private int dequeueCount;
+    private double dequeueRate;
+    private long averageMessageSize;
+    private final AtomicLong readAheadHitCount = new AtomicLong();
+    private final AtomicLong readAheadMissCount = new AtomicLong();
 
     protected AbstractStoreCursor(Destination destination) {
         super((destination != null ? destination.isPrioritizedMessages():false));
@@ -63,9 +96,18 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     public final synchronized void start() throws Exception{
         if (!isStarted()) {
             super.start();
-            resetBatch();
+            resetStoreBatch();
             resetSize();
             setCacheEnabled(size==0&&useCache);
+            if (readAheadTaskRunnerFactory != null && readAheadTask == null) {
+                readAheadBatchSize = maxBatchSize;
+                readAheadTask = readAheadTaskRunnerFactory.createTaskRunner(new Task() {
+                    @Override
+                    public boolean iterate() {
+                        return readAhead();
+                    }
+                }, "StoreCursor read ahead: " + regionDestination.getActiveMQDestination().getPhysicalName());
+            }
         } 
     }
 
@@ -79,9 +121,14 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     }
 
     public final synchronized void stop() throws Exception {
-        resetBatch();
+        resetStoreBatch();
         super.stop();
         gc();
+        if (readAheadTask != null) {
+            // the task does not wait for the cursor
+            readAheadTask.shutdown();
+            readAheadTask = null;
+        }
     }
 
     
@@ -261,11 +308,11 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
             if (lastCachedIds[ASYNC_ADD] != null) {
                 // ensure we don't skip current possibly sync add b/c we waited on the future
                 if (isAsync(currentAdd) || Long.compare(((Long) currentAdd.getMessageId().getFutureOrSequenceLong()), ((Long) lastCachedIds[ASYNC_ADD].getFutureOrSequenceLong())) > 0) {
-                    setBatch(lastCachedIds[ASYNC_ADD]);
+                    setStoreBatch(lastCachedIds[ASYNC_ADD]);
                 }
             }
         } else {
-            setBatch(lastCachedIds[SYNC_ADD]);
+            setStoreBatch(lastCachedIds[SYNC_ADD]);
         }
         // cleanup
         lastCachedIds[SYNC_ADD] = lastCachedIds[ASYNC_ADD] = null;
@@ -339,11 +386,13 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
         if (last != null) {
             last.decrementReferenceCount();
         }
+        dequeueCount++;
+        scheduleReadAhead();
     }
 
     
     public final synchronized void remove(MessageReference node) {
-        if (batchList.remove(node) != null) {
+        if (batchList.remove(node) != null || removeReadAhead(node.getMessageId())) {
             size--;
             setCacheEnabled(false);
         }
@@ -362,6 +411,12 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
         }
         batchList.clear();
         clearIterator(false);
+        readAheadLock.lock();
+        try {
+            discardReadAhead();
+        } finally {
+            readAheadLock.unlock();
+        }
         batchResetNeeded = true;
         setCacheEnabled(false);
     }
@@ -373,18 +428,219 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
         if (batchResetNeeded) {
             resetSize();
             setMaxBatchSize(Math.min(regionDestination.getMaxPageSize(), size));
-            resetBatch();
+            resetStoreBatch();
             this.batchResetNeeded = false;
         }
         if (this.batchList.isEmpty() && this.size >0) {
+            readAheadLock.lock();
             try {
-                doFillBatch();
+                if (recoverReadAhead()) {
+                    readAheadHitCount.incrementAndGet();
+                } else {
+                    readAheadMissCount.incrementAndGet();
+                    doFillBatch();
+                }
             } catch (Exception e) {
                 LOG.error("{} - Failed to fill batch", this, e);
                 throw new RuntimeException(e);
+            } finally {
+                readAheadLock.unlock();
             }
+            scheduleReadAhead();
         }
     }
+
+    private void resetStoreBatch() {
+        readAheadLock.lock();
+        try {
+            discardReadAhead();
+            resetBatch();
+        } finally {
+            readAheadLock.unlock();
+        }
+    }
+
+    private void setStoreBatch(MessageId messageId) throws Exception {
+        readAheadLock.lock();
+        try {
+            discardReadAhead();
+            setBatch(messageId);
+        } finally {
+            readAheadLock.unlock();
+        }
+    }
+
+    private void scheduleReadAhead() {
+        if (readAheadTask != null && !readAheadPending && !isCacheEnabled() && !batchResetNeeded
+                && size > batchList.size() && batchList.size() <= readAheadBatchSize / 4 && hasSpace()) {
+            int batchSize = nextReadAheadBatchSize();
+            readAheadLock.lock();
+            try {
+                readAheadRequest = batchSize;
+            } finally {
+                readAheadLock.unlock();
+            }
+            readAheadPending = true;
+            try {
+                readAheadTask.wakeup();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private int nextReadAheadBatchSize() {
+        long now = System.currentTimeMillis();
+        if (readAheadTime > 0 && now > readAheadTime) {
+            double rate = dequeueCount * 1000d / (now - readAheadTime);
+            dequeueRate = dequeueRate == 0 ? rate : (dequeueRate * 3 + rate) / 4;
+        }
+        readAheadTime = now;
+        dequeueCount = 0;
+        int batchSize = maxBatchSize;
+        if (dequeueRate > 0) {
+            batchSize = (int) Math.min(batchSize, Math.ceil(dequeueRate * READ_AHEAD_PERIOD / 1000));
+        }
+        batchSize = Math.max(batchSize, Math.min(MIN_READ_AHEAD_BATCH_SIZE, maxBatchSize));
+        if (systemUsage != null && averageMessageSize > 0) {
+            MemoryUsage memoryUsage = systemUsage.getMemoryUsage();
+            long space = memoryUsage.getLimit() * memoryUsageHighWaterMark / 100 - memoryUsage.getUsage();
+            batchSize = (int) Math.max(1, Math.min(batchSize, space / averageMessageSize));
+        }
+        readAheadBatchSize = batchSize;
+        return batchSize;
+    }
+
+    /**
+     * Reads the requested messages from the store, on the read ahead task.
+     */
+    private boolean readAhead() {
+        readAheadLock.lock();
+        try {
+            if (readAheadRequest > 0) {
+                ReadAheadListener listener = new ReadAheadListener();
+                try {
+                    recoverNextMessages(readAheadRequest, listener);
+                } catch (Exception e) {
+                    LOG.warn("{} - Failed to read ahead", regionDestination.getActiveMQDestination(), e);
+                } finally {
+                    // the store has moved past whatever was read
+                    readAheadList = listener.messages;
+                    readAheadRequest = 0;
+                }
+            }
+        } finally {
+            readAheadLock.unlock();
+        }
+        return false;
+    }
+
+    /**
+     * Adds the messages read ahead to the batch, holding the read ahead lock.
+     *
+     * @return false if there were none
+     */
+    private boolean recoverReadAhead() throws Exception {
+        if (!readAheadPending) {
+            return false;
+        }
+        List<Object> recovered = readAheadList;
+        readAheadPending = false;
+        readAheadRequest = 0;
+        readAheadList = null;
+        if (recovered == null || recovered.isEmpty()) {
+            return false;
+        }
+        for (Object recoveredMessage : recovered) {
+            if (recoveredMessage instanceof Message) {
+                Message message = (Message) recoveredMessage;
+                recoverMessage(message);
+                message.decrementReferenceCount();
+                averageMessageSize = averageMessageSize == 0 ? message.getSize() : (averageMessageSize * 7 + message.getSize()) / 8;
+            } else {
+                recoverMessageReference((MessageId) recoveredMessage);
+            }
+        }
+        dealWithDuplicates();
+        return true;
+    }
+
+    private boolean removeReadAhead(MessageId messageId) {
+        if (!readAheadPending) {
+            return false;
+        }
+        readAheadLock.lock();
+        try {
+            if (readAheadList != null) {
+                for (Iterator<Object> i = readAheadList.iterator(); i.hasNext();) {
+                    Object recovered = i.next();
+                    if (recovered instanceof Message && ((Message) recovered).getMessageId().equals(messageId)) {
+                        ((Message) recovered).decrementReferenceCount();
+                        i.remove();
+                        return true;
+                    } else if (messageId.equals(recovered)) {
+                        i.remove();
+                        return true;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            readAheadLock.unlock();
+        }
+    }
+
+    /**
+     * Drops the messages read ahead, holding the read ahead lock, as the
+     * store's batch position is about to move.
+     */
+    private void discardReadAhead() {
+        readAheadPending = false;
+        readAheadRequest = 0;
+        if (readAheadList != null) {
+            for (Object recovered : readAheadList) {
+                if (recovered instanceof Message) {
+                    ((Message) recovered).decrementReferenceCount();
+                }
+            }
+            readAheadList = null;
+        }
+    }
+
+    /**
+     * Reads the next batch of messages on the thread that dispatches, or
+     * the read ahead task when there is one.
+     *
+     * @param taskRunnerFactory
+     *      the factory of the read ahead task, must be set before the cursor
+     *      is started
+     */
+    public void setReadAheadTaskRunnerFactory(TaskRunnerFactory taskRunnerFactory) {
+        this.readAheadTaskRunnerFactory = taskRunnerFactory;
+    }
+
+    /**
+     * @return the number of batches that were read ahead by the time they
+     *         were needed
+     */
+    public long getReadAheadHitCount() {
+        return readAheadHitCount.get();
+    }
+
+    /**
+     * @return the number of batches read from the store by the thread that
+     *         dispatches
+     */
+    public long getReadAheadMissCount() {
+        return readAheadMissCount.get();
+    }
+
+    /**
+     * @return the number of messages last read ahead
+     */
+    public synchronized int getReadAheadBatchSize() {
+        return readAheadBatchSize;
+    }
     
     
     public final synchronized boolean isEmpty() {
@@ -415,6 +671,11 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     }
     
     protected abstract void doFillBatch() throws Exception;
+
+    /**
+     * Recovers the next messages from the store's batch position.
+     */
+    protected abstract void recoverNextMessages(int maxReturned, MessageRecoveryListener listener) throws Exception;
     
     protected abstract void resetBatch();
 
@@ -425,4 +686,40 @@ public abstract class AbstractStoreCursor extends AbstractPendingMessageCursor i
     public Subscription getSubscription() {
         return null;
     }
+
+    /**
+     * Holds the messages read ahead until they are needed, without the
+     * cursor's lock, which the thread that dispatches may hold while it waits
+     * for the read ahead lock.
+     */
+    private final class ReadAheadListener implements MessageRecoveryListener {
+        final List<Object> messages = new ArrayList<Object>();
+
+        @Override
+        public boolean recoverMessage(Message message) throws Exception {
+            message.setRegionDestination(regionDestination);
+            if (message.getMemoryUsage() == null) {
+                message.setMemoryUsage(getSystemUsage().getMemoryUsage());
+            }
+            message.incrementReferenceCount();
+            messages.add(message);
+            return true;
+        }
+
+        @Override
+        public boolean recoverMessageReference(MessageId ref) throws Exception {
+            messages.add(ref);
+            return true;
+        }
+
+        @Override
+        public boolean hasSpace() {
+            return AbstractStoreCursor.this.hasSpace();
+        }
+
+        @Override
+        public boolean isDuplicate(MessageId ref) {
+            return false;
+        }
+    }
 }
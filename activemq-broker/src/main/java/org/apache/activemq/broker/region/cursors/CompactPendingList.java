@@ -0,0 +1,393 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region.cursors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.apache.activemq.broker.region.MessageReference;
+import org.apache.activemq.command.MessageId;
+
+/**
+ * A {@link PendingList} that keeps its messages in arrays rather than in a
+ * linked list of nodes with a map over them, for destinations that hold a
+ * great many pending messages.
+ *
+ * Every message is given a position, one past the last for
+ * {@link #addMessageLast(MessageReference)} and one before the first for
+ * {@link #addMessageFirst(MessageReference)}, and is stored at that position
+ * in a chunk of {@link #CHUNK_SIZE} slots along with the hash of its id.
+ * Messages never move, so removing one leaves a hole that is skipped and a
+ * chunk is dropped once all its messages are removed; an iterator is a
+ * position and so keeps its place while messages are added and removed.  The
+ * messages are found by id through an open addressing table of positions.
+ *
+ * There are no nodes, so the add methods return null and remove returns a
+ * node that is not linked to this list.  Adding a message whose id is already
+ * in the list replaces the message that was there.
+ */
+public class CompactPendingList implements PendingList {
+
+    static final int CHUNK_SHIFT = 8;
+    static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MIN_INDEX_BITS = 4;
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    // chunk n is kept at chunks[n & (chunks.length - 1)]
+    private Chunk[] chunks = new Chunk[4];
+    // positions of the first message and one past the last
+    private long head;
+    private long tail;
+    private int size;
+
+    private int indexBits;
+    private long[] index;
+
+    public CompactPendingList() {
+        resetIndex(MIN_INDEX_BITS);
+    }
+
+    @Override
+    public PendingNode addMessageFirst(MessageReference message) {
+        removeId(message.getMessageId());
+        store(head - 1, message);
+        return null;
+    }
+
+    @Override
+    public PendingNode addMessageLast(MessageReference message) {
+        removeId(message.getMessageId());
+        store(tail, message);
+        return null;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(chunks, null);
+        head = tail;
+        size = 0;
+        resetIndex(MIN_INDEX_BITS);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<MessageReference> iterator() {
+        return new Iterator<MessageReference>() {
+            private long next = head;
+            private long current = EMPTY;
+            private MessageReference currentMessage;
+
+            @Override
+            public boolean hasNext() {
+                next = nextPosition(next);
+                return next < tail;
+            }
+
+            @Override
+            public MessageReference next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                current = next++;
+                currentMessage = messageAt(current);
+                return currentMessage;
+            }
+
+            @Override
+            public void remove() {
+                // the position may have been given to another message since
+                if (current != EMPTY && messageAt(current) == currentMessage) {
+                    removeAt(current);
+                }
+                current = EMPTY;
+                currentMessage = null;
+            }
+        };
+    }
+
+    @Override
+    public PendingNode remove(MessageReference message) {
+        if (message != null) {
+            long position = find(message.getMessageId());
+            if (position != EMPTY) {
+                MessageReference removed = messageAt(position);
+                removeAt(position);
+                return new PendingNode(null, removed);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean contains(MessageReference message) {
+        if (message != null) {
+            long position = find(message.getMessageId());
+            return position != EMPTY && messageAt(position).equals(message);
+        }
+        return false;
+    }
+
+    @Override
+    public Collection<MessageReference> values() {
+        List<MessageReference> messageReferences = new ArrayList<MessageReference>(size);
+        for (MessageReference messageReference : this) {
+            messageReferences.add(messageReference);
+        }
+        return messageReferences;
+    }
+
+    @Override
+    public void addAll(PendingList pendingList) {
+        if (pendingList != null) {
+            for (MessageReference messageReference : pendingList) {
+                addMessageLast(messageReference);
+            }
+        }
+    }
+
+    @Override
+    public MessageReference get(MessageId messageId) {
+        long position = find(messageId);
+        return position != EMPTY ? messageAt(position) : null;
+    }
+
+    @Override
+    public String toString() {
+        return "CompactPendingList(" + System.identityHashCode(this) + ")";
+    }
+
+    private void store(long position, MessageReference message) {
+        Chunk chunk = chunkFor(position);
+        int offset = (int) (position & CHUNK_MASK);
+        int hash = hash(message.getMessageId());
+        chunk.messages[offset] = message;
+        chunk.hashes[offset] = hash;
+        chunk.count++;
+        if (position < head) {
+            head = position;
+        } else {
+            tail = position + 1;
+        }
+        size++;
+        if (size > (index.length >> 2) * 3) {
+            resetIndex(indexBits + 1);
+        } else {
+            insert(position, hash);
+        }
+    }
+
+    private void removeAt(long position) {
+        Chunk chunk = chunks[chunkSlot(position >> CHUNK_SHIFT)];
+        int offset = (int) (position & CHUNK_MASK);
+        delete(position, chunk.hashes[offset]);
+        chunk.messages[offset] = null;
+        size--;
+        if (--chunk.count == 0) {
+            chunks[chunkSlot(position >> CHUNK_SHIFT)] = null;
+        }
+        if (size == 0) {
+            head = tail;
+        } else if (position == head) {
+            head = nextPosition(head);
+        } else if (position == tail - 1) {
+            tail = previousPosition(tail - 1) + 1;
+        }
+        if (indexBits > MIN_INDEX_BITS && size < index.length >> 3) {
+            resetIndex(indexBits - 1);
+        }
+    }
+
+    private void removeId(MessageId messageId) {
+        long position = find(messageId);
+        if (position != EMPTY) {
+            removeAt(position);
+        }
+    }
+
+    private MessageReference messageAt(long position) {
+        if (position < head || position >= tail) {
+            return null;
+        }
+        Chunk chunk = chunks[chunkSlot(position >> CHUNK_SHIFT)];
+        return chunk != null ? chunk.messages[(int) (position & CHUNK_MASK)] : null;
+    }
+
+    private int hashAt(long position) {
+        return chunks[chunkSlot(position >> CHUNK_SHIFT)].hashes[(int) (position & CHUNK_MASK)];
+    }
+
+    /**
+     * @return the first position at or after the given one that holds a
+     *         message, or the tail when there is none.
+     */
+    private long nextPosition(long position) {
+        if (position < head) {
+            position = head;
+        }
+        while (position < tail) {
+            Chunk chunk = chunks[chunkSlot(position >> CHUNK_SHIFT)];
+            if (chunk == null) {
+                position = ((position >> CHUNK_SHIFT) + 1) << CHUNK_SHIFT;
+            } else if (chunk.messages[(int) (position & CHUNK_MASK)] == null) {
+                position++;
+            } else {
+                return position;
+            }
+        }
+        return tail;
+    }
+
+    /**
+     * @return the last position at or before the given one that holds a
+     *         message; there must be one.
+     */
+    private long previousPosition(long position) {
+        while (true) {
+            Chunk chunk = chunks[chunkSlot(position >> CHUNK_SHIFT)];
+            if (chunk == null) {
+                position = ((position >> CHUNK_SHIFT) << CHUNK_SHIFT) - 1;
+            } else if (chunk.messages[(int) (position & CHUNK_MASK)] == null) {
+                position--;
+            } else {
+                return position;
+            }
+        }
+    }
+
+    private int chunkSlot(long chunk) {
+        return (int) chunk & (chunks.length - 1);
+    }
+
+    private Chunk chunkFor(long position) {
+        long number = position >> CHUNK_SHIFT;
+        if (size > 0) {
+            long first = Math.min(number, head >> CHUNK_SHIFT);
+            long last = Math.max(number, (tail - 1) >> CHUNK_SHIFT);
+            if (last - first >= chunks.length) {
+                growChunks(first, last);
+            }
+        }
+        int slot = chunkSlot(number);
+        Chunk chunk = chunks[slot];
+        if (chunk == null) {
+            chunk = new Chunk();
+            chunks[slot] = chunk;
+        }
+        return chunk;
+    }
+
+    private void growChunks(long first, long last) {
+        int length = chunks.length;
+        while (last - first >= length) {
+            length <<= 1;
+        }
+        Chunk[] grown = new Chunk[length];
+        for (long number = head >> CHUNK_SHIFT; number <= (tail - 1) >> CHUNK_SHIFT; number++) {
+            grown[(int) number & (length - 1)] = chunks[chunkSlot(number)];
+        }
+        chunks = grown;
+    }
+
+    private long find(MessageId messageId) {
+        if (messageId == null || size == 0) {
+            return EMPTY;
+        }
+        int hash = hash(messageId);
+        int mask = index.length - 1;
+        for (int slot = slotFor(hash); ; slot = (slot + 1) & mask) {
+            long position = index[slot];
+            if (position == EMPTY) {
+                return EMPTY;
+            }
+            if (hashAt(position) == hash && messageAt(position).getMessageId().equals(messageId)) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * The hash of a message id is the producer's hash xor the sequence id, so
+     * the ids of producers that differ in their last digits collide, which
+     * is worse for open addressing than for a map that chains its entries.
+     */
+    private static int hash(MessageId messageId) {
+        long sequenceId = messageId.getProducerSequenceId();
+        return messageId.getProducerId().hashCode() * 0x9E3779B9 + (int) (sequenceId ^ (sequenceId >>> 32));
+    }
+
+    private int slotFor(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return (hash * 0xC2B2AE35) >>> (32 - indexBits);
+    }
+
+    private void insert(long position, int hash) {
+        int mask = index.length - 1;
+        int slot = slotFor(hash);
+        while (index[slot] != EMPTY) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position;
+    }
+
+    private void delete(long position, int hash) {
+        int mask = index.length - 1;
+        int slot = slotFor(hash);
+        while (index[slot] != position) {
+            slot = (slot + 1) & mask;
+        }
+        // shift back the entries after it that would no longer be found
+        for (int next = (slot + 1) & mask; index[next] != EMPTY; next = (next + 1) & mask) {
+            int home = slotFor(hashAt(index[next]));
+            if (((next - home) & mask) >= ((next - slot) & mask)) {
+                index[slot] = index[next];
+                slot = next;
+            }
+        }
+        index[slot] = EMPTY;
+    }
+
+    private void resetIndex(int bits) {
+        indexBits = bits;
+        index = new long[1 << bits];
+        Arrays.fill(index, EMPTY);
+        for (long position = nextPosition(head); position < tail; position = nextPosition(position + 1)) {
+            insert(position, hashAt(position));
+        }
+    }
+
+    private static final class Chunk {
+        final MessageReference[] messages = new MessageReference[CHUNK_SIZE];
+        final int[] hashes = new int[CHUNK_SIZE];
+        int count;
+    }
+}
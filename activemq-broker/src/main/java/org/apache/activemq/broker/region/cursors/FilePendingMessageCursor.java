@@ -19,6 +19,8 @@ package org.apache.activemq.broker.region.cursors;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import org.apache.activemq.broker.Broker;
@@ -33,6 +35,8 @@ import org.apache.activemq.openwire.OpenWireFormat;
 import org.apache.activemq.store.PList;
 import org.apache.activemq.store.PListStore;
 import org.apache.activemq.store.PListEntry;
+import org.apache.activemq.thread.Task;
+import org.apache.activemq.thread.TaskRunner;
 import org.apache.activemq.usage.SystemUsage;
 import org.apache.activemq.usage.Usage;
 import org.apache.activemq.usage.UsageListener;
@@ -44,12 +48,24 @@ import org.apache.activemq.util.ByteSequence;
 /**
  * persist pending messages pending message (messages awaiting dispatch to a
  * consumer) cursor
- * 
- * 
+ *
+ * By default the messages held in memory are all written to the temp store
+ * by the thread that finds memory full.  With asyncSpool they are instead
+ * written by a task of the broker, a batch at a time from the oldest, while
+ * the rest stay in memory and can still be dispatched; the pending messages
+ * are then the messages read ahead from the store, the messages in the store
+ * and the messages in memory, in that order.  The task also reads a batch of
+ * messages back from the store ahead of dispatch when the messages read
+ * ahead have all been dispatched and there is memory to spare.
+ *
+ * With useSharedSpool the messages are written to the
+ * {@link SharedMessageSpool} of the broker and only their ids to the list of
+ * the cursor, so a message pending for many subscriptions is written once.
  */
 public class FilePendingMessageCursor extends AbstractPendingMessageCursor implements UsageListener {
     static final Logger LOG = LoggerFactory.getLogger(FilePendingMessageCursor.class);
     private static final AtomicLong NAME_COUNT = new AtomicLong();
+    private static final ByteSequence SHARED_SPOOL_ENTRY = new ByteSequence(new byte[] { 0 });
     protected Broker broker;
     private final PListStore store;
     private final String name;
@@ -61,6 +77,19 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
     private boolean flushRequired;
     private final AtomicBoolean started = new AtomicBoolean();
     private final WireFormat wireFormat = new OpenWireFormat();
+    private boolean asyncSpool;
+    private int spoolBatchSize = 1000;
+    private PendingList readAheadList;
+    private TaskRunner spoolTask;
+    private boolean spoolRequired;
+    private final AtomicLong spooledMessageCount = new AtomicLong();
+    private final AtomicLong spoolBatchCount = new AtomicLong();
+    private final AtomicLong spoolTime = new AtomicLong();
+    private final AtomicLong maxSpoolBatchTime = new AtomicLong();
+    private final AtomicLong readAheadMessageCount = new AtomicLong();
+    private boolean useSharedSpool;
+    private SharedMessageSpool sharedSpool;
+
     /**
      * @param broker
      * @param name
@@ -70,8 +99,10 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         super(prioritizedMessages);
         if (this.prioritizedMessages) {
             this.memoryList = new PrioritizedPendingList();
+            this.readAheadList = new PrioritizedPendingList();
         } else {
             this.memoryList = new OrderedPendingList();
+            this.readAheadList = new OrderedPendingList();
         }
         this.broker = broker;
         // the store can be null if the BrokerService has persistence
@@ -90,6 +121,17 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
             if (systemUsage != null) {
                 systemUsage.getMemoryUsage().addUsageListener(this);
             }
+            if (useSharedSpool && store != null) {
+                sharedSpool = broker.getBrokerService().getSharedMessageSpool();
+            }
+            if (asyncSpool && store != null) {
+                spoolTask = broker.getBrokerService().getTaskRunnerFactory().createTaskRunner(new Task() {
+                    @Override
+                    public boolean iterate() {
+                        return spool();
+                    }
+                }, "FilePendingMessageCursor spool: " + name);
+            }
         }
     }
 
@@ -100,6 +142,10 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
             if (systemUsage != null) {
                 systemUsage.getMemoryUsage().removeUsageListener(this);
             }
+            if (spoolTask != null) {
+                spoolTask.shutdown();
+                spoolTask = null;
+            }
         }
     }
 
@@ -108,9 +154,12 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
      */
     @Override
     public synchronized boolean isEmpty() {
-        if (memoryList.isEmpty() && isDiskListEmpty()) {
+        if (memoryList.isEmpty() && readAheadList.isEmpty() && isDiskListEmpty()) {
             return true;
         }
+        if (!readAheadList.isEmpty()) {
+            return false;
+        }
         for (Iterator<MessageReference> iterator = memoryList.iterator(); iterator.hasNext();) {
             MessageReference node = iterator.next();
             if (node == QueueMessageReference.NULL_MESSAGE) {
@@ -132,7 +181,9 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
     public synchronized void reset() {
         iterating = true;
         last = null;
-        if (isDiskListEmpty()) {
+        if (asyncSpool) {
+            this.iter = new SpoolIterator();
+        } else if (isDiskListEmpty()) {
             this.iter = this.memoryList.iterator();
         } else {
             this.iter = new DiskIterator();
@@ -145,7 +196,14 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         if (iter instanceof DiskIterator) {
            ((DiskIterator)iter).release();
         };
-        if (flushRequired) {
+        if (iter instanceof SpoolIterator) {
+            ((SpoolIterator)iter).release();
+        }
+        if (asyncSpool) {
+            if (spoolRequired || (readAheadList.isEmpty() && !isDiskListEmpty())) {
+                wakeupSpoolTask();
+            }
+        } else if (flushRequired) {
             flushRequired = false;
             if (!hasSpace()) {
                 flushToDisk();
@@ -156,18 +214,27 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
     }
 
     @Override
-    public synchronized void destroy() throws Exception {
+    public void destroy() throws Exception {
+        // the spool task is stopped without holding the lock it waits for
         stop();
-        for (Iterator<MessageReference> i = memoryList.iterator(); i.hasNext();) {
-            MessageReference node = i.next();
-            node.decrementReferenceCount();
+        synchronized (this) {
+            for (Iterator<MessageReference> i = memoryList.iterator(); i.hasNext();) {
+                MessageReference node = i.next();
+                node.decrementReferenceCount();
+            }
+            memoryList.clear();
+            for (Iterator<MessageReference> i = readAheadList.iterator(); i.hasNext();) {
+                MessageReference node = i.next();
+                node.decrementReferenceCount();
+            }
+            readAheadList.clear();
+            destroyDiskList();
         }
-        memoryList.clear();
-        destroyDiskList();
     }
 
     private void destroyDiskList() throws Exception {
         if (diskList != null) {
+            releaseDiskList();
             store.removePList(name);
             diskList = null;
         }
@@ -177,7 +244,7 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
     public synchronized LinkedList<MessageReference> pageInList(int maxItems) {
         LinkedList<MessageReference> result = new LinkedList<MessageReference>();
         int count = 0;
-        for (Iterator<MessageReference> i = memoryList.iterator(); i.hasNext() && count < maxItems;) {
+        for (Iterator<MessageReference> i = readAheadList.iterator(); i.hasNext() && count < maxItems;) {
             MessageReference ref = i.next();
             ref.incrementReferenceCount();
             result.add(ref);
@@ -193,6 +260,12 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
                 count++;
             }
         }
+        for (Iterator<MessageReference> i = memoryList.iterator(); i.hasNext() && count < maxItems;) {
+            MessageReference ref = i.next();
+            ref.incrementReferenceCount();
+            result.add(ref);
+            count++;
+        }
         return result;
     }
 
@@ -212,6 +285,9 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         if (!node.isExpired()) {
             try {
                 regionDestination = (Destination) node.getMessage().getRegionDestination();
+                if (asyncSpool) {
+                    return spoolMessageLast(node, maxWaitTime);
+                }
                 if (isDiskListEmpty()) {
                     if (hasSpace() || this.store == null) {
                         memoryList.addMessageLast(node);
@@ -233,8 +309,7 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
                     }
                 }
                 if (systemUsage.getTempUsage().waitForSpace(maxWaitTime)) {
-                    ByteSequence bs = getByteSequence(node.getMessage());
-                    getDiskList().addLast(node.getMessageId().toString(), bs);
+                    addToDiskList(node, false);
                     return true;
                 }
                 return false;
@@ -260,6 +335,18 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         if (!node.isExpired()) {
             try {
                 regionDestination = (Destination) node.getMessage().getRegionDestination();
+                if (asyncSpool && (!readAheadList.isEmpty() || isDiskListEmpty())) {
+                    if (readAheadList.isEmpty()) {
+                        memoryList.addMessageFirst(node);
+                        if (!hasSpace()) {
+                            wakeupSpoolTask();
+                        }
+                    } else {
+                        readAheadList.addMessageFirst(node);
+                    }
+                    node.incrementReferenceCount();
+                    return;
+                }
                 if (isDiskListEmpty()) {
                     if (hasSpace()) {
                         memoryList.addMessageFirst(node);
@@ -282,8 +369,7 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
                 }
                 systemUsage.getTempUsage().waitForSpace();
                 node.decrementReferenceCount();
-                ByteSequence bs = getByteSequence(node.getMessage());
-                Object locator = getDiskList().addFirst(node.getMessageId().toString(), bs);
+                Object locator = addToDiskList(node, true);
                 node.getMessageId().setPlistLocator(locator);
 
             } catch (Exception e) {
@@ -310,7 +396,7 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
     public synchronized MessageReference next() {
         MessageReference reference = iter.next();
         last = reference;
-        if (!isDiskListEmpty()) {
+        if (!asyncSpool && !isDiskListEmpty()) {
             // got from disk
             reference.getMessage().setRegionDestination(regionDestination);
             reference.getMessage().setMemoryUsage(this.getSystemUsage().getMemoryUsage());
@@ -336,12 +422,14 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
      */
     @Override
     public synchronized void remove(MessageReference node) {
-        if (memoryList.remove(node) != null) {
+        if (memoryList.remove(node) != null || readAheadList.remove(node) != null) {
             node.decrementReferenceCount();
         }
         if (!isDiskListEmpty()) {
             try {
-                getDiskList().remove(node.getMessageId().getPlistLocator());
+                if (getDiskList().remove(node.getMessageId().getPlistLocator()) && sharedSpool != null) {
+                    releaseFromDiskList(SharedMessageSpool.getKey(node.getMessage()));
+                }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
@@ -353,7 +441,7 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
      */
     @Override
     public synchronized int size() {
-        return memoryList.size() + (isDiskListEmpty() ? 0 : (int)getDiskList().size());
+        return memoryList.size() + readAheadList.size() + (isDiskListEmpty() ? 0 : (int)getDiskList().size());
     }
 
     /**
@@ -362,8 +450,10 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
     @Override
     public synchronized void clear() {
         memoryList.clear();
+        readAheadList.clear();
         if (!isDiskListEmpty()) {
             try {
+                releaseDiskList();
                 getDiskList().destroy();
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -391,6 +481,10 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
 
     public void onUsageChanged(Usage usage, int oldPercentUsage, int newPercentUsage) {
         if (newPercentUsage >= getMemoryUsageHighWaterMark()) {
+            if (asyncSpool) {
+                wakeupSpoolTask();
+                return;
+            }
             synchronized (this) {
                 if (!flushRequired && size() != 0) {
                     flushRequired =true;
@@ -434,10 +528,8 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
             for (Iterator<MessageReference> iterator = memoryList.iterator(); iterator.hasNext();) {
                 MessageReference node = iterator.next();
                 node.decrementReferenceCount();
-                ByteSequence bs;
                 try {
-                    bs = getByteSequence(node.getMessage());
-                    getDiskList().addLast(node.getMessageId().toString(), bs);
+                    addToDiskList(node, false);
                 } catch (IOException e) {
                     LOG.error("Failed to write to disk list", e);
                     throw new RuntimeException(e);
@@ -450,6 +542,117 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         }
     }
 
+    /**
+     * Adds a message in asyncSpool mode, after the messages in the store.
+     */
+    private boolean spoolMessageLast(MessageReference node, long maxWaitTime) throws Exception {
+        if (!hasSpace() && this.store != null) {
+            expireOldMessages();
+            if (!hasSpace() && !iterating && systemUsage.getMemoryUsage().isFull()) {
+                // the spool task has fallen behind, write the lot now
+                flushToDisk();
+                if (systemUsage.getTempUsage().waitForSpace(maxWaitTime)) {
+                    addToDiskList(node, false);
+                    return true;
+                }
+                return false;
+            }
+        }
+        memoryList.addMessageLast(node);
+        node.incrementReferenceCount();
+        if (!hasSpace()) {
+            wakeupSpoolTask();
+        }
+        return true;
+    }
+
+    private void wakeupSpoolTask() {
+        TaskRunner task = spoolTask;
+        if (task != null) {
+            try {
+                task.wakeup();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Runs on the spool task: writes a batch of the messages in memory to the
+     * store while memory is short, or reads a batch back ahead of dispatch.
+     *
+     * @return true if there are more messages to write.
+     */
+    synchronized boolean spool() {
+        if (!started.get()) {
+            return false;
+        }
+        if (iterating) {
+            // the messages must not move under the iterator, release() will
+            // wake us up again
+            spoolRequired = true;
+            return false;
+        }
+        spoolRequired = false;
+        try {
+            if (!memoryList.isEmpty() && !hasSpace()) {
+                expireOldMessages();
+                if (!hasSpace()) {
+                    spoolBatch();
+                    return !memoryList.isEmpty() && !hasSpace();
+                }
+            }
+            if (readAheadList.isEmpty() && !isDiskListEmpty() && hasSpace()) {
+                readAhead();
+            }
+        } catch (IOException e) {
+            LOG.error("Failed to spool messages of {}", name, e);
+        }
+        return false;
+    }
+
+    private void spoolBatch() throws IOException {
+        long start = System.nanoTime();
+        int count = 0;
+        for (Iterator<MessageReference> iterator = memoryList.iterator(); iterator.hasNext() && count < spoolBatchSize;) {
+            MessageReference node = iterator.next();
+            addToDiskList(node, false);
+            iterator.remove();
+            node.decrementReferenceCount();
+            count++;
+        }
+        long time = System.nanoTime() - start;
+        spooledMessageCount.addAndGet(count);
+        spoolBatchCount.incrementAndGet();
+        spoolTime.addAndGet(time);
+        long millis = TimeUnit.NANOSECONDS.toMillis(time);
+        if (millis > maxSpoolBatchTime.get()) {
+            maxSpoolBatchTime.set(millis);
+        }
+        LOG.trace("{}, spooled {} messages in {} ms {}", new Object[]{ name, count, millis, (systemUsage != null ? systemUsage.getMemoryUsage() : "") });
+    }
+
+    private void readAhead() throws IOException {
+        int count = 0;
+        PList.PListIterator iterator = getDiskList().iterator();
+        try {
+            while (iterator.hasNext() && count < spoolBatchSize) {
+                PListEntry entry = iterator.next();
+                Message message = readFromDiskList(entry);
+                iterator.remove();
+                releaseFromDiskList(entry.getId());
+                message.setRegionDestination(regionDestination);
+                message.setMemoryUsage(this.getSystemUsage().getMemoryUsage());
+                message.incrementReferenceCount();
+                readAheadList.addMessageLast(message);
+                count++;
+            }
+        } finally {
+            iterator.release();
+        }
+        readAheadMessageCount.addAndGet(count);
+    }
+
     protected boolean isDiskListEmpty() {
         return diskList == null || diskList.isEmpty();
     }
@@ -466,6 +669,90 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         return diskList;
     }
 
+    public boolean isAsyncSpool() {
+        return asyncSpool;
+    }
+
+    /**
+     * Writes messages to the store on a task of the broker rather than on the
+     * thread that finds memory full.  Must be set before the cursor is
+     * started.
+     */
+    public void setAsyncSpool(boolean asyncSpool) {
+        this.asyncSpool = asyncSpool;
+    }
+
+    public boolean isUseSharedSpool() {
+        return useSharedSpool;
+    }
+
+    /**
+     * Writes the messages to the {@link SharedMessageSpool} of the broker so
+     * that a message pending for many subscriptions is written once, and
+     * only its id to the list of this cursor.  Must be set before the cursor
+     * is started.
+     */
+    public void setUseSharedSpool(boolean useSharedSpool) {
+        this.useSharedSpool = useSharedSpool;
+    }
+
+    public int getSpoolBatchSize() {
+        return spoolBatchSize;
+    }
+
+    /**
+     * @param spoolBatchSize
+     *      the most messages the spool task writes to, or reads ahead from,
+     *      the store at a time
+     */
+    public void setSpoolBatchSize(int spoolBatchSize) {
+        this.spoolBatchSize = spoolBatchSize;
+    }
+
+    /**
+     * @return the number of messages written to the store by the spool task.
+     */
+    public long getSpooledMessageCount() {
+        return spooledMessageCount.get();
+    }
+
+    /**
+     * @return the number of batches written to the store by the spool task.
+     */
+    public long getSpoolBatchCount() {
+        return spoolBatchCount.get();
+    }
+
+    /**
+     * @return the average time in milliseconds to write a batch.
+     */
+    public double getAverageSpoolBatchTime() {
+        long batches = spoolBatchCount.get();
+        return batches != 0 ? (double) spoolTime.get() / batches / 1000000 : 0;
+    }
+
+    /**
+     * @return the longest time in milliseconds to write a batch.
+     */
+    public long getMaxSpoolBatchTime() {
+        return maxSpoolBatchTime.get();
+    }
+
+    /**
+     * @return the number of messages written a second while writing batches.
+     */
+    public double getSpoolRate() {
+        long time = spoolTime.get();
+        return time != 0 ? spooledMessageCount.get() * 1000000000.0 / time : 0;
+    }
+
+    /**
+     * @return the number of messages read ahead from the store.
+     */
+    public long getReadAheadMessageCount() {
+        return readAheadMessageCount.get();
+    }
+
     private void discardExpiredMessage(MessageReference reference) {
         LOG.debug("Discarding expired message {}", reference);
         if (broker.isExpired(reference)) {
@@ -475,6 +762,58 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         }
     }
 
+    /**
+     * Writes a message to the disk list, or only its spool key when the
+     * message is held by the shared spool.
+     *
+     * @return the locator of the entry
+     */
+    private Object addToDiskList(MessageReference node, boolean first) throws IOException {
+        ByteSequence bs;
+        String id;
+        if (sharedSpool != null) {
+            id = sharedSpool.add(node.getMessage());
+            bs = SHARED_SPOOL_ENTRY;
+        } else {
+            id = node.getMessageId().toString();
+            bs = getByteSequence(node.getMessage());
+        }
+        return first ? getDiskList().addFirst(id, bs) : getDiskList().addLast(id, bs);
+    }
+
+    private Message readFromDiskList(PListEntry entry) throws IOException {
+        if (sharedSpool != null) {
+            Message message = sharedSpool.get(entry.getId());
+            if (message == null) {
+                throw new IOException("Message " + entry.getId() + " is missing from " + sharedSpool);
+            }
+            return message;
+        }
+        return getMessage(entry.getByteSequence());
+    }
+
+    /**
+     * To be called with the id of every entry removed from the disk list.
+     */
+    private void releaseFromDiskList(String id) throws IOException {
+        if (sharedSpool != null) {
+            sharedSpool.release(id);
+        }
+    }
+
+    private void releaseDiskList() throws IOException {
+        if (sharedSpool != null && !isDiskListEmpty()) {
+            PList.PListIterator iterator = diskList.iterator();
+            try {
+                while (iterator.hasNext()) {
+                    sharedSpool.release(iterator.next().getId());
+                }
+            } finally {
+                iterator.release();
+            }
+        }
+    }
+
     protected ByteSequence getByteSequence(Message message) throws IOException {
         org.apache.activemq.util.ByteSequence packet = wireFormat.marshal(message);
         return new ByteSequence(packet.data, packet.offset, packet.length);
@@ -487,8 +826,63 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
 
     }
 
+    /**
+     * Iterates over the messages read ahead, the messages in the store and
+     * then the messages in memory.
+     */
+    final class SpoolIterator implements Iterator<MessageReference> {
+        private Iterator<MessageReference> current = readAheadList.iterator();
+        private Iterator<MessageReference> last;
+        private DiskIterator diskIterator;
+        private boolean memory;
+
+        public boolean hasNext() {
+            while (!current.hasNext()) {
+                if (memory) {
+                    return false;
+                }
+                if (diskIterator == null && !isDiskListEmpty()) {
+                    diskIterator = new DiskIterator();
+                    current = diskIterator;
+                } else {
+                    memory = true;
+                    current = memoryList.iterator();
+                }
+            }
+            return true;
+        }
+
+        public MessageReference next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = current;
+            MessageReference reference = current.next();
+            if (current == diskIterator) {
+                reference.getMessage().setRegionDestination(regionDestination);
+                reference.getMessage().setMemoryUsage(getSystemUsage().getMemoryUsage());
+            }
+            return reference;
+        }
+
+        public void remove() {
+            if (last == null) {
+                throw new IllegalStateException();
+            }
+            last.remove();
+            last = null;
+        }
+
+        public void release() {
+            if (diskIterator != null) {
+                diskIterator.release();
+            }
+        }
+    }
+
     final class DiskIterator implements Iterator<MessageReference> {
         private final PList.PListIterator iterator;
+        private String current;
         DiskIterator() {
             try {
                 iterator = getDiskList().iterator();
@@ -504,8 +898,9 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
         public MessageReference next() {
             try {
                 PListEntry entry = iterator.next();
-                Message message = getMessage(entry.getByteSequence());
+                Message message = readFromDiskList(entry);
                 message.getMessageId().setPlistLocator(entry.getLocator());
+                current = entry.getId();
                 return message;
             } catch (IOException e) {
                 LOG.error("I/O error", e);
@@ -515,6 +910,12 @@ public class FilePendingMessageCursor extends AbstractPendingMessageCursor imple
 
         public void remove() {
             iterator.remove();
+            try {
+                releaseFromDiskList(current);
+            } catch (IOException e) {
+                LOG.error("I/O error", e);
+                throw new RuntimeException(e);
+            }
         }
 
         public void release() {
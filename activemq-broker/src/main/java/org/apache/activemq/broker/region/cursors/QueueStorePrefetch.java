@@ -23,6 +23,7 @@ import org.apache.activemq.broker.BrokerService;
 import org.apache.activemq.broker.region.Queue;
 import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageId;
+import org.apache.activemq.store.MessageRecoveryListener;
 import org.apache.activemq.store.MessageStore;
 import org.apache.activemq.store.memory.MemoryMessageStore;
 import org.apache.activemq.store.memory.MemoryTransactionStore;
@@ -106,11 +107,16 @@ class QueueStorePrefetch extends AbstractStoreCursor {
     protected void doFillBatch() throws Exception {
         hadSpace = this.hasSpace();
         if (!broker.getBrokerService().isPersistent() || hadSpace) {
-            this.store.recoverNextMessages(this.maxBatchSize, this);
+            recoverNextMessages(this.maxBatchSize, this);
             dealWithDuplicates(); // without the index lock
         }
     }
 
+    @Override
+    protected void recoverNextMessages(int maxReturned, MessageRecoveryListener listener) throws Exception {
+        this.store.recoverNextMessages(maxReturned, listener);
+    }
+
     @Override
     public String toString(){
         return super.toString() + ",store=" + store;
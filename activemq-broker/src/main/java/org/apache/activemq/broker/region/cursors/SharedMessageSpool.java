@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region.cursors;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.openwire.OpenWireFormat;
+import org.apache.activemq.store.PList;
+import org.apache.activemq.store.PListStore;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.activemq.wireformat.WireFormat;
+
+/**
+ * Holds the messages that {@link FilePendingMessageCursor}s write to the temp
+ * store, once for all of them.
+ *
+ * A cursor that shares the spool writes only the key of a message to its own
+ * list and reads the message back from the spool.  Each message is counted
+ * for every cursor that holds it and is removed from the spool when the last
+ * one lets go of it; the temp store then reclaims the space once none of the
+ * messages in one of its data files is left.
+ *
+ * A message is keyed by its destination as well as its id, as a composite
+ * destination forwards copies of a message with the same id to several
+ * topics.  The spool is shared by all the cursors of a broker rather than
+ * those of a topic, as a subscription to a wildcard gets the messages of
+ * many topics, so it is split into stripes by key, each with its own lock
+ * and list, which is removed whenever it empties.
+ */
+public class SharedMessageSpool {
+
+    public static final int DEFAULT_STRIPES = 16;
+
+    private static final AtomicLong NAME_COUNT = new AtomicLong();
+
+    private final PListStore store;
+    private final Stripe[] stripes;
+
+    public SharedMessageSpool(PListStore store, int openWireVersion) {
+        this(store, openWireVersion, DEFAULT_STRIPES);
+    }
+
+    public SharedMessageSpool(PListStore store, int openWireVersion, int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be greater than 0: " + stripes);
+        }
+        this.store = store;
+        String name = NAME_COUNT.incrementAndGet() + "_SharedMessageSpool";
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe(name + "_" + i, new OpenWireFormat(openWireVersion));
+        }
+    }
+
+    /**
+     * @return the key the spool holds a message under.
+     */
+    public static String getKey(Message message) {
+        ActiveMQDestination destination = message.getDestination();
+        String id = message.getMessageId().toString();
+        return destination == null ? id : destination.getQualifiedName() + "|" + id;
+    }
+
+    /**
+     * Adds a reference to a message, writing it to the temp store if it is
+     * not already there.
+     *
+     * @return the key of the message
+     */
+    public String add(Message message) throws IOException {
+        String key = getKey(message);
+        getStripe(key).add(key, message);
+        return key;
+    }
+
+    /**
+     * @return a copy of the message with the given key read from the temp
+     *         store, or null if the spool does not hold it.
+     */
+    public Message get(String key) throws IOException {
+        return getStripe(key).get(key);
+    }
+
+    /**
+     * Removes a reference to a message, and the message once it has none.
+     */
+    public void release(String key) throws IOException {
+        getStripe(key).release(key);
+    }
+
+    private Stripe getStripe(String key) {
+        return stripes[(key.hashCode() & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    /**
+     * @return the number of messages held.
+     */
+    public int getMessageCount() {
+        int result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.getMessageCount();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of messages written to the temp store.
+     */
+    public long getWriteCount() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.getWriteCount();
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of times a message was added that was already held,
+     *         each a write saved.
+     */
+    public long getShareCount() {
+        long result = 0;
+        for (Stripe stripe : stripes) {
+            result += stripe.getShareCount();
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "SharedMessageSpool[" + stripes[0].name + "]";
+    }
+
+    private final class Stripe {
+        private final String name;
+        private final WireFormat wireFormat;
+        private final Map<String, Entry> entries = new HashMap<String, Entry>();
+        private PList list;
+        private long writeCount;
+        private long shareCount;
+
+        Stripe(String name, WireFormat wireFormat) {
+            this.name = name;
+            this.wireFormat = wireFormat;
+        }
+
+        synchronized void add(String key, Message message) throws IOException {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                ByteSequence bs = wireFormat.marshal(message);
+                entry = new Entry(getList().addLast(key, bs));
+                entries.put(key, entry);
+                writeCount++;
+            } else {
+                shareCount++;
+            }
+            entry.references++;
+        }
+
+        synchronized Message get(String key) throws IOException {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            return (Message) wireFormat.unmarshal(list.get(entry.locator).getByteSequence());
+        }
+
+        synchronized void release(String key) throws IOException {
+            Entry entry = entries.get(key);
+            if (entry != null && --entry.references == 0) {
+                entries.remove(key);
+                if (entries.isEmpty()) {
+                    removeList();
+                } else {
+                    list.remove(entry.locator);
+                }
+            }
+        }
+
+        private PList getList() throws IOException {
+            if (list == null) {
+                try {
+                    list = store.getPList(name);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
+                }
+            }
+            return list;
+        }
+
+        private void removeList() throws IOException {
+            try {
+                store.removePList(name);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            } finally {
+                list = null;
+            }
+        }
+
+        synchronized int getMessageCount() {
+            return entries.size();
+        }
+
+        synchronized long getWriteCount() {
+            return writeCount;
+        }
+
+        synchronized long getShareCount() {
+            return shareCount;
+        }
+    }
+
+    private static final class Entry {
+        final Object locator;
+        int references;
+
+        Entry(Object locator) {
+            this.locator = locator;
+        }
+    }
+}
@@ -48,6 +48,7 @@ public class StoreDurableSubscriberCursor extends AbstractPendingMessageCursor {
     private final PendingMessageCursor nonPersistent;
     private PendingMessageCursor currentCursor;
     private final DurableTopicSubscription subscription;
+    private final Broker broker;
     private boolean immediatePriorityDispatch = true;
 
     /**
@@ -60,6 +61,7 @@ public class StoreDurableSubscriberCursor extends AbstractPendingMessageCursor {
     public StoreDurableSubscriberCursor(Broker broker,String clientId, String subscriberName,int maxBatchSize, DurableTopicSubscription subscription) {
         super(AbstractPendingMessageCursor.isPrioritizedMessageSubscriber(broker,subscription));
         this.subscription=subscription;
+        this.broker = broker;
         this.clientId = clientId;
         this.subscriberName = subscriberName;
         if (broker.getBrokerService().isPersistent()) {
@@ -124,6 +126,9 @@ public class StoreDurableSubscriberCursor extends AbstractPendingMessageCursor {
             tsp.setMemoryUsageHighWaterMark(getMemoryUsageHighWaterMark());
             tsp.setUseCache(isUseCache());
             tsp.setCacheEnabled(isUseCache() && tsp.isEmpty());
+            if (((Topic) destination).isUseStoreReadAhead()) {
+                tsp.setReadAheadTaskRunnerFactory(broker.getBrokerService().getTaskRunnerFactory());
+            }
             topics.put(destination, tsp);
             storePrefetches.add(tsp);
             if (isStarted()) {
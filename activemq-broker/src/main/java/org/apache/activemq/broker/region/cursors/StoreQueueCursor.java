@@ -58,7 +58,7 @@ public class StoreQueueCursor extends AbstractPendingMessageCursor {
             if (broker.getBrokerService().isPersistent()) {
                 nonPersistent = new FilePendingMessageCursor(broker,queue.getName(),this.prioritizedMessages);
             }else {
-                nonPersistent = new VMPendingMessageCursor(this.prioritizedMessages);
+                nonPersistent = new VMPendingMessageCursor(this.prioritizedMessages, queue != null && queue.isUseCompactPendingList());
             }
             nonPersistent.setMaxBatchSize(getMaxBatchSize());
             nonPersistent.setSystemUsage(systemUsage);
@@ -69,6 +69,9 @@ public class StoreQueueCursor extends AbstractPendingMessageCursor {
         nonPersistent.setMessageAudit(getMessageAudit());
         nonPersistent.start();
         persistent.setMessageAudit(getMessageAudit());
+        if (queue != null && queue.isUseStoreReadAhead()) {
+            persistent.setReadAheadTaskRunnerFactory(broker.getBrokerService().getTaskRunnerFactory());
+        }
         persistent.start();
         pendingCount = persistent.size() + nonPersistent.size();
     }
@@ -203,6 +206,29 @@ public class StoreQueueCursor extends AbstractPendingMessageCursor {
         this.nonPersistent = nonPersistent;
     }
 
+    /**
+     * @return the number of batches of persistent messages that were read
+     *         ahead from the store by the time they were needed
+     */
+    public long getReadAheadHitCount() {
+        return persistent.getReadAheadHitCount();
+    }
+
+    /**
+     * @return the number of batches of persistent messages read from the
+     *         store on dispatch
+     */
+    public long getReadAheadMissCount() {
+        return persistent.getReadAheadMissCount();
+    }
+
+    /**
+     * @return the number of persistent messages last read ahead
+     */
+    public int getReadAheadBatchSize() {
+        return persistent.getReadAheadBatchSize();
+    }
+
     public void setMaxBatchSize(int maxBatchSize) {
         persistent.setMaxBatchSize(maxBatchSize);
         if (nonPersistent != null) {
@@ -23,6 +23,7 @@ import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageId;
 import org.apache.activemq.filter.MessageEvaluationContext;
 import org.apache.activemq.filter.NonCachedMessageEvaluationContext;
+import org.apache.activemq.store.MessageRecoveryListener;
 import org.apache.activemq.store.TopicMessageStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -121,13 +122,17 @@ class TopicStorePrefetch extends AbstractStoreCursor {
     protected void doFillBatch() throws Exception {
         // avoid repeated  trips to the store if there is nothing of interest
         this.storeHasMessages = false;
-        this.store.recoverNextMessages(clientId, subscriberName,
-                maxBatchSize, this);
+        recoverNextMessages(maxBatchSize, this);
         if (!this.storeHasMessages && (!this.batchList.isEmpty() || !hadSpace)) {
             this.storeHasMessages = true;
         }
     }
 
+    @Override
+    protected void recoverNextMessages(int maxReturned, MessageRecoveryListener listener) throws Exception {
+        this.store.recoverNextMessages(clientId, subscriberName, maxReturned, listener);
+    }
+
     public byte getLastRecoveredPriority() {
         return lastRecoveredPriority;
     }
@@ -36,10 +36,23 @@ public class VMPendingMessageCursor extends AbstractPendingMessageCursor {
     private Iterator<MessageReference> iter;
     
     public VMPendingMessageCursor(boolean prioritizedMessages) {
+        this(prioritizedMessages, false);
+    }
+
+    /**
+     * @param prioritizedMessages
+     *      whether messages are dispatched in priority order
+     * @param compact
+     *      hold the messages in a {@link CompactPendingList}, which is only
+     *      used when messages are not prioritized
+     */
+    public VMPendingMessageCursor(boolean prioritizedMessages, boolean compact) {
         super(prioritizedMessages);
         if (this.prioritizedMessages) {
             this.list= new PrioritizedPendingList();
-        }else {
+        } else if (compact) {
+            this.list = new CompactPendingList();
+        } else {
             this.list = new OrderedPendingList();
         }
     }
@@ -32,6 +32,10 @@ import org.apache.activemq.broker.region.cursors.PendingMessageCursor;
  */
 public class FilePendingSubscriberMessageStoragePolicy implements PendingSubscriberMessageStoragePolicy {
 
+    private boolean asyncSpool;
+    private int spoolBatchSize = 1000;
+    private boolean sharedSpool;
+
     /**
      * @param broker
      * @param name
@@ -42,7 +46,48 @@ public class FilePendingSubscriberMessageStoragePolicy implements PendingSubscri
      */
     public PendingMessageCursor getSubscriberPendingMessageCursor(Broker broker, String name, int maxBatchSize,
             Subscription subs) {
-        return new FilePendingMessageCursor(broker, "PendingCursor:" + name, AbstractPendingMessageCursor
+        FilePendingMessageCursor cursor = new FilePendingMessageCursor(broker, "PendingCursor:" + name, AbstractPendingMessageCursor
                 .isPrioritizedMessageSubscriber(broker, subs));
+        cursor.setAsyncSpool(asyncSpool);
+        cursor.setSpoolBatchSize(spoolBatchSize);
+        cursor.setUseSharedSpool(sharedSpool);
+        return cursor;
+    }
+
+    public boolean isAsyncSpool() {
+        return asyncSpool;
+    }
+
+    /**
+     * Writes pending messages to the temp store in batches on a task of the
+     * broker, rather than all at once on the thread that finds memory full.
+     */
+    public void setAsyncSpool(boolean asyncSpool) {
+        this.asyncSpool = asyncSpool;
+    }
+
+    public int getSpoolBatchSize() {
+        return spoolBatchSize;
+    }
+
+    /**
+     * @param spoolBatchSize
+     *      the most messages written to, or read ahead from, the temp store
+     *      at a time when asyncSpool is set
+     */
+    public void setSpoolBatchSize(int spoolBatchSize) {
+        this.spoolBatchSize = spoolBatchSize;
+    }
+
+    public boolean isSharedSpool() {
+        return sharedSpool;
+    }
+
+    /**
+     * Writes a message pending for many subscriptions to the temp store once
+     * for all of them, rather than once for each.
+     */
+    public void setSharedSpool(boolean sharedSpool) {
+        this.sharedSpool = sharedSpool;
     }
 }
@@ -66,13 +66,17 @@ public class PolicyEntry extends DestinationMapEntry {
     private boolean alwaysRetroactive = false;
     private long blockedProducerWarningInterval = Destination.DEFAULT_BLOCKED_PRODUCER_WARNING_INTERVAL;
     private boolean optimizedDispatch=false;
+    private int dispatchThreads=1;
     private int maxPageSize=BaseDestination.MAX_PAGE_SIZE;
     private int maxBrowsePageSize=BaseDestination.MAX_BROWSE_PAGE_SIZE;
     private boolean useCache=true;
+    private boolean useStoreReadAhead=false;
     private long minimumMessageSize=1024;
     private boolean useConsumerPriority=true;
     private boolean strictOrderDispatch=false;
     private boolean lazyDispatch=false;
+    private boolean concurrentSend=false;
+    private int concurrentSendStripes=Topic.DEFAULT_CONCURRENT_SEND_STRIPES;
     private int timeBeforeDispatchStarts = 0;
     private int consumersBeforeDispatchStarts = 0;
     private boolean advisoryForSlowConsumers;
@@ -104,6 +108,7 @@ public class PolicyEntry extends DestinationMapEntry {
      */
     private int optimizeMessageStoreInFlightLimit = 10;
     private boolean persistJMSRedelivered = false;
+    private boolean useCompactPendingList = false;
 
 
     public void configure(Broker broker,Queue queue) {
@@ -116,6 +121,7 @@ public class PolicyEntry extends DestinationMapEntry {
         if (memoryLimit > 0) {
             queue.getMemoryUsage().setLimit(memoryLimit);
         }
+        queue.setUseCompactPendingList(isUseCompactPendingList());
         if (pendingQueuePolicy != null) {
             PendingMessageCursor messages = pendingQueuePolicy.getQueuePendingMessageCursor(broker,queue);
             queue.setMessages(messages);
@@ -125,6 +131,7 @@ public class PolicyEntry extends DestinationMapEntry {
         queue.setStrictOrderDispatch(isStrictOrderDispatch());
         queue.setOptimizedDispatch(isOptimizedDispatch());
         queue.setLazyDispatch(isLazyDispatch());
+        queue.setDispatchThreads(getDispatchThreads());
         queue.setTimeBeforeDispatchStarts(getTimeBeforeDispatchStarts());
         queue.setConsumersBeforeDispatchStarts(getConsumersBeforeDispatchStarts());
         queue.setAllConsumersExclusiveByDefault(isAllConsumersExclusiveByDefault());
@@ -161,6 +168,7 @@ public class PolicyEntry extends DestinationMapEntry {
             topic.getMemoryUsage().setLimit(memoryLimit);
         }
         topic.setLazyDispatch(isLazyDispatch());
+        topic.setConcurrentSend(isConcurrentSend(), getConcurrentSendStripes());
     }
 
     public void update(Topic topic) {
@@ -207,6 +215,7 @@ public class PolicyEntry extends DestinationMapEntry {
         destination.setMaxAuditDepth(getMaxQueueAuditDepth());
         destination.setMaxProducersToAudit(getMaxProducersToAudit());
         destination.setUseCache(isUseCache());
+        destination.setUseStoreReadAhead(isUseStoreReadAhead());
         destination.setExpireMessagesPeriod(getExpireMessagesPeriod());
         SlowConsumerStrategy scs = getSlowConsumerStrategy();
         if (scs != null) {
@@ -581,6 +590,27 @@ public class PolicyEntry extends DestinationMapEntry {
         this.optimizedDispatch = optimizedDispatch;
     }
 
+    /**
+     * @return the number of threads a queue uses to match consumer selectors
+     *         during dispatch
+     */
+    public int getDispatchThreads() {
+        return this.dispatchThreads;
+    }
+
+    /**
+     * When greater than one, a queue evaluates its consumers' selectors against
+     * paged in messages on a pool of this many threads, so a single hot queue
+     * with many selective consumers can use more than one core. Assignment of
+     * messages to consumers, exclusive consumers and message groups are still
+     * handled in order. Queues only, and not used with optimizedDispatch.
+     *
+     * @param dispatchThreads
+     */
+    public void setDispatchThreads(int dispatchThreads) {
+        this.dispatchThreads = dispatchThreads;
+    }
+
     public int getMaxPageSize() {
         return maxPageSize;
     }
@@ -637,6 +667,42 @@ public class PolicyEntry extends DestinationMapEntry {
         this.lazyDispatch = lazyDispatch;
     }
 
+    /**
+     * @return true if sends from different producers to a topic may be
+     *         stored and dispatched concurrently
+     */
+    public boolean isConcurrentSend() {
+        return this.concurrentSend;
+    }
+
+    /**
+     * When enabled, sends to a topic are serialized per producer rather than
+     * per topic, so independent producers on a hot topic don't contend on a
+     * single lock. Ordering is only guaranteed between messages of the same
+     * producer. Only applied when the topic is created.
+     *
+     * @param concurrentSend
+     */
+    public void setConcurrentSend(boolean concurrentSend) {
+        this.concurrentSend = concurrentSend;
+    }
+
+    /**
+     * @return the number of send locks producers are spread across when
+     *         concurrentSend is enabled
+     */
+    public int getConcurrentSendStripes() {
+        return this.concurrentSendStripes;
+    }
+
+    /**
+     * @param concurrentSendStripes the number of send locks producers are
+     *        spread across when concurrentSend is enabled
+     */
+    public void setConcurrentSendStripes(int concurrentSendStripes) {
+        this.concurrentSendStripes = concurrentSendStripes;
+    }
+
     public int getTimeBeforeDispatchStarts() {
         return timeBeforeDispatchStarts;
     }
@@ -962,4 +1028,31 @@ public class PolicyEntry extends DestinationMapEntry {
     public boolean isPersistJMSRedelivered() {
         return persistJMSRedelivered;
     }
+
+    public boolean isUseCompactPendingList() {
+        return useCompactPendingList;
+    }
+
+    /**
+     * Holds the in memory pending messages of queues in a compact list that
+     * takes less memory for each message, see
+     * {@link org.apache.activemq.broker.region.cursors.CompactPendingList}.
+     */
+    public void setUseCompactPendingList(boolean useCompactPendingList) {
+        this.useCompactPendingList = useCompactPendingList;
+    }
+
+    public boolean isUseStoreReadAhead() {
+        return useStoreReadAhead;
+    }
+
+    /**
+     * Reads the next batch of persistent messages of queues and durable
+     * subscriptions from the store on a task ahead of dispatch, sized to the
+     * rate they are dispatched at, rather than when the batch in memory runs
+     * out.
+     */
+    public void setUseStoreReadAhead(boolean useStoreReadAhead) {
+        this.useStoreReadAhead = useStoreReadAhead;
+    }
 }
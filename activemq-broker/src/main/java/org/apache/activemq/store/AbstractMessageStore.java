@@ -115,6 +115,11 @@ abstract public class AbstractMessageStore implements MessageStore {
         removeMessage(context, ack);
     }
 
+    @Override
+    public boolean recoverExpired(long time, int maxReturned, MessageRecoveryListener listener) throws Exception {
+        return false;
+    }
+
     @Override
     public void updateMessage(Message message) throws IOException {
         throw new IOException("update is not supported by: " + this);
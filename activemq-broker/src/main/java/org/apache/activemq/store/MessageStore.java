@@ -166,6 +166,20 @@ public interface MessageStore extends Service {
 
     void recoverNextMessages(int maxReturned, MessageRecoveryListener listener) throws Exception;
 
+    /**
+     * Recovers the messages that expired before the given time, in the order
+     * they expire, using an index of message expiration kept by the store.
+     *
+     * @param time the time at which the returned messages have expired
+     * @param maxReturned the most messages to recover
+     * @param listener
+     * @return false if the store keeps no expiration index, in which case the
+     *         listener is not called and the destination has to be browsed
+     *         for expired messages
+     * @throws Exception
+     */
+    boolean recoverExpired(long time, int maxReturned, MessageRecoveryListener listener) throws Exception;
+
     void dispose(ConnectionContext context);
 
     /**
@@ -35,6 +35,12 @@ public interface PList {
 
     boolean remove(Object position) throws IOException;
 
+    /**
+     * Reads the entry at a position returned by addFirst or addLast, which
+     * must still be in the list.
+     */
+    PListEntry get(Object position) throws IOException;
+
     boolean isEmpty();
 
     PListIterator iterator() throws IOException;
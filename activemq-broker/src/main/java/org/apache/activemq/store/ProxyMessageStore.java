@@ -106,6 +106,11 @@ public class ProxyMessageStore implements MessageStore {
         delegate.recoverNextMessages(maxReturned, listener);
     }
 
+    @Override
+    public boolean recoverExpired(long time, int maxReturned, MessageRecoveryListener listener) throws Exception {
+        return delegate.recoverExpired(time, maxReturned, listener);
+    }
+
     @Override
     public void resetBatching() {
         delegate.resetBatching();
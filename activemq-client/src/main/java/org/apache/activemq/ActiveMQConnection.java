@@ -83,10 +83,12 @@ import org.apache.activemq.command.Response;
 import org.apache.activemq.command.SessionId;
 import org.apache.activemq.command.ShutdownInfo;
 import org.apache.activemq.command.WireFormatInfo;
+import org.apache.activemq.compression.CompressionSupport;
 import org.apache.activemq.management.JMSConnectionStatsImpl;
 import org.apache.activemq.management.JMSStatsImpl;
 import org.apache.activemq.management.StatsCapable;
 import org.apache.activemq.management.StatsImpl;
+import org.apache.activemq.openwire.OpenWireFormat;
 import org.apache.activemq.state.CommandVisitorAdapter;
 import org.apache.activemq.thread.Scheduler;
 import org.apache.activemq.thread.TaskRunnerFactory;
@@ -95,6 +97,7 @@ import org.apache.activemq.transport.RequestTimedOutIOException;
 import org.apache.activemq.transport.ResponseCallback;
 import org.apache.activemq.transport.Transport;
 import org.apache.activemq.transport.TransportListener;
+import org.apache.activemq.transport.WireFormatNegotiator;
 import org.apache.activemq.transport.failover.FailoverTransport;
 import org.apache.activemq.util.IdGenerator;
 import org.apache.activemq.util.IntrospectionSupport;
@@ -140,11 +143,18 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
     private boolean optimizedMessageDispatch = true;
     private boolean copyMessageOnSend = true;
     private boolean useCompression;
+    private String compressionCodec = CompressionSupport.DEFAULT_CODEC;
+    private int compressionThreshold;
     private boolean objectMessageSerializationDefered;
     private boolean useAsyncSend;
     private boolean optimizeAcknowledge;
     private long optimizeAcknowledgeTimeOut = 0;
     private long optimizedAckScheduledAckInterval = 0;
+    private int individualAckBatchSize;
+    private long individualAckBatchTimeout = 100;
+    private int maxInFlightSends;
+    private int sendBatchSize;
+    private long sendBatchTimeout = 10;
     private boolean nestedMapAndListEnabled = true;
     private boolean useRetroactiveConsumer;
     private boolean exclusiveConsumer;
@@ -189,6 +199,7 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
     // Assume that protocol is the latest. Change to the actual protocol
     // version when a WireFormatInfo is received.
     private final AtomicInteger protocolVersion = new AtomicInteger(CommandTypes.PROTOCOL_VERSION);
+    private volatile boolean messageBatchEnabled;
     private final long timeCreated;
     private final ConnectionAudit connectionAudit = new ConnectionAudit();
     private DestinationSource destinationSource;
@@ -1923,6 +1934,18 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
 
     protected void onWireFormatInfo(WireFormatInfo info) {
         protocolVersion.set(info.getVersion());
+        // batches are only sent if both sides accept them, which the
+        // negotiated wire format knows rather than the remote info alone
+        WireFormatNegotiator negotiator = transport.narrow(WireFormatNegotiator.class);
+        if (negotiator != null) {
+            messageBatchEnabled = negotiator.getWireFormat().isMessageBatchEnabled();
+        } else {
+            try {
+                messageBatchEnabled = info.isMessageBatchEnabled() && info.getVersion() >= OpenWireFormat.MESSAGE_BATCH_VERSION;
+            } catch (IOException e) {
+                messageBatchEnabled = false;
+            }
+        }
     }
 
     /**
@@ -2117,6 +2140,32 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
         this.useCompression = useCompression;
     }
 
+    public String getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /**
+     * Sets the name of the codec used to compress message bodies when
+     * compression is enabled.  The default, "deflate", can be read by all
+     * clients; bodies compressed with another codec, such as "lz4", can only
+     * be read by clients that have that codec.
+     */
+    public void setCompressionCodec(String compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the size in bytes below which message bodies are sent uncompressed
+     * when compression is enabled.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
     public void destroyDestination(ActiveMQDestination destination) throws JMSException {
 
         checkClosedOrFailed();
@@ -2309,6 +2358,13 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
         return new BlobTransferPolicy();
     }
 
+    /**
+     * @return true if the broker accepts messages sent in a batch command.
+     */
+    public boolean isMessageBatchEnabled() {
+        return messageBatchEnabled;
+    }
+
     public int getProtocolVersion() {
         return protocolVersion.get();
     }
@@ -2565,6 +2621,74 @@ public class ActiveMQConnection implements Connection, TopicConnection, QueueCon
         this.optimizedAckScheduledAckInterval = optimizedAckScheduledAckInterval;
     }
 
+    public int getIndividualAckBatchSize() {
+        return individualAckBatchSize;
+    }
+
+    /**
+     * Sets the number of INDIVIDUAL_ACKNOWLEDGE acknowledgements a consumer
+     * collects before sending them to the broker.  Acknowledgements of
+     * consecutively delivered messages are sent as a single ranged ack.  The
+     * default of zero sends each acknowledgement as soon as it is made.
+     */
+    public void setIndividualAckBatchSize(int individualAckBatchSize) {
+        this.individualAckBatchSize = individualAckBatchSize;
+    }
+
+    public long getIndividualAckBatchTimeout() {
+        return individualAckBatchTimeout;
+    }
+
+    /**
+     * Sets the most time in milliseconds a batched individual acknowledgement
+     * is held before it is sent, whether or not the batch is full.
+     */
+    public void setIndividualAckBatchTimeout(long individualAckBatchTimeout) {
+        this.individualAckBatchTimeout = individualAckBatchTimeout;
+    }
+
+    public int getMaxInFlightSends() {
+        return maxInFlightSends;
+    }
+
+    /**
+     * Sets the number of sends a producer may have waiting for the broker's
+     * response.  When set, persistent sends and sends with an
+     * {@link AsyncCallback} are written without waiting for the broker, up to
+     * this many at a time, and their callbacks are called in the order the
+     * messages were sent.  The default of zero waits for each persistent send.
+     */
+    public void setMaxInFlightSends(int maxInFlightSends) {
+        this.maxInFlightSends = maxInFlightSends;
+    }
+
+    public int getSendBatchSize() {
+        return sendBatchSize;
+    }
+
+    /**
+     * Sets the number of bytes of asynchronously sent messages a producer
+     * collects before writing them to the broker as a single batch command.
+     * A batch that does not fill up is written once the send batch timeout
+     * expires.  Batches are only sent to brokers that support them; the
+     * default of zero sends each message on its own.
+     */
+    public void setSendBatchSize(int sendBatchSize) {
+        this.sendBatchSize = sendBatchSize;
+    }
+
+    public long getSendBatchTimeout() {
+        return sendBatchTimeout;
+    }
+
+    /**
+     * Sets the most time in milliseconds a message is held in a producer's
+     * send batch before the batch is written.
+     */
+    public void setSendBatchTimeout(long sendBatchTimeout) {
+        this.sendBatchTimeout = sendBatchTimeout;
+    }
+
     /**
      * @return true if MessageConsumer instance will check for expired messages before dispatch.
      */
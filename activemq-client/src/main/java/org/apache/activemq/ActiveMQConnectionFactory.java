@@ -37,6 +37,7 @@ import javax.naming.Context;
 
 import org.apache.activemq.blob.BlobTransferPolicy;
 import org.apache.activemq.broker.region.policy.RedeliveryPolicyMap;
+import org.apache.activemq.compression.CompressionSupport;
 import org.apache.activemq.jndi.JNDIBaseStorable;
 import org.apache.activemq.management.JMSStatsImpl;
 import org.apache.activemq.management.StatsCapable;
@@ -150,8 +151,15 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
     private boolean optimizedMessageDispatch = true;
     private long optimizeAcknowledgeTimeOut = 300;
     private long optimizedAckScheduledAckInterval = 0;
+    private int individualAckBatchSize;
+    private long individualAckBatchTimeout = 100;
+    private int maxInFlightSends;
+    private int sendBatchSize;
+    private long sendBatchTimeout = 10;
     private boolean copyMessageOnSend = true;
     private boolean useCompression;
+    private String compressionCodec = CompressionSupport.DEFAULT_CODEC;
+    private int compressionThreshold;
     private boolean objectMessageSerializationDefered;
     private boolean useAsyncSend;
     private boolean optimizeAcknowledge;
@@ -373,6 +381,8 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
         connection.setOptimizedMessageDispatch(isOptimizedMessageDispatch());
         connection.setCopyMessageOnSend(isCopyMessageOnSend());
         connection.setUseCompression(isUseCompression());
+        connection.setCompressionCodec(getCompressionCodec());
+        connection.setCompressionThreshold(getCompressionThreshold());
         connection.setObjectMessageSerializationDefered(isObjectMessageSerializationDefered());
         connection.setDispatchAsync(isDispatchAsync());
         connection.setUseAsyncSend(isUseAsyncSend());
@@ -381,6 +391,11 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
         connection.setOptimizeAcknowledge(isOptimizeAcknowledge());
         connection.setOptimizeAcknowledgeTimeOut(getOptimizeAcknowledgeTimeOut());
         connection.setOptimizedAckScheduledAckInterval(getOptimizedAckScheduledAckInterval());
+        connection.setIndividualAckBatchSize(getIndividualAckBatchSize());
+        connection.setIndividualAckBatchTimeout(getIndividualAckBatchTimeout());
+        connection.setMaxInFlightSends(getMaxInFlightSends());
+        connection.setSendBatchSize(getSendBatchSize());
+        connection.setSendBatchTimeout(getSendBatchTimeout());
         connection.setUseRetroactiveConsumer(isUseRetroactiveConsumer());
         connection.setExclusiveConsumer(isExclusiveConsumer());
         connection.setRedeliveryPolicyMap(getRedeliveryPolicyMap());
@@ -802,6 +817,15 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
 
         props.setProperty("useAsyncSend", Boolean.toString(isUseAsyncSend()));
         props.setProperty("useCompression", Boolean.toString(isUseCompression()));
+        if (getCompressionCodec() != null) {
+            props.setProperty("compressionCodec", getCompressionCodec());
+        }
+        props.setProperty("compressionThreshold", Integer.toString(getCompressionThreshold()));
+        props.setProperty("individualAckBatchSize", Integer.toString(getIndividualAckBatchSize()));
+        props.setProperty("individualAckBatchTimeout", Long.toString(getIndividualAckBatchTimeout()));
+        props.setProperty("maxInFlightSends", Integer.toString(getMaxInFlightSends()));
+        props.setProperty("sendBatchSize", Integer.toString(getSendBatchSize()));
+        props.setProperty("sendBatchTimeout", Long.toString(getSendBatchTimeout()));
         props.setProperty("useRetroactiveConsumer", Boolean.toString(isUseRetroactiveConsumer()));
         props.setProperty("watchTopicAdvisories", Boolean.toString(isWatchTopicAdvisories()));
 
@@ -841,6 +865,32 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
         this.useCompression = useCompression;
     }
 
+    public String getCompressionCodec() {
+        return compressionCodec;
+    }
+
+    /**
+     * Sets the name of the codec used to compress message bodies when
+     * compression is enabled.  The default, "deflate", can be read by all
+     * clients; bodies compressed with another codec, such as "lz4", can only
+     * be read by clients that have that codec.
+     */
+    public void setCompressionCodec(String compressionCodec) {
+        this.compressionCodec = compressionCodec;
+    }
+
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Sets the size in bytes below which message bodies are sent uncompressed
+     * when compression is enabled.
+     */
+    public void setCompressionThreshold(int compressionThreshold) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
     public boolean isObjectMessageSerializationDefered() {
         return objectMessageSerializationDefered;
     }
@@ -1213,6 +1263,74 @@ public class ActiveMQConnectionFactory extends JNDIBaseStorable implements Conne
         this.optimizedAckScheduledAckInterval = optimizedAckScheduledAckInterval;
     }
 
+    public int getIndividualAckBatchSize() {
+        return individualAckBatchSize;
+    }
+
+    /**
+     * Sets the number of INDIVIDUAL_ACKNOWLEDGE acknowledgements a consumer
+     * collects before sending them to the broker.  Acknowledgements of
+     * consecutively delivered messages are sent as a single ranged ack.  The
+     * default of zero sends each acknowledgement as soon as it is made.
+     */
+    public void setIndividualAckBatchSize(int individualAckBatchSize) {
+        this.individualAckBatchSize = individualAckBatchSize;
+    }
+
+    public long getIndividualAckBatchTimeout() {
+        return individualAckBatchTimeout;
+    }
+
+    /**
+     * Sets the most time in milliseconds a batched individual acknowledgement
+     * is held before it is sent, whether or not the batch is full.
+     */
+    public void setIndividualAckBatchTimeout(long individualAckBatchTimeout) {
+        this.individualAckBatchTimeout = individualAckBatchTimeout;
+    }
+
+    public int getMaxInFlightSends() {
+        return maxInFlightSends;
+    }
+
+    /**
+     * Sets the number of sends a producer may have waiting for the broker's
+     * response.  When set, persistent sends and sends with an
+     * {@link AsyncCallback} are written without waiting for the broker, up to
+     * this many at a time, and their callbacks are called in the order the
+     * messages were sent.  The default of zero waits for each persistent send.
+     */
+    public void setMaxInFlightSends(int maxInFlightSends) {
+        this.maxInFlightSends = maxInFlightSends;
+    }
+
+    public int getSendBatchSize() {
+        return sendBatchSize;
+    }
+
+    /**
+     * Sets the number of bytes of asynchronously sent messages a producer
+     * collects before writing them to the broker as a single batch command.
+     * A batch that does not fill up is written once the send batch timeout
+     * expires.  Batches are only sent to brokers that support them; the
+     * default of zero sends each message on its own.
+     */
+    public void setSendBatchSize(int sendBatchSize) {
+        this.sendBatchSize = sendBatchSize;
+    }
+
+    public long getSendBatchTimeout() {
+        return sendBatchTimeout;
+    }
+
+    /**
+     * Sets the most time in milliseconds a message is held in a producer's
+     * send batch before the batch is written.
+     */
+    public void setSendBatchTimeout(long sendBatchTimeout) {
+        this.sendBatchTimeout = sendBatchTimeout;
+    }
+
 
     public boolean isRmIdFromConnectionId() {
         return rmIdFromConnectionId;
@@ -17,14 +17,17 @@
 package org.apache.activemq;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -120,8 +123,9 @@ public class ActiveMQMessageConsumer implements MessageAvailableConsumer, StatsC
 
     // The are the messages that were delivered to the consumer but that have
     // not been acknowledged. It's kept in reverse order since we
-    // Always walk list in reverse order.
-    protected final LinkedList<MessageDispatch> deliveredMessages = new LinkedList<MessageDispatch>();
+    // Always walk list in reverse order. A ring buffer, so that tracking a
+    // delivery does not allocate.
+    protected final ArrayDeque<MessageDispatch> deliveredMessages = new ArrayDeque<MessageDispatch>();
     // track duplicate deliveries in a transaction such that the tx integrity can be validated
     private PreviouslyDeliveredMap<MessageId, Boolean> previouslyDeliveredMessages;
     private int deliveredCounter;
@@ -159,6 +163,22 @@ public class ActiveMQMessageConsumer implements MessageAvailableConsumer, StatsC
     private boolean transactedIndividualAck = false;
     private boolean nonBlockingRedelivery = false;
     private boolean consumerExpiryCheckEnabled = true;
+    private int individualAckBatchSize;
+    private long individualAckBatchTimeout;
+    private boolean coalesceIndividualAcks;
+    // individual acks not yet sent to the broker, guarded by deliveredMessages
+    private final Set<MessageDispatch> pendingIndividualAcks = Collections.newSetFromMap(new IdentityHashMap<MessageDispatch, Boolean>());
+    private boolean individualAckFlushScheduled;
+    private final Runnable individualAckTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                sendIndividualAcks();
+            } catch (Exception e) {
+                LOG.debug("Individual Ack Task caught exception during ack", e);
+            }
+        }
+    };
 
     /**
      * Create a MessageConsumer
@@ -264,12 +284,21 @@ public class ActiveMQMessageConsumer implements MessageAvailableConsumer, StatsC
             setOptimizedAckScheduledAckInterval(session.connection.getOptimizedAckScheduledAckInterval());
         }
 
+        if (session.isIndividualAcknowledge() && !info.isBrowser()) {
+            this.individualAckBatchSize = session.connection.getIndividualAckBatchSize();
+            this.individualAckBatchTimeout = session.connection.getIndividualAckBatchTimeout();
+        }
+
         this.info.setOptimizedAcknowledge(this.optimizeAcknowledge);
         this.failoverRedeliveryWaitPeriod = session.connection.getConsumerFailoverRedeliveryWaitPeriod();
         this.nonBlockingRedelivery = session.connection.isNonBlockingRedelivery();
         this.transactedIndividualAck = session.connection.isTransactedIndividualAck()
                         || this.nonBlockingRedelivery
                         || session.connection.isMessagePrioritySupported();
+        // the broker checks a ranged ack against the order it dispatched in,
+        // which the messages are only delivered in if neither priority nor a
+        // non blocking redelivery can move one ahead of another
+        this.coalesceIndividualAcks = !this.nonBlockingRedelivery && !session.connection.isMessagePrioritySupported();
         this.consumerExpiryCheckEnabled = session.connection.isConsumerExpiryCheckEnabled();
         if (messageListener != null) {
             setMessageListener(messageListener);
@@ -810,6 +839,11 @@ public class ActiveMQMessageConsumer implements MessageAvailableConsumer, StatsC
             // Do we have any acks we need to send out before closing?
             // Ack any delivered messages now.
             if (!session.getTransacted()) {
+                try {
+                    sendIndividualAcks();
+                } catch (JMSException e) {
+                    LOG.debug(getConsumerId() + " failed to send batched individual acknowledgements", e);
+                }
                 deliverAcks();
                 if (isAutoAcknowledgeBatch()) {
                     acknowledge();
@@ -1178,9 +1212,93 @@ public class ActiveMQMessageConsumer implements MessageAvailableConsumer, StatsC
     }
 
     void acknowledge(MessageDispatch md) throws JMSException {
+        if (individualAckBatchSize > 1) {
+            boolean batched = false;
+            boolean full = false;
+            boolean schedule = false;
+            synchronized (deliveredMessages) {
+                // a message that is no longer in the delivered list, such as
+                // after a failover, is acked on its own as before
+                if (deliveredMessages.contains(md)) {
+                    batched = true;
+                    pendingIndividualAcks.add(md);
+                    full = pendingIndividualAcks.size() >= individualAckBatchSize;
+                    if (!full && !individualAckFlushScheduled) {
+                        individualAckFlushScheduled = true;
+                        schedule = true;
+                    }
+                }
+            }
+            if (batched) {
+                if (full) {
+                    sendIndividualAcks();
+                } else if (schedule) {
+                    session.connection.getScheduler().executeAfterDelay(individualAckTask, individualAckBatchTimeout);
+                }
+                return;
+            }
+        }
         acknowledge(md, MessageAck.INDIVIDUAL_ACK_TYPE);
     }
 
+    /**
+     * Sends the batched individual acks, one ranged ack for each run of
+     * consecutively delivered messages, or one for each message when the
+     * messages may not be delivered in the order they were dispatched.
+     */
+    private void sendIndividualAcks() throws JMSException {
+        List<MessageAck> acks;
+        synchronized (deliveredMessages) {
+            individualAckFlushScheduled = false;
+            if (pendingIndividualAcks.isEmpty()) {
+                return;
+            }
+            acks = new ArrayList<MessageAck>();
+            MessageDispatch first = null;
+            MessageDispatch last = null;
+            int count = 0;
+            // oldest first
+            for (Iterator<MessageDispatch> iter = deliveredMessages.descendingIterator(); iter.hasNext();) {
+                MessageDispatch md = iter.next();
+                if (pendingIndividualAcks.remove(md)) {
+                    iter.remove();
+                    if (!coalesceIndividualAcks) {
+                        acks.add(new MessageAck(md, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
+                        continue;
+                    }
+                    if (first == null) {
+                        first = md;
+                    }
+                    last = md;
+                    count++;
+                } else if (first != null) {
+                    acks.add(createIndividualAck(first, last, count));
+                    first = null;
+                    count = 0;
+                }
+            }
+            if (first != null) {
+                acks.add(createIndividualAck(first, last, count));
+            }
+            // anything left was cleared from the delivered list meanwhile
+            for (MessageDispatch md : pendingIndividualAcks) {
+                acks.add(new MessageAck(md, MessageAck.INDIVIDUAL_ACK_TYPE, 1));
+            }
+            pendingIndividualAcks.clear();
+        }
+        for (MessageAck ack : acks) {
+            session.sendAck(ack);
+        }
+    }
+
+    private MessageAck createIndividualAck(MessageDispatch first, MessageDispatch last, int count) {
+        MessageAck ack = new MessageAck(last, MessageAck.INDIVIDUAL_ACK_TYPE, count);
+        if (count > 1) {
+            ack.setFirstMessageId(first.getMessage().getMessageId());
+        }
+        return ack;
+    }
+
     void acknowledge(MessageDispatch md, byte ackType) throws JMSException {
         MessageAck ack = new MessageAck(md, ackType, 1);
         session.sendAck(ack);
@@ -1199,6 +1317,10 @@ public class ActiveMQMessageConsumer implements MessageAvailableConsumer, StatsC
 
     public void rollback() throws JMSException {
         clearDeliveredList();
+        if (individualAckBatchSize > 1) {
+            // acked messages must not be redelivered
+            sendIndividualAcks();
+        }
         synchronized (unconsumedMessages.getMutex()) {
             if (optimizeAcknowledge) {
                 // remove messages read but not acked at the broker yet through
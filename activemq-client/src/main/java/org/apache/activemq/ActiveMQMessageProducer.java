@@ -20,6 +20,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.jms.DeliveryMode;
 import javax.jms.Destination;
 import javax.jms.IllegalStateException;
 import javax.jms.InvalidDestinationException;
@@ -82,6 +83,8 @@ public class ActiveMQMessageProducer extends ActiveMQMessageProducerSupport impl
     private final long startTime;
     private MessageTransformer transformer;
     private MemoryUsage producerWindow;
+    private PipelinedSendWindow pipelinedSendWindow;
+    private ProducerSendBatch sendBatch;
 
     protected ActiveMQMessageProducer(ActiveMQSession session, ProducerId producerId, ActiveMQDestination destination, int sendTimeout) throws JMSException {
         super(session);
@@ -113,6 +116,15 @@ public class ActiveMQMessageProducer extends ActiveMQMessageProducerSupport impl
             producerWindow.start();
         }
 
+        if (session.connection.getMaxInFlightSends() > 0) {
+            pipelinedSendWindow = new PipelinedSendWindow(session.connection.getMaxInFlightSends());
+        }
+
+        if (session.connection.getSendBatchSize() > 0) {
+            sendBatch = new ProducerSendBatch(session.connection, producerId,
+                session.connection.getSendBatchSize(), session.connection.getSendBatchTimeout());
+        }
+
         this.defaultDeliveryMode = Message.DEFAULT_DELIVERY_MODE;
         this.defaultPriority = Message.DEFAULT_PRIORITY;
         this.defaultTimeToLive = Message.DEFAULT_TIME_TO_LIVE;
@@ -168,14 +180,38 @@ public class ActiveMQMessageProducer extends ActiveMQMessageProducerSupport impl
     @Override
     public void close() throws JMSException {
         if (!closed) {
+            if (pipelinedSendWindow != null) {
+                try {
+                    pipelinedSendWindow.waitForCompletion();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new JMSException("Close aborted due to thread interrupt.");
+                }
+            }
+            if (sendBatch != null) {
+                sendBatch.flush();
+            }
             dispose();
             this.session.asyncSendPacket(info.createRemoveCommand());
+            if (pipelinedSendWindow != null) {
+                JMSException failure = pipelinedSendWindow.takeFailure();
+                if (failure != null) {
+                    throw failure;
+                }
+            }
         }
     }
 
     @Override
     public void dispose() {
         if (!closed) {
+            if (sendBatch != null) {
+                try {
+                    sendBatch.flush();
+                } catch (JMSException e) {
+                    LOG.debug("Failed to send the batched messages of producer: {}", info.getProducerId(), e);
+                }
+            }
             this.session.removeProducer(this);
             if (producerWindow != null) {
                 producerWindow.stop();
@@ -285,7 +321,46 @@ public class ActiveMQMessageProducer extends ActiveMQMessageProducerSupport impl
             }
         }
 
-        this.session.send(this, dest, message, deliveryMode, priority, timeToLive, producerWindow, sendTimeout, onComplete);
+        if (pipelinedSendWindow != null) {
+            // report a pipelined send that failed without a callback to tell
+            JMSException failure = pipelinedSendWindow.takeFailure();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        if (pipelinedSendWindow != null && !session.isTransacted()
+            && (onComplete != null || (deliveryMode == DeliveryMode.PERSISTENT && !session.connection.isUseAsyncSend()))) {
+            // write the send without waiting for the broker, once there is a
+            // place for it in the window
+            final PipelinedSendWindow.PendingSend pending;
+            try {
+                pending = pipelinedSendWindow.add(onComplete, sendTimeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JMSException("Send aborted due to thread interrupt.");
+            }
+            try {
+                this.session.send(this, dest, message, deliveryMode, priority, timeToLive, producerWindow, sendTimeout, pending);
+            } catch (JMSException e) {
+                pending.cancel();
+                throw e;
+            } catch (RuntimeException e) {
+                pending.cancel();
+                throw e;
+            }
+            if (sendTimeout > 0) {
+                // does nothing if the broker answered in time
+                session.connection.getScheduler().executeAfterDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        pending.timeOut();
+                    }
+                }, sendTimeout);
+            }
+        } else {
+            this.session.send(this, dest, message, deliveryMode, priority, timeToLive, producerWindow, sendTimeout, onComplete);
+        }
 
         stats.onMessage();
     }
@@ -302,6 +377,21 @@ public class ActiveMQMessageProducer extends ActiveMQMessageProducerSupport impl
         this.transformer = transformer;
     }
 
+    /**
+     * @return the batch collecting this producer's asynchronous sends, or null
+     *         if sends are not batched.
+     */
+    ProducerSendBatch getSendBatch() {
+        return sendBatch;
+    }
+
+    /**
+     * @return the number of pipelined sends that have not completed yet.
+     */
+    public int getInFlightSendCount() {
+        return pipelinedSendWindow != null ? pipelinedSendWindow.getPendingCount() : 0;
+    }
+
     /**
      * @return the time in milli second when this object was created.
      */
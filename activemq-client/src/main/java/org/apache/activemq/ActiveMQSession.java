@@ -1884,8 +1884,18 @@ public class ActiveMQSession implements Session, QueueSession, TopicSession, Sta
             if (LOG.isTraceEnabled()) {
                 LOG.trace(getSessionId() + " sending message: " + msg);
             }
+            ProducerSendBatch sendBatch = producer.getSendBatch();
             if (onComplete==null && sendTimeout <= 0 && !msg.isResponseRequired() && !connection.isAlwaysSyncSend() && (!msg.isPersistent() || connection.isUseAsyncSend() || txid != null)) {
-                this.connection.asyncSendPacket(msg);
+                if (sendBatch != null && txid == null) {
+                    // the message is marshalled later, so the caller must not be
+                    // able to change it meanwhile
+                    sendBatch.add(connection.isCopyMessageOnSend() ? msg : (ActiveMQMessage) msg.copy());
+                } else {
+                    if (sendBatch != null) {
+                        sendBatch.flush();
+                    }
+                    this.connection.asyncSendPacket(msg);
+                }
                 if (producerWindow != null) {
                     // Since we defer lots of the marshaling till we hit the
                     // wire, this might not
@@ -1898,6 +1908,10 @@ public class ActiveMQSession implements Session, QueueSession, TopicSession, Sta
                     producerWindow.increaseUsage(size);
                 }
             } else {
+                // the batched messages go first
+                if (sendBatch != null) {
+                    sendBatch.flush();
+                }
                 if (sendTimeout > 0 && onComplete==null) {
                     this.connection.syncSendPacket(msg,sendTimeout);
                 }else {
@@ -16,20 +16,30 @@
  */
 package org.apache.activemq;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
 import org.apache.activemq.command.MessageDispatch;
 
+/**
+ * A first in first out channel of dispatched messages.
+ *
+ * Messages are held in a ring buffer so that enqueueing one does not
+ * allocate, and the thread enqueueing only notifies the mutex when a thread
+ * is waiting in {@link #dequeue(long)}.  The size is published so that it
+ * can be checked without taking the mutex.
+ */
 public class FifoMessageDispatchChannel implements MessageDispatchChannel {
 
     private final Object mutex = new Object();
-    private final LinkedList<MessageDispatch> list;
+    private final ArrayDeque<MessageDispatch> list;
+    private volatile int size;
+    private int waiting;
     private boolean closed;
     private boolean running;
 
     public FifoMessageDispatchChannel() {
-        this.list = new LinkedList<MessageDispatch>();
+        this.list = new ArrayDeque<MessageDispatch>();
     }
 
     /* (non-Javadoc)
@@ -38,7 +48,10 @@ public class FifoMessageDispatchChannel implements MessageDispatchChannel {
     public void enqueue(MessageDispatch message) {
         synchronized (mutex) {
             list.addLast(message);
-            mutex.notify();
+            size = list.size();
+            if (waiting > 0) {
+                mutex.notify();
+            }
         }
     }
 
@@ -48,7 +61,10 @@ public class FifoMessageDispatchChannel implements MessageDispatchChannel {
     public void enqueueFirst(MessageDispatch message) {
         synchronized (mutex) {
             list.addFirst(message);
-            mutex.notify();
+            size = list.size();
+            if (waiting > 0) {
+                mutex.notify();
+            }
         }
     }
 
@@ -56,9 +72,7 @@ public class FifoMessageDispatchChannel implements MessageDispatchChannel {
      * @see org.apache.activemq.MessageDispatchChannelI#isEmpty()
      */
     public boolean isEmpty() {
-        synchronized (mutex) {
-            return list.isEmpty();
-        }
+        return size == 0;
     }
 
     /* (non-Javadoc)
@@ -68,17 +82,22 @@ public class FifoMessageDispatchChannel implements MessageDispatchChannel {
         synchronized (mutex) {
             // Wait until the consumer is ready to deliver messages.
             while (timeout != 0 && !closed && (list.isEmpty() || !running)) {
-                if (timeout == -1) {
-                    mutex.wait();
-                } else {
-                    mutex.wait(timeout);
-                    break;
+                waiting++;
+                try {
+                    if (timeout == -1) {
+                        mutex.wait();
+                    } else {
+                        mutex.wait(timeout);
+                        break;
+                    }
+                } finally {
+                    waiting--;
                 }
             }
             if (closed || !running || list.isEmpty()) {
                 return null;
             }
-            return list.removeFirst();
+            return removeFirst();
         }
     }
 
@@ -90,10 +109,16 @@ public class FifoMessageDispatchChannel implements MessageDispatchChannel {
             if (closed || !running || list.isEmpty()) {
                 return null;
             }
-            return list.removeFirst();
+            return removeFirst();
         }
     }
 
+    private MessageDispatch removeFirst() {
+        MessageDispatch message = list.removeFirst();
+        size = list.size();
+        return message;
+    }
+
     /* (non-Javadoc)
      * @see org.apache.activemq.MessageDispatchChannelI#peek()
      */
@@ -145,6 +170,7 @@ public class FifoMessageDispatchChannel implements MessageDispatchChannel {
     public void clear() {
         synchronized (mutex) {
             list.clear();
+            size = 0;
         }
     }
 
@@ -159,9 +185,7 @@ public class FifoMessageDispatchChannel implements MessageDispatchChannel {
      * @see org.apache.activemq.MessageDispatchChannelI#size()
      */
     public int size() {
-        synchronized (mutex) {
-            return list.size();
-        }
+        return size;
     }
 
     /* (non-Javadoc)
@@ -185,6 +209,7 @@ public class FifoMessageDispatchChannel implements MessageDispatchChannel {
         synchronized (mutex) {
             ArrayList<MessageDispatch> rc = new ArrayList<MessageDispatch>(list);
             list.clear();
+            size = 0;
             return rc;
         }
     }
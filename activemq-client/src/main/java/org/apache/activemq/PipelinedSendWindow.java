@@ -0,0 +1,200 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.util.ArrayDeque;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.transport.RequestTimedOutIOException;
+import org.apache.activemq.util.JMSExceptionSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounds the number of sends a producer has waiting for a response from the
+ * broker, and completes them in the order they were sent.
+ *
+ * A send holds its place in the window until it and every send before it
+ * have completed, so a slow response holds back the callbacks of the sends
+ * after it.  Callbacks are called on the thread that completes the send,
+ * usually the transport thread, and must not wait for a place in the same
+ * window or for the window to complete.  The first failure of a send
+ * without a callback is kept until the producer takes it with
+ * {@link #takeFailure()} and throws it.
+ *
+ * The producer's send timeout bounds both the wait for a place and the wait
+ * for the response, which fails the send with a
+ * {@link RequestTimedOutIOException}.  The producer window does not apply,
+ * as for any send the broker answers with a response rather than a
+ * ProducerAck; this window bounds the sends instead.
+ */
+class PipelinedSendWindow {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelinedSendWindow.class);
+
+    private final int size;
+    private final ArrayDeque<PendingSend> pending = new ArrayDeque<PendingSend>();
+    private boolean completing;
+    private JMSException failure;
+
+    PipelinedSendWindow(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive: " + size);
+        }
+        this.size = size;
+    }
+
+    /**
+     * Waits for a place in the window and takes it.
+     *
+     * @param onComplete
+     *      called when the send completes, may be null
+     * @param timeout
+     *      the most milliseconds to wait, or 0 to wait for as long as it takes
+     * @return the callback to send the message with
+     * @throws JMSException if no place was free in time
+     */
+    PendingSend add(AsyncCallback onComplete, long timeout) throws InterruptedException, JMSException {
+        PendingSend send = new PendingSend(onComplete);
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (pending.size() >= size) {
+                if (timeout <= 0) {
+                    wait();
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw JMSExceptionSupport.create(new RequestTimedOutIOException());
+                    }
+                    wait(remaining);
+                }
+            }
+            pending.add(send);
+        }
+        return send;
+    }
+
+    /**
+     * Waits until every send in the window has completed and its callback
+     * has returned.
+     */
+    synchronized void waitForCompletion() throws InterruptedException {
+        while (!pending.isEmpty() || completing) {
+            wait();
+        }
+    }
+
+    /**
+     * @return the first failure of a send without a callback since the last
+     *         call, or null if there was none.
+     */
+    synchronized JMSException takeFailure() {
+        JMSException result = failure;
+        failure = null;
+        return result;
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    private void complete(PendingSend send, JMSException error, boolean notify) {
+        synchronized (this) {
+            if (send.done) {
+                // a failed write can be reported both to the caller and the callback
+                return;
+            }
+            send.done = true;
+            send.error = error;
+            send.notify = notify;
+            if (completing) {
+                // the thread completing the sends before this one will get to it
+                return;
+            }
+            completing = true;
+        }
+        while (true) {
+            PendingSend head;
+            synchronized (this) {
+                head = pending.peek();
+                if (head == null || !head.done) {
+                    completing = false;
+                    notifyAll();
+                    return;
+                }
+                pending.poll();
+                if (head.notify && head.onComplete == null && head.error != null && failure == null) {
+                    failure = head.error;
+                }
+                notifyAll();
+            }
+            if (head.notify && head.onComplete != null) {
+                try {
+                    if (head.error == null) {
+                        head.onComplete.onSuccess();
+                    } else {
+                        head.onComplete.onException(head.error);
+                    }
+                } catch (Throwable e) {
+                    LOG.warn("Send completion callback threw an exception", e);
+                }
+            }
+        }
+    }
+
+    final class PendingSend implements AsyncCallback {
+
+        private final AsyncCallback onComplete;
+        private boolean done;
+        private boolean notify;
+        private JMSException error;
+
+        PendingSend(AsyncCallback onComplete) {
+            this.onComplete = onComplete;
+        }
+
+        @Override
+        public void onSuccess() {
+            complete(this, null, true);
+        }
+
+        @Override
+        public void onException(JMSException error) {
+            complete(this, error, true);
+        }
+
+        /**
+         * Fails the send if the broker has not answered it yet.
+         */
+        void timeOut() {
+            complete(this, JMSExceptionSupport.create(new RequestTimedOutIOException()), true);
+        }
+
+        /**
+         * Gives up the place of a send that failed before it was written,
+         * whose caller gets the error instead of the callback.
+         */
+        void cancel() {
+            complete(this, null, false);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.Message;
+import org.apache.activemq.command.MessageBatch;
+import org.apache.activemq.command.ProducerId;
+
+/**
+ * Collects the asynchronous sends of a producer and writes them to the broker
+ * as a single {@link MessageBatch} once they add up to the batch size, or
+ * when the batch timeout expires.
+ *
+ * The batch is written while holding its lock so that a batch written by the
+ * timer can not overtake a later one written by the sending thread.
+ */
+class ProducerSendBatch {
+
+    private final ActiveMQConnection connection;
+    private final ProducerId producerId;
+    private final int batchSize;
+    private final long batchTimeout;
+    private final List<Message> messages = new ArrayList<Message>();
+    private int size;
+    private boolean flushScheduled;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (JMSException e) {
+                connection.onAsyncException(e);
+            }
+        }
+    };
+
+    ProducerSendBatch(ActiveMQConnection connection, ProducerId producerId, int batchSize, long batchTimeout) {
+        this.connection = connection;
+        this.producerId = producerId;
+        this.batchSize = batchSize;
+        this.batchTimeout = batchTimeout;
+    }
+
+    /**
+     * Adds a message to the batch, or sends it straight away if the broker
+     * does not accept batches.
+     */
+    synchronized void add(Message message) throws JMSException {
+        if (!connection.isMessageBatchEnabled()) {
+            flush();
+            connection.asyncSendPacket(message);
+            return;
+        }
+        messages.add(message);
+        size += message.getSize();
+        if (size >= batchSize || messages.size() >= Short.MAX_VALUE) {
+            flush();
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            connection.getScheduler().executeAfterDelay(flushTask, batchTimeout);
+        }
+    }
+
+    /**
+     * Writes the messages collected so far.
+     */
+    synchronized void flush() throws JMSException {
+        flushScheduled = false;
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            if (messages.size() == 1) {
+                connection.asyncSendPacket(messages.get(0));
+            } else if (!connection.isMessageBatchEnabled()) {
+                // reconnected to a broker that does not accept batches
+                for (Message message : messages) {
+                    connection.asyncSendPacket(message);
+                }
+            } else {
+                connection.asyncSendPacket(new MessageBatch(producerId, messages.toArray(new Message[messages.size()])));
+            }
+        } finally {
+            messages.clear();
+            size = 0;
+        }
+    }
+}
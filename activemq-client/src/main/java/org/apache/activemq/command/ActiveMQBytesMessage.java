@@ -20,11 +20,7 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.Arrays;
-import java.util.zip.Deflater;
-import java.util.zip.Inflater;
 
 import javax.jms.BytesMessage;
 import javax.jms.JMSException;
@@ -33,7 +29,8 @@ import javax.jms.MessageFormatException;
 import javax.jms.MessageNotReadableException;
 import javax.jms.MessageNotWriteableException;
 
-import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.compression.CompressionCodec;
+import org.apache.activemq.compression.CompressionSupport;
 import org.apache.activemq.util.ByteArrayInputStream;
 import org.apache.activemq.util.ByteArrayOutputStream;
 import org.apache.activemq.util.ByteSequence;
@@ -126,13 +123,7 @@ public class ActiveMQBytesMessage extends ActiveMQMessage implements BytesMessag
         if (dataOut != null) {
             try {
                 dataOut.close();
-                ByteSequence bs = bytesOut.toByteSequence();
-                setContent(bs);
-
-                ActiveMQConnection connection = getConnection();
-                if (connection != null && connection.isUseCompression()) {
-                    doCompress();
-                }
+                setContent(compressContent(bytesOut.toByteSequence()));
             } catch (IOException ioe) {
                 throw new RuntimeException(ioe.getMessage(), ioe);
             } finally {
@@ -843,7 +834,8 @@ public class ActiveMQBytesMessage extends ActiveMQMessage implements BytesMessag
             try {
                 ByteSequence toRestore = this.content;
                 if (compressed) {
-                    toRestore = new ByteSequence(decompress(this.content));
+                    toRestore = decompressContent(toRestore);
+                    compressed = false;
                 }
 
                 this.dataOut.write(toRestore.getData(), toRestore.getOffset(), toRestore.getLength());
@@ -869,41 +861,46 @@ public class ActiveMQBytesMessage extends ActiveMQMessage implements BytesMessag
             ByteSequence data = getContent();
             if (data == null) {
                 data = new ByteSequence(new byte[] {}, 0, 0);
+            } else if (isCompressed() && data.length != 0) {
+                data = decompressContent(data);
             }
-            InputStream is = new ByteArrayInputStream(data);
-            if (isCompressed()) {
-                if (data.length != 0) {
-                    is = new ByteArrayInputStream(decompress(data));
-                }
-            } else {
-                length = data.getLength();
-            }
+            length = data.getLength();
 
-            dataIn = new DataInputStream(is);
+            dataIn = new DataInputStream(new ByteArrayInputStream(data));
             } catch (IOException ioe) {
                 throw JMSExceptionSupport.create(ioe);
             }
         }
     }
 
-    protected byte[] decompress(ByteSequence dataSequence) throws IOException {
-        Inflater inflater = new Inflater();
-        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
-        try {
-            length = ByteSequenceData.readIntBig(dataSequence);
-            dataSequence.offset = 0;
-            byte[] data = Arrays.copyOfRange(dataSequence.getData(), 4, dataSequence.getLength());
-            inflater.setInput(data);
-            byte[] buffer = new byte[length];
-            int count = inflater.inflate(buffer);
-            decompressed.write(buffer, 0, count);
-            return decompressed.toByteArray();
-        } catch (Exception e) {
-            throw new IOException(e);
-        } finally {
-            inflater.end();
-            decompressed.close();
+    /**
+     * Bytes compressed with the default codec are preceded by the length of
+     * the uncompressed body, which is how bytes messages have always been
+     * compressed.
+     */
+    @Override
+    protected ByteSequence compressContent(ByteSequence body, CompressionCodec codec) throws IOException {
+        if (!CompressionSupport.isDefaultCodec(codec)) {
+            return super.compressContent(body, codec);
+        }
+        ByteSequence deflated = codec.compress(body);
+        ByteSequence bytes = new ByteSequence(new byte[4 + deflated.getLength()]);
+        ByteSequenceData.writeIntBig(bytes, body.getLength());
+        System.arraycopy(deflated.getData(), deflated.getOffset(), bytes.getData(), 4, deflated.getLength());
+        bytes.offset = 0;
+        return bytes;
+    }
+
+    @Override
+    protected ByteSequence decompressContent(ByteSequence content) throws IOException {
+        if (CompressionSupport.hasCodecHeader(content)) {
+            return super.decompressContent(content);
+        }
+        if (content.getLength() < 4) {
+            throw new IOException("Compressed body is truncated");
         }
+        CompressionCodec codec = CompressionSupport.findCodec(CompressionSupport.DEFAULT_CODEC);
+        return codec.decompress(new ByteSequence(content.getData(), content.getOffset() + 4, content.getLength() - 4));
     }
 
     @Override
@@ -916,33 +913,4 @@ public class ActiveMQBytesMessage extends ActiveMQMessage implements BytesMessag
     public String toString() {
         return super.toString() + " ActiveMQBytesMessage{ " + "bytesOut = " + bytesOut + ", dataOut = " + dataOut + ", dataIn = " + dataIn + " }";
     }
-
-    @Override
-    protected void doCompress() throws IOException {
-        compressed = true;
-        ByteSequence bytes = getContent();
-        if (bytes != null) {
-            int length = bytes.getLength();
-            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-            compressed.write(new byte[4]);
-            Deflater deflater = new Deflater();
-            try {
-                deflater.setInput(bytes.data);
-                deflater.finish();
-                byte[] buffer = new byte[1024];
-                while (!deflater.finished()) {
-                    int count = deflater.deflate(buffer);
-                    compressed.write(buffer, 0, count);
-                }
-
-                bytes = compressed.toByteSequence();
-                ByteSequenceData.writeIntBig(bytes, length);
-                bytes.offset = 0;
-                setContent(bytes);
-            } finally {
-                deflater.end();
-                compressed.close();
-            }
-        }
-    }
 }
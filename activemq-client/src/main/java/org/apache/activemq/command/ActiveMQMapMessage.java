@@ -19,22 +19,17 @@ package org.apache.activemq.command;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectStreamException;
-import java.io.OutputStream;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
 
 import javax.jms.JMSException;
 import javax.jms.MapMessage;
 import javax.jms.MessageFormatException;
 import javax.jms.MessageNotWriteableException;
 
-import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.util.ByteArrayInputStream;
 import org.apache.activemq.util.ByteArrayOutputStream;
 import org.apache.activemq.util.ByteSequence;
@@ -146,16 +141,10 @@ public class ActiveMQMapMessage extends ActiveMQMessage implements MapMessage {
         try {
             if (getContent() == null && !map.isEmpty()) {
                 ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-                OutputStream os = bytesOut;
-                ActiveMQConnection connection = getConnection();
-                if (connection != null && connection.isUseCompression()) {
-                    compressed = true;
-                    os = new DeflaterOutputStream(os);
-                }
-                DataOutputStream dataOut = new DataOutputStream(os);
+                DataOutputStream dataOut = new DataOutputStream(bytesOut);
                 MarshallingSupport.marshalPrimitiveMap(map, dataOut);
                 dataOut.close();
-                setContent(bytesOut.toByteSequence());
+                setContent(compressContent(bytesOut.toByteSequence()));
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -172,11 +161,10 @@ public class ActiveMQMapMessage extends ActiveMQMessage implements MapMessage {
         try {
             if (getContent() != null && map.isEmpty()) {
                 ByteSequence content = getContent();
-                InputStream is = new ByteArrayInputStream(content);
                 if (isCompressed()) {
-                    is = new InflaterInputStream(is);
+                    content = decompressContent(content);
                 }
-                DataInputStream dataIn = new DataInputStream(is);
+                DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(content));
                 map = MarshallingSupport.unmarshalPrimitiveMap(dataIn);
                 dataIn.close();
             }
@@ -20,12 +20,8 @@ package org.apache.activemq.command;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.ObjectOutputStream;
-import java.io.OutputStream;
 import java.io.Serializable;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
 
 import javax.jms.JMSException;
 import javax.jms.ObjectMessage;
@@ -101,19 +97,13 @@ public class ActiveMQObjectMessage extends ActiveMQMessage implements ObjectMess
         if (bodyAsBytes == null && object != null) {
             try {
                 ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-                OutputStream os = bytesOut;
-                ActiveMQConnection connection = getConnection();
-                if (connection != null && connection.isUseCompression()) {
-                    compressed = true;
-                    os = new DeflaterOutputStream(os);
-                }
-                DataOutputStream dataOut = new DataOutputStream(os);
+                DataOutputStream dataOut = new DataOutputStream(bytesOut);
                 ObjectOutputStream objOut = new ObjectOutputStream(dataOut);
                 objOut.writeObject(object);
                 objOut.flush();
                 objOut.reset();
                 objOut.close();
-                setContent(bytesOut.toByteSequence());
+                setContent(compressContent(bytesOut.toByteSequence()));
             } catch (IOException ioe) {
                 throw new RuntimeException(ioe.getMessage(), ioe);
             }
@@ -181,11 +171,10 @@ public class ActiveMQObjectMessage extends ActiveMQMessage implements ObjectMess
         if (object == null && getContent() != null) {
             try {
                 ByteSequence content = getContent();
-                InputStream is = new ByteArrayInputStream(content);
                 if (isCompressed()) {
-                    is = new InflaterInputStream(is);
+                    content = decompressContent(content);
                 }
-                DataInputStream dataIn = new DataInputStream(is);
+                DataInputStream dataIn = new DataInputStream(new ByteArrayInputStream(content));
                 ClassLoadingAwareObjectInputStream objIn = new ClassLoadingAwareObjectInputStream(dataIn);
                 try {
                     object = (Serializable)objIn.readObject();
@@ -17,15 +17,10 @@
 
 package org.apache.activemq.command;
 
-import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
 
 import javax.jms.JMSException;
 import javax.jms.MessageEOFException;
@@ -34,7 +29,6 @@ import javax.jms.MessageNotReadableException;
 import javax.jms.MessageNotWriteableException;
 import javax.jms.StreamMessage;
 
-import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.util.ByteArrayInputStream;
 import org.apache.activemq.util.ByteArrayOutputStream;
 import org.apache.activemq.util.ByteSequence;
@@ -144,7 +138,7 @@ public class ActiveMQStreamMessage extends ActiveMQMessage implements StreamMess
         if (dataOut != null) {
             try {
                 dataOut.close();
-                setContent(bytesOut.toByteSequence());
+                setContent(compressContent(bytesOut.toByteSequence()));
                 bytesOut = null;
                 dataOut = null;
             } catch (IOException ioe) {
@@ -1144,34 +1138,19 @@ public class ActiveMQStreamMessage extends ActiveMQMessage implements StreamMess
         checkReadOnlyBody();
         if (this.dataOut == null) {
             this.bytesOut = new ByteArrayOutputStream();
-            OutputStream os = bytesOut;
-            ActiveMQConnection connection = getConnection();
-            if (connection != null && connection.isUseCompression()) {
-                compressed = true;
-                os = new DeflaterOutputStream(os);
-            }
-            this.dataOut = new DataOutputStream(os);
+            this.dataOut = new DataOutputStream(bytesOut);
         }
 
         // For a message that already had a body and was sent we need to restore the content
         // if the message is used again without having its clearBody method called.
         if (this.content != null && this.content.length > 0) {
             try {
+                ByteSequence restored = this.content;
                 if (compressed) {
-                    ByteArrayInputStream input = new ByteArrayInputStream(this.content.getData(), this.content.getOffset(), this.content.getLength());
-                    InflaterInputStream inflater = new InflaterInputStream(input);
-                    try {
-                        byte[] buffer = new byte[8*1024];
-                        int read = 0;
-                        while ((read = inflater.read(buffer)) != -1) {
-                            this.dataOut.write(buffer, 0, read);
-                        }
-                    } finally {
-                        inflater.close();
-                    }
-                } else {
-                    this.dataOut.write(this.content.getData(), this.content.getOffset(), this.content.getLength());
+                    restored = decompressContent(restored);
+                    compressed = false;
                 }
+                this.dataOut.write(restored.getData(), restored.getOffset(), restored.getLength());
                 // Free up the buffer from the old content, will be re-written when
                 // tbe message is sent again and storeContent() is called.
                 this.content = null;
@@ -1187,19 +1166,20 @@ public class ActiveMQStreamMessage extends ActiveMQMessage implements StreamMess
         }
     }
 
-    private void initializeReading() throws MessageNotReadableException {
+    private void initializeReading() throws JMSException {
         checkWriteOnlyBody();
         if (this.dataIn == null) {
             ByteSequence data = getContent();
             if (data == null) {
                 data = new ByteSequence(new byte[] {}, 0, 0);
+            } else if (isCompressed()) {
+                try {
+                    data = decompressContent(data);
+                } catch (IOException e) {
+                    throw JMSExceptionSupport.create(e);
+                }
             }
-            InputStream is = new ByteArrayInputStream(data);
-            if (isCompressed()) {
-                is = new InflaterInputStream(is);
-                is = new BufferedInputStream(is);
-            }
-            this.dataIn = new DataInputStream(is);
+            this.dataIn = new DataInputStream(new ByteArrayInputStream(data));
         }
     }
 
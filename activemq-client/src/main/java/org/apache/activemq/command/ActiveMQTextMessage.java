@@ -20,16 +20,12 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.HashMap;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.InflaterInputStream;
 
 import javax.jms.JMSException;
 import javax.jms.MessageNotWriteableException;
 import javax.jms.TextMessage;
 
-import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.util.ByteArrayInputStream;
 import org.apache.activemq.util.ByteArrayOutputStream;
 import org.apache.activemq.util.ByteSequence;
@@ -88,10 +84,10 @@ public class ActiveMQTextMessage extends ActiveMQMessage implements TextMessage
             try {
                 ByteSequence bodyAsBytes = getContent();
                 if (bodyAsBytes != null) {
-                    is = new ByteArrayInputStream(bodyAsBytes);
                     if (isCompressed()) {
-                        is = new InflaterInputStream(is);
+                        bodyAsBytes = decompressContent(bodyAsBytes);
                     }
+                    is = new ByteArrayInputStream(bodyAsBytes);
                     DataInputStream dataIn = new DataInputStream(is);
                     text = MarshallingSupport.readUTF8(dataIn);
                     dataIn.close();
@@ -128,16 +124,10 @@ public class ActiveMQTextMessage extends ActiveMQMessage implements TextMessage
             ByteSequence content = getContent();
             if (content == null && text != null) {
                 ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-                OutputStream os = bytesOut;
-                ActiveMQConnection connection = getConnection();
-                if (connection != null && connection.isUseCompression()) {
-                    compressed = true;
-                    os = new DeflaterOutputStream(os);
-                }
-                DataOutputStream dataOut = new DataOutputStream(os);
+                DataOutputStream dataOut = new DataOutputStream(bytesOut);
                 MarshallingSupport.writeUTF8(dataOut, this.text);
                 dataOut.close();
-                setContent(bytesOut.toByteSequence());
+                setContent(compressContent(bytesOut.toByteSequence()));
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
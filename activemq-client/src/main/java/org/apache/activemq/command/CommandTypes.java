@@ -76,6 +76,8 @@ public interface CommandTypes {
     byte ACTIVEMQ_TEXT_MESSAGE = 28;
     byte ACTIVEMQ_BLOB_MESSAGE = 29;
 
+    byte MESSAGE_BATCH = 35;
+
     // /////////////////////////////////////////////////
     //
     // Command Response messages
@@ -18,6 +18,7 @@ package org.apache.activemq.command;
 
 import java.io.IOException;
 
+import org.apache.activemq.util.ByteSequence;
 import org.apache.activemq.wireformat.WireFormat;
 
 public interface MarshallAware {
@@ -30,4 +31,8 @@ public interface MarshallAware {
 
     void afterUnmarshall(WireFormat wireFormat) throws IOException;
 
+    void setCachedMarshalledForm(WireFormat wireFormat, ByteSequence data);
+
+    ByteSequence getCachedMarshalledForm(WireFormat wireFormat);
+
 }
@@ -19,17 +19,17 @@ package org.apache.activemq.command;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.zip.DeflaterOutputStream;
 
 import javax.jms.JMSException;
 
 import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.advisory.AdvisorySupport;
 import org.apache.activemq.broker.region.MessageReference;
+import org.apache.activemq.compression.CompressionCodec;
+import org.apache.activemq.compression.CompressionSupport;
 import org.apache.activemq.usage.MemoryUsage;
 import org.apache.activemq.util.ByteArrayInputStream;
 import org.apache.activemq.util.ByteArrayOutputStream;
@@ -89,6 +89,10 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
     protected boolean droppable;
     protected boolean jmsXGroupFirstForConsumer;
 
+    private transient volatile ByteSequence cachedMarshalledForm;
+    private transient volatile boolean marshalledFormShared;
+    private transient volatile LazyMessageFields lazyFields;
+    private transient boolean decodingLazyFields;
     private transient short referenceCount;
     private transient ActiveMQConnection connection;
     transient MessageDestination regionDestination;
@@ -110,9 +114,12 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
     // useful to reduce the memory footprint of a persisted message
     public void clearMarshalledState() throws JMSException {
         properties = null;
+        cachedMarshalledForm = null;
     }
 
     protected void copy(Message copy) {
+        // the copy decodes the lazy fields for itself
+        LazyMessageFields lazyFields = this.lazyFields;
         super.copy(copy);
         copy.producerId = producerId;
         copy.transactionId = transactionId;
@@ -158,6 +165,8 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
         copy.memoryUsage=this.memoryUsage;
         copy.brokerPath = brokerPath;
         copy.jmsXGroupFirstForConsumer = jmsXGroupFirstForConsumer;
+        copy.cachedMarshalledForm = cachedMarshalledForm;
+        copy.lazyFields = lazyFields;
 
         // lets not copy the following fields
         // copy.targetConsumerId = targetConsumerId;
@@ -246,6 +255,68 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
 	public void afterUnmarshall(WireFormat wireFormat) throws IOException {
     }
 
+    /**
+     * Keeps the marshalled form of the message so the wire format can write
+     * it again rather than marshal the message.  The wire format checks that
+     * the form is still current before using it.
+     */
+    @Override
+    public void setCachedMarshalledForm(WireFormat wireFormat, ByteSequence data) {
+        cachedMarshalledForm = data;
+    }
+
+    @Override
+    public ByteSequence getCachedMarshalledForm(WireFormat wireFormat) {
+        return cachedMarshalledForm;
+    }
+
+    /**
+     * Sets the fields left encoded when the message was unmarshalled.  They
+     * are decoded the first time one of them is read or written.
+     */
+    public void setLazyFields(LazyMessageFields lazyFields) {
+        this.lazyFields = lazyFields;
+    }
+
+    public boolean hasLazyFields() {
+        return lazyFields != null;
+    }
+
+    protected void decodeLazyFields() {
+        if (lazyFields == null) {
+            return;
+        }
+        synchronized (this) {
+            LazyMessageFields fields = lazyFields;
+            // the fields are set through their setters while being decoded
+            if (fields == null || decodingLazyFields) {
+                return;
+            }
+            decodingLazyFields = true;
+            try {
+                fields.decode(this);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not decode the fields of message: " + messageId, e);
+            } finally {
+                lazyFields = null;
+                decodingLazyFields = false;
+            }
+        }
+    }
+
+    public boolean isMarshalledFormShared() {
+        return marshalledFormShared;
+    }
+
+    /**
+     * Marks the message as one that is dispatched to many consumers, so the
+     * first connection to marshal it keeps its marshalled form for the
+     * others.  The form is released once the message is no longer referenced.
+     */
+    public void setMarshalledFormShared(boolean marshalledFormShared) {
+        this.marshalledFormShared = marshalledFormShared;
+    }
+
     // /////////////////////////////////////////////////////////////////
     //
     // Simple Field accessors
@@ -293,10 +364,12 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
      * @openwire:property version=1 cache=true
      */
     public ActiveMQDestination getOriginalDestination() {
+        decodeLazyFields();
         return originalDestination;
     }
 
     public void setOriginalDestination(ActiveMQDestination destination) {
+        decodeLazyFields();
         this.originalDestination = destination;
     }
 
@@ -351,10 +424,12 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
      * @openwire:property version=1
      */
     public String getCorrelationId() {
+        decodeLazyFields();
         return correlationId;
     }
 
     public void setCorrelationId(String correlationId) {
+        decodeLazyFields();
         this.correlationId = correlationId;
     }
 
@@ -403,10 +478,12 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
      * @openwire:property version=1
      */
     public ActiveMQDestination getReplyTo() {
+        decodeLazyFields();
         return replyTo;
     }
 
     public void setReplyTo(ActiveMQDestination replyTo) {
+        decodeLazyFields();
         this.replyTo = replyTo;
     }
 
@@ -544,10 +621,12 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
      * @openwire:property version=1 cache=true
      */
     public BrokerId[] getBrokerPath() {
+        decodeLazyFields();
         return brokerPath;
     }
 
     public void setBrokerPath(BrokerId[] brokerPath) {
+        decodeLazyFields();
         this.brokerPath = brokerPath;
     }
 
@@ -598,10 +677,12 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
      * @openwire:property version=1
      */
     public String getUserID() {
+        decodeLazyFields();
         return userID;
     }
 
     public void setUserID(String jmsxUserID) {
+        decodeLazyFields();
         this.userID = jmsxUserID;
     }
 
@@ -673,6 +754,10 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
             size = getSize();
         }
 
+        if (rc == 0 && marshalledFormShared) {
+            cachedMarshalledForm = null;
+        }
+
         if (rc == 0 && getMemoryUsage() != null) {
             getMemoryUsage().decreaseUsage(size);
             //Thread.dumpStack();
@@ -746,10 +831,12 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
      * @openwire:property version=3 cache=true
      */
     public BrokerId[] getCluster() {
+        decodeLazyFields();
         return cluster;
     }
 
     public void setCluster(BrokerId[] cluster) {
+        decodeLazyFields();
         this.cluster = cluster;
     }
 
@@ -807,12 +894,31 @@ public abstract class Message extends BaseCommand implements MarshallAware, Mess
 
     protected void doCompress() throws IOException {
         compressed = true;
-        ByteSequence bytes = getContent();
-        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
-        OutputStream os = new DeflaterOutputStream(bytesOut);
-        os.write(bytes.data, bytes.offset, bytes.length);
-        os.close();
-        setContent(bytesOut.toByteSequence());
+        setContent(compressContent(getContent(), CompressionSupport.findCodec(CompressionSupport.DEFAULT_CODEC)));
+    }
+
+    /**
+     * Compresses a newly written body with the codec of the connection, unless
+     * the connection does not compress or the body is below its compression
+     * threshold.
+     *
+     * @return the content to store.
+     */
+    protected ByteSequence compressContent(ByteSequence body) throws IOException {
+        ActiveMQConnection connection = getConnection();
+        compressed = connection != null && connection.isUseCompression() && body.getLength() >= connection.getCompressionThreshold();
+        if (!compressed) {
+            return body;
+        }
+        return compressContent(body, CompressionSupport.findCodec(connection.getCompressionCodec()));
+    }
+
+    protected ByteSequence compressContent(ByteSequence body, CompressionCodec codec) throws IOException {
+        return CompressionSupport.compress(codec, body);
+    }
+
+    protected ByteSequence decompressContent(ByteSequence content) throws IOException {
+        return CompressionSupport.decompress(content);
     }
 
     @Override
@@ -0,0 +1,78 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.command;
+
+import org.apache.activemq.state.CommandVisitor;
+
+/**
+ * Carries several messages sent asynchronously by one producer in a single
+ * command, so that small messages share the cost of a frame.  The broker
+ * handles the messages in order, as if they had been sent one at a time.
+ *
+ * A client only sends a MessageBatch to a broker that has advertised support
+ * for it while negotiating the wire format.
+ *
+ * @openwire:marshaller code="35" version="10"
+ *
+ */
+public class MessageBatch extends BaseCommand {
+
+    public static final byte DATA_STRUCTURE_TYPE = CommandTypes.MESSAGE_BATCH;
+
+    protected ProducerId producerId;
+    protected Message[] messages;
+
+    public MessageBatch() {
+    }
+
+    public MessageBatch(ProducerId producerId, Message[] messages) {
+        this.producerId = producerId;
+        this.messages = messages;
+    }
+
+    @Override
+    public byte getDataStructureType() {
+        return DATA_STRUCTURE_TYPE;
+    }
+
+    @Override
+    public Response visit(CommandVisitor visitor) throws Exception {
+        return visitor.processMessageBatch(this);
+    }
+
+    /**
+     * @openwire:property version=10 cache=true
+     */
+    public ProducerId getProducerId() {
+        return producerId;
+    }
+
+    public void setProducerId(ProducerId producerId) {
+        this.producerId = producerId;
+    }
+
+    /**
+     * @openwire:property version=10
+     */
+    public Message[] getMessages() {
+        return messages;
+    }
+
+    public void setMessages(Message[] messages) {
+        this.messages = messages;
+    }
+}
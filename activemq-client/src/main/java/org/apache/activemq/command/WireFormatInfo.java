@@ -240,6 +240,18 @@ public class WireFormatInfo implements Command, MarshallAware {
         setProperty("SizePrefixDisabled", prefixPacketSize ? Boolean.TRUE : Boolean.FALSE);
     }
 
+    /**
+     * @return true if the peer accepts {@link MessageBatch} commands.
+     * @throws IOException
+     */
+    public boolean isMessageBatchEnabled() throws IOException {
+        return Boolean.TRUE == getProperty("MessageBatchEnabled");
+    }
+
+    public void setMessageBatchEnabled(boolean messageBatchEnabled) throws IOException {
+        setProperty("MessageBatchEnabled", messageBatchEnabled ? Boolean.TRUE : Boolean.FALSE);
+    }
+
     /**
      * @throws IOException
      */
@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.compression;
+
+import java.io.IOException;
+
+import org.apache.activemq.util.ByteSequence;
+
+/**
+ * Compresses message bodies.  A codec is found by its name through
+ * {@link CompressionSupport}, and the name is recorded in the bodies it
+ * compresses so the consumer decompresses them with the same codec.
+ *
+ * Codecs are shared by every connection and must be thread safe.
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return the name the codec is registered under.
+     */
+    String getName();
+
+    ByteSequence compress(ByteSequence data) throws IOException;
+
+    ByteSequence decompress(ByteSequence data) throws IOException;
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.compression;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.activemq.util.ByteSequence;
+import org.apache.activemq.util.FactoryFinder;
+import org.apache.activemq.util.IOExceptionSupport;
+
+/**
+ * Finds compression codecs by name and records which codec compressed a
+ * message body.
+ *
+ * Codecs are found in META-INF/services/org/apache/activemq/compression/ and
+ * a single instance of each is shared.  Bodies compressed with the default
+ * {@link DeflateCodec} are written without a header, as they always have
+ * been, so that older clients can read them.  Bodies compressed with any
+ * other codec start with {@link #CODEC_HEADER_MAGIC} followed by the name of
+ * the codec.  The magic byte can not start a zlib stream.
+ */
+public final class CompressionSupport {
+
+    public static final String DEFAULT_CODEC = DeflateCodec.NAME;
+    public static final byte CODEC_HEADER_MAGIC = (byte) 0xAC;
+
+    private static final FactoryFinder CODEC_FINDER = new FactoryFinder("META-INF/services/org/apache/activemq/compression/");
+    private static final ConcurrentHashMap<String, CompressionCodec> CODECS = new ConcurrentHashMap<String, CompressionCodec>();
+
+    private CompressionSupport() {
+    }
+
+    public static CompressionCodec findCodec(String name) throws IOException {
+        if (name == null) {
+            name = DEFAULT_CODEC;
+        }
+        CompressionCodec codec = CODECS.get(name);
+        if (codec == null) {
+            try {
+                codec = (CompressionCodec) CODEC_FINDER.newInstance(name);
+            } catch (Throwable e) {
+                throw IOExceptionSupport.create("Compression codec NOT recognized: [" + name + "]", e);
+            }
+            CompressionCodec existing = CODECS.putIfAbsent(name, codec);
+            if (existing != null) {
+                codec = existing;
+            }
+        }
+        return codec;
+    }
+
+    public static void registerCodec(CompressionCodec codec) {
+        CODECS.put(codec.getName(), codec);
+    }
+
+    public static boolean isDefaultCodec(CompressionCodec codec) {
+        return DEFAULT_CODEC.equals(codec.getName());
+    }
+
+    /**
+     * Compresses data with the codec, preceded by the codec header unless the
+     * codec is the default one.
+     */
+    public static ByteSequence compress(CompressionCodec codec, ByteSequence data) throws IOException {
+        ByteSequence compressed = codec.compress(data);
+        if (isDefaultCodec(codec)) {
+            return compressed;
+        }
+        byte[] name = codec.getName().getBytes(StandardCharsets.UTF_8);
+        if (name.length > 255) {
+            throw new IOException("Compression codec name is too long: " + codec.getName());
+        }
+        byte[] rc = new byte[2 + name.length + compressed.getLength()];
+        rc[0] = CODEC_HEADER_MAGIC;
+        rc[1] = (byte) name.length;
+        System.arraycopy(name, 0, rc, 2, name.length);
+        System.arraycopy(compressed.getData(), compressed.getOffset(), rc, 2 + name.length, compressed.getLength());
+        return new ByteSequence(rc);
+    }
+
+    /**
+     * Decompresses data with the codec named in its header, or with the
+     * default codec when it has none.
+     */
+    public static ByteSequence decompress(ByteSequence data) throws IOException {
+        if (!hasCodecHeader(data)) {
+            return findCodec(DEFAULT_CODEC).decompress(data);
+        }
+        byte[] buffer = data.getData();
+        int nameLength = buffer[data.getOffset() + 1] & 0xFF;
+        if (data.getLength() < 2 + nameLength) {
+            throw new IOException("Compressed data is truncated");
+        }
+        String name = new String(buffer, data.getOffset() + 2, nameLength, StandardCharsets.UTF_8);
+        return findCodec(name).decompress(new ByteSequence(buffer, data.getOffset() + 2 + nameLength, data.getLength() - 2 - nameLength));
+    }
+
+    public static boolean hasCodecHeader(ByteSequence data) {
+        return data.getLength() >= 2 && data.getData()[data.getOffset()] == CODEC_HEADER_MAGIC;
+    }
+}
@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.compression;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.activemq.util.ByteArrayOutputStream;
+import org.apache.activemq.util.ByteSequence;
+
+/**
+ * Compresses with zlib, the format messages have always been compressed
+ * with.  Deflaters and inflaters hold native memory, so they are pooled
+ * rather than created for every message.
+ */
+public class DeflateCodec implements CompressionCodec {
+
+    public static final String NAME = "deflate";
+
+    private static final int MAX_POOLED = 16;
+
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final ConcurrentLinkedQueue<Inflater> inflaters = new ConcurrentLinkedQueue<Inflater>();
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public ByteSequence compress(ByteSequence data) throws IOException {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater();
+        }
+        try {
+            deflater.setInput(data.getData(), data.getOffset(), data.getLength());
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.getLength() / 2));
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                compressed.write(buffer, 0, count);
+            }
+            return compressed.toByteSequence();
+        } finally {
+            deflater.reset();
+            if (deflaters.size() < MAX_POOLED) {
+                deflaters.add(deflater);
+            } else {
+                deflater.end();
+            }
+        }
+    }
+
+    @Override
+    public ByteSequence decompress(ByteSequence data) throws IOException {
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        try {
+            inflater.setInput(data.getData(), data.getOffset(), data.getLength());
+            ByteArrayOutputStream decompressed = new ByteArrayOutputStream(Math.max(64, data.getLength() * 2));
+            byte[] buffer = new byte[1024];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Compressed data is truncated");
+                }
+                decompressed.write(buffer, 0, count);
+            }
+            return decompressed.toByteSequence();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.reset();
+            if (inflaters.size() < MAX_POOLED) {
+                inflaters.add(inflater);
+            } else {
+                inflater.end();
+            }
+        }
+    }
+}
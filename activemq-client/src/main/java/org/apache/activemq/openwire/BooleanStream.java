@@ -109,6 +109,21 @@ public final class BooleanStream {
         bytePos = 0;
     }
 
+    /**
+     * @return the number of booleans read or written so far.
+     */
+    int position() {
+        return arrayPos * 8 + bytePos;
+    }
+
+    /**
+     * Moves to the given number of booleans from the start of the stream.
+     */
+    void seek(int position) {
+        arrayPos = (short) (position >> 3);
+        bytePos = (byte) (position & 7);
+    }
+
     public int marshalledSize() {
         if (arrayLimit < 64) {
             return 1 + arrayLimit;
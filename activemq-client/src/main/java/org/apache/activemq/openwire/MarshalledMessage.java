@@ -0,0 +1,237 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire;
+
+import java.io.IOException;
+
+import org.apache.activemq.command.LazyMessageFields;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.activemq.util.DataByteArrayInputStream;
+import org.apache.activemq.util.DataByteArrayOutputStream;
+
+/**
+ * The tight encoded frame of a message, kept with the message so the message
+ * can be written again without marshalling all of its fields.
+ *
+ * The frame is a size prefixed command, which is both how a message is sent
+ * on its own and how OpenWire nests the cached marshalled form of a message
+ * inside another command such as a MessageDispatch.  For every field the
+ * frame records where the field's bits start in the boolean stream and where
+ * its bytes start in the body, along with the state of the field when the
+ * frame was made.  When fields of the message change, for example when the
+ * broker sets the broker in time or appends to the broker path, a new frame
+ * is made that copies the unchanged fields and marshals only the changed ones.
+ *
+ * Frames are marshalled without the marshall cache, so a frame can be written
+ * on any connection that uses the same version and tight encoding and does
+ * not use the marshall cache.
+ */
+public final class MarshalledMessage extends ByteSequence {
+
+    // the state of a lazy field that has not been decoded
+    private static final Object LAZY = new Object();
+
+    private final int version;
+    private final int bitsOffset;
+    private final int bodyOffset;
+    private final int[] bitMarks;
+    private final int[] byteMarks;
+    private final Object[] state;
+
+    private MarshalledMessage(byte[] frame, int version, int bitsOffset, int bodyOffset, int[] bitMarks, int[] byteMarks, Object[] state) {
+        super(frame, 0, frame.length);
+        this.version = version;
+        this.bitsOffset = bitsOffset;
+        this.bodyOffset = bodyOffset;
+        this.bitMarks = bitMarks;
+        this.byteMarks = byteMarks;
+        this.state = state;
+    }
+
+    /**
+     * @return the OpenWire version the frame was marshalled with.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Unmarshals a size prefixed, tight encoded message frame one field at a
+     * time, keeping the frame as the marshalled form of the message.  The
+     * content and properties of the message are views onto the frame, and
+     * fields that are not needed for routing are left in the frame until the
+     * message accesses them.
+     */
+    static Message unmarshal(OpenWireFormat wireFormat, DataStreamMarshaller dsm, MessageFieldMarshaller marshaller, byte[] frame) throws IOException {
+        int fields = marshaller.getFieldCount();
+
+        DataByteArrayInputStream dataIn = new DataByteArrayInputStream(frame);
+        dataIn.skipBytes(5);
+        BooleanStream bs = new BooleanStream();
+        bs.unmarshal(dataIn);
+        int bodyOffset = dataIn.getPos();
+        int bitsOffset = bodyOffset - bs.arrayLimit;
+
+        Message info = (Message) dsm.createObject();
+        int[] bitMarks = new int[fields + 1];
+        int[] byteMarks = new int[fields + 1];
+        Object[] state = new Object[fields];
+        boolean lazy = false;
+        info.beforeUnmarshall(wireFormat);
+        for (int i = 0; i < fields; i++) {
+            bitMarks[i] = bs.position();
+            byteMarks[i] = dataIn.getPos() - bodyOffset;
+            if (marshaller.isLazyField(i)) {
+                lazy |= marshaller.tightSkipField(wireFormat, i, dataIn, bs);
+            } else {
+                marshaller.tightUnmarshalField(wireFormat, info, i, dataIn, bs);
+            }
+        }
+        bitMarks[fields] = bs.position();
+        byteMarks[fields] = dataIn.getPos() - bodyOffset;
+        info.afterUnmarshall(wireFormat);
+
+        // lazy fields without a value are left to the decoding of the others
+        for (int i = 0; i < fields; i++) {
+            state[i] = lazy && marshaller.isLazyField(i) ? LAZY : marshaller.getFieldState(info, i);
+        }
+        MarshalledMessage rc = new MarshalledMessage(frame, wireFormat.getVersion(), bitsOffset, bodyOffset, bitMarks, byteMarks, state);
+        if (lazy) {
+            info.setLazyFields(new LazyFields(wireFormat, marshaller, rc));
+        }
+        // a frame with anything after the fields we know of is not kept
+        if (dataIn.getPos() == frame.length) {
+            info.setCachedMarshalledForm(wireFormat, rc);
+        }
+        return info;
+    }
+
+    /**
+     * Marshals a message into a new frame.
+     *
+     * @param wireFormat
+     *      a tight encoding wire format that does not use the marshall cache
+     * @param previous
+     *      an earlier frame of the message whose unchanged fields are copied,
+     *      may be null
+     */
+    static MarshalledMessage marshal(OpenWireFormat wireFormat, MessageFieldMarshaller marshaller, Message info, MarshalledMessage previous) throws IOException {
+        info.beforeMarshall(wireFormat);
+        int fields = marshaller.getFieldCount();
+        int[] bitMarks = new int[fields + 1];
+        int[] byteMarks = new int[fields + 1];
+        Object[] state = new Object[fields];
+        BooleanStream bs = new BooleanStream();
+        DataByteArrayOutputStream body = new DataByteArrayOutputStream(previous != null ? previous.length : 512);
+
+        for (int i = 0; i < fields; i++) {
+            bitMarks[i] = bs.position();
+            byteMarks[i] = body.size();
+            if (previous != null && isFieldUnchanged(marshaller, info, i, previous.state[i])) {
+                state[i] = previous.state[i];
+                for (int bit = previous.bitMarks[i]; bit < previous.bitMarks[i + 1]; bit++) {
+                    bs.writeBoolean(previous.readBit(bit));
+                }
+                body.write(previous.data, previous.bodyOffset + previous.byteMarks[i], previous.byteMarks[i + 1] - previous.byteMarks[i]);
+            } else {
+                state[i] = marshaller.getFieldState(info, i);
+                BooleanStream fieldBits = new BooleanStream();
+                marshaller.tightMarshalField1(wireFormat, info, i, fieldBits);
+                int bits = fieldBits.position();
+                fieldBits.clear();
+                marshaller.tightMarshalField2(wireFormat, info, i, body, fieldBits);
+                fieldBits.clear();
+                for (int bit = 0; bit < bits; bit++) {
+                    bs.writeBoolean(fieldBits.readBoolean());
+                }
+            }
+        }
+        bitMarks[fields] = bs.position();
+        byteMarks[fields] = body.size();
+
+        int size = 1 + bs.marshalledSize() + body.size();
+        DataByteArrayOutputStream frame = new DataByteArrayOutputStream(4 + size);
+        frame.writeInt(size);
+        frame.writeByte(info.getDataStructureType());
+        int bitsLength = bs.arrayLimit;
+        bs.marshal(frame);
+        int bodyOffset = frame.size();
+        frame.write(body.getData(), 0, body.size());
+        info.afterMarshall(wireFormat);
+        return new MarshalledMessage(frame.getData(), wireFormat.getVersion(), bodyOffset - bitsLength, bodyOffset, bitMarks, byteMarks, state);
+    }
+
+    /**
+     * @return this frame if none of the message's fields changed since it was
+     *         made, otherwise a new frame with the changed fields marshalled
+     *         again.
+     */
+    MarshalledMessage refresh(OpenWireFormat wireFormat, MessageFieldMarshaller marshaller, Message info) throws IOException {
+        info.beforeMarshall(wireFormat);
+        for (int i = 0; i < state.length; i++) {
+            if (!isFieldUnchanged(marshaller, info, i, state[i])) {
+                return marshal(wireFormat, marshaller, info, this);
+            }
+        }
+        return this;
+    }
+
+    private static boolean isFieldUnchanged(MessageFieldMarshaller marshaller, Message info, int field, Object state) {
+        if (state == LAZY) {
+            // the field can only change once it is decoded
+            return info.hasLazyFields();
+        }
+        return marshaller.isFieldUnchanged(info, field, state);
+    }
+
+    private boolean readBit(int bit) {
+        return ((data[bitsOffset + (bit >> 3)] >> (bit & 7)) & 0x01) != 0;
+    }
+
+    /**
+     * Decodes the lazy fields of a message from the frame it was read from.
+     */
+    private static final class LazyFields implements LazyMessageFields {
+
+        private final OpenWireFormat wireFormat;
+        private final MessageFieldMarshaller marshaller;
+        private final MarshalledMessage frame;
+
+        LazyFields(OpenWireFormat wireFormat, MessageFieldMarshaller marshaller, MarshalledMessage frame) {
+            this.wireFormat = wireFormat;
+            this.marshaller = marshaller;
+            this.frame = frame;
+        }
+
+        @Override
+        public void decode(Message message) throws IOException {
+            DataByteArrayInputStream dataIn = new DataByteArrayInputStream(frame.data);
+            dataIn.skipBytes(5);
+            BooleanStream bs = new BooleanStream();
+            bs.unmarshal(dataIn);
+            for (int i = 0; i < frame.state.length; i++) {
+                if (frame.state[i] == LAZY) {
+                    bs.seek(frame.bitMarks[i]);
+                    dataIn = new DataByteArrayInputStream(frame.data);
+                    dataIn.skipBytes(frame.bodyOffset + frame.byteMarks[i]);
+                    marshaller.tightUnmarshalField(wireFormat, message, i, dataIn, bs);
+                }
+            }
+        }
+    }
+}
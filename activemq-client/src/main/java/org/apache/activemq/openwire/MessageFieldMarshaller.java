@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.activemq.command.Message;
+
+/**
+ * Tight marshals a message one field at a time, in the same order and with
+ * the same encoding as the message marshallers of an OpenWire version.  This
+ * lets a message keep its marshalled form and have it written again with only
+ * the fields that changed marshalled.
+ *
+ * An OpenWire version provides one as the class
+ * <code>MessageFieldMarshallerImpl</code> in its marshaller package.
+ */
+public interface MessageFieldMarshaller {
+
+    /**
+     * @return true if messages of the given type have no fields other than
+     *         those this marshaller knows of.
+     */
+    boolean isSupported(byte dataStructureType);
+
+    int getFieldCount();
+
+    int tightMarshalField1(OpenWireFormat wireFormat, Message info, int field, BooleanStream bs) throws IOException;
+
+    void tightMarshalField2(OpenWireFormat wireFormat, Message info, int field, DataOutput dataOut, BooleanStream bs) throws IOException;
+
+    void tightUnmarshalField(OpenWireFormat wireFormat, Message info, int field, DataInput dataIn, BooleanStream bs) throws IOException;
+
+    /**
+     * @return true if the field is not needed to route a message, so it can
+     *         be left encoded until it is accessed.
+     */
+    boolean isLazyField(int field);
+
+    /**
+     * Reads past a lazy field without decoding it.
+     *
+     * @return true if the field has a value.
+     */
+    boolean tightSkipField(OpenWireFormat wireFormat, int field, DataInput dataIn, BooleanStream bs) throws IOException;
+
+    /**
+     * @return the state of the field needed to tell later whether it changed.
+     */
+    Object getFieldState(Message info, int field);
+
+    /**
+     * @return true if the field still has the state returned by
+     *         {@link #getFieldState(Message, int)}.
+     */
+    boolean isFieldUnchanged(Message info, int field, Object state);
+}
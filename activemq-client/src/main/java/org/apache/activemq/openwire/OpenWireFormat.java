@@ -20,11 +20,13 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.activemq.command.CommandTypes;
 import org.apache.activemq.command.DataStructure;
+import org.apache.activemq.command.Message;
 import org.apache.activemq.command.WireFormatInfo;
 import org.apache.activemq.util.ByteSequence;
 import org.apache.activemq.util.ByteSequenceData;
@@ -33,14 +35,19 @@ import org.apache.activemq.util.DataByteArrayOutputStream;
 import org.apache.activemq.wireformat.WireFormat;
 
 /**
- * 
- * 
+ * Marshals commands using the OpenWire protocol.
+ *
+ * With the marshall cache disabled an instance is thread safe and commands
+ * are marshalled concurrently, each thread using its own buffers.  The
+ * marshall cache mirrors the peer's unmarshall cache, so with it enabled
+ * commands are marshalled one at a time, in the order they are written.
  */
 public final class OpenWireFormat implements WireFormat {
 
     public static final int DEFAULT_VERSION = CommandTypes.PROTOCOL_STORE_VERSION;
     public static final int DEFAULT_WIRE_VERSION = CommandTypes.PROTOCOL_VERSION;
     public static final long DEFAULT_MAX_FRAME_SIZE = Long.MAX_VALUE;
+    public static final int MESSAGE_BATCH_VERSION = 10;
 
     static final byte NULL_TYPE = CommandTypes.NULL;
     private static final int MARSHAL_CACHE_SIZE = Short.MAX_VALUE / 2;
@@ -53,7 +60,10 @@ public final class OpenWireFormat implements WireFormat {
     private boolean cacheEnabled;
     private boolean tightEncodingEnabled;
     private boolean sizePrefixDisabled;
+    private boolean messageBatchEnabled;
     private long maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+    private boolean passThroughEnabled;
+    private MessageFieldMarshaller messageFieldMarshaller;
 
     // The following fields are used for value caching
     private short nextMarshallCacheIndex;
@@ -61,10 +71,17 @@ public final class OpenWireFormat implements WireFormat {
     private Map<DataStructure, Short> marshallCacheMap = new HashMap<DataStructure, Short>();
     private DataStructure marshallCache[] = null;
     private DataStructure unmarshallCache[] = null;
-    private DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream();
-    private DataByteArrayInputStream bytesIn = new DataByteArrayInputStream();
     private WireFormatInfo preferedWireFormatInfo;
-    
+
+    // The following fields are used for pass through of marshalled messages
+    private volatile OpenWireFormat marshalledFormFormat;
+    private final ThreadLocal<ArrayDeque<ByteSequence>> pendingMarshalledForms = new ThreadLocal<ArrayDeque<ByteSequence>>() {
+        @Override
+        protected ArrayDeque<ByteSequence> initialValue() {
+            return new ArrayDeque<ByteSequence>();
+        }
+    };
+
     public OpenWireFormat() {
         this(DEFAULT_VERSION);
     }
@@ -87,6 +104,7 @@ public final class OpenWireFormat implements WireFormat {
         answer.cacheEnabled = cacheEnabled;
         answer.tightEncodingEnabled = tightEncodingEnabled;
         answer.sizePrefixDisabled = sizePrefixDisabled;
+        answer.passThroughEnabled = passThroughEnabled;
         answer.preferedWireFormatInfo = preferedWireFormatInfo;
         return answer;
     }
@@ -104,7 +122,7 @@ public final class OpenWireFormat implements WireFormat {
 
     public String toString() {
         return "OpenWireFormat{version=" + version + ", cacheEnabled=" + cacheEnabled + ", stackTraceEnabled=" + stackTraceEnabled + ", tightEncodingEnabled="
-               + tightEncodingEnabled + ", sizePrefixDisabled=" + sizePrefixDisabled +  ", maxFrameSize=" + maxFrameSize + "}";
+               + tightEncodingEnabled + ", sizePrefixDisabled=" + sizePrefixDisabled +  ", maxFrameSize=" + maxFrameSize + ", passThroughEnabled=" + passThroughEnabled + "}";
         // return "OpenWireFormat{id="+id+",
         // tightEncodingEnabled="+tightEncodingEnabled+"}";
     }
@@ -113,11 +131,18 @@ public final class OpenWireFormat implements WireFormat {
         return version;
     }
 
-    public synchronized ByteSequence marshal(Object command) throws IOException {
-
+    public ByteSequence marshal(Object command) throws IOException {
         if (cacheEnabled) {
-            runMarshallCacheEvictionSweep();
+            synchronized (this) {
+                runMarshallCacheEvictionSweep();
+                return doMarshal(command);
+            }
         }
+        return doMarshal(command);
+    }
+
+    private ByteSequence doMarshal(Object command) throws IOException {
+        pendingMarshalledForms.get().clear();
 
         ByteSequence sequence = null;
         int size = 1;
@@ -129,13 +154,17 @@ public final class OpenWireFormat implements WireFormat {
             if (dsm == null) {
                 throw new IOException("Unknown data type: " + type);
             }
-            if (tightEncodingEnabled) {
+            ByteSequence form = getMarshalledForm(c);
+            if (form != null) {
+                int offset = sizePrefixDisabled ? 4 : 0;
+                sequence = new ByteSequence(form.getData(), form.getOffset() + offset, form.getLength() - offset);
+            } else if (tightEncodingEnabled) {
 
                 BooleanStream bs = new BooleanStream();
                 size += dsm.tightMarshal1(this, c, bs);
                 size += bs.marshalledSize();
 
-                bytesOut.restart(size);
+                DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream(size);
                 if (!sizePrefixDisabled) {
                     bytesOut.writeInt(size);
                 }
@@ -145,7 +174,7 @@ public final class OpenWireFormat implements WireFormat {
                 sequence = bytesOut.toByteSequence();
 
             } else {
-                bytesOut.restart();
+                DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream();
                 if (!sizePrefixDisabled) {
                     bytesOut.writeInt(0); // we don't know the final size
                     // yet but write this here for
@@ -164,7 +193,7 @@ public final class OpenWireFormat implements WireFormat {
             }
 
         } else {
-            bytesOut.restart(5);
+            DataByteArrayOutputStream bytesOut = new DataByteArrayOutputStream(5);
             bytesOut.writeInt(size);
             bytesOut.writeByte(NULL_TYPE);
             sequence = bytesOut.toByteSequence();
@@ -173,8 +202,17 @@ public final class OpenWireFormat implements WireFormat {
         return sequence;
     }
 
-    public synchronized Object unmarshal(ByteSequence sequence) throws IOException {
-        bytesIn.restart(sequence);
+    public Object unmarshal(ByteSequence sequence) throws IOException {
+        if (cacheEnabled) {
+            synchronized (this) {
+                return doUnmarshal(sequence);
+            }
+        }
+        return doUnmarshal(sequence);
+    }
+
+    private Object doUnmarshal(ByteSequence sequence) throws IOException {
+        DataByteArrayInputStream bytesIn = new DataByteArrayInputStream(sequence);
         // DataInputStream dis = new DataInputStream(new
         // ByteArrayInputStream(sequence));
 
@@ -197,11 +235,19 @@ public final class OpenWireFormat implements WireFormat {
         return command;
     }
 
-    public synchronized void marshal(Object o, DataOutput dataOut) throws IOException {
-
+    public void marshal(Object o, DataOutput dataOut) throws IOException {
         if (cacheEnabled) {
-            runMarshallCacheEvictionSweep();
+            synchronized (this) {
+                runMarshallCacheEvictionSweep();
+                doMarshal(o, dataOut);
+            }
+        } else {
+            doMarshal(o, dataOut);
         }
+    }
+
+    private void doMarshal(Object o, DataOutput dataOut) throws IOException {
+        pendingMarshalledForms.get().clear();
 
         int size = 1;
         if (o != null) {
@@ -212,7 +258,11 @@ public final class OpenWireFormat implements WireFormat {
             if (dsm == null) {
                 throw new IOException("Unknown data type: " + type);
             }
-            if (tightEncodingEnabled) {
+            ByteSequence form = getMarshalledForm(c);
+            if (form != null) {
+                int offset = sizePrefixDisabled ? 4 : 0;
+                dataOut.write(form.getData(), form.getOffset() + offset, form.getLength() - offset);
+            } else if (tightEncodingEnabled) {
                 BooleanStream bs = new BooleanStream();
                 size += dsm.tightMarshal1(this, c, bs);
                 size += bs.marshalledSize();
@@ -227,9 +277,10 @@ public final class OpenWireFormat implements WireFormat {
 
             } else {
                 DataOutput looseOut = dataOut;
+                DataByteArrayOutputStream bytesOut = null;
 
                 if (!sizePrefixDisabled) {
-                    bytesOut.restart();
+                    bytesOut = new DataByteArrayOutputStream();
                     looseOut = bytesOut;
                 }
 
@@ -259,6 +310,17 @@ public final class OpenWireFormat implements WireFormat {
             if (size > maxFrameSize) {
                 throw new IOException("Frame size of " + (size / (1024 * 1024)) + " MB larger than max allowed " + (maxFrameSize / (1024 * 1024)) + " MB");
             }
+            if (isPassThroughActive()) {
+                // keep the whole frame so a message can be written again as is
+                byte[] frame = readFrame(dis, size);
+                DataStreamMarshaller dsm = dataMarshallers[frame[4] & 0xFF];
+                if (dsm != null && messageFieldMarshaller.isSupported(frame[4])) {
+                    return MarshalledMessage.unmarshal(this, dsm, messageFieldMarshaller, frame);
+                }
+                DataByteArrayInputStream frameIn = new DataByteArrayInputStream(frame);
+                frameIn.skipBytes(4);
+                return doUnmarshal(frameIn);
+            }
             // int size = dis.readInt();
             // byte[] data = new byte[size];
             // dis.readFully(data);
@@ -337,9 +399,117 @@ public final class OpenWireFormat implements WireFormat {
                                                                              + " does not properly implement the createMarshallerMap method.")
                 .initCause(e);
         }
+        this.messageFieldMarshaller = createMessageFieldMarshaller(version);
+        this.marshalledFormFormat = null;
         this.version = version;
     }
 
+    private MessageFieldMarshaller createMessageFieldMarshaller(int version) {
+        String mfmName = "org.apache.activemq.openwire.v" + version + ".MessageFieldMarshallerImpl";
+        try {
+            Class<?> mfmClass = Class.forName(mfmName, false, getClass().getClassLoader());
+            return (MessageFieldMarshaller) mfmClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            // messages of this version can not be passed through
+            return null;
+        } catch (Throwable e) {
+            throw (IllegalArgumentException)new IllegalArgumentException("Invalid version: " + version + ", could not create " + mfmName)
+                .initCause(e);
+        }
+    }
+
+    private boolean isPassThroughActive() {
+        return passThroughEnabled && isMarshalledFormSupported();
+    }
+
+    private boolean isMarshalledFormSupported() {
+        return tightEncodingEnabled && !cacheEnabled && messageFieldMarshaller != null;
+    }
+
+    /**
+     * Marshals a message into a form kept by the message, which is then
+     * written by a later call to marshal with only the fields changed in the
+     * meantime marshalled again.  This lets a transport do the work of
+     * marshalling before it serializes the writes of concurrent senders.
+     * Does nothing for other commands or when the marshall cache is enabled.
+     */
+    public void premarshal(Object command) throws IOException {
+        if (!isMarshalledFormSupported() || !(command instanceof Message) || !messageFieldMarshaller.isSupported(((Message) command).getDataStructureType())) {
+            return;
+        }
+        Message message = (Message) command;
+        if (message.isMarshalledFormShared()) {
+            // the form of a shared message is made under its lock when written
+            return;
+        }
+        ByteSequence form = message.getCachedMarshalledForm(this);
+        if (form instanceof MarshalledMessage && ((MarshalledMessage) form).getVersion() == version) {
+            MarshalledMessage current = (MarshalledMessage) form;
+            MarshalledMessage refreshed = current.refresh(getMarshalledFormFormat(), messageFieldMarshaller, message);
+            if (refreshed != current) {
+                message.setCachedMarshalledForm(this, refreshed);
+            }
+        } else {
+            message.setCachedMarshalledForm(this, MarshalledMessage.marshal(getMarshalledFormFormat(), messageFieldMarshaller, message, null));
+        }
+    }
+
+    /**
+     * @return the marshalled form kept by the message, brought up to date
+     *         with the message, or null if the message has to be marshalled
+     *         normally.  A message shared by many connections is given a
+     *         form by the first of them to marshal it.
+     */
+    private ByteSequence getMarshalledForm(DataStructure o) throws IOException {
+        if (!isMarshalledFormSupported() || !(o instanceof Message) || !messageFieldMarshaller.isSupported(o.getDataStructureType())) {
+            return null;
+        }
+        Message message = (Message) o;
+        ByteSequence form = message.getCachedMarshalledForm(this);
+        if (form == null && passThroughEnabled && message.isMarshalledFormShared()) {
+            synchronized (message) {
+                form = message.getCachedMarshalledForm(this);
+                if (form == null) {
+                    form = MarshalledMessage.marshal(getMarshalledFormFormat(), messageFieldMarshaller, message, null);
+                    message.setCachedMarshalledForm(this, form);
+                }
+            }
+        }
+        if (!(form instanceof MarshalledMessage) || ((MarshalledMessage) form).getVersion() != version) {
+            return null;
+        }
+        MarshalledMessage current = (MarshalledMessage) form;
+        MarshalledMessage refreshed = current.refresh(getMarshalledFormFormat(), messageFieldMarshaller, message);
+        if (refreshed != current) {
+            message.setCachedMarshalledForm(this, refreshed);
+        }
+        return refreshed;
+    }
+
+    private OpenWireFormat getMarshalledFormFormat() {
+        OpenWireFormat format = marshalledFormFormat;
+        if (format == null) {
+            // forms are made without the marshall cache or pass through
+            format = new OpenWireFormat(version);
+            format.setTightEncodingEnabled(true);
+            marshalledFormFormat = format;
+        }
+        return format;
+    }
+
+    private byte[] readFrame(DataInput dis, int size) throws IOException {
+        if (size < 1) {
+            throw new IOException("Invalid frame size: " + size);
+        }
+        byte[] frame = new byte[4 + size];
+        frame[0] = (byte) (size >>> 24);
+        frame[1] = (byte) (size >>> 16);
+        frame[2] = (byte) (size >>> 8);
+        frame[3] = (byte) size;
+        dis.readFully(frame, 4, size);
+        return frame;
+    }
+
     public Object doUnmarshal(DataInput dis) throws IOException {
         byte dataType = dis.readByte();
         if (dataType != NULL_TYPE) {
@@ -372,11 +542,12 @@ public final class OpenWireFormat implements WireFormat {
         }
 
         if (o.isMarshallAware()) {
-            // MarshallAware ma = (MarshallAware)o;
-            ByteSequence sequence = null;
-            // sequence=ma.getCachedMarshalledForm(this);
+            ByteSequence sequence = getMarshalledForm(o);
             bs.writeBoolean(sequence != null);
             if (sequence != null) {
+                // handed to tightMarshalNestedObject2, as the form kept by
+                // the object may be replaced in the meantime
+                pendingMarshalledForms.get().add(sequence);
                 return 1 + sequence.getLength();
             }
         }
@@ -400,12 +571,11 @@ public final class OpenWireFormat implements WireFormat {
 
         if (o.isMarshallAware() && bs.readBoolean()) {
 
-            // We should not be doing any caching
-            throw new IOException("Corrupted stream");
-            // MarshallAware ma = (MarshallAware) o;
-            // ByteSequence sequence=ma.getCachedMarshalledForm(this);
-            // ds.write(sequence.getData(), sequence.getOffset(),
-            // sequence.getLength());
+            ByteSequence sequence = pendingMarshalledForms.get().poll();
+            if (sequence == null) {
+                throw new IOException("Corrupted stream");
+            }
+            ds.write(sequence.getData(), sequence.getOffset(), sequence.getLength());
 
         } else {
 
@@ -430,6 +600,10 @@ public final class OpenWireFormat implements WireFormat {
 
             if (data.isMarshallAware() && bs.readBoolean()) {
 
+                if (isPassThroughActive() && messageFieldMarshaller.isSupported(dataType)) {
+                    return MarshalledMessage.unmarshal(this, dsm, messageFieldMarshaller, readFrame(dis, dis.readInt()));
+                }
+
                 dis.readInt();
                 dis.readByte();
 
@@ -437,10 +611,6 @@ public final class OpenWireFormat implements WireFormat {
                 bs2.unmarshal(dis);
                 dsm.tightUnmarshal(this, data, dis, bs2);
 
-                // TODO: extract the sequence from the dis and associate it.
-                // MarshallAware ma = (MarshallAware)data
-                // ma.setCachedMarshalledForm(this, sequence);
-
             } else {
                 dsm.tightUnmarshal(this, data, dis, bs);
             }
@@ -570,6 +740,14 @@ public final class OpenWireFormat implements WireFormat {
         this.tightEncodingEnabled = tightEncodingEnabled;
     }
 
+    /**
+     * @return true if the negotiated wire format lets {@link org.apache.activemq.command.MessageBatch}
+     *         commands be sent to the peer.
+     */
+    public boolean isMessageBatchEnabled() {
+        return messageBatchEnabled;
+    }
+
     public boolean isSizePrefixDisabled() {
         return sizePrefixDisabled;
     }
@@ -594,6 +772,21 @@ public final class OpenWireFormat implements WireFormat {
         this.maxFrameSize = maxFrameSize;
     }
 
+    public boolean isPassThroughEnabled() {
+        return passThroughEnabled;
+    }
+
+    /**
+     * When enabled, messages read by this wire format keep the frame they
+     * were read from, and are written from that frame with only the fields
+     * that changed since marshalled again.  Messages marked as shared are
+     * marshalled once for every connection with pass through enabled.  Only
+     * applies with tight encoding and the marshall cache disabled.
+     */
+    public void setPassThroughEnabled(boolean passThroughEnabled) {
+        this.passThroughEnabled = passThroughEnabled;
+    }
+
     public void renegotiateWireFormat(WireFormatInfo info) throws IOException {
 
         if (preferedWireFormatInfo == null) {
@@ -623,6 +816,10 @@ public final class OpenWireFormat implements WireFormat {
                                   && preferedWireFormatInfo.isSizePrefixDisabled();
         info.setSizePrefixDisabled(this.sizePrefixDisabled);
 
+        this.messageBatchEnabled = info.isMessageBatchEnabled() && preferedWireFormatInfo.isMessageBatchEnabled()
+                                   && this.getVersion() >= MESSAGE_BATCH_VERSION;
+        info.setMessageBatchEnabled(this.messageBatchEnabled);
+
         if (cacheEnabled) {
 
             int size = Math.min(preferedWireFormatInfo.getCacheSize(), info.getCacheSize());
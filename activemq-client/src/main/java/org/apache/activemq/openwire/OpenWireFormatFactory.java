@@ -40,6 +40,7 @@ public class OpenWireFormatFactory implements WireFormatFactory {
     private long maxInactivityDurationInitalDelay = 10*1000;
     private int cacheSize = 1024;
     private long maxFrameSize = OpenWireFormat.DEFAULT_MAX_FRAME_SIZE;
+    private boolean passThroughEnabled;
     private String host=null;
 
     public WireFormat createWireFormat() {
@@ -56,6 +57,7 @@ public class OpenWireFormatFactory implements WireFormatFactory {
             info.setMaxInactivityDurationInitalDelay(maxInactivityDurationInitalDelay);
             info.setCacheSize(cacheSize);
             info.setMaxFrameSize(maxFrameSize);
+            info.setMessageBatchEnabled(version >= OpenWireFormat.MESSAGE_BATCH_VERSION);
             if( host!=null ) {
                 info.setHost(host);
             }
@@ -67,6 +69,7 @@ public class OpenWireFormatFactory implements WireFormatFactory {
 
         OpenWireFormat f = new OpenWireFormat(version);
         f.setMaxFrameSize(maxFrameSize);
+        f.setPassThroughEnabled(passThroughEnabled);
         f.setPreferedWireFormatInfo(info);
         return f;
     }
@@ -152,6 +155,14 @@ public class OpenWireFormatFactory implements WireFormatFactory {
         this.maxFrameSize = maxFrameSize;
     }
 
+    public boolean isPassThroughEnabled() {
+        return passThroughEnabled;
+    }
+
+    public void setPassThroughEnabled(boolean passThroughEnabled) {
+        this.passThroughEnabled = passThroughEnabled;
+    }
+
     public String getHost() {
         return host;
     }
@@ -76,6 +76,7 @@ public class MarshallerFactory {
         add(new LastPartialCommandMarshaller());
         add(new LocalTransactionIdMarshaller());
         add(new MessageAckMarshaller());
+        add(new MessageBatchMarshaller());
         add(new MessageDispatchMarshaller());
         add(new MessageDispatchNotificationMarshaller());
         add(new MessageIdMarshaller());
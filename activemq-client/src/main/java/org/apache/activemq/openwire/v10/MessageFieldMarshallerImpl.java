@@ -0,0 +1,659 @@
+/**
+ *
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire.v10;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.activemq.command.ActiveMQDestination;
+import org.apache.activemq.command.BrokerId;
+import org.apache.activemq.command.CommandTypes;
+import org.apache.activemq.command.ConsumerId;
+import org.apache.activemq.command.DataStructure;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.command.TransactionId;
+import org.apache.activemq.openwire.BooleanStream;
+import org.apache.activemq.openwire.MessageFieldMarshaller;
+import org.apache.activemq.openwire.OpenWireFormat;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.activemq.util.DataByteArrayInputStream;
+
+/**
+ * Marshals the fields of a message one at a time, following
+ * {@link BaseCommandMarshaller} and {@link MessageMarshaller}.  Any change to
+ * the fields of those marshallers has to be made here as well.
+ */
+public class MessageFieldMarshallerImpl extends BaseDataStreamMarshaller implements MessageFieldMarshaller {
+
+    private static final int COMMAND_ID = 0;
+    private static final int RESPONSE_REQUIRED = 1;
+    private static final int PRODUCER_ID = 2;
+    private static final int DESTINATION = 3;
+    private static final int TRANSACTION_ID = 4;
+    private static final int ORIGINAL_DESTINATION = 5;
+    private static final int MESSAGE_ID = 6;
+    private static final int ORIGINAL_TRANSACTION_ID = 7;
+    private static final int GROUP_ID = 8;
+    private static final int GROUP_SEQUENCE = 9;
+    private static final int CORRELATION_ID = 10;
+    private static final int PERSISTENT = 11;
+    private static final int EXPIRATION = 12;
+    private static final int PRIORITY = 13;
+    private static final int REPLY_TO = 14;
+    private static final int TIMESTAMP = 15;
+    private static final int TYPE = 16;
+    private static final int CONTENT = 17;
+    private static final int MARSHALLED_PROPERTIES = 18;
+    private static final int DATA_STRUCTURE = 19;
+    private static final int TARGET_CONSUMER_ID = 20;
+    private static final int COMPRESSED = 21;
+    private static final int REDELIVERY_COUNTER = 22;
+    private static final int BROKER_PATH = 23;
+    private static final int ARRIVAL = 24;
+    private static final int USER_ID = 25;
+    private static final int RECIEVED_BY_DF_BRIDGE = 26;
+    private static final int DROPPABLE = 27;
+    private static final int CLUSTER = 28;
+    private static final int BROKER_IN_TIME = 29;
+    private static final int BROKER_OUT_TIME = 30;
+    private static final int JMSX_GROUP_FIRST_FOR_CONSUMER = 31;
+    private static final int FIELD_COUNT = 32;
+
+    @Override
+    public byte getDataStructureType() {
+        // not the marshaller of a data structure of its own
+        return CommandTypes.NULL;
+    }
+
+    @Override
+    public DataStructure createObject() {
+        return null;
+    }
+
+    @Override
+    public boolean isSupported(byte dataStructureType) {
+        switch (dataStructureType) {
+        case CommandTypes.ACTIVEMQ_MESSAGE:
+        case CommandTypes.ACTIVEMQ_BYTES_MESSAGE:
+        case CommandTypes.ACTIVEMQ_MAP_MESSAGE:
+        case CommandTypes.ACTIVEMQ_OBJECT_MESSAGE:
+        case CommandTypes.ACTIVEMQ_STREAM_MESSAGE:
+        case CommandTypes.ACTIVEMQ_TEXT_MESSAGE:
+            return true;
+        default:
+            // blob messages have fields of their own
+            return false;
+        }
+    }
+
+    @Override
+    public int getFieldCount() {
+        return FIELD_COUNT;
+    }
+
+    @Override
+    public int tightMarshalField1(OpenWireFormat wireFormat, Message info, int field, BooleanStream bs) throws IOException {
+        switch (field) {
+        case COMMAND_ID:
+            return 4;
+        case RESPONSE_REQUIRED:
+            bs.writeBoolean(info.isResponseRequired());
+            return 0;
+        case PRODUCER_ID:
+            return tightMarshalCachedObject1(wireFormat, info.getProducerId(), bs);
+        case DESTINATION:
+            return tightMarshalCachedObject1(wireFormat, info.getDestination(), bs);
+        case TRANSACTION_ID:
+            return tightMarshalCachedObject1(wireFormat, info.getTransactionId(), bs);
+        case ORIGINAL_DESTINATION:
+            return tightMarshalCachedObject1(wireFormat, info.getOriginalDestination(), bs);
+        case MESSAGE_ID:
+            return tightMarshalNestedObject1(wireFormat, info.getMessageId(), bs);
+        case ORIGINAL_TRANSACTION_ID:
+            return tightMarshalCachedObject1(wireFormat, info.getOriginalTransactionId(), bs);
+        case GROUP_ID:
+            return tightMarshalString1(info.getGroupID(), bs);
+        case GROUP_SEQUENCE:
+            return 4;
+        case CORRELATION_ID:
+            return tightMarshalString1(info.getCorrelationId(), bs);
+        case PERSISTENT:
+            bs.writeBoolean(info.isPersistent());
+            return 0;
+        case EXPIRATION:
+            return tightMarshalLong1(wireFormat, info.getExpiration(), bs);
+        case PRIORITY:
+            return 1;
+        case REPLY_TO:
+            return tightMarshalNestedObject1(wireFormat, info.getReplyTo(), bs);
+        case TIMESTAMP:
+            return tightMarshalLong1(wireFormat, info.getTimestamp(), bs);
+        case TYPE:
+            return tightMarshalString1(info.getType(), bs);
+        case CONTENT:
+            return tightMarshalByteSequence1(info.getContent(), bs);
+        case MARSHALLED_PROPERTIES:
+            return tightMarshalByteSequence1(info.getMarshalledProperties(), bs);
+        case DATA_STRUCTURE:
+            return tightMarshalNestedObject1(wireFormat, info.getDataStructure(), bs);
+        case TARGET_CONSUMER_ID:
+            return tightMarshalCachedObject1(wireFormat, info.getTargetConsumerId(), bs);
+        case COMPRESSED:
+            bs.writeBoolean(info.isCompressed());
+            return 0;
+        case REDELIVERY_COUNTER:
+            return 4;
+        case BROKER_PATH:
+            return tightMarshalObjectArray1(wireFormat, info.getBrokerPath(), bs);
+        case ARRIVAL:
+            return tightMarshalLong1(wireFormat, info.getArrival(), bs);
+        case USER_ID:
+            return tightMarshalString1(info.getUserID(), bs);
+        case RECIEVED_BY_DF_BRIDGE:
+            bs.writeBoolean(info.isRecievedByDFBridge());
+            return 0;
+        case DROPPABLE:
+            bs.writeBoolean(info.isDroppable());
+            return 0;
+        case CLUSTER:
+            return tightMarshalObjectArray1(wireFormat, info.getCluster(), bs);
+        case BROKER_IN_TIME:
+            return tightMarshalLong1(wireFormat, info.getBrokerInTime(), bs);
+        case BROKER_OUT_TIME:
+            return tightMarshalLong1(wireFormat, info.getBrokerOutTime(), bs);
+        case JMSX_GROUP_FIRST_FOR_CONSUMER:
+            bs.writeBoolean(info.isJMSXGroupFirstForConsumer());
+            return 0;
+        default:
+            throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
+    @Override
+    public void tightMarshalField2(OpenWireFormat wireFormat, Message info, int field, DataOutput dataOut, BooleanStream bs) throws IOException {
+        switch (field) {
+        case COMMAND_ID:
+            dataOut.writeInt(info.getCommandId());
+            break;
+        case RESPONSE_REQUIRED:
+            bs.readBoolean();
+            break;
+        case PRODUCER_ID:
+            tightMarshalCachedObject2(wireFormat, info.getProducerId(), dataOut, bs);
+            break;
+        case DESTINATION:
+            tightMarshalCachedObject2(wireFormat, info.getDestination(), dataOut, bs);
+            break;
+        case TRANSACTION_ID:
+            tightMarshalCachedObject2(wireFormat, info.getTransactionId(), dataOut, bs);
+            break;
+        case ORIGINAL_DESTINATION:
+            tightMarshalCachedObject2(wireFormat, info.getOriginalDestination(), dataOut, bs);
+            break;
+        case MESSAGE_ID:
+            tightMarshalNestedObject2(wireFormat, info.getMessageId(), dataOut, bs);
+            break;
+        case ORIGINAL_TRANSACTION_ID:
+            tightMarshalCachedObject2(wireFormat, info.getOriginalTransactionId(), dataOut, bs);
+            break;
+        case GROUP_ID:
+            tightMarshalString2(info.getGroupID(), dataOut, bs);
+            break;
+        case GROUP_SEQUENCE:
+            dataOut.writeInt(info.getGroupSequence());
+            break;
+        case CORRELATION_ID:
+            tightMarshalString2(info.getCorrelationId(), dataOut, bs);
+            break;
+        case PERSISTENT:
+            bs.readBoolean();
+            break;
+        case EXPIRATION:
+            tightMarshalLong2(wireFormat, info.getExpiration(), dataOut, bs);
+            break;
+        case PRIORITY:
+            dataOut.writeByte(info.getPriority());
+            break;
+        case REPLY_TO:
+            tightMarshalNestedObject2(wireFormat, info.getReplyTo(), dataOut, bs);
+            break;
+        case TIMESTAMP:
+            tightMarshalLong2(wireFormat, info.getTimestamp(), dataOut, bs);
+            break;
+        case TYPE:
+            tightMarshalString2(info.getType(), dataOut, bs);
+            break;
+        case CONTENT:
+            tightMarshalByteSequence2(info.getContent(), dataOut, bs);
+            break;
+        case MARSHALLED_PROPERTIES:
+            tightMarshalByteSequence2(info.getMarshalledProperties(), dataOut, bs);
+            break;
+        case DATA_STRUCTURE:
+            tightMarshalNestedObject2(wireFormat, info.getDataStructure(), dataOut, bs);
+            break;
+        case TARGET_CONSUMER_ID:
+            tightMarshalCachedObject2(wireFormat, info.getTargetConsumerId(), dataOut, bs);
+            break;
+        case COMPRESSED:
+            bs.readBoolean();
+            break;
+        case REDELIVERY_COUNTER:
+            dataOut.writeInt(info.getRedeliveryCounter());
+            break;
+        case BROKER_PATH:
+            tightMarshalObjectArray2(wireFormat, info.getBrokerPath(), dataOut, bs);
+            break;
+        case ARRIVAL:
+            tightMarshalLong2(wireFormat, info.getArrival(), dataOut, bs);
+            break;
+        case USER_ID:
+            tightMarshalString2(info.getUserID(), dataOut, bs);
+            break;
+        case RECIEVED_BY_DF_BRIDGE:
+        case DROPPABLE:
+            bs.readBoolean();
+            break;
+        case CLUSTER:
+            tightMarshalObjectArray2(wireFormat, info.getCluster(), dataOut, bs);
+            break;
+        case BROKER_IN_TIME:
+            tightMarshalLong2(wireFormat, info.getBrokerInTime(), dataOut, bs);
+            break;
+        case BROKER_OUT_TIME:
+            tightMarshalLong2(wireFormat, info.getBrokerOutTime(), dataOut, bs);
+            break;
+        case JMSX_GROUP_FIRST_FOR_CONSUMER:
+            bs.readBoolean();
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
+    @Override
+    public void tightUnmarshalField(OpenWireFormat wireFormat, Message info, int field, DataInput dataIn, BooleanStream bs) throws IOException {
+        switch (field) {
+        case COMMAND_ID:
+            info.setCommandId(dataIn.readInt());
+            break;
+        case RESPONSE_REQUIRED:
+            info.setResponseRequired(bs.readBoolean());
+            break;
+        case PRODUCER_ID:
+            info.setProducerId((ProducerId) tightUnmarsalCachedObject(wireFormat, dataIn, bs));
+            break;
+        case DESTINATION:
+            info.setDestination((ActiveMQDestination) tightUnmarsalCachedObject(wireFormat, dataIn, bs));
+            break;
+        case TRANSACTION_ID:
+            info.setTransactionId((TransactionId) tightUnmarsalCachedObject(wireFormat, dataIn, bs));
+            break;
+        case ORIGINAL_DESTINATION:
+            info.setOriginalDestination((ActiveMQDestination) tightUnmarsalCachedObject(wireFormat, dataIn, bs));
+            break;
+        case MESSAGE_ID:
+            info.setMessageId((MessageId) tightUnmarsalNestedObject(wireFormat, dataIn, bs));
+            break;
+        case ORIGINAL_TRANSACTION_ID:
+            info.setOriginalTransactionId((TransactionId) tightUnmarsalCachedObject(wireFormat, dataIn, bs));
+            break;
+        case GROUP_ID:
+            info.setGroupID(tightUnmarshalString(dataIn, bs));
+            break;
+        case GROUP_SEQUENCE:
+            info.setGroupSequence(dataIn.readInt());
+            break;
+        case CORRELATION_ID:
+            info.setCorrelationId(tightUnmarshalString(dataIn, bs));
+            break;
+        case PERSISTENT:
+            info.setPersistent(bs.readBoolean());
+            break;
+        case EXPIRATION:
+            info.setExpiration(tightUnmarshalLong(wireFormat, dataIn, bs));
+            break;
+        case PRIORITY:
+            info.setPriority(dataIn.readByte());
+            break;
+        case REPLY_TO:
+            info.setReplyTo((ActiveMQDestination) tightUnmarsalNestedObject(wireFormat, dataIn, bs));
+            break;
+        case TIMESTAMP:
+            info.setTimestamp(tightUnmarshalLong(wireFormat, dataIn, bs));
+            break;
+        case TYPE:
+            info.setType(tightUnmarshalString(dataIn, bs));
+            break;
+        case CONTENT:
+            info.setContent(tightUnmarshalByteSequenceView(dataIn, bs));
+            break;
+        case MARSHALLED_PROPERTIES:
+            info.setMarshalledProperties(tightUnmarshalByteSequenceView(dataIn, bs));
+            break;
+        case DATA_STRUCTURE:
+            info.setDataStructure(tightUnmarsalNestedObject(wireFormat, dataIn, bs));
+            break;
+        case TARGET_CONSUMER_ID:
+            info.setTargetConsumerId((ConsumerId) tightUnmarsalCachedObject(wireFormat, dataIn, bs));
+            break;
+        case COMPRESSED:
+            info.setCompressed(bs.readBoolean());
+            break;
+        case REDELIVERY_COUNTER:
+            info.setRedeliveryCounter(dataIn.readInt());
+            break;
+        case BROKER_PATH:
+            info.setBrokerPath(tightUnmarshalBrokerIds(wireFormat, dataIn, bs));
+            break;
+        case ARRIVAL:
+            info.setArrival(tightUnmarshalLong(wireFormat, dataIn, bs));
+            break;
+        case USER_ID:
+            info.setUserID(tightUnmarshalString(dataIn, bs));
+            break;
+        case RECIEVED_BY_DF_BRIDGE:
+            info.setRecievedByDFBridge(bs.readBoolean());
+            break;
+        case DROPPABLE:
+            info.setDroppable(bs.readBoolean());
+            break;
+        case CLUSTER:
+            info.setCluster(tightUnmarshalBrokerIds(wireFormat, dataIn, bs));
+            break;
+        case BROKER_IN_TIME:
+            info.setBrokerInTime(tightUnmarshalLong(wireFormat, dataIn, bs));
+            break;
+        case BROKER_OUT_TIME:
+            info.setBrokerOutTime(tightUnmarshalLong(wireFormat, dataIn, bs));
+            break;
+        case JMSX_GROUP_FIRST_FOR_CONSUMER:
+            info.setJMSXGroupFirstForConsumer(bs.readBoolean());
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
+    @Override
+    public boolean isLazyField(int field) {
+        switch (field) {
+        case ORIGINAL_DESTINATION:
+        case CORRELATION_ID:
+        case REPLY_TO:
+        case BROKER_PATH:
+        case USER_ID:
+        case CLUSTER:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    @Override
+    public boolean tightSkipField(OpenWireFormat wireFormat, int field, DataInput dataIn, BooleanStream bs) throws IOException {
+        switch (field) {
+        case ORIGINAL_DESTINATION:
+        case REPLY_TO:
+            // with the marshall cache disabled a cached object is nested,
+            // and a destination has only its physical name
+            if (!bs.readBoolean()) {
+                return false;
+            }
+            dataIn.readByte();
+            skipString(dataIn, bs);
+            return true;
+        case CORRELATION_ID:
+        case USER_ID:
+            return skipString(dataIn, bs);
+        case BROKER_PATH:
+        case CLUSTER:
+            if (!bs.readBoolean()) {
+                return false;
+            }
+            short size = dataIn.readShort();
+            for (int i = 0; i < size; i++) {
+                // a broker id has only its value
+                if (bs.readBoolean()) {
+                    dataIn.readByte();
+                    skipString(dataIn, bs);
+                }
+            }
+            return true;
+        default:
+            throw new IllegalArgumentException("Not a lazy field: " + field);
+        }
+    }
+
+    private boolean skipString(DataInput dataIn, BooleanStream bs) throws IOException {
+        if (!bs.readBoolean()) {
+            return false;
+        }
+        // ascii or modified UTF-8, both prefixed with their length
+        bs.readBoolean();
+        dataIn.skipBytes(dataIn.readUnsignedShort());
+        return true;
+    }
+
+    @Override
+    public Object getFieldState(Message info, int field) {
+        switch (field) {
+        case COMMAND_ID:
+            return info.getCommandId();
+        case RESPONSE_REQUIRED:
+            return info.isResponseRequired();
+        case PRODUCER_ID:
+            return info.getProducerId();
+        case DESTINATION:
+            return info.getDestination();
+        case TRANSACTION_ID:
+            return info.getTransactionId();
+        case ORIGINAL_DESTINATION:
+            return info.getOriginalDestination();
+        case MESSAGE_ID:
+            return info.getMessageId() != null ? new MessageIdState(info.getMessageId()) : null;
+        case ORIGINAL_TRANSACTION_ID:
+            return info.getOriginalTransactionId();
+        case GROUP_ID:
+            return info.getGroupID();
+        case GROUP_SEQUENCE:
+            return info.getGroupSequence();
+        case CORRELATION_ID:
+            return info.getCorrelationId();
+        case PERSISTENT:
+            return info.isPersistent();
+        case EXPIRATION:
+            return info.getExpiration();
+        case PRIORITY:
+            return info.getPriority();
+        case REPLY_TO:
+            return info.getReplyTo();
+        case TIMESTAMP:
+            return info.getTimestamp();
+        case TYPE:
+            return info.getType();
+        case CONTENT:
+            return info.getContent();
+        case MARSHALLED_PROPERTIES:
+            return info.getMarshalledProperties();
+        case DATA_STRUCTURE:
+            return info.getDataStructure();
+        case TARGET_CONSUMER_ID:
+            return info.getTargetConsumerId();
+        case COMPRESSED:
+            return info.isCompressed();
+        case REDELIVERY_COUNTER:
+            return info.getRedeliveryCounter();
+        case BROKER_PATH:
+            return info.getBrokerPath();
+        case ARRIVAL:
+            return info.getArrival();
+        case USER_ID:
+            return info.getUserID();
+        case RECIEVED_BY_DF_BRIDGE:
+            return info.isRecievedByDFBridge();
+        case DROPPABLE:
+            return info.isDroppable();
+        case CLUSTER:
+            return info.getCluster();
+        case BROKER_IN_TIME:
+            return info.getBrokerInTime();
+        case BROKER_OUT_TIME:
+            return info.getBrokerOutTime();
+        case JMSX_GROUP_FIRST_FOR_CONSUMER:
+            return info.isJMSXGroupFirstForConsumer();
+        default:
+            throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
+    /**
+     * Object fields are compared by identity, the broker replaces rather than
+     * modifies them, except for the message id whose broker sequence id is
+     * set in place.
+     */
+    @Override
+    public boolean isFieldUnchanged(Message info, int field, Object state) {
+        switch (field) {
+        case COMMAND_ID:
+            return info.getCommandId() == (Integer) state;
+        case RESPONSE_REQUIRED:
+            return info.isResponseRequired() == (Boolean) state;
+        case PRODUCER_ID:
+            return info.getProducerId() == state;
+        case DESTINATION:
+            return info.getDestination() == state;
+        case TRANSACTION_ID:
+            return info.getTransactionId() == state;
+        case ORIGINAL_DESTINATION:
+            return info.getOriginalDestination() == state;
+        case MESSAGE_ID:
+            return state == null ? info.getMessageId() == null : ((MessageIdState) state).matches(info.getMessageId());
+        case ORIGINAL_TRANSACTION_ID:
+            return info.getOriginalTransactionId() == state;
+        case GROUP_ID:
+            return info.getGroupID() == state;
+        case GROUP_SEQUENCE:
+            return info.getGroupSequence() == (Integer) state;
+        case CORRELATION_ID:
+            return info.getCorrelationId() == state;
+        case PERSISTENT:
+            return info.isPersistent() == (Boolean) state;
+        case EXPIRATION:
+            return info.getExpiration() == (Long) state;
+        case PRIORITY:
+            return info.getPriority() == (Byte) state;
+        case REPLY_TO:
+            return info.getReplyTo() == state;
+        case TIMESTAMP:
+            return info.getTimestamp() == (Long) state;
+        case TYPE:
+            return info.getType() == state;
+        case CONTENT:
+            return info.getContent() == state;
+        case MARSHALLED_PROPERTIES:
+            return info.getMarshalledProperties() == state;
+        case DATA_STRUCTURE:
+            return info.getDataStructure() == state;
+        case TARGET_CONSUMER_ID:
+            return info.getTargetConsumerId() == state;
+        case COMPRESSED:
+            return info.isCompressed() == (Boolean) state;
+        case REDELIVERY_COUNTER:
+            return info.getRedeliveryCounter() == (Integer) state;
+        case BROKER_PATH:
+            return info.getBrokerPath() == state;
+        case ARRIVAL:
+            return info.getArrival() == (Long) state;
+        case USER_ID:
+            return info.getUserID() == state;
+        case RECIEVED_BY_DF_BRIDGE:
+            return info.isRecievedByDFBridge() == (Boolean) state;
+        case DROPPABLE:
+            return info.isDroppable() == (Boolean) state;
+        case CLUSTER:
+            return info.getCluster() == state;
+        case BROKER_IN_TIME:
+            return info.getBrokerInTime() == (Long) state;
+        case BROKER_OUT_TIME:
+            return info.getBrokerOutTime() == (Long) state;
+        case JMSX_GROUP_FIRST_FOR_CONSUMER:
+            return info.isJMSXGroupFirstForConsumer() == (Boolean) state;
+        default:
+            throw new IllegalArgumentException("Unknown field: " + field);
+        }
+    }
+
+    private BrokerId[] tightUnmarshalBrokerIds(OpenWireFormat wireFormat, DataInput dataIn, BooleanStream bs) throws IOException {
+        if (bs.readBoolean()) {
+            short size = dataIn.readShort();
+            BrokerId value[] = new BrokerId[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = (BrokerId) tightUnmarsalNestedObject(wireFormat, dataIn, bs);
+            }
+            return value;
+        }
+        return null;
+    }
+
+    /**
+     * Reads a byte sequence as a view onto the frame being unmarshalled
+     * rather than a copy of it.
+     */
+    private ByteSequence tightUnmarshalByteSequenceView(DataInput dataIn, BooleanStream bs) throws IOException {
+        if (!(dataIn instanceof DataByteArrayInputStream)) {
+            return tightUnmarshalByteSequence(dataIn, bs);
+        }
+        if (bs.readBoolean()) {
+            DataByteArrayInputStream in = (DataByteArrayInputStream) dataIn;
+            int size = in.readInt();
+            ByteSequence rc = new ByteSequence(in.getRawData(), in.getPos(), size);
+            in.skipBytes(size);
+            return rc;
+        }
+        return null;
+    }
+
+    /**
+     * The parts of a message id that are marshalled, as the broker assigns
+     * the broker sequence id of a message id in place.
+     */
+    private static final class MessageIdState {
+        private final MessageId messageId;
+        private final String textView;
+        private final ProducerId producerId;
+        private final long producerSequenceId;
+        private final long brokerSequenceId;
+
+        MessageIdState(MessageId messageId) {
+            this.messageId = messageId;
+            this.textView = messageId.getTextView();
+            this.producerId = messageId.getProducerId();
+            this.producerSequenceId = messageId.getProducerSequenceId();
+            this.brokerSequenceId = messageId.getBrokerSequenceId();
+        }
+
+        boolean matches(MessageId other) {
+            return other == messageId && other.getTextView() == textView && other.getProducerId() == producerId
+                && other.getProducerSequenceId() == producerSequenceId && other.getBrokerSequenceId() == brokerSequenceId;
+        }
+    }
+}
@@ -30,6 +30,7 @@ import org.apache.activemq.command.FlushCommand;
 import org.apache.activemq.command.KeepAliveInfo;
 import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageAck;
+import org.apache.activemq.command.MessageBatch;
 import org.apache.activemq.command.MessageDispatch;
 import org.apache.activemq.command.MessageDispatchNotification;
 import org.apache.activemq.command.MessagePull;
@@ -102,6 +103,8 @@ public interface CommandVisitor {
 
     Response processMessageDispatchNotification(MessageDispatchNotification notification) throws Exception;
 
+    Response processMessageBatch(MessageBatch batch) throws Exception;
+
     Response processProducerAck(ProducerAck ack) throws Exception;
 
     Response processMessageDispatch(MessageDispatch dispatch) throws Exception;
@@ -30,6 +30,7 @@ import org.apache.activemq.command.FlushCommand;
 import org.apache.activemq.command.KeepAliveInfo;
 import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageAck;
+import org.apache.activemq.command.MessageBatch;
 import org.apache.activemq.command.MessageDispatch;
 import org.apache.activemq.command.MessageDispatchNotification;
 import org.apache.activemq.command.MessagePull;
@@ -123,6 +124,10 @@ public class CommandVisitorAdapter implements CommandVisitor {
         return null;
     }
 
+    public Response processMessageBatch(MessageBatch batch) throws Exception {
+        return null;
+    }
+
     public Response processRecoverTransactions(TransactionInfo info) throws Exception {
         return null;
     }
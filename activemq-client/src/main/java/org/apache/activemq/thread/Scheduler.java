@@ -16,62 +16,317 @@
  */
 package org.apache.activemq.thread;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.activemq.util.ServiceStopper;
 import org.apache.activemq.util.ServiceSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
+ * Runs delayed and periodic tasks on a single daemon thread.
  *
+ * Tasks are held in a hashed timing wheel, a ring of buckets each covering one
+ * tick, so scheduling and cancelling a task are constant time regardless of how
+ * many tasks are pending and a cancelled task is unlinked straight away rather
+ * than left for a purge. The trade off is that tasks run on a tick boundary, up
+ * to one tick after their delay has passed. The thread only wakes each tick
+ * while there is something scheduled.
+ *
+ * Periodic tasks run with a fixed delay, as they did on a {@link java.util.Timer}:
+ * the next run is scheduled one period after the previous run returns.
  */
 public final class Scheduler extends ServiceSupport {
 
+    private static final Logger LOG = LoggerFactory.getLogger(Scheduler.class);
+
+    public static final long DEFAULT_TICK_DURATION = 10;
+    public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
     private final String name;
-    private Timer timer;
-    private final HashMap<Runnable, TimerTask> timerTasks = new HashMap<Runnable, TimerTask>();
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final HashMap<Runnable, ScheduledTask> timerTasks = new HashMap<Runnable, ScheduledTask>();
+    private Thread worker;
+    private long startTime;
+    private long tick;
+    private int pendingTasks;
+    private volatile long tickLag;
 
     public Scheduler(String name) {
+        this(name, DEFAULT_TICK_DURATION, DEFAULT_TICKS_PER_WHEEL);
+    }
+
+    /**
+     * @param name
+     *      the name of the scheduler thread
+     * @param tickDuration
+     *      the resolution of the scheduler in milliseconds
+     * @param ticksPerWheel
+     *      the number of buckets in the wheel, rounded up to a power of two
+     */
+    public Scheduler(String name, long tickDuration, int ticksPerWheel) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration must be greater than 0: " + tickDuration);
+        }
+        if (ticksPerWheel <= 0 || ticksPerWheel > 1 << 30) {
+            throw new IllegalArgumentException("ticksPerWheel must be between 1 and 2^30: " + ticksPerWheel);
+        }
         this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickDuration);
+        int size = Integer.highestOneBit(ticksPerWheel);
+        if (size < ticksPerWheel) {
+            size <<= 1;
+        }
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
     }
 
     public synchronized void executePeriodically(final Runnable task, long period) {
-        TimerTask timerTask = new SchedulerTimerTask(task);
-        timer.schedule(timerTask, period, period);
-        timerTasks.put(task, timerTask);
+        if (period <= 0) {
+            throw new IllegalArgumentException("Non-positive period.");
+        }
+        ScheduledTask scheduledTask = new ScheduledTask(task, period);
+        schedule(scheduledTask, period);
+        timerTasks.put(task, scheduledTask);
     }
 
     public synchronized void cancel(Runnable task) {
-        TimerTask ticket = timerTasks.remove(task);
-        if (ticket != null) {
-            ticket.cancel();
-            timer.purge(); // remove cancelled TimerTasks
+        ScheduledTask scheduledTask = timerTasks.remove(task);
+        if (scheduledTask != null) {
+            scheduledTask.cancelled = true;
+            if (scheduledTask.bucket != null) {
+                scheduledTask.bucket.remove(scheduledTask);
+                pendingTasks--;
+            }
         }
     }
 
     public synchronized void executeAfterDelay(final Runnable task, long redeliveryDelay) {
-        TimerTask timerTask = new SchedulerTimerTask(task);
-        timer.schedule(timerTask, redeliveryDelay);
+        if (redeliveryDelay < 0) {
+            throw new IllegalArgumentException("Negative delay.");
+        }
+        schedule(new ScheduledTask(task, 0), redeliveryDelay);
+    }
+
+    public synchronized void shutdown() {
+        stopWorker();
     }
 
-    public void shutdown() {
-        timer.cancel();
+    /**
+     * @return the number of tasks waiting to run.
+     */
+    public synchronized int getPendingTaskCount() {
+        return pendingTasks;
+    }
+
+    /**
+     * @return how late, in milliseconds, the scheduler thread was in reaching
+     *         the most recent tick that had tasks pending.  A lag that keeps
+     *         growing means tasks are taking longer to run than the ticks they
+     *         are scheduled on.
+     */
+    public long getTickLag() {
+        return TimeUnit.NANOSECONDS.toMillis(tickLag);
     }
 
     @Override
     protected synchronized void doStart() throws Exception {
-        this.timer = new Timer(name, true);
+        startTime = System.nanoTime();
+        tick = 0;
+        tickLag = 0;
+        worker = new Thread(new Worker(), name);
+        worker.setDaemon(true);
+        worker.start();
     }
 
     @Override
     protected synchronized void doStop(ServiceStopper stopper) throws Exception {
-        if (this.timer != null) {
-            this.timer.cancel();
-        }
+        stopWorker();
     }
 
     public String getName() {
         return name;
     }
+
+    private void stopWorker() {
+        worker = null;
+        for (Bucket bucket : wheel) {
+            bucket.clear();
+        }
+        timerTasks.clear();
+        pendingTasks = 0;
+        notifyAll();
+    }
+
+    private void schedule(ScheduledTask task, long delay) {
+        if (worker == null) {
+            throw new IllegalStateException("Scheduler " + name + " is not running.");
+        }
+        long now = System.nanoTime() - startTime;
+        if (pendingTasks == 0) {
+            // the wheel does not turn while the worker idles, catch up with
+            // the time that passed so it is not taken for lag
+            tick = Math.max(tick, now / tickNanos);
+        }
+        long deadline = now + TimeUnit.MILLISECONDS.toNanos(delay);
+        task.deadlineTick = Math.max(tick + 1, (deadline + tickNanos - 1) / tickNanos);
+        wheel[(int) (task.deadlineTick & mask)].add(task);
+        if (pendingTasks++ == 0) {
+            // the worker idles until there is something to run
+            notifyAll();
+        }
+    }
+
+    /**
+     * Schedules the next run of a periodic task once its last run returned,
+     * unless it was cancelled or the scheduler stopped meanwhile.
+     */
+    private synchronized void reschedule(ScheduledTask task) {
+        if (!task.cancelled && worker == Thread.currentThread()) {
+            schedule(task, task.period);
+        }
+    }
+
+    /**
+     * Advances the wheel to the current tick, collecting the tasks that are
+     * due.  Waits if no tick is due yet.
+     *
+     * @return false if the scheduler has been stopped.
+     */
+    private synchronized boolean advance(List<ScheduledTask> expired) throws InterruptedException {
+        while (worker == Thread.currentThread()) {
+            long now = System.nanoTime() - startTime;
+            long currentTick = now / tickNanos;
+            if (currentTick > tick) {
+                if (pendingTasks > 0) {
+                    tickLag = now - (tick + 1) * tickNanos;
+                    // a full rotation visits every bucket, so there is no need to go further
+                    long first = Math.max(tick + 1, currentTick - mask);
+                    for (long t = first; t <= currentTick; t++) {
+                        wheel[(int) (t & mask)].expire(currentTick, expired);
+                    }
+                    pendingTasks -= expired.size();
+                }
+                tick = currentTick;
+                if (!expired.isEmpty()) {
+                    return true;
+                }
+            } else if (pendingTasks == 0) {
+                wait();
+            } else {
+                long remaining = (tick + 1) * tickNanos - now;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "Scheduler[" + name + "]";
+    }
+
+    private final class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            List<ScheduledTask> expired = new ArrayList<ScheduledTask>();
+            try {
+                while (advance(expired)) {
+                    for (ScheduledTask task : expired) {
+                        if (!task.cancelled) {
+                            try {
+                                task.task.run();
+                            } catch (Throwable e) {
+                                LOG.warn("Scheduled task {} on {} failed: {}", new Object[] {task.task, name, e.toString()});
+                                LOG.debug("Scheduled task failure", e);
+                            }
+                            if (task.period > 0) {
+                                reschedule(task);
+                            }
+                        }
+                    }
+                    expired.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static final class ScheduledTask {
+        final Runnable task;
+        final long period;
+        long deadlineTick;
+        volatile boolean cancelled;
+        Bucket bucket;
+        ScheduledTask prev;
+        ScheduledTask next;
+
+        ScheduledTask(Runnable task, long period) {
+            this.task = task;
+            this.period = period;
+        }
+    }
+
+    /**
+     * The tasks due on the ticks that map to one slot of the wheel.
+     */
+    private static final class Bucket {
+        private ScheduledTask head;
+        private ScheduledTask tail;
+
+        void add(ScheduledTask task) {
+            task.bucket = this;
+            if (tail == null) {
+                head = task;
+            } else {
+                tail.next = task;
+                task.prev = tail;
+            }
+            tail = task;
+        }
+
+        void remove(ScheduledTask task) {
+            if (task.prev == null) {
+                head = task.next;
+            } else {
+                task.prev.next = task.next;
+            }
+            if (task.next == null) {
+                tail = task.prev;
+            } else {
+                task.next.prev = task.prev;
+            }
+            task.prev = null;
+            task.next = null;
+            task.bucket = null;
+        }
+
+        void expire(long currentTick, List<ScheduledTask> expired) {
+            ScheduledTask task = head;
+            while (task != null) {
+                ScheduledTask next = task.next;
+                if (task.deadlineTick <= currentTick) {
+                    remove(task);
+                    expired.add(task);
+                }
+                task = next;
+            }
+        }
+
+        void clear() {
+            while (head != null) {
+                remove(head);
+            }
+        }
+    }
 }
@@ -19,22 +19,38 @@ package org.apache.activemq.transport;
 import java.io.IOException;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.activemq.openwire.OpenWireFormat;
+import org.apache.activemq.wireformat.WireFormat;
+
 /**
  * Thread safe Transport Filter that serializes calls to and from the Transport Stack.
+ *
+ * When given the OpenWire format of the transport, a message sent while
+ * another send holds the lock is marshalled before waiting for it, so that
+ * only writing the marshalled message is serialized.
  */
 public class MutexTransport extends TransportFilter {
 
     private final ReentrantLock writeLock = new ReentrantLock();
     private boolean syncOnCommand;
+    private final OpenWireFormat wireFormat;
 
     public MutexTransport(Transport next) {
-        super(next);
-        this.syncOnCommand = false;
+        this(next, false);
     }
 
     public MutexTransport(Transport next, boolean syncOnCommand) {
+        this(next, syncOnCommand, null);
+    }
+
+    public MutexTransport(Transport next, WireFormat wireFormat) {
+        this(next, false, wireFormat);
+    }
+
+    public MutexTransport(Transport next, boolean syncOnCommand, WireFormat wireFormat) {
         super(next);
         this.syncOnCommand = syncOnCommand;
+        this.wireFormat = wireFormat instanceof OpenWireFormat ? (OpenWireFormat) wireFormat : null;
     }
 
     @Override
@@ -53,6 +69,7 @@ public class MutexTransport extends TransportFilter {
 
     @Override
     public FutureResponse asyncRequest(Object command, ResponseCallback responseCallback) throws IOException {
+        premarshal(command);
         writeLock.lock();
         try {
             return next.asyncRequest(command, null);
@@ -63,6 +80,7 @@ public class MutexTransport extends TransportFilter {
 
     @Override
     public void oneway(Object command) throws IOException {
+        premarshal(command);
         writeLock.lock();
         try {
             next.oneway(command);
@@ -73,6 +91,7 @@ public class MutexTransport extends TransportFilter {
 
     @Override
     public Object request(Object command) throws IOException {
+        premarshal(command);
         writeLock.lock();
         try {
             return next.request(command);
@@ -83,6 +102,7 @@ public class MutexTransport extends TransportFilter {
 
     @Override
     public Object request(Object command, int timeout) throws IOException {
+        premarshal(command);
         writeLock.lock();
         try {
             return next.request(command, timeout);
@@ -91,6 +111,12 @@ public class MutexTransport extends TransportFilter {
         }
     }
 
+    private void premarshal(Object command) throws IOException {
+        if (wireFormat != null && writeLock.isLocked()) {
+            wireFormat.premarshal(command);
+        }
+    }
+
     @Override
     public String toString() {
         return next.toString();
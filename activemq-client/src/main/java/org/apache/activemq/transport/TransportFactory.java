@@ -223,7 +223,7 @@ public abstract class TransportFactory {
     public Transport configure(Transport transport, WireFormat wf, Map options) throws Exception {
         transport = compositeConfigure(transport, wf, options);
 
-        transport = new MutexTransport(transport);
+        transport = new MutexTransport(transport, wf);
         transport = new ResponseCorrelator(transport);
 
         return transport;
@@ -247,7 +247,7 @@ public abstract class TransportFactory {
             transport = new ThreadNameFilter(transport);
         }
         transport = compositeConfigure(transport, format, options);
-        transport = new MutexTransport(transport);
+        transport = new MutexTransport(transport, format);
         return transport;
     }
 
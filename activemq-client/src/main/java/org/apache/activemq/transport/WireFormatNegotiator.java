@@ -171,6 +171,14 @@ public class WireFormatNegotiator extends TransportFilter {
     protected void onWireFormatNegotiated(WireFormatInfo info) {
     }
 
+    /**
+     * @return the wire format, which is negotiated once the remote
+     *         WireFormatInfo has been received.
+     */
+    public OpenWireFormat getWireFormat() {
+        return wireFormat;
+    }
+
     public long getNegotiateTimeout() {
         return negotiateTimeout;
     }
@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.transport.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of read buffers shared by the NIO transports.
+ *
+ * Buffers are grouped into size classes that are powers of two, from
+ * {@link #MIN_BUFFER_SIZE} up to the largest pooled size, and a request is
+ * served from the smallest class that fits it.  Larger requests get a buffer
+ * that is not pooled.  Released buffers are kept until the pool holds its
+ * maximum number of bytes, after which they are left to the garbage collector.
+ *
+ * The pool hands out heap buffers unless configured for direct buffers; a
+ * transport that needs the backing array, because its codec parses from a
+ * byte array, asks for a heap buffer explicitly.
+ */
+public final class NIOBufferPool {
+
+    public static final int MIN_BUFFER_SIZE = 1024;
+
+    private static final NIOBufferPool INSTANCE = new NIOBufferPool(
+        Integer.getInteger("org.apache.activemq.transport.nio.NIOBufferPool.maxBufferSize", 1024 * 1024),
+        Long.getLong("org.apache.activemq.transport.nio.NIOBufferPool.maxPoolSize", 64 * 1024 * 1024),
+        Boolean.getBoolean("org.apache.activemq.transport.nio.NIOBufferPool.direct"));
+
+    private final int maxBufferSize;
+    private final long maxPoolSize;
+    private final boolean direct;
+    private final SizeClass[] heapClasses;
+    private final SizeClass[] directClasses;
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    private final AtomicLong acquired = new AtomicLong();
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong released = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+
+    public static NIOBufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param maxBufferSize
+     *      the largest buffer that is pooled, rounded up to a power of two
+     * @param maxPoolSize
+     *      the most bytes the pool keeps for reuse
+     * @param direct
+     *      whether {@link #acquire(int)} hands out direct buffers
+     */
+    public NIOBufferPool(int maxBufferSize, long maxPoolSize, boolean direct) {
+        if (maxBufferSize < MIN_BUFFER_SIZE || maxBufferSize > 1 << 30) {
+            throw new IllegalArgumentException("maxBufferSize must be between " + MIN_BUFFER_SIZE + " and 2^30: " + maxBufferSize);
+        }
+        this.maxBufferSize = classSize(classIndex(maxBufferSize));
+        this.maxPoolSize = maxPoolSize;
+        this.direct = direct;
+        int classes = classIndex(this.maxBufferSize) + 1;
+        this.heapClasses = new SizeClass[classes];
+        this.directClasses = new SizeClass[classes];
+        for (int i = 0; i < classes; i++) {
+            heapClasses[i] = new SizeClass();
+            directClasses[i] = new SizeClass();
+        }
+    }
+
+    /**
+     * @return a cleared buffer with a capacity of at least size bytes and its
+     *         limit set to size.
+     */
+    public ByteBuffer acquire(int size) {
+        return acquire(size, direct);
+    }
+
+    /**
+     * @return a cleared heap buffer with a capacity of at least size bytes and
+     *         its limit set to size.
+     */
+    public ByteBuffer acquireHeap(int size) {
+        return acquire(size, false);
+    }
+
+    /**
+     * Returns a buffer to the pool.  The buffer must not be used again by the
+     * caller, including any views or slices of it.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) {
+            return;
+        }
+        released.incrementAndGet();
+        int capacity = buffer.capacity();
+        if (capacity > maxBufferSize || capacity < MIN_BUFFER_SIZE || Integer.bitCount(capacity) != 1) {
+            // not one of ours
+            discarded.incrementAndGet();
+            return;
+        }
+        if (pooledBytes.addAndGet(capacity) > maxPoolSize) {
+            pooledBytes.addAndGet(-capacity);
+            discarded.incrementAndGet();
+            return;
+        }
+        SizeClass[] classes = buffer.isDirect() ? directClasses : heapClasses;
+        classes[classIndex(capacity)].buffers.add(buffer);
+    }
+
+    private ByteBuffer acquire(int size, boolean direct) {
+        acquired.incrementAndGet();
+        if (size > maxBufferSize) {
+            allocated.incrementAndGet();
+            return allocate(size, direct);
+        }
+        int index = classIndex(size);
+        SizeClass[] classes = direct ? directClasses : heapClasses;
+        ByteBuffer buffer = classes[index].buffers.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            buffer = allocate(classSize(index), direct);
+        } else {
+            pooledBytes.addAndGet(-buffer.capacity());
+            buffer.clear();
+        }
+        buffer.limit(size);
+        return buffer;
+    }
+
+    private static ByteBuffer allocate(int size, boolean direct) {
+        return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static int classIndex(int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - 10;
+    }
+
+    private static int classSize(int index) {
+        return MIN_BUFFER_SIZE << index;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    public long getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    /**
+     * @return the number of bytes held in pooled buffers waiting for reuse.
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return the number of buffers handed out.
+     */
+    public long getAcquireCount() {
+        return acquired.get();
+    }
+
+    /**
+     * @return the number of buffers handed out that had to be newly allocated.
+     */
+    public long getAllocateCount() {
+        return allocated.get();
+    }
+
+    /**
+     * @return the number of buffers returned to the pool.
+     */
+    public long getReleaseCount() {
+        return released.get();
+    }
+
+    /**
+     * @return the number of returned buffers that were not kept for reuse.
+     */
+    public long getDiscardCount() {
+        return discarded.get();
+    }
+
+    public void resetStatistics() {
+        acquired.set(0);
+        allocated.set(0);
+        released.set(0);
+        discarded.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "NIOBufferPool[direct=" + direct + ", pooledBytes=" + getPooledBytes() + ", acquired=" + getAcquireCount() +
+               ", allocated=" + getAllocateCount() + ", released=" + getReleaseCount() + ", discarded=" + getDiscardCount() + "]";
+    }
+
+    private static final class SizeClass {
+        final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    }
+}
@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.WritableByteChannel;
 
 import javax.net.ssl.SSLEngine;
@@ -29,14 +30,30 @@ import org.apache.activemq.transport.tcp.TimeStampStream;
 
 /**
  * An optimized buffered OutputStream for TCP/IP
+ *
+ * Small writes are collected in a buffer taken from the {@link NIOBufferPool}
+ * and handed back once flushed, so an idle connection holds no write buffer.
+ * When the channel supports gathering writes, a large byte array that does not
+ * fit in what is left of the buffer, such as a message body, is not copied:
+ * the buffered bytes and the array are written to the channel right away in
+ * one gathering write.  Writes are always either copied or written before the
+ * call returns, so callers are free to reuse their arrays.
  */
 public class NIOOutputStream extends OutputStream implements TimeStampStream {
 
     private static final int BUFFER_SIZE = 8196;
 
+    /**
+     * Writes of at least this many bytes that do not fit in the buffer are
+     * passed to a gathering write rather than copied into the buffer.
+     */
+    private static final int GATHER_THRESHOLD = 1024;
+
     private final WritableByteChannel out;
-    private final byte[] buffer;
-    private final ByteBuffer byteBuffer;
+    private final int bufferSize;
+    private final NIOBufferPool bufferPool;
+    private ByteBuffer pooledBuffer;
+    private byte[] buffer;
 
     private int count;
     private boolean closed;
@@ -66,12 +83,29 @@ public class NIOOutputStream extends OutputStream implements TimeStampStream {
      * @throws IllegalArgumentException if size <= 0.
      */
     public NIOOutputStream(WritableByteChannel out, int size) {
+        this(out, size, NIOBufferPool.getInstance());
+    }
+
+    /**
+     * Creates a new buffered output stream that takes its buffer from the
+     * given pool.
+     *
+     * @param out
+     *        the underlying output stream.
+     * @param size
+     *        the buffer size.
+     * @param bufferPool
+     *        the pool the buffer is taken from.
+     *
+     * @throws IllegalArgumentException if size <= 0.
+     */
+    public NIOOutputStream(WritableByteChannel out, int size, NIOBufferPool bufferPool) {
         this.out = out;
         if (size <= 0) {
             throw new IllegalArgumentException("Buffer size <= 0");
         }
-        buffer = new byte[size];
-        byteBuffer = ByteBuffer.wrap(buffer);
+        this.bufferSize = size;
+        this.bufferPool = bufferPool;
     }
 
     /**
@@ -88,6 +122,9 @@ public class NIOOutputStream extends OutputStream implements TimeStampStream {
         if (availableBufferToWrite() < 1) {
             flush();
         }
+        if (buffer == null) {
+            acquireBuffer();
+        }
         buffer[count++] = (byte) b;
     }
 
@@ -106,10 +143,17 @@ public class NIOOutputStream extends OutputStream implements TimeStampStream {
     @Override
     public void write(byte b[], int off, int len) throws IOException {
         checkClosed();
+        if (availableBufferToWrite() < len && len >= GATHER_THRESHOLD && isGathering()) {
+            writeGathered(ByteBuffer.wrap(b, off, len));
+            return;
+        }
         if (availableBufferToWrite() < len) {
             flush();
         }
-        if (buffer.length >= len) {
+        if (bufferSize >= len) {
+            if (buffer == null) {
+                acquireBuffer();
+            }
             System.arraycopy(b, off, buffer, count, len);
             count += len;
         } else {
@@ -126,11 +170,18 @@ public class NIOOutputStream extends OutputStream implements TimeStampStream {
      */
     @Override
     public void flush() throws IOException {
-        if (count > 0 && out != null) {
-            byteBuffer.position(0);
-            byteBuffer.limit(count);
-            write(byteBuffer);
+        if (out == null) {
+            return;
+        }
+        try {
+            if (count > 0) {
+                pooledBuffer.position(0);
+                pooledBuffer.limit(count);
+                write(pooledBuffer);
+            }
+        } finally {
             count = 0;
+            releaseBuffer();
         }
     }
 
@@ -163,7 +214,80 @@ public class NIOOutputStream extends OutputStream implements TimeStampStream {
      * @return the amount free space in the buffer
      */
     private int availableBufferToWrite() {
-        return buffer.length - count;
+        return (buffer == null ? bufferSize : buffer.length) - count;
+    }
+
+    private boolean isGathering() {
+        return engine == null && out instanceof GatheringByteChannel;
+    }
+
+    private void acquireBuffer() {
+        pooledBuffer = bufferPool.acquireHeap(bufferSize);
+        buffer = pooledBuffer.array();
+    }
+
+    private void releaseBuffer() {
+        if (pooledBuffer != null) {
+            bufferPool.release(pooledBuffer);
+            pooledBuffer = null;
+            buffer = null;
+        }
+    }
+
+    /**
+     * Writes the buffered bytes followed by the given data in one gathering
+     * write, leaving the buffer empty.
+     */
+    private void writeGathered(ByteBuffer data) throws IOException {
+        if (count == 0) {
+            releaseBuffer();
+            write(data);
+            return;
+        }
+        pooledBuffer.position(0);
+        pooledBuffer.limit(count);
+        ByteBuffer[] segments = new ByteBuffer[] {pooledBuffer, data};
+        GatheringByteChannel channel = (GatheringByteChannel) out;
+        long remaining = count + data.remaining();
+
+        long delay = 1;
+        long lastWriteSize = -1;
+        try {
+            writeTimestamp = System.currentTimeMillis();
+            while (remaining > 0) {
+                if (lastWriteSize == 0) {
+                    delay = backOff(delay);
+                } else {
+                    delay = 1;
+                }
+
+                int first = pooledBuffer.hasRemaining() ? 0 : 1;
+                lastWriteSize = channel.write(segments, first, segments.length - first);
+                remaining -= lastWriteSize;
+            }
+        } finally {
+            writeTimestamp = -1;
+            count = 0;
+            releaseBuffer();
+        }
+    }
+
+    /**
+     * Sleeps for the given delay to avoid a busy loop while the channel is not
+     * accepting data, and returns the delay to use next time.
+     */
+    private long backOff(long delay) throws InterruptedIOException {
+        try {
+            // Use exponential growth to increase sleep time.
+            Thread.sleep(delay);
+            delay *= 2;
+            if (delay > 1000) {
+                delay = 1000;
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        return delay;
     }
 
     protected void write(ByteBuffer data) throws IOException {
@@ -187,16 +311,7 @@ public class NIOOutputStream extends OutputStream implements TimeStampStream {
                 // We may need to do a little bit of sleeping to avoid a busy
                 // loop. Slow down if no data was written out..
                 if (lastWriteSize == 0) {
-                    try {
-                        // Use exponential growth to increase sleep time.
-                        Thread.sleep(delay);
-                        delay *= 2;
-                        if (delay > 1000) {
-                            delay = 1000;
-                        }
-                    } catch (InterruptedException e) {
-                        throw new InterruptedIOException();
-                    }
+                    delay = backOff(delay);
                 } else {
                     delay = 1;
                 }
@@ -173,12 +173,13 @@ public class NIOSSLTransport extends NIOTransport {
 
     @Override
     protected void serviceRead() {
+        ByteBuffer plain = null;
         try {
             if (handshakeInProgress) {
                 doHandshake();
             }
 
-            ByteBuffer plain = ByteBuffer.allocate(sslSession.getApplicationBufferSize());
+            plain = bufferPool.acquire(sslSession.getApplicationBufferSize());
             plain.position(plain.limit());
 
             while (true) {
@@ -208,6 +209,9 @@ public class NIOSSLTransport extends NIOTransport {
             onException(e);
         } catch (Throwable e) {
             onException(IOExceptionSupport.create(e));
+        } finally {
+            // processCommand copies out everything it keeps
+            bufferPool.release(plain);
         }
     }
 
@@ -265,7 +269,7 @@ public class NIOSSLTransport extends NIOTransport {
 
             // now we got the data, lets reallocate and store the size for the marshaler.
             // if there's more data in plain, then the next call will start processing it.
-            currentBuffer = ByteBuffer.allocate(nextFrameSize + 4);
+            currentBuffer = bufferPool.acquire(nextFrameSize + 4);
             currentBuffer.putInt(nextFrameSize);
 
         } else {
@@ -286,9 +290,10 @@ public class NIOSSLTransport extends NIOTransport {
             } else {
                 currentBuffer.flip();
                 Object command = wireFormat.unmarshal(new DataInputStream(new NIOInputStream(currentBuffer)));
+                bufferPool.release(currentBuffer);
+                currentBuffer = null;
                 doConsume(command);
                 nextFrameSize = -1;
-                currentBuffer = null;
             }
         }
     }
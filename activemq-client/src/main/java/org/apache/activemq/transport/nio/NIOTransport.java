@@ -50,6 +50,7 @@ public class NIOTransport extends TcpTransport {
     protected ByteBuffer inputBuffer;
     protected ByteBuffer currentBuffer;
     protected int nextFrameSize;
+    protected NIOBufferPool bufferPool = NIOBufferPool.getInstance();
 
     public NIOTransport(WireFormat wireFormat, SocketFactory socketFactory, URI remoteLocation, URI localLocation) throws UnknownHostException, IOException {
         super(wireFormat, socketFactory, remoteLocation, localLocation);
@@ -78,19 +79,22 @@ public class NIOTransport extends TcpTransport {
             }
         });
 
-        // Send the data via the channel
-        // inputBuffer = ByteBuffer.allocateDirect(8*1024);
-        inputBuffer = ByteBuffer.allocate(8 * 1024);
-        currentBuffer = inputBuffer;
+        // The input buffer is taken from the pool when there is something to
+        // read and handed back between frames, so idle connections hold none.
         nextFrameSize = -1;
-        currentBuffer.limit(4);
-        NIOOutputStream outPutStream = new NIOOutputStream(channel, 16 * 1024);
+        NIOOutputStream outPutStream = new NIOOutputStream(channel, 16 * 1024, bufferPool);
         this.dataOut = new DataOutputStream(outPutStream);
         this.buffOut = outPutStream;
     }
 
     protected void serviceRead() {
         try {
+            if (inputBuffer == null) {
+                inputBuffer = bufferPool.acquire(8 * 1024);
+                inputBuffer.limit(4);
+                currentBuffer = inputBuffer;
+            }
+
             while (true) {
 
                 int readSize = channel.read(currentBuffer);
@@ -100,6 +104,11 @@ public class NIOTransport extends TcpTransport {
                     break;
                 }
                 if (readSize == 0) {
+                    if (nextFrameSize == -1 && inputBuffer.position() == 0) {
+                        bufferPool.release(inputBuffer);
+                        inputBuffer = null;
+                        currentBuffer = null;
+                    }
                     break;
                 }
 
@@ -125,8 +134,8 @@ public class NIOTransport extends TcpTransport {
                     }
 
                     if (nextFrameSize > inputBuffer.capacity()) {
-                        currentBuffer = ByteBuffer.allocate(nextFrameSize);
-                        currentBuffer.putInt(nextFrameSize);
+                        currentBuffer = bufferPool.acquire(nextFrameSize);
+                        currentBuffer.putInt(nextFrameSize - 4);
                     } else {
                         inputBuffer.limit(nextFrameSize);
                     }
@@ -135,6 +144,10 @@ public class NIOTransport extends TcpTransport {
                     currentBuffer.flip();
 
                     Object command = wireFormat.unmarshal(new DataInputStream(new NIOInputStream(currentBuffer)));
+                    // the unmarshalled command holds copies of what it needs from the frame
+                    if (currentBuffer != inputBuffer) {
+                        bufferPool.release(currentBuffer);
+                    }
                     doConsume((Command)command);
 
                     nextFrameSize = -1;
@@ -21,6 +21,7 @@ import java.nio.channels.spi.AbstractSelectableChannel;
 import java.util.LinkedList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -32,16 +33,56 @@ import java.util.concurrent.TimeUnit;
  *
  * We may need to consider running more than one thread to check the selector if
  * servicing the selector takes too long.
+ *
+ * By default a new selector thread is started for every
+ * {@link #getMaxChannelsPerWorker()} channels and selected channels are
+ * serviced on an unbounded thread pool.  When fixed selectors are enabled a
+ * fixed set of selector threads is started up front, each new channel goes to
+ * the least loaded one, and selected channels are serviced on a fixed size
+ * thread pool, so the number of threads no longer grows with the number of
+ * connections.  A thread servicing a channel may block, for example when
+ * producer flow control holds up a send, so the worker pool needs to be larger
+ * than the number of connections that are expected to block at once.
  */
 public final class SelectorManager {
 
     public static final SelectorManager SINGLETON = new SelectorManager();
 
-    private Executor selectorExecutor = createDefaultExecutor();
-    private Executor channelExecutor = selectorExecutor;
+    private final boolean fixedSelectors;
+    private final int selectorThreads;
+    private final int workerThreads;
+    private Executor selectorExecutor;
+    private Executor channelExecutor;
     private final LinkedList<SelectorWorker> freeWorkers = new LinkedList<SelectorWorker>();
+    private SelectorWorker[] fixedWorkers;
     private int maxChannelsPerWorker = 1024;
 
+    public SelectorManager() {
+        this(getDefaultFixedSelectors() ? getDefaultSelectorThreads() : 0, getDefaultWorkerThreads());
+    }
+
+    /**
+     * @param selectorThreads
+     *      the number of fixed selector threads, or 0 to start selector threads as channels are added
+     * @param workerThreads
+     *      the number of threads servicing selected channels when using fixed selector threads
+     */
+    public SelectorManager(int selectorThreads, int workerThreads) {
+        if (selectorThreads < 0 || workerThreads <= 0) {
+            throw new IllegalArgumentException("Invalid thread counts, selectorThreads: " + selectorThreads + ", workerThreads: " + workerThreads);
+        }
+        this.fixedSelectors = selectorThreads > 0;
+        this.selectorThreads = selectorThreads;
+        this.workerThreads = workerThreads;
+        if (fixedSelectors) {
+            selectorExecutor = createFixedSelectorExecutor();
+            channelExecutor = createFixedChannelExecutor();
+        } else {
+            selectorExecutor = createDefaultExecutor();
+            channelExecutor = selectorExecutor;
+        }
+    }
+
     protected ExecutorService createDefaultExecutor() {
         ThreadPoolExecutor rc = new ThreadPoolExecutor(getDefaultCorePoolSize(), getDefaultMaximumPoolSize(), getDefaultKeepAliveTime(), TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
             new ThreadFactory() {
@@ -59,6 +100,56 @@ public final class SelectorManager {
         return rc;
     }
 
+    protected ExecutorService createFixedSelectorExecutor() {
+        // a replacement for a worker that stopped waits in the queue for the
+        // stopping worker's thread rather than being rejected while it exits
+        ThreadPoolExecutor rc = new ThreadPoolExecutor(selectorThreads, selectorThreads, getDefaultKeepAliveTime(), TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(selectorThreads),
+            new ThreadFactory() {
+
+                private long i = 0;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    this.i++;
+                    final Thread t = new Thread(runnable, "ActiveMQ NIO Selector " + this.i);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        rc.allowCoreThreadTimeOut(true);
+        return rc;
+    }
+
+    protected ExecutorService createFixedChannelExecutor() {
+        ThreadPoolExecutor rc = new ThreadPoolExecutor(workerThreads, workerThreads, getDefaultKeepAliveTime(), TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+
+                private long i = 0;
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    this.i++;
+                    final Thread t = new Thread(runnable, "ActiveMQ NIO Worker " + this.i);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        rc.allowCoreThreadTimeOut(true);
+        return rc;
+    }
+
+    private static boolean getDefaultFixedSelectors() {
+        return Boolean.getBoolean("org.apache.activemq.transport.nio.SelectorManager.fixedSelectors");
+    }
+
+    private static int getDefaultSelectorThreads() {
+        return Integer.getInteger("org.apache.activemq.transport.nio.SelectorManager.selectorThreads", Runtime.getRuntime().availableProcessors());
+    }
+
+    private static int getDefaultWorkerThreads() {
+        return Integer.getInteger("org.apache.activemq.transport.nio.SelectorManager.workerThreads", Runtime.getRuntime().availableProcessors() * 4);
+    }
+
     private static int getDefaultCorePoolSize() {
         return Integer.getInteger("org.apache.activemq.transport.nio.SelectorManager.corePoolSize", 0);
     }
@@ -82,6 +173,12 @@ public final class SelectorManager {
     }
 
     public synchronized SelectorSelection register(AbstractSelectableChannel selectableChannel, Listener listener) throws IOException {
+        if (fixedSelectors) {
+            SelectorWorker worker = leastLoadedWorker();
+            worker.retain();
+            return new SelectorSelection(worker, selectableChannel, listener);
+        }
+
         SelectorSelection selection = null;
         while (selection == null) {
             if (freeWorkers.size() > 0) {
@@ -103,6 +200,31 @@ public final class SelectorManager {
         return selection;
     }
 
+    private SelectorWorker leastLoadedWorker() throws IOException {
+        if (fixedWorkers == null) {
+            fixedWorkers = new SelectorWorker[selectorThreads];
+        }
+        SelectorWorker rc = null;
+        for (int i = 0; i < fixedWorkers.length; i++) {
+            if (fixedWorkers[i] == null) {
+                fixedWorkers[i] = new SelectorWorker(this, true);
+            }
+            if (rc == null || fixedWorkers[i].retainCounter.get() < rc.retainCounter.get()) {
+                rc = fixedWorkers[i];
+            }
+        }
+        return rc;
+    }
+
+    synchronized void onFixedWorkerStopped(SelectorWorker worker) {
+        // the selector failed, a replacement is started on the next registration
+        for (int i = 0; i < fixedWorkers.length; i++) {
+            if (fixedWorkers[i] == worker) {
+                fixedWorkers[i] = null;
+            }
+        }
+    }
+
     synchronized void onWorkerFullEvent(SelectorWorker worker) {
         freeWorkers.remove(worker);
     }
@@ -131,6 +253,39 @@ public final class SelectorManager {
         this.maxChannelsPerWorker = maxChannelsPerWorker;
     }
 
+    public boolean isFixedSelectors() {
+        return fixedSelectors;
+    }
+
+    /**
+     * @return the number of selector threads used when fixed selectors are enabled.
+     */
+    public int getSelectorThreads() {
+        return selectorThreads;
+    }
+
+    /**
+     * @return the number of threads servicing selected channels when fixed selectors are enabled.
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * @return the number of channels registered with each fixed selector thread,
+     *         or an empty array when fixed selectors are not in use.
+     */
+    public synchronized int[] getSelectorLoad() {
+        if (fixedWorkers == null) {
+            return new int[0];
+        }
+        int[] rc = new int[fixedWorkers.length];
+        for (int i = 0; i < rc.length; i++) {
+            rc[i] = fixedWorkers[i] == null ? 0 : fixedWorkers[i].retainCounter.get();
+        }
+        return rc;
+    }
+
     public Executor getSelectorExecutor() {
         return selectorExecutor;
     }
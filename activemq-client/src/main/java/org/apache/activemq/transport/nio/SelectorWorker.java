@@ -32,26 +32,37 @@ public class SelectorWorker implements Runnable {
     final Selector selector;
     final int id = NEXT_ID.getAndIncrement();
     private final int maxChannelsPerWorker;
+    // a fixed worker is never full and keeps running when it has no channels
+    private final boolean fixed;
 
-    final AtomicInteger retainCounter = new AtomicInteger(1);
+    final AtomicInteger retainCounter;
     private final ConcurrentLinkedQueue<Runnable> ioTasks = new ConcurrentLinkedQueue<Runnable>();
        
     public SelectorWorker(SelectorManager manager) throws IOException {
+        this(manager, false);
+    }
+
+    SelectorWorker(SelectorManager manager, boolean fixed) throws IOException {
         this.manager = manager;
+        this.fixed = fixed;
+        // a dynamic worker is created for the channel that needed it
+        retainCounter = new AtomicInteger(fixed ? 0 : 1);
         selector = Selector.open();
         maxChannelsPerWorker = manager.getMaxChannelsPerWorker();
         manager.getSelectorExecutor().execute(this);
     }
 
     void retain() {
-        if (retainCounter.incrementAndGet() == maxChannelsPerWorker) {
+        if (retainCounter.incrementAndGet() == maxChannelsPerWorker && !fixed) {
             manager.onWorkerFullEvent(this);
         }
     }
 
     void release() {
         int use = retainCounter.decrementAndGet();
-        if (use == 0) {
+        if (fixed) {
+            return;
+        } else if (use == 0) {
             manager.onWorkerEmptyEvent(this);
         } else if (use == maxChannelsPerWorker - 1) {
             manager.onWorkerNotFullEvent(this);
@@ -59,7 +70,7 @@ public class SelectorWorker implements Runnable {
     }
     
     boolean isReleased() {
-        return retainCounter.get()==0;
+        return !fixed && retainCounter.get()==0;
     }
 
 
@@ -142,7 +153,11 @@ public class SelectorWorker implements Runnable {
             }
         } finally {
             try {
-                manager.onWorkerEmptyEvent(this);
+                if (fixed) {
+                    manager.onFixedWorkerStopped(this);
+                } else {
+                    manager.onWorkerEmptyEvent(this);
+                }
                 selector.close();
             } catch (IOException ignore) {
             	ignore.printStackTrace();
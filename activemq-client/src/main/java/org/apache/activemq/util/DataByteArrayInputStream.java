@@ -65,6 +65,13 @@ public final class DataByteArrayInputStream extends InputStream implements DataI
         return pos - offset;
     }
 
+    /**
+     * @return the position in the underlying data array
+     */
+    public int getPos() {
+        return pos;
+    }
+
     /**
      * @return the underlying data array
      */
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.MessageDispatch;
+
+public class FifoMessageDispatchChannelTest extends TestCase {
+
+    public void testOrder() throws Exception {
+        FifoMessageDispatchChannel channel = new FifoMessageDispatchChannel();
+        channel.start();
+        assertTrue(channel.isEmpty());
+
+        MessageDispatch[] dispatches = new MessageDispatch[100];
+        for (int i = 0; i < dispatches.length; i++) {
+            dispatches[i] = new MessageDispatch();
+            channel.enqueue(dispatches[i]);
+        }
+        MessageDispatch first = new MessageDispatch();
+        channel.enqueueFirst(first);
+        assertEquals(101, channel.size());
+        assertFalse(channel.isEmpty());
+
+        assertSame(first, channel.peek());
+        assertSame(first, channel.dequeueNoWait());
+        for (int i = 0; i < dispatches.length; i++) {
+            assertSame(dispatches[i], channel.dequeue(0));
+        }
+        assertNull(channel.dequeueNoWait());
+        assertTrue(channel.isEmpty());
+        assertEquals(0, channel.size());
+    }
+
+    public void testStoppedChannelKeepsMessages() throws Exception {
+        FifoMessageDispatchChannel channel = new FifoMessageDispatchChannel();
+        MessageDispatch dispatch = new MessageDispatch();
+        channel.enqueue(dispatch);
+        assertNull(channel.dequeueNoWait());
+        assertNull(channel.dequeue(10));
+        assertEquals(1, channel.size());
+
+        List<MessageDispatch> removed = channel.removeAll();
+        assertEquals(1, removed.size());
+        assertSame(dispatch, removed.get(0));
+        assertTrue(channel.isEmpty());
+    }
+
+    public void testDequeueWaitsForEnqueue() throws Exception {
+        final FifoMessageDispatchChannel channel = new FifoMessageDispatchChannel();
+        channel.start();
+        final AtomicReference<MessageDispatch> received = new AtomicReference<MessageDispatch>();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    received.set(channel.dequeue(-1));
+                } catch (InterruptedException e) {
+                }
+                done.countDown();
+            }
+        };
+        consumer.start();
+
+        while (consumer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        MessageDispatch dispatch = new MessageDispatch();
+        channel.enqueue(dispatch);
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertSame(dispatch, received.get());
+    }
+
+    public void testCloseWakesWaiters() throws Exception {
+        final FifoMessageDispatchChannel channel = new FifoMessageDispatchChannel();
+        channel.start();
+        final CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    if (channel.dequeue(-1) == null) {
+                        done.countDown();
+                    }
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        consumer.start();
+
+        while (consumer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        channel.close();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(channel.isClosed());
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.JMSException;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.transport.RequestTimedOutIOException;
+
+public class PipelinedSendWindowTest extends TestCase {
+
+    private final List<String> completed = new ArrayList<String>();
+
+    public void testSendsCompleteInOrder() throws Exception {
+        PipelinedSendWindow window = new PipelinedSendWindow(3);
+        PipelinedSendWindow.PendingSend first = window.add(callback("first"), 0);
+        PipelinedSendWindow.PendingSend second = window.add(callback("second"), 0);
+        PipelinedSendWindow.PendingSend third = window.add(callback("third"), 0);
+        assertEquals(3, window.getPendingCount());
+
+        third.onSuccess();
+        second.onException(new JMSException("failed"));
+        assertTrue(completed.isEmpty());
+        assertEquals(3, window.getPendingCount());
+
+        first.onSuccess();
+        assertEquals("[first, second:failed, third]", completed.toString());
+        assertEquals(0, window.getPendingCount());
+    }
+
+    public void testCancelledSendIsNotReported() throws Exception {
+        PipelinedSendWindow window = new PipelinedSendWindow(3);
+        PipelinedSendWindow.PendingSend first = window.add(callback("first"), 0);
+        PipelinedSendWindow.PendingSend second = window.add(callback("second"), 0);
+
+        first.cancel();
+        // a later response for the same send is ignored
+        first.onException(new JMSException("failed"));
+        second.onSuccess();
+        assertEquals("[second]", completed.toString());
+        window.waitForCompletion();
+    }
+
+    public void testFailureWithoutCallbackIsKept() throws Exception {
+        PipelinedSendWindow window = new PipelinedSendWindow(3);
+        PipelinedSendWindow.PendingSend first = window.add(null, 0);
+        PipelinedSendWindow.PendingSend second = window.add(null, 0);
+        PipelinedSendWindow.PendingSend third = window.add(callback("third"), 0);
+
+        third.onException(new JMSException("third failed"));
+        second.onException(new JMSException("second failed"));
+        first.onException(new JMSException("first failed"));
+        assertEquals("[third:third failed]", completed.toString());
+        assertEquals("first failed", window.takeFailure().getMessage());
+        assertNull(window.takeFailure());
+    }
+
+    public void testWindowIsBounded() throws Exception {
+        final PipelinedSendWindow window = new PipelinedSendWindow(1);
+        PipelinedSendWindow.PendingSend first = window.add(null, 0);
+
+        final CountDownLatch added = new CountDownLatch(1);
+        Thread sender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    window.add(null, 0);
+                    added.countDown();
+                } catch (Exception e) {
+                }
+            }
+        };
+        sender.start();
+        assertFalse(added.await(100, TimeUnit.MILLISECONDS));
+
+        first.onSuccess();
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+        assertEquals(1, window.getPendingCount());
+        sender.join();
+    }
+
+    public void testWaitForPlaceTimesOut() throws Exception {
+        PipelinedSendWindow window = new PipelinedSendWindow(1);
+        window.add(null, 0);
+        try {
+            window.add(null, 50);
+            fail("expected the wait for a place to time out");
+        } catch (JMSException expected) {
+            assertTrue(expected.getCause() instanceof RequestTimedOutIOException);
+        }
+        assertEquals(1, window.getPendingCount());
+    }
+
+    public void testTimedOutSendFailsInOrder() throws Exception {
+        PipelinedSendWindow window = new PipelinedSendWindow(2);
+        PipelinedSendWindow.PendingSend first = window.add(callback("first"), 0);
+        PipelinedSendWindow.PendingSend second = window.add(callback("second"), 0);
+
+        second.timeOut();
+        assertTrue(completed.isEmpty());
+        first.onSuccess();
+        assertEquals(2, completed.size());
+        assertEquals("first", completed.get(0));
+        assertTrue(completed.get(1).startsWith("second:"));
+
+        // a response after the timeout is ignored
+        second.onSuccess();
+        assertEquals(2, completed.size());
+        assertEquals(0, window.getPendingCount());
+    }
+
+    private AsyncCallback callback(final String name) {
+        return new AsyncCallback() {
+            @Override
+            public void onSuccess() {
+                completed.add(name);
+            }
+
+            @Override
+            public void onException(JMSException exception) {
+                completed.add(name + ":" + exception.getMessage());
+            }
+        };
+    }
+}
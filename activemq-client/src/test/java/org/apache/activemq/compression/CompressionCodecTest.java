@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.util.ByteArrayOutputStream;
+import org.apache.activemq.util.ByteSequence;
+
+public class CompressionCodecTest extends TestCase {
+
+    public void testLZ4RoundTrip() throws Exception {
+        CompressionCodec codec = CompressionSupport.findCodec("lz4");
+        assertSame(codec, CompressionSupport.findCodec("lz4"));
+
+        Random random = new Random(42);
+        for (int size : new int[] {0, 1, 12, 13, 100, 4096, 70000, 300000}) {
+            byte[] text = new byte[size];
+            for (int i = 0; i < size; i++) {
+                text[i] = (byte) ('a' + random.nextInt(4));
+            }
+            assertRoundTrip(codec, text);
+
+            byte[] noise = new byte[size];
+            random.nextBytes(noise);
+            assertRoundTrip(codec, noise);
+
+            byte[] zeros = new byte[size];
+            assertRoundTrip(codec, zeros);
+        }
+
+        byte[] repeated = new byte[100000];
+        Arrays.fill(repeated, (byte) 'x');
+        assertTrue(codec.compress(new ByteSequence(repeated)).getLength() < 1000);
+    }
+
+    public void testCodecIsRecordedInTheData() throws Exception {
+        byte[] data = "The quick red fox jumped over the lazy brown dog. The quick red fox jumped over the lazy brown dog.".getBytes("UTF-8");
+
+        ByteSequence lz4 = CompressionSupport.compress(CompressionSupport.findCodec("lz4"), new ByteSequence(data));
+        assertTrue(CompressionSupport.hasCodecHeader(lz4));
+        assertTrue(Arrays.equals(data, toBytes(CompressionSupport.decompress(lz4))));
+
+        // deflate is written as it always was, so older clients can read it
+        ByteSequence deflate = CompressionSupport.compress(CompressionSupport.findCodec(CompressionSupport.DEFAULT_CODEC), new ByteSequence(data));
+        assertFalse(CompressionSupport.hasCodecHeader(deflate));
+        assertTrue(Arrays.equals(toBytes(deflate), toBytes(legacyDeflate(data))));
+        assertTrue(Arrays.equals(data, toBytes(CompressionSupport.decompress(legacyDeflate(data)))));
+    }
+
+    public void testUnknownCodec() throws Exception {
+        try {
+            CompressionSupport.findCodec("unknown");
+            fail("expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testMalformedLZ4DataIsRejected() throws Exception {
+        CompressionCodec codec = CompressionSupport.findCodec("lz4");
+        byte[] compressed = toBytes(codec.compress(new ByteSequence("hello hello hello hello hello".getBytes("UTF-8"))));
+        try {
+            codec.decompress(new ByteSequence(compressed, 0, compressed.length - 3));
+            fail("expected an IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    public void testForgedLZ4LengthIsRejected() throws Exception {
+        CompressionCodec codec = CompressionSupport.findCodec("lz4");
+        byte[] compressed = toBytes(codec.compress(new ByteSequence("hello hello hello hello hello".getBytes("UTF-8"))));
+        // claim far more data than the block could hold
+        compressed[0] = (byte) 0x7F;
+        try {
+            codec.decompress(new ByteSequence(compressed));
+            fail("expected an IOException");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Invalid uncompressed length"));
+        }
+    }
+
+    private void assertRoundTrip(CompressionCodec codec, byte[] data) throws IOException {
+        // compress from the middle of a larger array
+        byte[] padded = new byte[data.length + 10];
+        System.arraycopy(data, 0, padded, 5, data.length);
+        ByteSequence compressed = codec.compress(new ByteSequence(padded, 5, data.length));
+        assertTrue("size " + data.length, Arrays.equals(data, toBytes(codec.decompress(compressed))));
+    }
+
+    private ByteSequence legacyDeflate(byte[] data) throws IOException {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        OutputStream os = new DeflaterOutputStream(bytesOut);
+        os.write(data);
+        os.close();
+        return bytesOut.toByteSequence();
+    }
+
+    private byte[] toBytes(ByteSequence sequence) {
+        return Arrays.copyOfRange(sequence.getData(), sequence.getOffset(), sequence.getOffset() + sequence.getLength());
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.thread;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class SchedulerTest extends TestCase {
+
+    private Scheduler scheduler;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        scheduler = new Scheduler(getName(), 1, 8);
+        scheduler.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        scheduler.stop();
+        super.tearDown();
+    }
+
+    public void testExecuteAfterDelay() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long start = System.nanoTime();
+        final AtomicInteger runs = new AtomicInteger();
+        scheduler.executeAfterDelay(new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                latch.countDown();
+            }
+        }, 100);
+        assertEquals(1, scheduler.getPendingTaskCount());
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue("ran no earlier than its delay", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        Thread.sleep(50);
+        assertEquals(1, runs.get());
+        assertEquals(0, scheduler.getPendingTaskCount());
+    }
+
+    public void testDelaysSpanningSeveralRotations() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final StringBuffer order = new StringBuffer();
+        long[] delays = new long[] {60, 5, 30};
+        for (final long delay : delays) {
+            scheduler.executeAfterDelay(new Runnable() {
+                @Override
+                public void run() {
+                    order.append(delay).append(' ');
+                    latch.countDown();
+                }
+            }, delay);
+        }
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals("5 30 60 ", order.toString());
+    }
+
+    public void testExecutePeriodicallyUntilCancelled() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(5);
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                latch.countDown();
+            }
+        };
+        scheduler.executePeriodically(task, 10);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        scheduler.cancel(task);
+        assertEquals(0, scheduler.getPendingTaskCount());
+        int count = runs.get();
+        Thread.sleep(100);
+        assertTrue("at most one run in flight at cancel", runs.get() <= count + 1);
+    }
+
+    public void testPeriodIsCountedFromTheEndOfARun() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        final long[] starts = new long[3];
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                starts[3 - (int) latch.getCount()] = System.nanoTime();
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                }
+                latch.countDown();
+            }
+        };
+        scheduler.executePeriodically(task, 10);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        scheduler.cancel(task);
+        for (int i = 1; i < starts.length; i++) {
+            assertTrue("a run waits a period after the previous one",
+                starts[i] - starts[i - 1] >= TimeUnit.MILLISECONDS.toNanos(60));
+        }
+    }
+
+    public void testIdleTimeIsNotLag() throws Exception {
+        Scheduler coarse = new Scheduler(getName() + "-coarse", 100, 8);
+        coarse.start();
+        try {
+            Thread.sleep(300);
+            coarse.executeAfterDelay(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, 1000);
+            Thread.sleep(20);
+            assertTrue("lag " + coarse.getTickLag(), coarse.getTickLag() < 100);
+        } finally {
+            coarse.stop();
+        }
+    }
+
+    public void testCancelManyTasks() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        Runnable[] tasks = new Runnable[10000];
+        for (int i = 0; i < tasks.length; i++) {
+            tasks[i] = new Runnable() {
+                @Override
+                public void run() {
+                    runs.incrementAndGet();
+                }
+            };
+            scheduler.executePeriodically(tasks[i], 1000 + i);
+        }
+        assertEquals(tasks.length, scheduler.getPendingTaskCount());
+
+        for (Runnable task : tasks) {
+            scheduler.cancel(task);
+        }
+        assertEquals(0, scheduler.getPendingTaskCount());
+        assertEquals(0, runs.get());
+    }
+
+    public void testFailingTaskDoesNotStopScheduler() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        scheduler.executeAfterDelay(new Runnable() {
+            @Override
+            public void run() {
+                throw new RuntimeException("expected");
+            }
+        }, 0);
+        scheduler.executeAfterDelay(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        }, 20);
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(scheduler.getTickLag() >= 0);
+    }
+
+    public void testScheduleAfterStopFails() throws Exception {
+        scheduler.stop();
+        try {
+            scheduler.executeAfterDelay(new Runnable() {
+                @Override
+                public void run() {
+                }
+            }, 10);
+            fail("scheduler is stopped");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
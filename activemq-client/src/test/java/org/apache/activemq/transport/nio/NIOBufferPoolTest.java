@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.transport.nio;
+
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+public class NIOBufferPoolTest extends TestCase {
+
+    public void testSizeClassesAndReuse() throws Exception {
+        NIOBufferPool pool = new NIOBufferPool(64 * 1024, 1024 * 1024, false);
+
+        ByteBuffer buffer = pool.acquire(5000);
+        assertEquals(8 * 1024, buffer.capacity());
+        assertEquals(5000, buffer.limit());
+        assertEquals(0, buffer.position());
+        assertFalse(buffer.isDirect());
+        buffer.putInt(42);
+        pool.release(buffer);
+        assertEquals(8 * 1024, pool.getPooledBytes());
+
+        ByteBuffer reused = pool.acquire(8 * 1024);
+        assertSame(buffer, reused);
+        assertEquals(0, reused.position());
+        assertEquals(8 * 1024, reused.limit());
+        assertEquals(0, pool.getPooledBytes());
+
+        assertEquals(NIOBufferPool.MIN_BUFFER_SIZE, pool.acquire(10).capacity());
+        assertEquals(3, pool.getAcquireCount());
+        assertEquals(2, pool.getAllocateCount());
+    }
+
+    public void testOversizedBuffersAreNotPooled() throws Exception {
+        NIOBufferPool pool = new NIOBufferPool(64 * 1024, 1024 * 1024, false);
+
+        ByteBuffer buffer = pool.acquire(100 * 1024);
+        assertEquals(100 * 1024, buffer.capacity());
+        pool.release(buffer);
+        assertEquals(0, pool.getPooledBytes());
+        assertEquals(1, pool.getDiscardCount());
+
+        // a buffer the pool did not hand out is ignored
+        pool.release(ByteBuffer.allocate(3000));
+        assertEquals(2, pool.getDiscardCount());
+    }
+
+    public void testPoolSizeIsBounded() throws Exception {
+        NIOBufferPool pool = new NIOBufferPool(64 * 1024, 16 * 1024, false);
+
+        ByteBuffer first = pool.acquire(16 * 1024);
+        ByteBuffer second = pool.acquire(16 * 1024);
+        pool.release(first);
+        pool.release(second);
+        assertEquals(16 * 1024, pool.getPooledBytes());
+        assertEquals(1, pool.getDiscardCount());
+        assertEquals(2, pool.getReleaseCount());
+
+        pool.resetStatistics();
+        assertEquals(0, pool.getReleaseCount());
+        assertEquals(0, pool.getDiscardCount());
+    }
+
+    public void testDirectAndHeapBuffersAreKeptApart() throws Exception {
+        NIOBufferPool pool = new NIOBufferPool(64 * 1024, 1024 * 1024, true);
+
+        ByteBuffer direct = pool.acquire(4096);
+        assertTrue(direct.isDirect());
+        ByteBuffer heap = pool.acquireHeap(4096);
+        assertFalse(heap.isDirect());
+        assertTrue(heap.hasArray());
+
+        pool.release(direct);
+        pool.release(heap);
+        assertSame(heap, pool.acquireHeap(4096));
+        assertSame(direct, pool.acquire(4096));
+    }
+}
@@ -0,0 +1,195 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.transport.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class NIOOutputStreamTest extends TestCase {
+
+    public void testLargeArraysAreWrittenWithoutCopy() throws Exception {
+        RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+        NIOBufferPool pool = new NIOBufferPool(64 * 1024, 1024 * 1024, false);
+        NIOOutputStream stream = new NIOOutputStream(channel, 1024, pool);
+        DataOutputStream dataOut = new DataOutputStream(stream);
+
+        byte[] body = new byte[100 * 1024];
+        Arrays.fill(body, (byte) 7);
+        dataOut.writeInt(body.length + 3);
+        dataOut.writeByte(1);
+        assertEquals("nothing is written before the body", 0, channel.gatheringWrites);
+        dataOut.write(body);
+        assertEquals("the header and body are written together", 1, channel.gatheringWrites);
+        assertTrue("the body array was handed to the channel", channel.sawArray(body));
+        dataOut.writeShort(2);
+        dataOut.flush();
+
+        assertEquals(2, channel.gatheringWrites);
+        assertEquals("the buffer went back to the pool", 1024, pool.getPooledBytes());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream expectedOut = new DataOutputStream(expected);
+        expectedOut.writeInt(body.length + 3);
+        expectedOut.writeByte(1);
+        expectedOut.write(body);
+        expectedOut.writeShort(2);
+        assertTrue(Arrays.equals(expected.toByteArray(), channel.written.toByteArray()));
+    }
+
+    public void testPartialGatheringWrites() throws Exception {
+        RecordingChannel channel = new RecordingChannel(1000);
+        NIOOutputStream stream = new NIOOutputStream(channel, 1024, new NIOBufferPool(64 * 1024, 1024 * 1024, false));
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            byte[] chunk = new byte[1024 + i];
+            Arrays.fill(chunk, (byte) i);
+            stream.write(i);
+            stream.write(chunk);
+            expected.write(i);
+            expected.write(chunk);
+        }
+        stream.flush();
+
+        assertTrue(Arrays.equals(expected.toByteArray(), channel.written.toByteArray()));
+    }
+
+    public void testReusedArraysAreCopied() throws Exception {
+        RecordingChannel channel = new RecordingChannel(Integer.MAX_VALUE);
+        NIOOutputStream stream = new NIOOutputStream(channel, 8196, new NIOBufferPool(64 * 1024, 1024 * 1024, false));
+        DataOutputStream dataOut = new DataOutputStream(stream);
+
+        // writeUTF reuses one array for every string it writes
+        char[] chars = new char[1000];
+        Arrays.fill(chars, '\u00e9');
+        String first = new String(chars);
+        Arrays.fill(chars, '\u00e8');
+        String second = new String(chars);
+        dataOut.writeUTF(first);
+        dataOut.writeUTF(second);
+        dataOut.flush();
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        DataOutputStream expectedOut = new DataOutputStream(expected);
+        expectedOut.writeUTF(first);
+        expectedOut.writeUTF(second);
+        assertTrue(Arrays.equals(expected.toByteArray(), channel.written.toByteArray()));
+    }
+
+    public void testPlainChannelIsBuffered() throws Exception {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        WritableByteChannel channel = new WritableByteChannel() {
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                int size = src.remaining();
+                byte[] data = new byte[size];
+                src.get(data);
+                written.write(data);
+                return size;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() throws IOException {
+            }
+        };
+        NIOOutputStream stream = new NIOOutputStream(channel, 1024, new NIOBufferPool(64 * 1024, 1024 * 1024, false));
+
+        byte[] small = new byte[2000];
+        Arrays.fill(small, (byte) 3);
+        stream.write(9);
+        stream.write(small);
+        stream.flush();
+
+        assertEquals(2001, written.size());
+        assertEquals(9, written.toByteArray()[0]);
+        assertEquals(3, written.toByteArray()[2000]);
+    }
+
+    /**
+     * Records what is written and accepts at most a fixed number of bytes
+     * per write, like a socket with a full send buffer.
+     */
+    private static class RecordingChannel implements GatheringByteChannel {
+
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        final List<byte[]> arrays = new ArrayList<byte[]>();
+        final int maxWrite;
+        int gatheringWrites;
+
+        RecordingChannel(int maxWrite) {
+            this.maxWrite = maxWrite;
+        }
+
+        boolean sawArray(byte[] array) {
+            for (byte[] seen : arrays) {
+                if (seen == array) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            gatheringWrites++;
+            long total = 0;
+            for (int i = offset; i < offset + length && total < maxWrite; i++) {
+                ByteBuffer src = srcs[i];
+                arrays.add(src.array());
+                int size = (int) Math.min(src.remaining(), maxWrite - total);
+                byte[] data = new byte[size];
+                src.get(data);
+                written.write(data);
+                total += size;
+            }
+            return total;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) throws IOException {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return (int) write(new ByteBuffer[] {src});
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
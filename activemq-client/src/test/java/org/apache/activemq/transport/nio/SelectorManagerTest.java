@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.transport.nio;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+public class SelectorManagerTest extends TestCase {
+
+    private static final int CHANNELS = 20;
+
+    private ServerSocketChannel server;
+    private final List<SocketChannel> channels = new ArrayList<SocketChannel>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("localhost", 0));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        for (SocketChannel channel : channels) {
+            channel.close();
+        }
+        server.close();
+        super.tearDown();
+    }
+
+    public void testFixedSelectorsSpreadChannels() throws Exception {
+        SelectorManager manager = new SelectorManager(2, 2);
+        assertTrue(manager.isFixedSelectors());
+
+        final CountDownLatch reads = new CountDownLatch(CHANNELS);
+        List<SelectorSelection> selections = new ArrayList<SelectorSelection>();
+        List<SocketChannel> clients = new ArrayList<SocketChannel>();
+        for (int i = 0; i < CHANNELS; i++) {
+            SocketChannel client = SocketChannel.open(server.socket().getLocalSocketAddress());
+            channels.add(client);
+            clients.add(client);
+            final SocketChannel accepted = server.accept();
+            channels.add(accepted);
+            accepted.configureBlocking(false);
+
+            SelectorSelection selection = manager.register(accepted, new SelectorManager.Listener() {
+                @Override
+                public void onSelect(SelectorSelection selection) {
+                    try {
+                        if (accepted.read(ByteBuffer.allocate(16)) > 0) {
+                            reads.countDown();
+                        }
+                    } catch (IOException e) {
+                        fail(e.toString());
+                    }
+                }
+
+                @Override
+                public void onError(SelectorSelection selection, Throwable error) {
+                    fail(error.toString());
+                }
+            });
+            selection.setInterestOps(SelectionKey.OP_READ);
+            selection.enable();
+            selections.add(selection);
+        }
+
+        int[] load = manager.getSelectorLoad();
+        assertEquals(2, load.length);
+        assertEquals(CHANNELS / 2, load[0]);
+        assertEquals(CHANNELS / 2, load[1]);
+
+        for (SocketChannel client : clients) {
+            client.write(ByteBuffer.wrap(new byte[] {1}));
+        }
+        assertTrue("every channel was serviced", reads.await(10, TimeUnit.SECONDS));
+        assertEquals(2, countSelectorThreads());
+
+        for (SelectorSelection selection : selections) {
+            selection.close();
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (manager.getSelectorLoad()[0] + manager.getSelectorLoad()[1] > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        load = manager.getSelectorLoad();
+        assertEquals(0, load[0] + load[1]);
+
+        // the selector threads stay up for the next connections
+        Thread.sleep(100);
+        assertEquals(2, countSelectorThreads());
+    }
+
+    public void testDynamicSelectorsByDefault() throws Exception {
+        SelectorManager manager = new SelectorManager(0, 1);
+        assertFalse(manager.isFixedSelectors());
+        assertEquals(0, manager.getSelectorLoad().length);
+    }
+
+    private int countSelectorThreads() {
+        Thread[] threads = new Thread[Thread.activeCount() * 2];
+        int count = Thread.enumerate(threads);
+        int rc = 0;
+        for (int i = 0; i < count; i++) {
+            if (threads[i].getName().startsWith("Selector Worker") && threads[i].isDaemon()) {
+                rc++;
+            }
+        }
+        return rc;
+    }
+}
@@ -366,6 +366,37 @@ public class JDBCMessageStore extends AbstractMessageStore {
 
     }
 
+    /**
+     * Recovers expired messages with a range scan over the EXPIRATION column,
+     * which is indexed by the message table schema.
+     *
+     * @see org.apache.activemq.store.MessageStore#recoverExpired(long, int,
+     *      org.apache.activemq.store.MessageRecoveryListener)
+     */
+    @Override
+    public boolean recoverExpired(long time, int maxReturned, final MessageRecoveryListener listener) throws Exception {
+        TransactionContext c = persistenceAdapter.getTransactionContext();
+        try {
+            adapter.doRecoverExpiredMessages(c, destination, time, maxReturned, new JDBCMessageRecoveryListener() {
+                public boolean recoverMessage(long sequenceId, byte[] data) throws Exception {
+                    Message msg = (Message) wireFormat.unmarshal(new ByteSequence(data));
+                    msg.getMessageId().setBrokerSequenceId(sequenceId);
+                    return listener.recoverMessage(msg);
+                }
+
+                public boolean recoverMessageReference(String reference) throws Exception {
+                    return listener.recoverMessageReference(new MessageId(reference));
+                }
+            });
+        } catch (SQLException e) {
+            JDBCPersistenceAdapter.log("JDBC Failure: ", e);
+            throw IOExceptionSupport.create("Failed to recover expired messages. Reason: " + e, e);
+        } finally {
+            c.close();
+        }
+        return true;
+    }
+
     /**
      * @see org.apache.activemq.store.MessageStore#resetBatching()
      */
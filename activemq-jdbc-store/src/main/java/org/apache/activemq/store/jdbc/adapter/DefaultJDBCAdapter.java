@@ -1135,6 +1135,42 @@ public class DefaultJDBCAdapter implements JDBCAdapter {
         }
     }
 
+    public void doRecoverExpiredMessages(TransactionContext c, ActiveMQDestination destination, long time, int maxReturned,
+            JDBCMessageRecoveryListener listener) throws Exception {
+        PreparedStatement s = null;
+        ResultSet rs = null;
+        cleanupExclusiveLock.readLock().lock();
+        try {
+            s = c.getConnection().prepareStatement(this.statements.getFindExpiredMessagesStatement());
+            s.setMaxRows(Math.min(maxReturned, maxRows));
+            s.setString(1, destination.getQualifiedName());
+            s.setLong(2, time);
+            rs = s.executeQuery();
+            int count = 0;
+            if (this.statements.isUseExternalMessageReferences()) {
+                while (rs.next() && count < maxReturned) {
+                    if (listener.recoverMessageReference(rs.getString(2))) {
+                        count++;
+                    } else {
+                        break;
+                    }
+                }
+            } else {
+                while (rs.next() && count < maxReturned) {
+                    if (listener.recoverMessage(rs.getLong(1), getBinaryData(rs, 2))) {
+                        count++;
+                    } else {
+                        break;
+                    }
+                }
+            }
+        } finally {
+            cleanupExclusiveLock.readLock().unlock();
+            close(rs);
+            close(s);
+        }
+    }
+
     public long doGetLastProducerSequenceId(TransactionContext c, ProducerId id)
             throws SQLException, IOException {
         PreparedStatement s = null;
@@ -51,6 +51,7 @@ import org.apache.activemq.store.TransactionStore;
 import org.apache.activemq.store.kahadb.data.KahaLocalTransactionId;
 import org.apache.activemq.store.kahadb.data.KahaTransactionInfo;
 import org.apache.activemq.store.kahadb.data.KahaXATransactionId;
+import org.apache.activemq.store.kahadb.disk.page.OffHeapPageCache;
 import org.apache.activemq.usage.SystemUsage;
 import org.apache.activemq.util.ServiceStopper;
 
@@ -236,6 +237,27 @@ public class KahaDBPersistenceAdapter extends LockableServiceSupport implements
                     return letter.getJournal().getFileMap().keySet().toString();
                 }
             });
+            view.setIndexCacheHitCountCallable(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    OffHeapPageCache cache = letter.getPageFile().getOffHeapPageCache();
+                    return cache == null ? 0 : cache.getHitCount();
+                }
+            });
+            view.setIndexCacheMissCountCallable(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    OffHeapPageCache cache = letter.getPageFile().getOffHeapPageCache();
+                    return cache == null ? 0 : cache.getMissCount();
+                }
+            });
+            view.setIndexCacheEvictionCountCallable(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    OffHeapPageCache cache = letter.getPageFile().getOffHeapPageCache();
+                    return cache == null ? 0 : cache.getEvictionCount();
+                }
+            });
             AnnotatedMBean.registerMBean(brokerService.getManagementContext(), view,
                     createPersistenceAdapterName(brokerService.getBrokerObjectName().toString(), toString()));
         }
@@ -470,6 +492,27 @@ public class KahaDBPersistenceAdapter extends LockableServiceSupport implements
         this.letter.setIndexCacheSize(indexCacheSize);
     }
 
+    /**
+     * Get the indexOffHeapCacheSize
+     *
+     * @return the indexOffHeapCacheSize
+     */
+    public long getIndexOffHeapCacheSize() {
+        return this.letter.getIndexOffHeapCacheSize();
+    }
+
+    /**
+     * Sets how many bytes of direct memory are used to cache raw index pages
+     * that have been evicted from the index cache, 0 (the default) to disable.
+     * When set using Xbean, values of the form "20 Mb", "1024kb", and "1g" can be used
+     * @org.apache.xbean.Property propertyEditor="org.apache.activemq.util.MemoryPropertyEditor"
+     * @param indexOffHeapCacheSize
+     *            the indexOffHeapCacheSize to set
+     */
+    public void setIndexOffHeapCacheSize(long indexOffHeapCacheSize) {
+        this.letter.setIndexOffHeapCacheSize(indexOffHeapCacheSize);
+    }
+
     /**
      * Get the ignoreMissingJournalfiles
      *
@@ -527,6 +570,20 @@ public class KahaDBPersistenceAdapter extends LockableServiceSupport implements
         this.letter.setPreallocationStrategy(preallocationStrategy);
     }
 
+    public boolean isMemoryMapJournalFiles() {
+        return letter.isMemoryMapJournalFiles();
+    }
+
+    /**
+     * Appends to and reads journal data files through memory mappings rather
+     * than file reads and writes.
+     *
+     * @param memoryMapJournalFiles
+     */
+    public void setMemoryMapJournalFiles(boolean memoryMapJournalFiles) {
+        this.letter.setMemoryMapJournalFiles(memoryMapJournalFiles);
+    }
+
     public boolean isArchiveDataLogs() {
         return letter.isArchiveDataLogs();
     }
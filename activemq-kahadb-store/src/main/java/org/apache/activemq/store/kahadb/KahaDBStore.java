@@ -76,6 +76,7 @@ import org.apache.activemq.store.kahadb.data.KahaSubscriptionCommand;
 import org.apache.activemq.store.kahadb.data.KahaUpdateMessageCommand;
 import org.apache.activemq.store.kahadb.disk.journal.Location;
 import org.apache.activemq.store.kahadb.disk.page.Transaction;
+import org.apache.activemq.store.kahadb.disk.util.SequenceSet;
 import org.apache.activemq.store.kahadb.scheduler.JobSchedulerStoreImpl;
 import org.apache.activemq.usage.MemoryUsage;
 import org.apache.activemq.usage.SystemUsage;
@@ -288,20 +289,6 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
         super.doStop(stopper);
     }
 
-    private Location findMessageLocation(final String key, final KahaDestination destination) throws IOException {
-        return pageFile.tx().execute(new Transaction.CallableClosure<Location, IOException>() {
-            @Override
-            public Location execute(Transaction tx) throws IOException {
-                StoredDestination sd = getStoredDestination(destination, tx);
-                Long sequence = sd.messageIdIndex.get(tx, key);
-                if (sequence == null) {
-                    return null;
-                }
-                return sd.orderIndex.get(tx, sequence).location;
-            }
-        });
-    }
-
     protected StoreQueueTask removeQueueTask(KahaDBMessageStore store, MessageId id) {
         StoreQueueTask task = null;
         synchronized (store.asyncTaskMap) {
@@ -424,6 +411,9 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
             command.setTransactionInfo(TransactionIdConversion.convert(transactionIdTransformer.transform(message.getTransactionId())));
             command.setPriority(message.getPriority());
             command.setPrioritySupported(isPrioritizedMessages());
+            if (message.getExpiration() != 0) {
+                command.setExpiration(message.getExpiration());
+            }
             org.apache.activemq.util.ByteSequence packet = wireFormat.marshal(message);
             command.setMessage(new Buffer(packet.getData(), packet.getOffset(), packet.getLength()));
                 store(command, isEnableJournalDiskSyncs() && message.isResponseRequired(), new IndexAware() {
@@ -487,16 +477,16 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
         public Message getMessage(MessageId identity) throws IOException {
             final String key = identity.toProducerKey();
 
-            // Hopefully one day the page file supports concurrent read
-            // operations... but for now we must
-            // externally synchronize...
-            Location location;
-            indexLock.writeLock().lock();
-            try {
-                location = findMessageLocation(key, dest);
-            } finally {
-                indexLock.writeLock().unlock();
-            }
+            Location location = readStoredDestination(dest, new StoredDestinationReader<Location, IOException>() {
+                @Override
+                public Location execute(Transaction tx, StoredDestination sd) throws IOException {
+                    Long sequence = sd.messageIdIndex.get(tx, key);
+                    if (sequence == null) {
+                        return null;
+                    }
+                    return sd.orderIndex.get(tx, sequence).location;
+                }
+            });
             if (location == null) {
                 return null;
             }
@@ -508,25 +498,19 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
         public int getMessageCount() throws IOException {
             try {
                 lockAsyncJobQueue();
-                indexLock.writeLock().lock();
-                try {
-                    return pageFile.tx().execute(new Transaction.CallableClosure<Integer, IOException>() {
-                        @Override
-                        public Integer execute(Transaction tx) throws IOException {
-                            // Iterate through all index entries to get a count
-                            // of messages in the destination.
-                            StoredDestination sd = getStoredDestination(dest, tx);
-                            int rc = 0;
-                            for (Iterator<Entry<Location, Long>> iterator = sd.locationIndex.iterator(tx); iterator.hasNext();) {
-                                iterator.next();
-                                rc++;
-                            }
-                            return rc;
+                return readStoredDestination(dest, new StoredDestinationReader<Integer, IOException>() {
+                    @Override
+                    public Integer execute(Transaction tx, StoredDestination sd) throws IOException {
+                        // Iterate through all index entries to get a count
+                        // of messages in the destination.
+                        int rc = 0;
+                        for (Iterator<Entry<Location, Long>> iterator = sd.locationIndex.iterator(tx); iterator.hasNext();) {
+                            iterator.next();
+                            rc++;
                         }
-                    });
-                } finally {
-                    indexLock.writeLock().unlock();
-                }
+                        return rc;
+                    }
+                });
             } finally {
                 unlockAsyncJobQueue();
             }
@@ -534,20 +518,12 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
 
         @Override
         public boolean isEmpty() throws IOException {
-            indexLock.writeLock().lock();
-            try {
-                return pageFile.tx().execute(new Transaction.CallableClosure<Boolean, IOException>() {
-                    @Override
-                    public Boolean execute(Transaction tx) throws IOException {
-                        // Iterate through all index entries to get a count of
-                        // messages in the destination.
-                        StoredDestination sd = getStoredDestination(dest, tx);
-                        return sd.locationIndex.isEmpty(tx);
-                    }
-                });
-            } finally {
-                indexLock.writeLock().unlock();
-            }
+            return readStoredDestination(dest, new StoredDestinationReader<Boolean, IOException>() {
+                @Override
+                public Boolean execute(Transaction tx, StoredDestination sd) throws IOException {
+                    return sd.locationIndex.isEmpty(tx);
+                }
+            });
         }
 
         @Override
@@ -579,54 +555,90 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
 
         @Override
         public void recoverNextMessages(final int maxReturned, final MessageRecoveryListener listener) throws Exception {
-            indexLock.writeLock().lock();
-            try {
-                pageFile.tx().execute(new Transaction.Closure<Exception>() {
-                    @Override
-                    public void execute(Transaction tx) throws Exception {
-                        StoredDestination sd = getStoredDestination(dest, tx);
-                        Entry<Long, MessageKeys> entry = null;
-                        int counter = recoverRolledBackAcks(sd, tx, maxReturned, listener);
-                        for (Iterator<Entry<Long, MessageKeys>> iterator = sd.orderIndex.iterator(tx); iterator.hasNext(); ) {
-                            entry = iterator.next();
-                            if (ackedAndPrepared.contains(entry.getValue().messageId)) {
+            readStoredDestination(dest, new StoredDestinationReader<Void, Exception>() {
+                @Override
+                public Void execute(Transaction tx, StoredDestination sd) throws Exception {
+                    Entry<Long, MessageKeys> entry = null;
+                    int counter = recoverRolledBackAcks(sd, tx, maxReturned, listener);
+                    for (Iterator<Entry<Long, MessageKeys>> iterator = sd.orderIndex.iterator(tx); iterator.hasNext(); ) {
+                        entry = iterator.next();
+                        if (ackedAndPrepared.contains(entry.getValue().messageId)) {
+                            continue;
+                        }
+                        Message msg = loadMessage(entry.getValue().location);
+                        msg.getMessageId().setFutureOrSequenceLong(entry.getKey());
+                        listener.recoverMessage(msg);
+                        counter++;
+                        if (counter >= maxReturned) {
+                            break;
+                        }
+                    }
+                    sd.orderIndex.stoppedIterating();
+                    return null;
+                }
+            });
+        }
+
+        @Override
+        public boolean recoverExpired(final long time, final int maxReturned, final MessageRecoveryListener listener) throws Exception {
+            // the listener removes the messages it expires, so is called
+            // after the read of the index is done
+            final List<Message> expired = new ArrayList<Message>();
+            Boolean indexed = readStoredDestination(dest, new StoredDestinationReader<Boolean, Exception>() {
+                @Override
+                public Boolean execute(Transaction tx, StoredDestination sd) throws Exception {
+                    if (sd.expirationIndex == null) {
+                        return Boolean.FALSE;
+                    }
+                    for (Iterator<Entry<Long, SequenceSet>> iterator = sd.expirationIndex.iterator(tx); iterator.hasNext(); ) {
+                        Entry<Long, SequenceSet> entry = iterator.next();
+                        if (entry.getKey() >= time) {
+                            break;
+                        }
+                        for (Long sequence : entry.getValue()) {
+                            MessageKeys keys = sd.orderIndex.get(tx, sequence);
+                            if (keys == null || ackedAndPrepared.contains(keys.messageId)) {
                                 continue;
                             }
-                            Message msg = loadMessage(entry.getValue().location);
-                            msg.getMessageId().setFutureOrSequenceLong(entry.getKey());
-                            listener.recoverMessage(msg);
-                            counter++;
-                            if (counter >= maxReturned) {
-                                break;
+                            expired.add(loadMessage(keys.location));
+                            if (expired.size() >= maxReturned) {
+                                return Boolean.TRUE;
                             }
                         }
-                        sd.orderIndex.stoppedIterating();
                     }
-                });
-            } finally {
-                indexLock.writeLock().unlock();
+                    return Boolean.TRUE;
+                }
+            });
+            for (Message message : expired) {
+                if (!listener.recoverMessage(message)) {
+                    break;
+                }
             }
+            return indexed.booleanValue();
         }
 
         protected int recoverRolledBackAcks(StoredDestination sd, Transaction tx, int maxReturned, MessageRecoveryListener listener) throws Exception {
             int counter = 0;
             String id;
-            for (Iterator<String> iterator = rolledBackAcks.iterator(); iterator.hasNext(); ) {
-                id = iterator.next();
-                iterator.remove();
-                Long sequence = sd.messageIdIndex.get(tx, id);
-                if (sequence != null) {
-                    if (sd.orderIndex.alreadyDispatched(sequence)) {
-                        listener.recoverMessage(loadMessage(sd.orderIndex.get(tx, sequence).location));
-                        counter++;
-                        if (counter >= maxReturned) {
-                            break;
+            // destinations can be recovered concurrently under the index read lock
+            synchronized (rolledBackAcks) {
+                for (Iterator<String> iterator = rolledBackAcks.iterator(); iterator.hasNext(); ) {
+                    id = iterator.next();
+                    iterator.remove();
+                    Long sequence = sd.messageIdIndex.get(tx, id);
+                    if (sequence != null) {
+                        if (sd.orderIndex.alreadyDispatched(sequence)) {
+                            listener.recoverMessage(loadMessage(sd.orderIndex.get(tx, sequence).location));
+                            counter++;
+                            if (counter >= maxReturned) {
+                                break;
+                            }
+                        } else {
+                            LOG.info("rolledback ack message {} with seq {} will be picked up in future batch {}", id, sequence, sd.orderIndex.cursor);
                         }
                     } else {
-                        LOG.info("rolledback ack message {} with seq {} will be picked up in future batch {}", id, sequence, sd.orderIndex.cursor);
+                        LOG.warn("Failed to locate rolled back ack message {} in {}", id, sd);
                     }
-                } else {
-                    LOG.warn("Failed to locate rolled back ack message {} in {}", id, sd);
                 }
             }
             return counter;
@@ -656,23 +668,18 @@ public class KahaDBStore extends MessageDatabase implements PersistenceAdapter {
 
         @Override
         public void setBatch(final MessageId identity) throws IOException {
-            indexLock.writeLock().lock();
-            try {
-                pageFile.tx().execute(new Transaction.Closure<IOException>() {
-                    @Override
-                    public void execute(Transaction tx) throws IOException {
-                        StoredDestination sd = getStoredDestination(dest, tx);
-                        Long location = (Long) identity.getFutureOrSequenceLong();
-                        Long pending = sd.orderIndex.minPendingAdd();
-                        if (pending != null) {
-                            location = Math.min(location, pending-1);
-                        }
-                        sd.orderIndex.setBatch(tx, location);
+            readStoredDestination(dest, new StoredDestinationReader<Void, IOException>() {
+                @Override
+                public Void execute(Transaction tx, StoredDestination sd) throws IOException {
+                    Long location = (Long) identity.getFutureOrSequenceLong();
+                    Long pending = sd.orderIndex.minPendingAdd();
+                    if (pending != null) {
+                        location = Math.min(location, pending-1);
                     }
-                });
-            } finally {
-                indexLock.writeLock().unlock();
-            }
+                    sd.orderIndex.setBatch(tx, location);
+                    return null;
+                }
+            });
         }
 
         @Override
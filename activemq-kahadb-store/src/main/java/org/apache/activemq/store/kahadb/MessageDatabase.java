@@ -19,6 +19,7 @@ package org.apache.activemq.store.kahadb;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.EOFException;
 import java.io.File;
@@ -53,6 +54,7 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.apache.activemq.ActiveMQMessageAuditNoSync;
 import org.apache.activemq.broker.BrokerService;
 import org.apache.activemq.broker.BrokerServiceAware;
+import org.apache.activemq.command.Message;
 import org.apache.activemq.command.MessageAck;
 import org.apache.activemq.command.TransactionId;
 import org.apache.activemq.openwire.OpenWireFormat;
@@ -113,7 +115,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
     static final int OPEN_STATE = 2;
     static final long NOT_ACKED = -1;
 
-    static final int VERSION = 5;
+    static final int VERSION = 6;
 
     protected class Metadata {
         protected Page<Metadata> page;
@@ -240,10 +242,12 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
     int setIndexWriteBatchSize = PageFile.DEFAULT_WRITE_BATCH_SIZE;
     private String preallocationScope = Journal.PreallocationScope.ENTIRE_JOURNAL.name();
     private String preallocationStrategy = Journal.PreallocationStrategy.SPARSE_FILE.name();
+    private boolean memoryMapJournalFiles = false;
 
     protected AtomicBoolean opened = new AtomicBoolean();
     private boolean ignoreMissingJournalfiles = false;
     private int indexCacheSize = 10000;
+    private long indexOffHeapCacheSize = 0;
     private boolean checkForCorruptJournalFiles = false;
     private boolean checksumJournalFiles = true;
     protected boolean forceRecoverIndex = false;
@@ -744,6 +748,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                 MessageKeys keys = sd.orderIndex.remove(tx, sequenceId);
                 sd.locationIndex.remove(tx, keys.location);
                 sd.messageIdIndex.remove(tx, keys.messageId);
+                removeExpiration(tx, sd, sequenceId);
                 metadata.producerSequenceIdTracker.rollback(keys.messageId);
                 undoCounter++;
                 // TODO: do we need to modify the ack positions for the pub sub case?
@@ -847,6 +852,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                             MessageKeys keys = sd.orderIndex.remove(tx, sequenceId);
                             sd.locationIndex.remove(tx, keys.location);
                             sd.messageIdIndex.remove(tx, keys.messageId);
+                            removeExpiration(tx, sd, sequenceId);
                             undoCounter++;
                             // TODO: do we need to modify the ack positions for the pub sub case?
                         }
@@ -1307,6 +1313,9 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                 if (sd.subscriptions != null && !sd.subscriptions.isEmpty(tx)) {
                     addAckLocationForNewMessage(tx, sd, id);
                 }
+                if (sd.expirationIndex != null && command.hasExpiration()) {
+                    addExpiration(tx, sd, id, command.getExpiration());
+                }
                 metadata.lastUpdate = location;
             } else {
                 // If the message ID is indexed, then the broker asked us to store a duplicate before the message was dispatched and acked, we ignore this add attempt
@@ -1371,6 +1380,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
             Long sequenceId = sd.messageIdIndex.remove(tx, command.getMessageId());
             if (sequenceId != null) {
                 MessageKeys keys = sd.orderIndex.remove(tx, sequenceId);
+                removeExpiration(tx, sd, sequenceId);
                 if (keys != null) {
                     sd.locationIndex.remove(tx, keys.location);
                     recordAckMessageReferenceLocation(ackLocation, keys.location);
@@ -1435,6 +1445,16 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         sd.messageIdIndex.unload(tx);
         tx.free(sd.messageIdIndex.getPageId());
 
+        if (sd.expirationIndex != null) {
+            sd.expirationIndex.clear(tx);
+            sd.expirationIndex.unload(tx);
+            tx.free(sd.expirationIndex.getPageId());
+
+            sd.sequenceExpirationIndex.clear(tx);
+            sd.sequenceExpirationIndex.unload(tx);
+            tx.free(sd.sequenceExpirationIndex.getPageId());
+        }
+
         if (sd.subscriptions != null) {
             sd.subscriptions.clear(tx);
             sd.subscriptions.unload(tx);
@@ -1870,6 +1890,11 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         BTreeIndex<Location, Long> locationIndex;
         BTreeIndex<String, Long> messageIdIndex;
 
+        // These bits are only set for Queues, the sequences of the messages
+        // that expire by expiration time and the reverse to drop them on removal
+        BTreeIndex<Long, SequenceSet> expirationIndex;
+        BTreeIndex<Long, Long> sequenceExpirationIndex;
+
         // These bits are only set for Topics
         BTreeIndex<String, KahaSubscriptionCommand> subscriptions;
         BTreeIndex<String, LastAck> subscriptionAcks;
@@ -1991,6 +2016,21 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                     }
                 });
             }
+            if (metadata.version >= 6) {
+                if (dataIn.readBoolean()) {
+                    value.expirationIndex = new BTreeIndex<Long, SequenceSet>(pageFile, dataIn.readLong());
+                    value.sequenceExpirationIndex = new BTreeIndex<Long, Long>(pageFile, dataIn.readLong());
+                }
+            } else if (value.subscriptions == null) {
+                // upgrade, the index is filled in when the destination is loaded
+                pageFile.tx().execute(new Transaction.Closure<IOException>() {
+                    @Override
+                    public void execute(Transaction tx) throws IOException {
+                        value.expirationIndex = new BTreeIndex<Long, SequenceSet>(pageFile, tx.allocate());
+                        value.sequenceExpirationIndex = new BTreeIndex<Long, Long>(pageFile, tx.allocate());
+                    }
+                });
+            }
 
             return value;
         }
@@ -2011,6 +2051,13 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
             }
             dataOut.writeLong(value.orderIndex.lowPriorityIndex.getPageId());
             dataOut.writeLong(value.orderIndex.highPriorityIndex.getPageId());
+            if (value.expirationIndex != null) {
+                dataOut.writeBoolean(true);
+                dataOut.writeLong(value.expirationIndex.getPageId());
+                dataOut.writeLong(value.sequenceExpirationIndex.getPageId());
+            } else {
+                dataOut.writeBoolean(false);
+            }
         }
     }
 
@@ -2044,6 +2091,58 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         return rc;
     }
 
+    /**
+     * A read of a single destination's index.
+     */
+    protected interface StoredDestinationReader<R, T extends Throwable> {
+        R execute(Transaction tx, StoredDestination sd) throws T;
+    }
+
+    /**
+     * Runs a read of a destination's index without excluding reads of other
+     * destinations.  Updates all share the page file's free list and the
+     * destinations index so still take the index write lock, but once a
+     * destination is loaded its reads only need the index read lock, which
+     * keeps updates out, and the destination's own monitor, which serializes
+     * use of its in memory cursor state and BTree pages.
+     */
+    protected <R, T extends Throwable> R readStoredDestination(final KahaDestination destination, StoredDestinationReader<R, T> reader) throws T, IOException {
+        indexLock.readLock().lock();
+        try {
+            StoredDestination sd = storedDestinations.get(key(destination));
+            if (sd != null) {
+                return readStoredDestination(sd, reader);
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+
+        // loading the destination may add it to the index
+        indexLock.writeLock().lock();
+        try {
+            StoredDestination sd = pageFile.tx().execute(new Transaction.CallableClosure<StoredDestination, IOException>() {
+                @Override
+                public StoredDestination execute(Transaction tx) throws IOException {
+                    return getStoredDestination(destination, tx);
+                }
+            });
+            return readStoredDestination(sd, reader);
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    private <R, T extends Throwable> R readStoredDestination(final StoredDestination sd, final StoredDestinationReader<R, T> reader) throws T, IOException {
+        synchronized (sd) {
+            return pageFile.tx().execute(new Transaction.CallableClosure<R, T>() {
+                @Override
+                public R execute(Transaction tx) throws T {
+                    return reader.execute(tx, sd);
+                }
+            });
+        }
+    }
+
     protected StoredDestination getExistingStoredDestination(KahaDestination destination, Transaction tx) throws IOException {
         String key = key(destination);
         StoredDestination rc = storedDestinations.get(key);
@@ -2075,6 +2174,9 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
                 rc.subscriptionAcks = new BTreeIndex<String, LastAck>(pageFile, tx.allocate());
                 rc.ackPositions = new ListIndex<String, SequenceSet>(pageFile, tx.allocate());
                 rc.subLocations = new ListIndex<String, Location>(pageFile, tx.allocate());
+            } else {
+                rc.expirationIndex = new BTreeIndex<Long, SequenceSet>(pageFile, tx.allocate());
+                rc.sequenceExpirationIndex = new BTreeIndex<Long, Long>(pageFile, tx.allocate());
             }
             metadata.destinations.put(tx, key, rc);
         }
@@ -2093,6 +2195,35 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         rc.messageIdIndex.setValueMarshaller(LongMarshaller.INSTANCE);
         rc.messageIdIndex.load(tx);
 
+        if (rc.expirationIndex != null) {
+            rc.expirationIndex.setKeyMarshaller(LongMarshaller.INSTANCE);
+            rc.expirationIndex.setValueMarshaller(SequenceSet.Marshaller.INSTANCE);
+            rc.expirationIndex.load(tx);
+
+            rc.sequenceExpirationIndex.setKeyMarshaller(LongMarshaller.INSTANCE);
+            rc.sequenceExpirationIndex.setValueMarshaller(LongMarshaller.INSTANCE);
+            rc.sequenceExpirationIndex.load(tx);
+
+            if (metadata.version < 6) {
+                // on upgrade need to index the expiration of the stored messages
+                OpenWireFormat wireFormat = new OpenWireFormat(metadata.openwireVersion);
+                for (Iterator<Entry<Long, MessageKeys>> iterator = rc.orderIndex.iterator(tx, new MessageOrderCursor()); iterator.hasNext(); ) {
+                    Entry<Long, MessageKeys> entry = iterator.next();
+                    JournalCommand<?> command = load(entry.getValue().location);
+                    KahaAddMessageCommand addMessage;
+                    if (command.type() == KahaEntryType.KAHA_UPDATE_MESSAGE_COMMAND) {
+                        addMessage = ((KahaUpdateMessageCommand) command).getMessage();
+                    } else {
+                        addMessage = (KahaAddMessageCommand) command;
+                    }
+                    Message message = (Message) wireFormat.unmarshal(new DataInputStream(addMessage.getMessage().newInput()));
+                    if (message.getExpiration() != 0) {
+                        addExpiration(tx, rc, entry.getKey(), message.getExpiration());
+                    }
+                }
+            }
+        }
+
         // If it was a topic...
         if (topic) {
 
@@ -2185,6 +2316,34 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         return rc;
     }
 
+    private void addExpiration(Transaction tx, StoredDestination sd, Long messageSequence, long expiration) throws IOException {
+        SequenceSet sequences = sd.expirationIndex.get(tx, expiration);
+        if (sequences == null) {
+            sequences = new SequenceSet();
+        }
+        sequences.add(messageSequence);
+        sd.expirationIndex.put(tx, expiration, sequences);
+        sd.sequenceExpirationIndex.put(tx, messageSequence, expiration);
+    }
+
+    private void removeExpiration(Transaction tx, StoredDestination sd, Long messageSequence) throws IOException {
+        if (sd.sequenceExpirationIndex == null) {
+            return;
+        }
+        Long expiration = sd.sequenceExpirationIndex.remove(tx, messageSequence);
+        if (expiration != null) {
+            SequenceSet sequences = sd.expirationIndex.get(tx, expiration);
+            if (sequences != null) {
+                sequences.remove(messageSequence);
+                if (sequences.isEmpty()) {
+                    sd.expirationIndex.remove(tx, expiration);
+                } else {
+                    sd.expirationIndex.put(tx, expiration, sequences);
+                }
+            }
+        }
+    }
+
     private void addAckLocation(Transaction tx, StoredDestination sd, Long messageSequence, String subscriptionKey) throws IOException {
         SequenceSet sequences = sd.ackPositions.get(tx, subscriptionKey);
         if (sequences == null) {
@@ -2470,6 +2629,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         index.setEnableWriteThread(isEnableIndexWriteAsync());
         index.setWriteBatchSize(getIndexWriteBatchSize());
         index.setPageCacheSize(indexCacheSize);
+        index.setOffHeapPageCacheSize(indexOffHeapCacheSize);
         index.setUseLFRUEviction(isUseIndexLFRUEviction());
         index.setLFUEvictionFactor(getIndexLFUEvictionFactor());
         index.setEnableDiskSyncs(isEnableIndexDiskSyncs());
@@ -2491,6 +2651,7 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         manager.setPreallocationScope(Journal.PreallocationScope.valueOf(preallocationScope.trim().toUpperCase()));
         manager.setPreallocationStrategy(
                 Journal.PreallocationStrategy.valueOf(preallocationStrategy.trim().toUpperCase()));
+        manager.setMemoryMapped(isMemoryMapJournalFiles());
         if (getDirectoryArchive() != null) {
             IOHelper.mkdirs(getDirectoryArchive());
             manager.setDirectoryArchive(getDirectoryArchive());
@@ -2631,6 +2792,14 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         this.indexCacheSize = indexCacheSize;
     }
 
+    public long getIndexOffHeapCacheSize() {
+        return indexOffHeapCacheSize;
+    }
+
+    public void setIndexOffHeapCacheSize(long indexOffHeapCacheSize) {
+        this.indexOffHeapCacheSize = indexOffHeapCacheSize;
+    }
+
     public boolean isCheckForCorruptJournalFiles() {
         return checkForCorruptJournalFiles;
     }
@@ -3193,4 +3362,12 @@ public abstract class MessageDatabase extends ServiceSupport implements BrokerSe
         this.preallocationStrategy = preallocationStrategy;
     }
 
+    public boolean isMemoryMapJournalFiles() {
+        return memoryMapJournalFiles;
+    }
+
+    public void setMemoryMapJournalFiles(boolean memoryMapJournalFiles) {
+        this.memoryMapJournalFiles = memoryMapJournalFiles;
+    }
+
 }
@@ -133,7 +133,6 @@ class CallerBufferingDataFileAppender extends DataFileAppender {
                 }
 
                 // Now do the 1 big write.
-                file.seek(wb.offset);
                 if (maxStat > 0) {
                     if (statIdx < maxStat) {
                         stats[statIdx++] = sequence.getLength();
@@ -145,14 +144,14 @@ class CallerBufferingDataFileAppender extends DataFileAppender {
                         System.err.println("Ave writeSize: " + all/maxStat);
                     }
                 }
-                file.write(sequence.getData(), sequence.getOffset(), sequence.getLength());
+                write(dataFile, file, wb.offset, sequence);
                 ReplicationTarget replicationTarget = journal.getReplicationTarget();
                 if( replicationTarget!=null ) {
                     replicationTarget.replicate(wb.writes.getHead().location, sequence, forceToDisk);
                 }
 
                 if (forceToDisk) {
-                    file.sync();
+                    sync(dataFile, file);
                 }
 
                 Journal.WriteCommand lastWrite = wb.writes.getTail();
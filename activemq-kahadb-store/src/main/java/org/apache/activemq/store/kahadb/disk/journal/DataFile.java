@@ -16,10 +16,12 @@
  */
 package org.apache.activemq.store.kahadb.disk.journal;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
 import org.apache.activemq.store.kahadb.disk.util.LinkedNode;
@@ -42,6 +44,7 @@ public class DataFile extends LinkedNode<DataFile> implements Comparable<DataFil
     protected final Integer dataFileId;
     protected volatile int length;
     protected final SequenceSet corruptedBlocks = new SequenceSet();
+    private volatile MappedByteBuffer mappedBuffer;
 
     DataFile(File file, int number) {
         this.file = file;
@@ -82,11 +85,48 @@ public class DataFile extends LinkedNode<DataFile> implements Comparable<DataFil
         file.close();
     }
 
+    /**
+     * Returns a memory mapping of the file that covers at least its first size
+     * bytes.  The mapping is shared by the appender and all readers of the file
+     * and is replaced by a larger one as the file grows.
+     *
+     * @param file
+     *      an open handle on the file, used if a new mapping is needed
+     * @param size
+     *      the number of bytes the mapping must cover
+     * @param grow
+     *      if true the file is extended when it is shorter than size, otherwise
+     *      an EOFException is thrown
+     */
+    MappedByteBuffer getMappedBuffer(RecoverableRandomAccessFile file, long size, boolean grow) throws IOException {
+        MappedByteBuffer buffer = mappedBuffer;
+        if (buffer != null && buffer.capacity() >= size) {
+            return buffer;
+        }
+        synchronized (this) {
+            buffer = mappedBuffer;
+            if (buffer == null || buffer.capacity() < size) {
+                FileChannel channel = file.getChannel();
+                long fileLength = channel.size();
+                if (fileLength < size && !grow) {
+                    throw new EOFException("Read of " + size + " bytes past the end of " + this.file + ", length " + fileLength);
+                }
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, fileLength));
+                mappedBuffer = buffer;
+            }
+        }
+        return buffer;
+    }
+
     public synchronized boolean delete() throws IOException {
+        // the mapping is released when it is collected, unmapping it here could
+        // crash a reader that still holds it.
+        mappedBuffer = null;
         return file.delete();
     }
 
     public synchronized void move(File targetDirectory) throws IOException{
+        mappedBuffer = null;
         IOHelper.moveFile(file, targetDirectory);
     }
 
@@ -16,7 +16,9 @@
  */
 package org.apache.activemq.store.kahadb.disk.journal;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 import org.apache.activemq.util.ByteSequence;
@@ -33,6 +35,7 @@ final class DataFileAccessor {
     private final DataFile dataFile;
     private final Map<Journal.WriteKey, Journal.WriteCommand> inflightWrites;
     private final RecoverableRandomAccessFile file;
+    private final boolean memoryMapped;
     private boolean disposed;
 
     /**
@@ -44,6 +47,7 @@ final class DataFileAccessor {
         this.dataFile = dataFile;
         this.inflightWrites = dataManager.getInflightWrites();
         this.file = dataFile.openRandomAccessFile();
+        this.memoryMapped = dataManager.isMemoryMapped();
     }
 
     public DataFile getDataFile() {
@@ -75,6 +79,15 @@ final class DataFileAccessor {
 
         try {
 
+            if (memoryMapped) {
+                if (location.getSize() == Location.NOT_SET) {
+                    readLocationDetails(location);
+                }
+                byte[] data = new byte[location.getSize() - Journal.RECORD_HEAD_SPACE];
+                mapped(location.getOffset() + Journal.RECORD_HEAD_SPACE, data.length).get(data);
+                return new ByteSequence(data, 0, data.length);
+            }
+
             if (location.getSize() == Location.NOT_SET) {
                 file.seek(location.getOffset());
                 location.setSize(file.readInt());
@@ -93,6 +106,10 @@ final class DataFileAccessor {
     }
 
     public void readFully(long offset, byte data[]) throws IOException {
+       if (memoryMapped) {
+           mapped(offset, data.length).get(data);
+           return;
+       }
        file.seek(offset);
        file.readFully(data);
     }
@@ -107,6 +124,10 @@ final class DataFileAccessor {
         if (asyncWrite != null) {
             location.setSize(asyncWrite.location.getSize());
             location.setType(asyncWrite.location.getType());
+        } else if (memoryMapped) {
+            ByteBuffer buffer = mapped(location.getOffset(), Journal.RECORD_HEAD_SPACE);
+            location.setSize(buffer.getInt());
+            location.setType(buffer.get());
         } else {
             file.seek(location.getOffset());
             location.setSize(file.readInt());
@@ -114,6 +135,24 @@ final class DataFileAccessor {
         }
     }
 
+    /**
+     * @return a view of the file's mapping positioned at offset with length
+     *         bytes remaining.
+     * @throws EOFException if the bytes are not all within the data written
+     *         so far, as the mapping also covers the rest of the file.
+     */
+    private ByteBuffer mapped(long offset, int length) throws IOException {
+        long end = offset + length;
+        int dataLength = dataFile.getLength();
+        if (offset < 0 || end > dataLength) {
+            throw new EOFException("Read of " + length + " bytes at offset " + offset + " past the end of " + dataFile + ", length " + dataLength);
+        }
+        ByteBuffer buffer = dataFile.getMappedBuffer(file, end, false).duplicate();
+        buffer.limit((int) end);
+        buffer.position((int) offset);
+        return buffer;
+    }
+
 //    public boolean readLocationDetailsAndValidate(Location location) {
 //        try {
 //            WriteCommand asyncWrite = (WriteCommand)inflightWrites.get(new WriteKey(location));
@@ -18,6 +18,7 @@ package org.apache.activemq.store.kahadb.disk.journal;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicReference;
@@ -354,7 +355,6 @@ class DataFileAppender implements FileAppender {
                 }
 
                 // Now do the 1 big write.
-                file.seek(wb.offset);
                 if (maxStat > 0) {
                     if (statIdx < maxStat) {
                         stats[statIdx++] = sequence.getLength();
@@ -366,7 +366,7 @@ class DataFileAppender implements FileAppender {
                         logger.info("Ave writeSize: " + all/maxStat);
                     }
                 }
-                file.write(sequence.getData(), sequence.getOffset(), sequence.getLength());
+                write(dataFile, file, wb.offset, sequence);
 
                 ReplicationTarget replicationTarget = journal.getReplicationTarget();
                 if( replicationTarget!=null ) {
@@ -374,7 +374,7 @@ class DataFileAppender implements FileAppender {
                 }
 
                 if (forceToDisk) {
-                    file.sync();
+                    sync(dataFile, file);
                 }
 
                 Journal.WriteCommand lastWrite = wb.writes.getTail();
@@ -408,6 +408,31 @@ class DataFileAppender implements FileAppender {
         }
     }
 
+    /**
+     * Writes a batch to the data file at the given offset, through the file's
+     * memory mapping when the journal is memory mapped.
+     */
+    protected void write(DataFile dataFile, RecoverableRandomAccessFile file, int offset, ByteSequence sequence) throws IOException {
+        if (journal.isMemoryMapped()) {
+            // map the whole file up front so the mapping does not have to grow with each batch
+            long size = Math.max(journal.getMaxFileLength(), offset + sequence.getLength());
+            ByteBuffer buffer = dataFile.getMappedBuffer(file, size, true).duplicate();
+            buffer.position(offset);
+            buffer.put(sequence.getData(), sequence.getOffset(), sequence.getLength());
+        } else {
+            file.seek(offset);
+            file.write(sequence.getData(), sequence.getOffset(), sequence.getLength());
+        }
+    }
+
+    protected void sync(DataFile dataFile, RecoverableRandomAccessFile file) throws IOException {
+        if (journal.isMemoryMapped()) {
+            dataFile.getMappedBuffer(file, 0, true).force();
+        } else {
+            file.sync();
+        }
+    }
+
     protected void signalDone(WriteBatch wb) {
         // Now that the data is on disk, remove the writes from the in
         // flight
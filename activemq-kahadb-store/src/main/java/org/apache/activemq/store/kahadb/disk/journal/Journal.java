@@ -117,6 +117,7 @@ public class Journal {
     protected boolean checksum;
     protected boolean checkForCorruptionOnStartup;
     protected boolean enableAsyncDiskSync = true;
+    protected boolean memoryMapped;
     private Timer timer;
 
     protected PreallocationScope preallocationScope = PreallocationScope.ENTIRE_JOURNAL;
@@ -625,7 +626,7 @@ public class Journal {
 
             if (cur.getType() == 0) {
                 // invalid offset - jump to next datafile
-                cur.setOffset(maxFileLength);
+                cur.setOffset(Math.max(maxFileLength, dataFile.getLength()));
             } else if (cur.getType() == USER_RECORD_TYPE) {
                 // Only return user records.
                 return cur;
@@ -805,6 +806,24 @@ public class Journal {
         return enableAsyncDiskSync;
     }
 
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * When true data files are appended to and read through a memory mapping of
+     * the whole file rather than with seek and read/write calls, which saves a
+     * system call and a copy for each record loaded.  A file is mapped at its
+     * full maxFileLength when first written, in addition to any preallocation,
+     * and a sync forces the mapping to disk.  The mappings use address space
+     * rather than heap and are released when the files are no longer referenced.
+     *
+     * @param memoryMapped
+     */
+    public void setMemoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+    }
+
     public void setDataFileRemovedListener(DataFileRemovedListener dataFileRemovedListener) {
         this.dataFileRemovedListener = dataFileRemovedListener;
     }
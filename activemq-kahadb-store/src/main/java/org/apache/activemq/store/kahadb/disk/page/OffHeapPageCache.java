@@ -0,0 +1,256 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.page;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of raw page images held in direct memory.
+ *
+ * The cache is split into stripes by page id.  Each stripe owns a slab of
+ * direct memory divided into page sized slots, a map from page id to slot kept
+ * in access order so the least recently used page is evicted first, and its
+ * own lock, so lookups of pages in different stripes do not contend.
+ *
+ * Because only the serialized form of a page is kept, the cache adds nothing
+ * to the heap the garbage collector has to trace, no matter how large it is.
+ */
+public class OffHeapPageCache {
+
+    public static final int DEFAULT_STRIPES = 16;
+
+    private final int pageSize;
+    private final Stripe[] stripes;
+    private final int mask;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public OffHeapPageCache(int pageSize, long capacity) {
+        this(pageSize, capacity, DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param pageSize
+     *      the size of each cached page
+     * @param capacity
+     *      the amount of direct memory to use, in bytes
+     * @param stripes
+     *      the number of independently locked stripes, rounded up to a power of two
+     */
+    public OffHeapPageCache(int pageSize, long capacity, int stripes) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize must be greater than 0: " + pageSize);
+        }
+        if (stripes <= 0 || stripes > 1 << 16) {
+            throw new IllegalArgumentException("stripes must be between 1 and 65536: " + stripes);
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) {
+            size <<= 1;
+        }
+        // a stripe's slab is a single buffer so it is limited to 2GB
+        long slots = Math.min(capacity / pageSize / size, Integer.MAX_VALUE / pageSize);
+        if (slots <= 0) {
+            throw new IllegalArgumentException("capacity of " + capacity + " bytes is too small to hold a page in each of " + size + " stripes");
+        }
+        this.pageSize = pageSize;
+        this.stripes = new Stripe[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new Stripe((int) slots);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Copies a cached page into the given array.
+     *
+     * @return true if the page was found in the cache.
+     */
+    public boolean get(long pageId, byte[] data) {
+        if (stripe(pageId).get(pageId, data)) {
+            hits.incrementAndGet();
+            return true;
+        }
+        misses.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return a token that must be passed to {@link #load(long, byte[], long)}
+     *         when adding a page that was read from disk after this call.
+     */
+    public long loadToken(long pageId) {
+        return stripe(pageId).version();
+    }
+
+    /**
+     * Caches a page that was read from disk, unless the page may have been
+     * updated since the read started.
+     */
+    public void load(long pageId, byte[] data, long token) {
+        stripe(pageId).put(pageId, data, token);
+    }
+
+    /**
+     * Caches the latest image of a page that has been written.
+     */
+    public void put(long pageId, byte[] data) {
+        stripe(pageId).put(pageId, data, -1);
+    }
+
+    public void remove(long pageId) {
+        stripe(pageId).remove(pageId);
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            stripe.clear();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of pages in the cache.
+     */
+    public int size() {
+        int rc = 0;
+        for (Stripe stripe : stripes) {
+            rc += stripe.size();
+        }
+        return rc;
+    }
+
+    /**
+     * @return the amount of direct memory reserved by the cache, in bytes.
+     */
+    public long getCapacity() {
+        return (long) stripes.length * stripes[0].slots * pageSize;
+    }
+
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "hits=" + getHitCount() + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() +
+               ", pages=" + size() + ", capacity=" + getCapacity();
+    }
+
+    private Stripe stripe(long pageId) {
+        int hash = (int) (pageId ^ (pageId >>> 32));
+        hash ^= (hash >>> 16);
+        return stripes[hash & mask];
+    }
+
+    private final class Stripe {
+        private final int slots;
+        private final ByteBuffer slab;
+        private final LinkedHashMap<Long, Integer> index;
+        private final int[] free;
+        private int freeCount;
+        // bumped on every update so a load that raced with a write can be detected
+        private long version;
+
+        Stripe(int slots) {
+            this.slots = slots;
+            this.slab = ByteBuffer.allocateDirect(slots * pageSize);
+            this.index = new LinkedHashMap<Long, Integer>(16, 0.75f, true);
+            this.free = new int[slots];
+            for (int i = 0; i < slots; i++) {
+                free[i] = slots - 1 - i;
+            }
+            this.freeCount = slots;
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized boolean get(long pageId, byte[] data) {
+            Integer slot = index.get(pageId);
+            if (slot == null) {
+                return false;
+            }
+            ByteBuffer buffer = slab.duplicate();
+            buffer.position(slot * pageSize);
+            buffer.get(data, 0, Math.min(data.length, pageSize));
+            return true;
+        }
+
+        synchronized void put(long pageId, byte[] data, long token) {
+            if (token == -1) {
+                version++;
+            } else if (token != version) {
+                return;
+            }
+            Integer slot = index.get(pageId);
+            if (slot == null) {
+                if (freeCount == 0) {
+                    Iterator<Map.Entry<Long, Integer>> eldest = index.entrySet().iterator();
+                    free[freeCount++] = eldest.next().getValue();
+                    eldest.remove();
+                    evictions.incrementAndGet();
+                }
+                slot = free[--freeCount];
+                index.put(pageId, slot);
+            }
+            ByteBuffer buffer = slab.duplicate();
+            buffer.position(slot * pageSize);
+            buffer.put(data, 0, Math.min(data.length, pageSize));
+        }
+
+        synchronized void remove(long pageId) {
+            version++;
+            Integer slot = index.remove(pageId);
+            if (slot != null) {
+                free[freeCount++] = slot;
+            }
+        }
+
+        synchronized void clear() {
+            version++;
+            for (Integer slot : index.values()) {
+                free[freeCount++] = slot;
+            }
+            index.clear();
+        }
+
+        synchronized int size() {
+            return index.size();
+        }
+    }
+}
@@ -108,12 +108,18 @@ public class PageFile {
     // write to disk.
     int writeBatchSize = DEFAULT_WRITE_BATCH_SIZE;
 
-    // We keep a cache of pages recently used?
-    private Map<Long, Page> pageCache;
+    // We keep a cache of pages recently used?  It is split into independently
+    // locked stripes when the off heap cache is enabled, so that lookups of
+    // pages held off heap do not all wait on one lock.
+    private Map<Long, Page>[] pageCache;
     // The cache of recently used pages.
     private boolean enablePageCaching = true;
     // How many pages will we keep in the cache?
     private int pageCacheSize = DEFAULT_PAGE_CACHE_SIZE;
+    // Raw page images kept in direct memory, backing the page cache.
+    private OffHeapPageCache offHeapPageCache;
+    // How many bytes of direct memory to use for raw page images, 0 to disable.
+    private long offHeapPageCacheSize = 0;
 
     // Should first log the page write to the recovery buffer? Avoids partial
     // page write failures..
@@ -365,14 +371,20 @@ public class PageFile {
      *                               there was a disk error.
      * @throws IllegalStateException If the page file was already loaded.
      */
+    @SuppressWarnings("unchecked")
     public void load() throws IOException, IllegalStateException {
         if (loaded.compareAndSet(false, true)) {
 
             if (enablePageCaching) {
-                if (isUseLFRUEviction()) {
-                    pageCache = Collections.synchronizedMap(new LFUCache<Long, Page>(pageCacheSize, getLFUEvictionFactor()));
-                } else {
-                    pageCache = Collections.synchronizedMap(new LRUCache<Long, Page>(pageCacheSize, pageCacheSize, 0.75f, true));
+                int stripes = offHeapPageCacheSize > 0 ? OffHeapPageCache.DEFAULT_STRIPES : 1;
+                int stripeSize = Math.max(1, pageCacheSize / stripes);
+                pageCache = new Map[stripes];
+                for (int i = 0; i < stripes; i++) {
+                    if (isUseLFRUEviction()) {
+                        pageCache[i] = Collections.synchronizedMap(new LFUCache<Long, Page>(stripeSize, getLFUEvictionFactor()));
+                    } else {
+                        pageCache[i] = Collections.synchronizedMap(new LRUCache<Long, Page>(stripeSize, stripeSize, 0.75f, true));
+                    }
                 }
             }
 
@@ -428,6 +440,9 @@ public class PageFile {
                 writeFile.setLength(PAGE_FILE_HEADER_SIZE);
             }
             nextFreePageId.set((writeFile.length() - PAGE_FILE_HEADER_SIZE) / pageSize);
+            if (offHeapPageCacheSize > 0) {
+                offHeapPageCache = new OffHeapPageCache(pageSize, offHeapPageCacheSize);
+            }
             startWriter();
 
         } else {
@@ -476,6 +491,10 @@ public class PageFile {
                 if (pageCache != null) {
                     pageCache = null;
                 }
+                if (offHeapPageCache != null) {
+                    offHeapPageCache.clear();
+                    offHeapPageCache = null;
+                }
                 synchronized (writes) {
                     writes.clear();
                 }
@@ -732,6 +751,29 @@ public class PageFile {
         this.pageCacheSize = pageCacheSize;
     }
 
+    /**
+     * @return the number of bytes of direct memory used to cache raw pages, 0 if disabled.
+     */
+    public long getOffHeapPageCacheSize() {
+        return offHeapPageCacheSize;
+    }
+
+    /**
+     * @param offHeapPageCacheSize Sets the number of bytes of direct memory used to cache raw pages
+     *                             that have fallen out of the page cache, 0 to disable.
+     */
+    public void setOffHeapPageCacheSize(long offHeapPageCacheSize) {
+        assertNotLoaded();
+        this.offHeapPageCacheSize = offHeapPageCacheSize;
+    }
+
+    /**
+     * @return the direct memory page cache, or null if it is not enabled or the page file is not loaded.
+     */
+    public OffHeapPageCache getOffHeapPageCache() {
+        return offHeapPageCache;
+    }
+
     public boolean isEnabledWriteThread() {
         return enabledWriteThread;
     }
@@ -873,7 +915,22 @@ public class PageFile {
         return nextTxid.incrementAndGet();
     }
 
-    synchronized void readPage(long pageId, byte[] data) throws IOException {
+    void readPage(long pageId, byte[] data) throws IOException {
+        OffHeapPageCache cache = offHeapPageCache;
+        if (cache != null && cache.get(pageId, data)) {
+            return;
+        }
+        // only a full page image can be cached
+        if (cache == null || data.length < pageSize) {
+            readPageFromFile(pageId, data);
+        } else {
+            long token = cache.loadToken(pageId);
+            readPageFromFile(pageId, data);
+            cache.load(pageId, data, token);
+        }
+    }
+
+    private synchronized void readPageFromFile(long pageId, byte[] data) throws IOException {
         readFile.seek(toOffset(pageId));
         readFile.readFully(data);
     }
@@ -881,6 +938,10 @@ public class PageFile {
     public void freePage(long pageId) {
         freeList.add(pageId);
         removeFromCache(pageId);
+        OffHeapPageCache cache = offHeapPageCache;
+        if (cache != null) {
+            cache.remove(pageId);
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -977,23 +1038,27 @@ public class PageFile {
 
         Page<T> result = null;
         if (enablePageCaching) {
-            result = pageCache.get(pageId);
+            result = pageCacheStripe(pageId).get(pageId);
         }
         return result;
     }
 
     void addToCache(Page page) {
         if (enablePageCaching) {
-            pageCache.put(page.getPageId(), page);
+            pageCacheStripe(page.getPageId()).put(page.getPageId(), page);
         }
     }
 
     void removeFromCache(long pageId) {
         if (enablePageCaching) {
-            pageCache.remove(pageId);
+            pageCacheStripe(pageId).remove(pageId);
         }
     }
 
+    private Map<Long, Page> pageCacheStripe(long pageId) {
+        return pageCache[(int) (pageId & (pageCache.length - 1))];
+    }
+
     ///////////////////////////////////////////////////////////////////
     // Internal Double write implementation follows...
     ///////////////////////////////////////////////////////////////////
@@ -1065,6 +1130,9 @@ public class PageFile {
 
             writeFile.seek(toOffset(w.page.getPageId()));
             writeFile.write(w.getDiskBound(), 0, pageSize);
+            if (offHeapPageCache != null) {
+                offHeapPageCache.put(w.page.getPageId(), w.getDiskBound());
+            }
             w.done();
         }
 
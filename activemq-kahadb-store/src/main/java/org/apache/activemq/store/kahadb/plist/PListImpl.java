@@ -85,9 +85,11 @@ public class PListImpl extends ListIndex<String, Location> implements PList {
 
     class Locator {
         final String id;
+        final Location location;
 
-        Locator(String id) {
+        Locator(String id, Location location) {
             this.id = id;
+            this.location = location;
         }
 
         PListImpl plist() {
@@ -105,7 +107,7 @@ public class PListImpl extends ListIndex<String, Location> implements PList {
                 }
             });
         }
-        return new Locator(id);
+        return new Locator(id, location);
     }
 
     @Override
@@ -118,7 +120,7 @@ public class PListImpl extends ListIndex<String, Location> implements PList {
                 }
             });
         }
-        return new Locator(id);
+        return new Locator(id, location);
     }
 
     @Override
@@ -129,6 +131,14 @@ public class PListImpl extends ListIndex<String, Location> implements PList {
         return remove(locator.id);
     }
 
+    @Override
+    public PListEntry get(final Object l) throws IOException {
+        Locator locator = (Locator) l;
+        assert locator!=null;
+        assert locator.plist()==this;
+        return new PListEntry(locator.id, this.store.getPayload(locator.location), locator);
+    }
+
     public boolean remove(final String id) throws IOException {
         final AtomicBoolean result = new AtomicBoolean();
         synchronized (indexLock) {
@@ -173,7 +183,7 @@ public class PListImpl extends ListIndex<String, Location> implements PList {
         }
         if (ref.get() != null) {
             ByteSequence bs = this.store.getPayload(ref.get().getValue());
-            result = new PListEntry(ref.get().getKey(), bs, new Locator(ref.get().getKey()));
+            result = new PListEntry(ref.get().getKey(), bs, new Locator(ref.get().getKey(), ref.get().getValue()));
         }
         return result;
     }
@@ -190,7 +200,7 @@ public class PListImpl extends ListIndex<String, Location> implements PList {
         }
         if (ref.get() != null) {
             ByteSequence bs = this.store.getPayload(ref.get().getValue());
-            result = new PListEntry(ref.get().getKey(), bs, new Locator(ref.get().getKey()));
+            result = new PListEntry(ref.get().getKey(), bs, new Locator(ref.get().getKey(), ref.get().getValue()));
         }
         return result;
     }
@@ -207,7 +217,7 @@ public class PListImpl extends ListIndex<String, Location> implements PList {
         }
         if (ref.get() != null) {
             ByteSequence bs = this.store.getPayload(ref.get().getValue());
-            result = new PListEntry(ref.get().getKey(), bs, new Locator(ref.get().getKey()));
+            result = new PListEntry(ref.get().getKey(), bs, new Locator(ref.get().getKey(), ref.get().getValue()));
         }
         return result;
     }
@@ -249,7 +259,7 @@ public class PListImpl extends ListIndex<String, Location> implements PList {
                 e.initCause(unexpected);
                 throw e;
             }
-            return new PListEntry(entry.getKey(), bs, new Locator(entry.getKey()));
+            return new PListEntry(entry.getKey(), bs, new Locator(entry.getKey(), entry.getValue()));
         }
 
         @Override
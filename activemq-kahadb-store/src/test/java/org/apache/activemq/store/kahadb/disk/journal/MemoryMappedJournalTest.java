@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.journal;
+
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.activemq.util.ByteSequence;
+
+/**
+ * Runs the journal tests against memory mapped data files and checks records
+ * written through the mapping can be read back, across file rotation and a
+ * restart.
+ */
+public class MemoryMappedJournalTest extends JournalTest {
+
+    private static final int MAX_FILE_LENGTH = 64 * 1024;
+
+    @Override
+    protected void configure(Journal dataManager) {
+        dataManager.setMemoryMapped(true);
+        dataManager.setMaxFileLength(MAX_FILE_LENGTH);
+    }
+
+    public void testReadBackAcrossFilesAndRestart() throws Exception {
+        List<Location> locations = new ArrayList<Location>();
+        for (int i = 0; i < 500; i++) {
+            locations.add(dataManager.write(record(i), i % 10 == 0));
+        }
+        dataManager.write(record(500), true);
+        assertTrue("rotated to more than one file", dataManager.getFileMap().size() > 1);
+
+        for (int i = 0; i < locations.size(); i++) {
+            assertEquals(new String(record(i).getData()), new String(dataManager.read(locations.get(i)).getData()));
+        }
+
+        dataManager.close();
+        dataManager = new Journal();
+        dataManager.setDirectory(dir);
+        configure(dataManager);
+        dataManager.start();
+
+        int count = 0;
+        for (Location location = dataManager.getNextLocation(null); location != null; location = dataManager.getNextLocation(location)) {
+            ByteSequence data = dataManager.read(location);
+            assertEquals(new String(record(count).getData()), new String(data.getData(), data.getOffset(), data.getLength()));
+            count++;
+        }
+        assertEquals(501, count);
+
+        Location appended = dataManager.write(record(501), true);
+        assertEquals(new String(record(501).getData()), new String(dataManager.read(appended).getData()));
+    }
+
+    public void testReadPastTheEndOfTheData() throws Exception {
+        Location written = dataManager.write(record(0), true);
+        int length = dataManager.getFileMap().get(written.getDataFileId()).getLength();
+        assertTrue("the file is mapped beyond the data", length < MAX_FILE_LENGTH);
+
+        Location past = new Location();
+        past.setDataFileId(written.getDataFileId());
+        past.setOffset(length + 1024);
+        try {
+            dataManager.read(past);
+            fail("read past the end of the data");
+        } catch (EOFException expected) {
+        }
+
+        Location tooLong = new Location(written);
+        tooLong.setSize(length - written.getOffset() + 1024);
+        try {
+            dataManager.read(tooLong);
+            fail("read past the end of the data");
+        } catch (EOFException expected) {
+        }
+    }
+
+    private ByteSequence record(int i) {
+        StringBuilder builder = new StringBuilder("record-").append(i).append('-');
+        while (builder.length() < 500) {
+            builder.append('x');
+        }
+        return new ByteSequence(builder.toString().getBytes());
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.store.kahadb.disk.page;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.apache.activemq.store.kahadb.disk.util.StringMarshaller;
+
+import junit.framework.TestCase;
+
+public class OffHeapPageCacheTest extends TestCase {
+
+    private static final int PAGE_SIZE = 64;
+
+    public void testGetPutAndEvict() throws Exception {
+        // a single stripe holding four pages
+        OffHeapPageCache cache = new OffHeapPageCache(PAGE_SIZE, 4 * PAGE_SIZE, 1);
+        assertEquals(4 * PAGE_SIZE, cache.getCapacity());
+
+        byte[] data = new byte[PAGE_SIZE];
+        assertFalse(cache.get(1, data));
+        for (int i = 1; i <= 4; i++) {
+            cache.put(i, page(i));
+        }
+        // touch page 1 so page 2 is the least recently used
+        assertTrue(cache.get(1, data));
+        assertTrue(Arrays.equals(page(1), data));
+
+        cache.put(5, page(5));
+        assertEquals(4, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertFalse(cache.get(2, data));
+        assertTrue(cache.get(5, data));
+        assertTrue(Arrays.equals(page(5), data));
+
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        cache.remove(5);
+        assertFalse(cache.get(5, data));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    public void testLoadRacingWithWriteIsDiscarded() throws Exception {
+        OffHeapPageCache cache = new OffHeapPageCache(PAGE_SIZE, 16 * PAGE_SIZE);
+        byte[] data = new byte[PAGE_SIZE];
+
+        long token = cache.loadToken(7);
+        cache.put(7, page(2));
+        cache.load(7, page(1), token);
+        assertTrue(cache.get(7, data));
+        assertTrue(Arrays.equals(page(2), data));
+
+        token = cache.loadToken(8);
+        cache.remove(8);
+        cache.load(8, page(1), token);
+        assertFalse(cache.get(8, data));
+
+        token = cache.loadToken(8);
+        cache.load(8, page(1), token);
+        assertTrue(cache.get(8, data));
+        assertTrue(Arrays.equals(page(1), data));
+    }
+
+    public void testPageFileReadsThroughCache() throws Exception {
+        PageFile pf = new PageFile(new File("target/test-data"), getName());
+        pf.delete();
+        pf.setEnablePageCaching(false);
+        pf.setOffHeapPageCacheSize(1024 * 1024);
+        pf.load();
+
+        Transaction tx = pf.tx();
+        Page<String> page = tx.allocate();
+        page.set("first");
+        tx.store(page, StringMarshaller.INSTANCE, true);
+        tx.commit();
+        pf.flush();
+
+        OffHeapPageCache cache = pf.getOffHeapPageCache();
+        assertEquals("first", tx.load(page.getPageId(), StringMarshaller.INSTANCE).get());
+        assertTrue("written page was cached", cache.getHitCount() > 0);
+
+        Page<String> updated = tx.load(page.getPageId(), StringMarshaller.INSTANCE);
+        updated.set("second");
+        tx.store(updated, StringMarshaller.INSTANCE, true);
+        tx.commit();
+        pf.flush();
+        assertEquals("second", tx.load(page.getPageId(), StringMarshaller.INSTANCE).get());
+
+        pf.unload();
+        assertNull(pf.getOffHeapPageCache());
+
+        pf.load();
+        tx = pf.tx();
+        assertEquals("second", tx.load(page.getPageId(), StringMarshaller.INSTANCE).get());
+        assertEquals(1, pf.getOffHeapPageCache().getMissCount());
+        assertEquals("second", tx.load(page.getPageId(), StringMarshaller.INSTANCE).get());
+        assertEquals(1, pf.getOffHeapPageCache().getHitCount());
+        pf.unload();
+    }
+
+    private byte[] page(int value) {
+        byte[] data = new byte[PAGE_SIZE];
+        Arrays.fill(data, (byte) value);
+        return data;
+    }
+}
@@ -1064,6 +1064,19 @@ class LevelDBStore extends LockableServiceSupport with BrokerServiceAware with P
       }
     }
 
+    def get(position: AnyRef): PListEntry = {
+      check_running
+      val pos = position.asInstanceOf[java.lang.Long].longValue()
+      db.plistGet(encodeLongLong(key, pos)) match {
+        case Some(value) =>
+          val is = new org.fusesource.hawtbuf.DataByteArrayInputStream(value)
+          val id = is.readBuffer(is.readShort()).utf8().toString
+          new PListEntry(id, new ByteSequence(value, is.getPos, value.length-is.getPos), position)
+        case None =>
+          null
+      }
+    }
+
     def isEmpty = size()==0
     def size(): Long = listSize.get()
 
@@ -28,6 +28,7 @@ import java.nio.channels.SocketChannel;
 
 import javax.net.SocketFactory;
 
+import org.apache.activemq.transport.nio.NIOBufferPool;
 import org.apache.activemq.transport.nio.NIOOutputStream;
 import org.apache.activemq.transport.nio.SelectorManager;
 import org.apache.activemq.transport.nio.SelectorSelection;
@@ -45,7 +46,6 @@ public class MQTTNIOTransport extends TcpTransport {
     private SocketChannel channel;
     private SelectorSelection selection;
 
-    private ByteBuffer inputBuffer;
     MQTTCodec codec;
 
     public MQTTNIOTransport(WireFormat wireFormat, SocketFactory socketFactory, URI remoteLocation, URI localLocation) throws UnknownHostException, IOException {
@@ -76,7 +76,6 @@ public class MQTTNIOTransport extends TcpTransport {
             }
         });
 
-        inputBuffer = ByteBuffer.allocate(8 * 1024);
         NIOOutputStream outPutStream = new NIOOutputStream(channel, 8 * 1024);
         this.dataOut = new DataOutputStream(outPutStream);
         this.buffOut = outPutStream;
@@ -84,6 +83,8 @@ public class MQTTNIOTransport extends TcpTransport {
     }
 
     private void serviceRead() {
+        // only held while reading, the codec copies what it keeps
+        ByteBuffer inputBuffer = NIOBufferPool.getInstance().acquireHeap(8 * 1024);
         try {
 
             while (isStarted()) {
@@ -113,6 +114,8 @@ public class MQTTNIOTransport extends TcpTransport {
             onException(e);
         } catch (Throwable e) {
             onException(IOExceptionSupport.create(e));
+        } finally {
+            NIOBufferPool.getInstance().release(inputBuffer);
         }
     }
 
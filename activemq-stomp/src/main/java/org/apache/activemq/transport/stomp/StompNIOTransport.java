@@ -30,6 +30,7 @@ import java.nio.channels.SocketChannel;
 import javax.net.SocketFactory;
 
 import org.apache.activemq.transport.Transport;
+import org.apache.activemq.transport.nio.NIOBufferPool;
 import org.apache.activemq.transport.nio.NIOOutputStream;
 import org.apache.activemq.transport.nio.SelectorManager;
 import org.apache.activemq.transport.nio.SelectorSelection;
@@ -46,7 +47,6 @@ public class StompNIOTransport extends TcpTransport {
     private SocketChannel channel;
     private SelectorSelection selection;
 
-    private ByteBuffer inputBuffer;
     StompCodec codec;
 
     public StompNIOTransport(WireFormat wireFormat, SocketFactory socketFactory, URI remoteLocation, URI localLocation) throws UnknownHostException, IOException {
@@ -79,7 +79,6 @@ public class StompNIOTransport extends TcpTransport {
             }
         });
 
-        inputBuffer = ByteBuffer.allocate(8 * 1024);
         NIOOutputStream outPutStream = new NIOOutputStream(channel, 8 * 1024);
         this.dataOut = new DataOutputStream(outPutStream);
         this.buffOut = outPutStream;
@@ -87,6 +86,8 @@ public class StompNIOTransport extends TcpTransport {
     }
 
     private void serviceRead() {
+        // only held while reading, the codec copies what it keeps
+        ByteBuffer inputBuffer = NIOBufferPool.getInstance().acquireHeap(8 * 1024);
         try {
 
            while (true) {
@@ -118,6 +119,8 @@ public class StompNIOTransport extends TcpTransport {
             onException(e);
         } catch (Throwable e) {
             onException(IOExceptionSupport.create(e));
+        } finally {
+            NIOBufferPool.getInstance().release(inputBuffer);
         }
     }
 
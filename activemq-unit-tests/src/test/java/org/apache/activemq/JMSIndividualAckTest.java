@@ -25,6 +25,8 @@ import javax.jms.Queue;
 import javax.jms.Session;
 import javax.jms.TextMessage;
 
+import org.apache.activemq.util.Wait;
+
 /**
  *
  */
@@ -155,6 +157,92 @@ public class JMSIndividualAckTest extends TestSupport {
         session.close();
     }
 
+    /**
+     * Tests that batched acks of consecutive messages are sent as ranges and
+     * that pending acks are sent when the session closes.
+     *
+     * @throws JMSException
+     */
+    public void testBatchedAcksAreConsumed() throws JMSException {
+        ((ActiveMQConnection) connection).setIndividualAckBatchSize(3);
+        connection.start();
+        Session session = connection.createSession(false, ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+        Queue queue = session.createQueue(getQueueName());
+        MessageProducer producer = session.createProducer(queue);
+        for (int i = 1; i <= 5; i++) {
+            producer.send(session.createTextMessage("msg" + i));
+        }
+
+        // Consume the messages, acking all but the third
+        MessageConsumer consumer = session.createConsumer(queue);
+        Message[] msgs = new Message[5];
+        for (int i = 0; i < msgs.length; i++) {
+            msgs[i] = consumer.receive(1000);
+            assertNotNull(msgs[i]);
+        }
+        msgs[0].acknowledge();
+        msgs[1].acknowledge();
+        msgs[3].acknowledge();
+        msgs[4].acknowledge();
+
+        // Reset the session.
+        session.close();
+        session = connection.createSession(false, ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+
+        // Only the unacked message is left
+        consumer = session.createConsumer(queue);
+        TextMessage msg = (TextMessage) consumer.receive(1000);
+        assertNotNull(msg);
+        assertEquals("msg3", msg.getText());
+        msg.acknowledge();
+        assertNull(consumer.receive(500));
+        session.close();
+    }
+
+    /**
+     * Tests that batched acks are consumed when priority delivers the
+     * messages in another order than the broker dispatched them in.
+     *
+     * @throws Exception
+     */
+    public void testBatchedAcksWithPriorityAreConsumed() throws Exception {
+        ((ActiveMQConnection) connection).setIndividualAckBatchSize(6);
+        ((ActiveMQConnection) connection).setMessagePrioritySupported(true);
+        connection.start();
+        Session session = connection.createSession(false, ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+        Queue queue = session.createQueue(getQueueName());
+        final ActiveMQMessageConsumer consumer = (ActiveMQMessageConsumer) session.createConsumer(queue);
+        MessageProducer producer = session.createProducer(queue);
+        for (int i = 1; i <= 6; i++) {
+            producer.setPriority(i % 2 == 0 ? 9 : 0);
+            producer.send(session.createTextMessage("msg" + i));
+        }
+
+        // let the whole batch be prefetched before any is delivered
+        assertTrue("messages prefetched", Wait.waitFor(new Wait.Condition() {
+            @Override
+            public boolean isSatisified() throws Exception {
+                return consumer.getMessageSize() == 6;
+            }
+        }));
+
+        for (int i = 0; i < 6; i++) {
+            TextMessage msg = (TextMessage) consumer.receive(1000);
+            assertNotNull(msg);
+            assertEquals("high priority first", i < 3 ? 9 : 0, msg.getJMSPriority());
+            msg.acknowledge();
+        }
+
+        // Reset the session.
+        session.close();
+        session = connection.createSession(false, ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+
+        // Attempt to Consume the messages...
+        MessageConsumer next = session.createConsumer(queue);
+        assertNull(next.receive(500));
+        session.close();
+    }
+
     protected String getQueueName() {
         return getClass().getName() + "." + getName();
     }
@@ -0,0 +1,249 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.Broker;
+import org.apache.activemq.broker.BrokerFilter;
+import org.apache.activemq.broker.BrokerPlugin;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ProducerBrokerExchange;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.transport.RequestTimedOutIOException;
+import org.apache.activemq.util.Wait;
+
+public class ProducerPipelinedSendTest extends TestCase {
+
+    private static final int MAX_IN_FLIGHT = 10;
+    private static final int MESSAGE_COUNT = 200;
+
+    private BrokerService broker;
+    private ActiveMQQueue queue;
+    private ActiveMQConnectionFactory factory;
+    // holds back the sends marked slow
+    private final CountDownLatch slowSends = new CountDownLatch(1);
+
+    @Override
+    protected void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setDeleteAllMessagesOnStartup(true);
+        broker.setPlugins(new BrokerPlugin[] {new BrokerPlugin() {
+            @Override
+            public Broker installPlugin(Broker next) throws Exception {
+                return new BrokerFilter(next) {
+                    @Override
+                    public void send(ProducerBrokerExchange producerExchange, Message messageSend) throws Exception {
+                        if (messageSend.getProperty("fail") != null) {
+                            throw new IllegalStateException("send rejected");
+                        }
+                        if (messageSend.getProperty("slow") != null) {
+                            slowSends.await(10, TimeUnit.SECONDS);
+                        }
+                        super.send(producerExchange, messageSend);
+                    }
+                };
+            }
+        }});
+        String connectionUri = broker.addConnector("tcp://localhost:0").getPublishableConnectString();
+        broker.start();
+        queue = new ActiveMQQueue("TEST." + getName());
+        factory = new ActiveMQConnectionFactory(connectionUri);
+        factory.setMaxInFlightSends(MAX_IN_FLIGHT);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        slowSends.countDown();
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    public void testCallbacksAreCalledInOrder() throws Exception {
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<JMSException> errors = Collections.synchronizedList(new ArrayList<JMSException>());
+
+        Connection connection = factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(queue);
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                final int index = i;
+                producer.send(session.createTextMessage("msg" + i), new AsyncCallback() {
+                    @Override
+                    public void onSuccess() {
+                        completed.add(index);
+                    }
+
+                    @Override
+                    public void onException(JMSException exception) {
+                        errors.add(exception);
+                    }
+                });
+                assertTrue(producer.getInFlightSendCount() <= MAX_IN_FLIGHT);
+            }
+            // closing waits for the outstanding sends
+            producer.close();
+            assertTrue(errors.isEmpty());
+            assertEquals(MESSAGE_COUNT, completed.size());
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                assertEquals(i, completed.get(i).intValue());
+            }
+        } finally {
+            connection.close();
+        }
+        assertReceived(MESSAGE_COUNT);
+    }
+
+    public void testPersistentSendsArePipelined() throws Exception {
+        Connection connection = factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(queue);
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                producer.send(session.createTextMessage("msg" + i));
+            }
+            producer.close();
+            assertEquals(0, producer.getInFlightSendCount());
+        } finally {
+            connection.close();
+        }
+        assertReceived(MESSAGE_COUNT);
+    }
+
+    public void testFailureWithoutCallbackIsThrown() throws Exception {
+        Connection connection = factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            final ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(queue);
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+
+            TextMessage rejected = session.createTextMessage("rejected");
+            rejected.setBooleanProperty("fail", true);
+            producer.send(rejected);
+            assertTrue(Wait.waitFor(new Wait.Condition() {
+                @Override
+                public boolean isSatisified() throws Exception {
+                    return producer.getInFlightSendCount() == 0;
+                }
+            }));
+            try {
+                producer.send(session.createTextMessage("msg0"));
+                fail("the failed send should be reported by the next send");
+            } catch (JMSException expected) {
+                assertTrue(expected.getMessage().contains("send rejected"));
+            }
+            // the failure is reported once
+            producer.send(session.createTextMessage("msg0"));
+
+            producer.send(rejected);
+            try {
+                producer.close();
+                fail("the failed send should be reported on close");
+            } catch (JMSException expected) {
+                assertTrue(expected.getMessage().contains("send rejected"));
+            }
+        } finally {
+            connection.close();
+        }
+        assertReceived(1);
+    }
+
+    public void testSendTimeoutFailsAnUnansweredSend() throws Exception {
+        final CountDownLatch failed = new CountDownLatch(1);
+        final List<JMSException> errors = Collections.synchronizedList(new ArrayList<JMSException>());
+
+        Connection connection = factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(queue);
+            producer.setSendTimeout(500);
+            TextMessage slow = session.createTextMessage("slow");
+            slow.setBooleanProperty("slow", true);
+            producer.send(slow, new AsyncCallback() {
+                @Override
+                public void onSuccess() {
+                }
+
+                @Override
+                public void onException(JMSException exception) {
+                    errors.add(exception);
+                    failed.countDown();
+                }
+            });
+            assertTrue("the send timed out", failed.await(5, TimeUnit.SECONDS));
+            assertTrue(errors.get(0).getCause() instanceof RequestTimedOutIOException);
+            assertEquals(0, producer.getInFlightSendCount());
+        } finally {
+            slowSends.countDown();
+            connection.close();
+        }
+    }
+
+    public void testProducerWindowDoesNotApply() throws Exception {
+        // the window is smaller than one message, which would hold back
+        // every send after the first if it applied
+        factory.setProducerWindowSize(1);
+        Connection connection = factory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            ActiveMQMessageProducer producer = (ActiveMQMessageProducer) session.createProducer(queue);
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                producer.send(session.createTextMessage("msg" + i));
+            }
+            producer.close();
+            assertEquals(0, producer.getInFlightSendCount());
+        } finally {
+            connection.close();
+        }
+        assertReceived(MESSAGE_COUNT);
+    }
+
+    private void assertReceived(int count) throws Exception {
+        Connection connection = factory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(queue);
+            for (int i = 0; i < count; i++) {
+                TextMessage message = (TextMessage) consumer.receive(5000);
+                assertNotNull(message);
+                assertEquals("msg" + i, message.getText());
+            }
+            assertNull(consumer.receive(100));
+        } finally {
+            connection.close();
+        }
+    }
+}
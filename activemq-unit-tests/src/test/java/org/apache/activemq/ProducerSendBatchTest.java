@@ -0,0 +1,133 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.command.ActiveMQQueue;
+
+public class ProducerSendBatchTest extends TestCase {
+
+    private static final int MESSAGE_COUNT = 1000;
+
+    private BrokerService broker;
+    private ActiveMQQueue queue;
+    private ActiveMQConnectionFactory factory;
+
+    @Override
+    protected void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setDeleteAllMessagesOnStartup(true);
+        String connectionUri = broker.addConnector("tcp://localhost:0").getPublishableConnectString();
+        broker.start();
+        queue = new ActiveMQQueue("TEST." + getName());
+        factory = new ActiveMQConnectionFactory(connectionUri);
+        factory.setSendBatchSize(4 * 1024);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+
+    public void testBatchedMessagesArriveInOrder() throws Exception {
+        ActiveMQConnection connection = (ActiveMQConnection) factory.createConnection();
+        try {
+            connection.start();
+            assertTrue(connection.isMessageBatchEnabled());
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(queue);
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                producer.send(session.createTextMessage("msg" + i));
+            }
+            // a synchronous send goes after the batched ones
+            connection.setAlwaysSyncSend(true);
+            producer.send(session.createTextMessage("msg" + MESSAGE_COUNT));
+        } finally {
+            connection.close();
+        }
+        assertReceived(MESSAGE_COUNT + 1);
+    }
+
+    public void testPartialBatchIsSentAfterTimeout() throws Exception {
+        factory.setSendBatchSize(1024 * 1024);
+        factory.setSendBatchTimeout(50);
+        Connection connection = factory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(queue);
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            for (int i = 0; i < 3; i++) {
+                producer.send(session.createTextMessage("msg" + i));
+            }
+            // the producer stays open, so only the timeout sends the batch
+            assertReceived(3);
+        } finally {
+            connection.close();
+        }
+    }
+
+    public void testOlderClientDoesNotBatch() throws Exception {
+        // the broker accepts batches, but a version 9 client cannot send them
+        ActiveMQConnectionFactory older = new ActiveMQConnectionFactory(factory.getBrokerURL() + "?wireFormat.version=9");
+        older.setSendBatchSize(4 * 1024);
+        ActiveMQConnection connection = (ActiveMQConnection) older.createConnection();
+        try {
+            connection.start();
+            assertEquals(9, connection.getProtocolVersion());
+            assertFalse(connection.isMessageBatchEnabled());
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(queue);
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            for (int i = 0; i < 10; i++) {
+                producer.send(session.createTextMessage("msg" + i));
+            }
+        } finally {
+            connection.close();
+        }
+        assertReceived(10);
+    }
+
+    private void assertReceived(int count) throws Exception {
+        Connection connection = factory.createConnection();
+        try {
+            connection.start();
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(queue);
+            for (int i = 0; i < count; i++) {
+                TextMessage message = (TextMessage) consumer.receive(5000);
+                assertNotNull(message);
+                assertEquals("msg" + i, message.getText());
+            }
+            assertNull(consumer.receive(100));
+        } finally {
+            connection.close();
+        }
+    }
+}
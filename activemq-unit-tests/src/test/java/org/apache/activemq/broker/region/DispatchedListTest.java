@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.activemq.command.ActiveMQMessage;
+import org.apache.activemq.command.MessageId;
+import org.junit.Test;
+
+public class DispatchedListTest {
+
+    private static final String PRODUCER_ID = "ID:test-producer:1:1:1";
+
+    @Test
+    public void testAddMaintainsDispatchOrder() throws Exception {
+        DispatchedList list = createList(5);
+
+        assertEquals(5, list.size());
+        int expected = 1;
+        for (MessageReference node : list) {
+            assertEquals(expected++, node.getMessageId().getProducerSequenceId());
+        }
+
+        List<MessageReference> values = list.values();
+        assertEquals(5, values.size());
+        assertEquals(1, values.get(0).getMessageId().getProducerSequenceId());
+        assertEquals(5, values.get(4).getMessageId().getProducerSequenceId());
+    }
+
+    @Test
+    public void testGetAndRemoveById() throws Exception {
+        DispatchedList list = createList(5);
+
+        MessageReference third = list.get(id(3));
+        assertEquals(3, third.getMessageId().getProducerSequenceId());
+        assertTrue(list.remove(third));
+        assertFalse(list.remove(third));
+        assertNull(list.get(id(3)));
+        assertFalse(list.contains(id(3)));
+        assertEquals(4, list.size());
+
+        int[] expected = new int[] {1, 2, 4, 5};
+        int i = 0;
+        for (MessageReference node : list) {
+            assertEquals(expected[i++], node.getMessageId().getProducerSequenceId());
+        }
+    }
+
+    @Test
+    public void testRemoveHeadAndTail() throws Exception {
+        DispatchedList list = createList(3);
+
+        assertTrue(list.remove(list.get(id(1))));
+        assertTrue(list.remove(list.get(id(3))));
+        assertEquals(1, list.size());
+        assertSame(list.get(id(2)), list.iterator().next());
+
+        assertTrue(list.remove(list.get(id(2))));
+        assertTrue(list.isEmpty());
+        assertFalse(list.iterator().hasNext());
+
+        list.add(createMessage(4));
+        assertEquals(1, list.size());
+        assertEquals(4, list.iterator().next().getMessageId().getProducerSequenceId());
+    }
+
+    @Test
+    public void testIteratorFrom() throws Exception {
+        DispatchedList list = createList(5);
+
+        Iterator<MessageReference> iter = list.iterator(id(3));
+        assertEquals(3, iter.next().getMessageId().getProducerSequenceId());
+        iter.remove();
+        assertEquals(4, iter.next().getMessageId().getProducerSequenceId());
+        assertEquals(5, iter.next().getMessageId().getProducerSequenceId());
+        assertFalse(iter.hasNext());
+        assertEquals(4, list.size());
+
+        assertFalse(list.iterator(id(3)).hasNext());
+        assertEquals(1, list.iterator(null).next().getMessageId().getProducerSequenceId());
+    }
+
+    @Test
+    public void testRanges() throws Exception {
+        DispatchedList list = createList(10);
+
+        assertEquals(10, list.countRange(null, id(10)));
+        assertEquals(3, list.countRange(null, id(3)));
+        assertEquals(4, list.countRange(id(4), id(7)));
+        assertEquals(1, list.countRange(id(4), id(4)));
+        assertEquals(3, list.countRange(id(8), id(42)));
+        assertEquals(-1, list.countRange(id(7), id(4)));
+        assertEquals(-1, list.countRange(id(42), id(4)));
+
+        assertTrue(list.containsRange(null, id(5)));
+        assertTrue(list.containsRange(id(2), id(5)));
+        assertFalse(list.containsRange(id(5), id(2)));
+        assertFalse(list.containsRange(id(2), id(42)));
+
+        list.remove(list.get(id(5)));
+        assertEquals(3, list.countRange(id(4), id(7)));
+
+        list.clear();
+        assertEquals(0, list.size());
+        assertEquals(0, list.countRange(null, id(1)));
+        assertFalse(list.containsRange(null, id(1)));
+    }
+
+    private MessageId id(int sequence) {
+        return new MessageId(PRODUCER_ID, sequence);
+    }
+
+    private ActiveMQMessage createMessage(int sequence) {
+        ActiveMQMessage message = new ActiveMQMessage();
+        message.setMessageId(id(sequence));
+        return message;
+    }
+
+    private DispatchedList createList(int count) {
+        DispatchedList list = new DispatchedList();
+        for (int i = 1; i <= count; i++) {
+            list.add(createMessage(i));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.jmx.QueueViewMBean;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.util.Wait;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the expiry sweep finds expired messages through the store's
+ * expiration index, wherever they are in the queue.
+ */
+public class QueueExpirationIndexTest {
+
+    private BrokerService broker;
+    private Connection connection;
+    private final ActiveMQQueue destination = new ActiveMQQueue("TEST.EXPIRATION.INDEX");
+
+    @Before
+    public void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setBrokerName("expirationIndex");
+        broker.setDeleteAllMessagesOnStartup(true);
+        broker.setUseJmx(true);
+
+        PolicyEntry policy = new PolicyEntry();
+        policy.setExpireMessagesPeriod(500);
+        // a sweep that browses would only look at the head of the queue
+        policy.setMaxExpirePageSize(10);
+        policy.setMaxPageSize(10);
+        PolicyMap policyMap = new PolicyMap();
+        policyMap.setDefaultEntry(policy);
+        broker.setDestinationPolicy(policyMap);
+        broker.start();
+        broker.waitUntilStarted();
+
+        connection = new ActiveMQConnectionFactory("vm://expirationIndex?create=false").createConnection();
+        connection.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+        if (broker != null) {
+            broker.stop();
+            broker.waitUntilStopped();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testExpiredMessagesBehindLiveOnesAreFound() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = session.createProducer(destination);
+        producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+        for (int i = 0; i < 100; i++) {
+            producer.send(session.createTextMessage("live-" + i));
+        }
+        producer.setTimeToLive(500);
+        for (int i = 0; i < 20; i++) {
+            producer.send(session.createTextMessage("expiring-" + i));
+        }
+        producer.setTimeToLive(0);
+        producer.send(session.createTextMessage("last"));
+
+        final QueueViewMBean view = (QueueViewMBean) broker.getManagementContext().newProxyInstance(
+            broker.getAdminView().getQueues()[0], QueueViewMBean.class, true);
+
+        assertTrue("expired messages are reaped", Wait.waitFor(new Wait.Condition() {
+            @Override
+            public boolean isSatisified() throws Exception {
+                return view.getExpiredCount() == 20;
+            }
+        }));
+        assertEquals(101, view.getQueueSize());
+        assertTrue(view.getLastExpireSweepDuration() >= 0);
+
+        MessageConsumer consumer = session.createConsumer(destination);
+        for (int i = 0; i < 100; i++) {
+            TextMessage message = (TextMessage) consumer.receive(5000);
+            assertEquals("live-" + i, message.getText());
+        }
+        assertEquals("last", ((TextMessage) consumer.receive(5000)).getText());
+        assertEquals(20, view.getExpiredCount());
+    }
+}
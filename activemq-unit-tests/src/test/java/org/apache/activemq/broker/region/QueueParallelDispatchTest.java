@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueueParallelDispatchTest {
+
+    private static final int CONSUMERS = 20;
+    private static final int MESSAGES_PER_CONSUMER = 100;
+
+    private final ActiveMQQueue queue = new ActiveMQQueue("TEST.PARALLEL.DISPATCH");
+    private BrokerService brokerService;
+    private Connection connection;
+
+    @Before
+    public void setUp() throws Exception {
+        PolicyEntry entry = new PolicyEntry();
+        entry.setDispatchThreads(4);
+        entry.setMaxPageSize(1000);
+        PolicyMap map = new PolicyMap();
+        map.setDefaultEntry(entry);
+
+        brokerService = new BrokerService();
+        brokerService.setPersistent(false);
+        brokerService.setUseJmx(false);
+        brokerService.setDestinationPolicy(map);
+        brokerService.start();
+        brokerService.waitUntilStarted();
+
+        connection = new ActiveMQConnectionFactory("vm://localhost?create=false").createConnection();
+        connection.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (connection != null) {
+            connection.close();
+        }
+        if (brokerService != null) {
+            brokerService.stop();
+            brokerService.waitUntilStopped();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testSelectiveConsumersReceiveOnlyMatchingMessagesInOrder() throws Exception {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        final CountDownLatch received = new CountDownLatch(CONSUMERS * MESSAGES_PER_CONSUMER);
+        final AtomicInteger errors = new AtomicInteger();
+        for (int i = 0; i < CONSUMERS; i++) {
+            final int consumerIndex = i;
+            MessageConsumer consumer = session.createConsumer(queue, "index = " + i);
+            consumer.setMessageListener(new MessageListener() {
+                private int expectedSequence;
+
+                @Override
+                public void onMessage(Message message) {
+                    try {
+                        if (message.getIntProperty("index") != consumerIndex
+                                || message.getIntProperty("sequence") != expectedSequence++) {
+                            errors.incrementAndGet();
+                        }
+                    } catch (JMSException e) {
+                        errors.incrementAndGet();
+                    }
+                    received.countDown();
+                }
+            });
+        }
+
+        Session producerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = producerSession.createProducer(queue);
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        for (int sequence = 0; sequence < MESSAGES_PER_CONSUMER; sequence++) {
+            for (int i = 0; i < CONSUMERS; i++) {
+                Message message = producerSession.createTextMessage("message");
+                message.setIntProperty("index", i);
+                message.setIntProperty("sequence", sequence);
+                producer.send(message);
+            }
+        }
+
+        assertTrue("all messages received", received.await(30, TimeUnit.SECONDS));
+        assertEquals("messages matched selectors and kept order", 0, errors.get());
+    }
+
+    @Test(timeout = 60000)
+    public void testMessageGroupsStayWithOneConsumer() throws Exception {
+        final int groups = 10;
+        final int messagesPerGroup = 50;
+
+        Session producerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer producer = producerSession.createProducer(queue);
+        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        for (int sequence = 0; sequence < messagesPerGroup; sequence++) {
+            for (int group = 0; group < groups; group++) {
+                Message message = producerSession.createTextMessage("message");
+                message.setStringProperty("JMSXGroupID", "group-" + group);
+                message.setIntProperty("sequence", sequence);
+                message.setBooleanProperty("grouped", true);
+                producer.send(message);
+            }
+        }
+
+        final CountDownLatch received = new CountDownLatch(groups * messagesPerGroup);
+        final Map<String, String> groupOwners = new HashMap<String, String>();
+        final Map<String, Integer> lastSequence = new HashMap<String, Integer>();
+        final List<String> errors = new ArrayList<String>();
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        for (int i = 0; i < CONSUMERS; i++) {
+            final String consumerName = "consumer-" + i;
+            MessageConsumer consumer = session.createConsumer(queue, "grouped = true");
+            consumer.setMessageListener(new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    synchronized (groupOwners) {
+                        try {
+                            String group = message.getStringProperty("JMSXGroupID");
+                            int sequence = message.getIntProperty("sequence");
+                            String owner = groupOwners.get(group);
+                            if (owner == null) {
+                                groupOwners.put(group, consumerName);
+                            } else if (!owner.equals(consumerName)) {
+                                errors.add(group + " delivered to " + consumerName + " and " + owner);
+                            }
+                            Integer last = lastSequence.put(group, sequence);
+                            if (last != null && last + 1 != sequence) {
+                                errors.add(group + " out of order at " + sequence);
+                            }
+                        } catch (JMSException e) {
+                            errors.add(e.toString());
+                        }
+                    }
+                    received.countDown();
+                }
+            });
+        }
+
+        assertTrue("all messages received", received.await(30, TimeUnit.SECONDS));
+        assertEquals(groups, groupOwners.size());
+        assertNull(errors.isEmpty() ? null : errors.get(0));
+
+        // the backlog was paged in at once, so its selectors were matched in parallel
+        Queue region = (Queue) brokerService.getRegionBroker().getDestinationMap().get(queue);
+        assertTrue("selectors matched on the dispatch executor", region.getParallelMatchCount() > 0);
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.management.ObjectName;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.jmx.TopicViewMBean;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.broker.region.policy.SimpleDispatchPolicy;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.filter.MessageEvaluationContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TopicConcurrentSendTest {
+
+    private static final int PRODUCERS = 8;
+    private static final int MESSAGES_PER_PRODUCER = 1000;
+
+    private final ActiveMQTopic topic = new ActiveMQTopic("TEST.CONCURRENT.SEND");
+    private BrokerService brokerService;
+    private ActiveMQConnectionFactory factory;
+    // trips once two sends are dispatching, and so hold their send locks, at once
+    private final CyclicBarrier overlap = new CyclicBarrier(2);
+    private final AtomicBoolean overlapped = new AtomicBoolean();
+
+    @Before
+    public void setUp() throws Exception {
+        PolicyEntry entry = new PolicyEntry();
+        entry.setConcurrentSend(true);
+        entry.setConcurrentSendStripes(4);
+        entry.setDispatchPolicy(new SimpleDispatchPolicy() {
+            @Override
+            public boolean dispatch(MessageReference node, MessageEvaluationContext msgContext, List<Subscription> consumers) throws Exception {
+                if (!overlapped.get()) {
+                    try {
+                        overlap.await(10, TimeUnit.SECONDS);
+                        overlapped.set(true);
+                    } catch (BrokenBarrierException e) {
+                    } catch (TimeoutException e) {
+                    }
+                }
+                return super.dispatch(node, msgContext, consumers);
+            }
+        });
+        PolicyMap map = new PolicyMap();
+        map.setDefaultEntry(entry);
+
+        brokerService = new BrokerService();
+        brokerService.setPersistent(false);
+        brokerService.setUseJmx(true);
+        brokerService.setDestinationPolicy(map);
+        brokerService.start();
+        brokerService.waitUntilStarted();
+
+        factory = new ActiveMQConnectionFactory("vm://localhost?create=false");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (brokerService != null) {
+            brokerService.stop();
+            brokerService.waitUntilStopped();
+        }
+    }
+
+    @Test(timeout = 60000)
+    public void testPerProducerOrderingWithConcurrentSends() throws Exception {
+        Connection consumerConnection = factory.createConnection();
+        consumerConnection.start();
+        Session consumerSession = consumerConnection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageConsumer consumer = consumerSession.createConsumer(topic);
+
+        final int total = PRODUCERS * MESSAGES_PER_PRODUCER;
+        final CountDownLatch received = new CountDownLatch(total);
+        final Map<String, Integer> lastSequence = new ConcurrentHashMap<String, Integer>();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+        consumer.setMessageListener(new MessageListener() {
+            @Override
+            public void onMessage(Message message) {
+                try {
+                    String producer = message.getStringProperty("producer");
+                    int sequence = message.getIntProperty("sequence");
+                    Integer last = lastSequence.put(producer, sequence);
+                    if ((last == null && sequence != 0) || (last != null && last + 1 != sequence)) {
+                        outOfOrder.incrementAndGet();
+                    }
+                } catch (JMSException e) {
+                    outOfOrder.incrementAndGet();
+                }
+                received.countDown();
+            }
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCERS);
+        List<Connection> producerConnections = new ArrayList<Connection>();
+        for (int i = 0; i < PRODUCERS; i++) {
+            final Connection connection = factory.createConnection();
+            producerConnections.add(connection);
+            final String producerName = "producer-" + i;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                        MessageProducer producer = session.createProducer(topic);
+                        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+                        for (int j = 0; j < MESSAGES_PER_PRODUCER; j++) {
+                            Message message = session.createTextMessage("message " + j);
+                            message.setStringProperty("producer", producerName);
+                            message.setIntProperty("sequence", j);
+                            producer.send(message);
+                        }
+                    } catch (JMSException e) {
+                        outOfOrder.incrementAndGet();
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+        assertTrue("producers done", executor.awaitTermination(30, TimeUnit.SECONDS));
+        assertTrue("all messages received", received.await(30, TimeUnit.SECONDS));
+        assertEquals("messages from each producer in order", 0, outOfOrder.get());
+        assertEquals(PRODUCERS, lastSequence.size());
+        assertTrue("sends from different producers overlapped", overlapped.get());
+
+        Topic regionTopic = (Topic) brokerService.getDestination(topic);
+        assertTrue(regionTopic.isConcurrentSend());
+        assertEquals(4, regionTopic.getConcurrentSendStripes());
+
+        ObjectName topicName = brokerService.getAdminView().getTopics()[0];
+        for (ObjectName name : brokerService.getAdminView().getTopics()) {
+            if (name.getKeyProperty("destinationName").equals(topic.getPhysicalName())) {
+                topicName = name;
+            }
+        }
+        TopicViewMBean topicView = (TopicViewMBean) brokerService.getManagementContext().newProxyInstance(topicName, TopicViewMBean.class, true);
+        assertTrue(topicView.isConcurrentSend());
+        assertEquals(total, topicView.getEnqueueCount());
+        topicView.resetSendLockStatistics();
+        assertEquals(0, topicView.getSendLockContentionCount());
+        assertEquals(0, topicView.getSendLockWaitTime());
+
+        for (Connection connection : producerConnections) {
+            connection.close();
+        }
+        consumerConnection.close();
+    }
+}
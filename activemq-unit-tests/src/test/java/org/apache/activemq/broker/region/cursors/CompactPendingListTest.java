@@ -0,0 +1,196 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region.cursors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.activemq.broker.region.MessageReference;
+import org.apache.activemq.broker.region.cursors.OrderPendingListTest.TestMessageReference;
+import org.junit.Test;
+
+public class CompactPendingListTest {
+
+    @Test
+    public void testAddFirstAndLast() throws Exception {
+        CompactPendingList list = new CompactPendingList();
+
+        list.addMessageFirst(new TestMessageReference(3));
+        list.addMessageLast(new TestMessageReference(4));
+        list.addMessageFirst(new TestMessageReference(2));
+        list.addMessageLast(new TestMessageReference(5));
+        list.addMessageFirst(new TestMessageReference(1));
+
+        assertEquals(5, list.size());
+        assertSequence(list, 1, 2, 3, 4, 5);
+    }
+
+    @Test
+    public void testRemoveAndGet() throws Exception {
+        CompactPendingList list = new CompactPendingList();
+        List<TestMessageReference> messages = new ArrayList<TestMessageReference>();
+        for (int i = 0; i < 2000; i++) {
+            TestMessageReference message = new TestMessageReference(i);
+            messages.add(message);
+            list.addMessageLast(message);
+        }
+        assertEquals(2000, list.size());
+
+        for (int i = 0; i < 2000; i += 2) {
+            assertNotNull(list.remove(messages.get(i)));
+        }
+        assertNull(list.remove(messages.get(0)));
+        assertNull(list.remove(null));
+        assertEquals(1000, list.size());
+
+        for (int i = 0; i < 2000; i++) {
+            TestMessageReference message = messages.get(i);
+            if (i % 2 == 0) {
+                assertFalse(list.contains(message));
+                assertNull(list.get(message.getMessageId()));
+            } else {
+                assertTrue(list.contains(message));
+                assertSame(message, list.get(message.getMessageId()));
+            }
+        }
+
+        int expected = 1;
+        for (MessageReference message : list) {
+            assertEquals(expected, message.getMessageId().getProducerSequenceId());
+            expected += 2;
+        }
+
+        list.clear();
+        assertTrue(list.isEmpty());
+        assertEquals(0, list.values().size());
+        assertFalse(list.iterator().hasNext());
+    }
+
+    @Test
+    public void testIteratorKeepsItsPlace() throws Exception {
+        CompactPendingList list = new CompactPendingList();
+        List<TestMessageReference> messages = new ArrayList<TestMessageReference>();
+        for (int i = 0; i < 10; i++) {
+            TestMessageReference message = new TestMessageReference(i);
+            messages.add(message);
+            list.addMessageLast(message);
+        }
+
+        Iterator<MessageReference> iterator = list.iterator();
+        assertSame(messages.get(0), iterator.next());
+        assertSame(messages.get(1), iterator.next());
+        iterator.remove();
+
+        // removed ahead of the iterator, and added before and after it
+        list.remove(messages.get(2));
+        list.addMessageFirst(new TestMessageReference(-1));
+        list.addMessageLast(new TestMessageReference(10));
+
+        assertSame(messages.get(3), iterator.next());
+        iterator.remove();
+        int expected = 4;
+        while (iterator.hasNext()) {
+            assertEquals(expected++, iterator.next().getMessageId().getProducerSequenceId());
+        }
+        assertEquals(11, expected);
+        assertSequence(list, -1, 0, 4, 5, 6, 7, 8, 9, 10);
+
+        // a position given to another message since is not removed
+        iterator = list.iterator();
+        MessageReference first = iterator.next();
+        list.remove(first);
+        list.remove(messages.get(0));
+        for (int i = 3; i >= -1; i--) {
+            list.addMessageFirst(new TestMessageReference(i));
+        }
+        iterator.remove();
+        assertSequence(list, -1, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+    }
+
+    @Test
+    public void testDuplicateReplacesEarlierMessage() throws Exception {
+        CompactPendingList list = new CompactPendingList();
+        TestMessageReference message = new TestMessageReference(1);
+        list.addMessageLast(message);
+        list.addMessageLast(new TestMessageReference(2));
+        list.addMessageLast(message);
+
+        assertEquals(2, list.size());
+        assertSequence(list, 2, 1);
+    }
+
+    @Test
+    public void testMatchesOrderedPendingList() throws Exception {
+        Random random = new Random(42);
+        CompactPendingList list = new CompactPendingList();
+        LinkedList<MessageReference> expected = new LinkedList<MessageReference>();
+        int sequence = 0;
+
+        for (int i = 0; i < 200000; i++) {
+            int operation = random.nextInt(10);
+            if (operation < 4 || expected.isEmpty()) {
+                TestMessageReference message = new TestMessageReference(sequence++);
+                list.addMessageLast(message);
+                expected.addLast(message);
+            } else if (operation < 5) {
+                TestMessageReference message = new TestMessageReference(sequence++);
+                list.addMessageFirst(message);
+                expected.addFirst(message);
+            } else if (operation < 7) {
+                MessageReference message = list.iterator().next();
+                assertSame(expected.removeFirst(), message);
+                assertSame(message, list.remove(message).getMessage());
+            } else {
+                MessageReference message = expected.remove(random.nextInt(expected.size()));
+                assertNotNull(list.remove(message));
+            }
+            assertEquals(expected.size(), list.size());
+        }
+
+        assertEquals(expected, list.values());
+        for (MessageReference message : expected) {
+            assertSame(message, list.get(message.getMessageId()));
+        }
+        for (Iterator<MessageReference> iterator = list.iterator(); iterator.hasNext();) {
+            iterator.next();
+            iterator.remove();
+        }
+        assertTrue(list.isEmpty());
+    }
+
+    private void assertSequence(PendingList list, long... sequenceIds) {
+        List<Long> actual = new ArrayList<Long>();
+        for (MessageReference message : list) {
+            actual.add(message.getMessageId().getProducerSequenceId());
+        }
+        List<Long> expected = new ArrayList<Long>();
+        for (long sequenceId : sequenceIds) {
+            expected.add(sequenceId);
+        }
+        assertEquals(expected, actual);
+    }
+}
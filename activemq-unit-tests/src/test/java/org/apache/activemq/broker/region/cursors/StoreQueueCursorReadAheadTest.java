@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.broker.region.cursors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.broker.region.DestinationStatistics;
+import org.apache.activemq.broker.region.MessageReference;
+import org.apache.activemq.broker.region.Queue;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.store.MessageStore;
+import org.apache.activemq.usage.SystemUsage;
+
+public class StoreQueueCursorReadAheadTest extends TestCase {
+
+    final ActiveMQQueue destination = new ActiveMQQueue("queue-" + StoreQueueCursorReadAheadTest.class.getSimpleName());
+    final String text = new String(new byte[1024]);
+    BrokerService brokerService;
+
+    @Override
+    public void setUp() throws Exception {
+        brokerService = new BrokerService();
+        brokerService.setUseJmx(false);
+        brokerService.deleteAllMessages();
+        brokerService.start();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        brokerService.stop();
+    }
+
+    public void testReadAheadKeepsOrder() throws Exception {
+        final MessageStore queueMessageStore = brokerService.getPersistenceAdapter().createQueueMessageStore(destination);
+        final Queue queue = new Queue(brokerService, destination, queueMessageStore, new DestinationStatistics(), null);
+        queueMessageStore.start();
+        queueMessageStore.registerIndexListener(null);
+
+        QueueStorePrefetch underTest = new QueueStorePrefetch(queue, brokerService.getBroker());
+        SystemUsage systemUsage = new SystemUsage();
+        systemUsage.getMemoryUsage().setLimit(1024 * 1024);
+        underTest.setSystemUsage(systemUsage);
+        underTest.setUseCache(false);
+        underTest.setMaxBatchSize(100);
+        underTest.setReadAheadTaskRunnerFactory(brokerService.getTaskRunnerFactory());
+        underTest.start();
+
+        final int count = 1000;
+        final ConnectionContext context = new ConnectionContext();
+        List<ActiveMQTextMessage> messages = new ArrayList<ActiveMQTextMessage>();
+        for (int i = 0; i < count; i++) {
+            ActiveMQTextMessage message = getMessage(i);
+            message.setMemoryUsage(systemUsage.getMemoryUsage());
+            queueMessageStore.addMessage(context, message);
+            underTest.addMessageLast(message);
+            messages.add(message);
+        }
+
+        int expected = 0;
+        underTest.reset();
+        while (underTest.hasNext()) {
+            MessageReference ref = underTest.next();
+            ref.decrementReferenceCount();
+            underTest.remove();
+            assertEquals(expected++, ref.getMessageId().getProducerSequenceId());
+            if (expected == 90) {
+                // by now the next batch is read ahead, a message removed
+                // from the cursor is dropped from it
+                Thread.sleep(100);
+                underTest.remove(messages.get(150));
+            } else if (expected == 150) {
+                expected++;
+            } else if (expected % 10 == 0) {
+                // a consumer that takes a little time
+                Thread.sleep(5);
+            }
+        }
+        underTest.release();
+        assertEquals(count, expected);
+        assertTrue("batches read ahead", underTest.getReadAheadHitCount() > 0);
+        assertTrue("first batch read on dispatch", underTest.getReadAheadMissCount() > 0);
+        assertTrue(underTest.getReadAheadBatchSize() > 0);
+        assertTrue(underTest.getReadAheadBatchSize() <= 100);
+        underTest.stop();
+    }
+
+    private ActiveMQTextMessage getMessage(int i) throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        MessageId id = new MessageId("11111:22222:0:" + i);
+        id.setBrokerSequenceId(i);
+        id.setProducerSequenceId(i);
+        message.setMessageId(id);
+        message.setDestination(destination);
+        message.setPersistent(true);
+        message.setText("Msg:" + i + " " + text);
+        return message;
+    }
+}
@@ -29,6 +29,7 @@ import junit.framework.TestCase;
 import org.apache.activemq.ActiveMQConnection;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.compression.CompressionSupport;
 
 public class MessageCompressionTest extends TestCase {
 
@@ -103,6 +104,44 @@ public class MessageCompressionTest extends TestCase {
                    compressedSize < unCompressedSize);
     }
 
+    public void testCompressionCodec() throws Exception {
+
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(connectionUri);
+        factory.setUseCompression(true);
+        factory.setCompressionCodec("lz4");
+        sendTestMessage(factory, TEXT);
+        ActiveMQTextMessage message = receiveTestMessage(factory);
+        assertTrue(message.isCompressed());
+        assertTrue(CompressionSupport.hasCodecHeader(message.getContent()));
+        assertTrue(message.getContent().getLength() < TEXT.length());
+        assertEquals(TEXT, message.getText());
+
+        sendTestBytesMessage(factory, TEXT);
+        ActiveMQBytesMessage bytesMessage = receiveTestBytesMessage(factory);
+        assertTrue(bytesMessage.isCompressed());
+        assertEquals(TEXT.getBytes("UTF8").length, bytesMessage.getBodyLength());
+        byte[] bytes = new byte[(int) bytesMessage.getBodyLength()];
+        bytesMessage.readBytes(bytes);
+        assertEquals(TEXT, new String(bytes, "UTF8"));
+    }
+
+    public void testCompressionThreshold() throws Exception {
+
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(connectionUri);
+        factory.setUseCompression(true);
+        factory.setCompressionThreshold(TEXT.length() * 2);
+        sendTestMessage(factory, TEXT);
+        ActiveMQTextMessage message = receiveTestMessage(factory);
+        assertFalse(message.isCompressed());
+        assertEquals(TEXT, message.getText());
+
+        factory.setCompressionThreshold(TEXT.length() / 2);
+        sendTestMessage(factory, TEXT);
+        message = receiveTestMessage(factory);
+        assertTrue(message.isCompressed());
+        assertEquals(TEXT, message.getText());
+    }
+
     private void sendTestMessage(ActiveMQConnectionFactory factory, String message) throws JMSException {
         ActiveMQConnection connection = (ActiveMQConnection) factory.createConnection();
         Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
@@ -0,0 +1,129 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.util.ByteSequence;
+import org.apache.activemq.util.DataByteArrayOutputStream;
+
+public class ConcurrentMarshallingTest extends TestCase {
+
+    private static final int THREADS = 8;
+    private static final int MESSAGES = 2000;
+
+    public void testConcurrentMarshalling() throws Exception {
+        final OpenWireFormat wf = createWireFormat();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            Future<?>[] results = new Future<?>[THREADS];
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                results[t] = executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        for (int i = 0; i < MESSAGES; i++) {
+                            Message message = createMessage(thread, i);
+                            ByteSequence sequence = i % 2 == 0 ? wf.marshal(message) : marshalToStream(wf, message);
+                            Message decoded = (Message) wf.unmarshal(sequence);
+                            assertEquals(message.getMessageId(), decoded.getMessageId());
+                            assertEquals("thread " + thread + " message " + i, ((ActiveMQTextMessage) decoded).getText());
+                        }
+                        return null;
+                    }
+                });
+            }
+            for (Future<?> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testPremarshalledMessageIsWrittenFromItsForm() throws Exception {
+        OpenWireFormat wf = createWireFormat();
+        Message message = createMessage(0, 1);
+        wf.premarshal(message);
+        ByteSequence form = message.getCachedMarshalledForm(wf);
+        assertTrue(form instanceof MarshalledMessage);
+
+        OpenWireFormat plain = createWireFormat();
+        Message copy = message.copy();
+        copy.setCachedMarshalledForm(plain, null);
+        assertTrue(Arrays.equals(toBytes(plain.marshal(copy)), toBytes(wf.marshal(message))));
+        assertSame(form, message.getCachedMarshalledForm(wf));
+
+        // a field changed after the message was marshalled is marshalled again
+        message.setCommandId(42);
+        message.setCorrelationId("changed");
+        Message decoded = (Message) plain.unmarshal(new DataInputStream(new ByteArrayInputStream(toBytes(wf.marshal(message)))));
+        assertEquals(42, decoded.getCommandId());
+        assertEquals("changed", decoded.getCorrelationId());
+        assertEquals("thread 0 message 1", ((ActiveMQTextMessage) decoded).getText());
+    }
+
+    public void testMarshallCacheIsNotPremarshalled() throws Exception {
+        OpenWireFormat wf = createWireFormat();
+        wf.setCacheEnabled(true);
+        Message message = createMessage(0, 1);
+        wf.premarshal(message);
+        assertNull(message.getCachedMarshalledForm(wf));
+    }
+
+    private OpenWireFormat createWireFormat() {
+        OpenWireFormat wf = new OpenWireFormat(10);
+        wf.setTightEncodingEnabled(true);
+        wf.setCacheEnabled(false);
+        return wf;
+    }
+
+    private Message createMessage(int thread, int index) throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        ProducerId producerId = new ProducerId("connection:" + thread + ":1:1");
+        message.setMessageId(new MessageId(producerId, index));
+        message.setProducerId(producerId);
+        message.setDestination(new ActiveMQQueue("test"));
+        message.setText("thread " + thread + " message " + index);
+        message.setIntProperty("index", index);
+        return message;
+    }
+
+    private ByteSequence marshalToStream(OpenWireFormat wf, Object command) throws Exception {
+        DataByteArrayOutputStream out = new DataByteArrayOutputStream();
+        wf.marshal(command, out);
+        return out.toByteSequence();
+    }
+
+    private byte[] toBytes(ByteSequence sequence) {
+        return Arrays.copyOfRange(sequence.getData(), sequence.getOffset(), sequence.getOffset() + sequence.getLength());
+    }
+}
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.command.MessageBatch;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.command.WireFormatInfo;
+
+public class MessageBatchMarshallingTest extends TestCase {
+
+    public void testTightEncoding() throws Exception {
+        assertRoundTrip(createWireFormat(true, false));
+        assertRoundTrip(createWireFormat(true, true));
+    }
+
+    public void testLooseEncoding() throws Exception {
+        assertRoundTrip(createWireFormat(false, false));
+        assertRoundTrip(createWireFormat(false, true));
+    }
+
+    public void testBatchesAreNegotiated() throws Exception {
+        OpenWireFormatFactory factory = new OpenWireFormatFactory();
+        OpenWireFormat client = (OpenWireFormat) factory.createWireFormat();
+        WireFormatInfo info = createBrokerInfo();
+        client.renegotiateWireFormat(info);
+        assertTrue(client.isMessageBatchEnabled());
+        assertTrue(info.isMessageBatchEnabled());
+
+        // a peer that does not know about batches does not advertise them
+        info = createBrokerInfo();
+        info.setProperty("MessageBatchEnabled", null);
+        client.renegotiateWireFormat(info);
+        assertFalse(client.isMessageBatchEnabled());
+
+        // nor is a batch sent when using an older version
+        factory.setVersion(9);
+        client = (OpenWireFormat) factory.createWireFormat();
+        client.renegotiateWireFormat(createBrokerInfo());
+        assertFalse(client.isMessageBatchEnabled());
+    }
+
+    private WireFormatInfo createBrokerInfo() {
+        return ((OpenWireFormat) new OpenWireFormatFactory().createWireFormat()).getPreferedWireFormatInfo();
+    }
+
+    private void assertRoundTrip(OpenWireFormat wf) throws Exception {
+        ProducerId producerId = new ProducerId("connection:1:1:1");
+        Message[] messages = new Message[3];
+        for (int i = 0; i < messages.length; i++) {
+            ActiveMQTextMessage message = new ActiveMQTextMessage();
+            message.setMessageId(new MessageId(producerId, i + 1));
+            message.setProducerId(producerId);
+            message.setDestination(new ActiveMQQueue("test"));
+            message.setText("msg" + i);
+            messages[i] = message;
+        }
+        MessageBatch batch = new MessageBatch(producerId, messages);
+        batch.setCommandId(7);
+
+        MessageBatch decoded = (MessageBatch) wf.unmarshal(wf.marshal(batch));
+        assertEquals(7, decoded.getCommandId());
+        assertEquals(producerId, decoded.getProducerId());
+        assertEquals(messages.length, decoded.getMessages().length);
+        for (int i = 0; i < messages.length; i++) {
+            assertEquals(messages[i].getMessageId(), decoded.getMessages()[i].getMessageId());
+            assertEquals("msg" + i, ((ActiveMQTextMessage) decoded.getMessages()[i]).getText());
+        }
+    }
+
+    private OpenWireFormat createWireFormat(boolean tightEncodingEnabled, boolean cacheEnabled) {
+        OpenWireFormat wf = new OpenWireFormat(OpenWireFormat.MESSAGE_BATCH_VERSION);
+        wf.setTightEncodingEnabled(tightEncodingEnabled);
+        wf.setCacheEnabled(cacheEnabled);
+        return wf;
+    }
+}
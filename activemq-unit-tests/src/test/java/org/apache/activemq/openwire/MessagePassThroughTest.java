@@ -0,0 +1,217 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.openwire;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.ActiveMQTopic;
+import org.apache.activemq.command.BrokerId;
+import org.apache.activemq.command.ConsumerId;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.command.MessageDispatch;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.command.ProducerId;
+import org.apache.activemq.util.ByteSequence;
+
+public class MessagePassThroughTest extends TestCase {
+
+    private OpenWireFormat plain;
+    private OpenWireFormat passThrough;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        plain = createWireFormat(false);
+        passThrough = createWireFormat(true);
+    }
+
+    public void testUnchangedMessageIsWrittenAsRead() throws Exception {
+        byte[] sent = toBytes(plain.marshal(createMessage()));
+
+        Message received = (Message) passThrough.unmarshal(new DataInputStream(new ByteArrayInputStream(sent)));
+        ByteSequence form = received.getCachedMarshalledForm(passThrough);
+        assertTrue(form instanceof MarshalledMessage);
+        assertSame("content is a view onto the frame", form.getData(), received.getContent().getData());
+
+        assertTrue(Arrays.equals(sent, toBytes(passThrough.marshal(received))));
+        assertSame(form, received.getCachedMarshalledForm(passThrough));
+
+        // reading the text moves it out of the content, which is then
+        // marshalled again
+        assertEquals("hello", ((ActiveMQTextMessage) received).getText());
+        assertEquals("value", received.getProperty("key"));
+        assertTrue(Arrays.equals(sent, toBytes(passThrough.marshal(received))));
+        assertNotSame(form, received.getCachedMarshalledForm(passThrough));
+    }
+
+    public void testChangedFieldsAreMarshalledAgain() throws Exception {
+        Message received = (Message) passThrough.unmarshal(new DataInputStream(new ByteArrayInputStream(toBytes(plain.marshal(createMessage())))));
+
+        received.setBrokerInTime(1234567890123L);
+        received.setBrokerPath(new BrokerId[] {new BrokerId("broker-1")});
+        received.getMessageId().setBrokerSequenceId(42);
+        received.setDestination(new ActiveMQTopic("other"));
+
+        byte[] patched = toBytes(passThrough.marshal(received));
+        assertTrue(Arrays.equals(toBytes(plain.marshal(received)), patched));
+
+        Message decoded = (Message) plain.unmarshal(new DataInputStream(new ByteArrayInputStream(patched)));
+        assertEquals(1234567890123L, decoded.getBrokerInTime());
+        assertEquals("broker-1", decoded.getBrokerPath()[0].getValue());
+        assertEquals(42, decoded.getMessageId().getBrokerSequenceId());
+        assertEquals(new ActiveMQTopic("other"), decoded.getDestination());
+        assertEquals("hello", ((ActiveMQTextMessage) decoded).getText());
+
+        // a copy shares the form until one of its fields changes
+        Message copy = received.copy();
+        copy.setDestination(new ActiveMQQueue("copy"));
+        Message decodedCopy = (Message) plain.unmarshal(new DataInputStream(new ByteArrayInputStream(toBytes(passThrough.marshal(copy)))));
+        assertEquals(new ActiveMQQueue("copy"), decodedCopy.getDestination());
+        assertEquals(new ActiveMQTopic("other"), ((Message) plain.unmarshal(new DataInputStream(new ByteArrayInputStream(toBytes(passThrough.marshal(received)))))).getDestination());
+    }
+
+    public void testDispatchedMessageIsNested() throws Exception {
+        Message received = (Message) passThrough.unmarshal(new DataInputStream(new ByteArrayInputStream(toBytes(plain.marshal(createMessage())))));
+        received.setBrokerOutTime(99);
+
+        MessageDispatch dispatch = new MessageDispatch();
+        dispatch.setConsumerId(new ConsumerId("connection:1:1:1"));
+        dispatch.setDestination(received.getDestination());
+        dispatch.setMessage(received);
+        dispatch.setRedeliveryCounter(3);
+        byte[] sent = toBytes(passThrough.marshal(dispatch));
+
+        MessageDispatch decoded = (MessageDispatch) plain.unmarshal(new DataInputStream(new ByteArrayInputStream(sent)));
+        assertEquals(3, decoded.getRedeliveryCounter());
+        assertEquals(99, decoded.getMessage().getBrokerOutTime());
+        assertEquals("hello", ((ActiveMQTextMessage) decoded.getMessage()).getText());
+        assertEquals(received.getMessageId(), decoded.getMessage().getMessageId());
+
+        // a pass through receiver keeps the nested message's frame
+        OpenWireFormat receiver = createWireFormat(true);
+        MessageDispatch forwarded = (MessageDispatch) receiver.unmarshal(new DataInputStream(new ByteArrayInputStream(sent)));
+        Message message = forwarded.getMessage();
+        assertTrue(message.getCachedMarshalledForm(receiver) instanceof MarshalledMessage);
+        assertTrue(Arrays.equals(toBytes(plain.marshal(message)), toBytes(receiver.marshal(message))));
+    }
+
+    public void testFieldsNotNeededForRoutingAreDecodedLazily() throws Exception {
+        Message message = createMessage();
+        message.setCorrelationId("correlation");
+        message.setReplyTo(new ActiveMQTopic("reply"));
+        message.setUserID("user");
+        message.setBrokerPath(new BrokerId[] {new BrokerId("broker-1"), new BrokerId("broker-2")});
+        message.setType("type");
+        byte[] sent = toBytes(plain.marshal(message));
+
+        Message received = (Message) passThrough.unmarshal(new DataInputStream(new ByteArrayInputStream(sent)));
+        assertTrue(received.hasLazyFields());
+        assertEquals("type", received.getType());
+        assertEquals(new ActiveMQQueue("test"), received.getDestination());
+
+        // writing the message again does not decode them
+        received.setBrokerInTime(1);
+        byte[] forwarded = toBytes(passThrough.marshal(received));
+        assertTrue(received.hasLazyFields());
+        assertTrue(Arrays.equals(toBytes(plain.marshal(received)), forwarded));
+        // nor does any other connection without the marshall cache
+        assertTrue(received.hasLazyFields());
+
+        Message copy = ((Message) passThrough.unmarshal(new DataInputStream(new ByteArrayInputStream(sent)))).copy();
+        assertTrue(copy.hasLazyFields());
+        assertEquals("correlation", copy.getCorrelationId());
+        assertEquals(new ActiveMQTopic("reply"), copy.getReplyTo());
+        assertEquals("user", copy.getUserID());
+        assertEquals(2, copy.getBrokerPath().length);
+        assertEquals("broker-2", copy.getBrokerPath()[1].getValue());
+        assertNull(copy.getOriginalDestination());
+        assertFalse(copy.hasLazyFields());
+
+        // a decoded field that is changed is marshalled again
+        copy.setReplyTo(new ActiveMQQueue("other"));
+        Message decoded = (Message) plain.unmarshal(new DataInputStream(new ByteArrayInputStream(toBytes(passThrough.marshal(copy)))));
+        assertEquals(new ActiveMQQueue("other"), decoded.getReplyTo());
+        assertEquals("correlation", decoded.getCorrelationId());
+        assertEquals("broker-1", decoded.getBrokerPath()[0].getValue());
+    }
+
+    public void testSharedMessageIsMarshalledOnce() throws Exception {
+        Message message = createMessage();
+        message.setMarshalledFormShared(true);
+        message.incrementReferenceCount();
+
+        OpenWireFormat first = createWireFormat(true);
+        OpenWireFormat second = createWireFormat(true);
+        MessageDispatch dispatch = new MessageDispatch();
+        dispatch.setConsumerId(new ConsumerId("connection:1:1:1"));
+        dispatch.setMessage(message);
+        byte[] sent = toBytes(first.marshal(dispatch));
+        ByteSequence form = message.getCachedMarshalledForm(first);
+        assertTrue(form instanceof MarshalledMessage);
+
+        dispatch = new MessageDispatch();
+        dispatch.setConsumerId(new ConsumerId("connection:2:1:1"));
+        dispatch.setMessage(message);
+        second.marshal(dispatch);
+        assertSame(form, message.getCachedMarshalledForm(second));
+
+        MessageDispatch decoded = (MessageDispatch) plain.unmarshal(new DataInputStream(new ByteArrayInputStream(sent)));
+        assertEquals(message.getMessageId(), decoded.getMessage().getMessageId());
+        assertEquals("hello", ((ActiveMQTextMessage) decoded.getMessage()).getText());
+
+        // a connection using the marshall cache can not use the form
+        OpenWireFormat cached = createWireFormat(true);
+        cached.setCacheEnabled(true);
+        MessageDispatch decodedCached = (MessageDispatch) cached.unmarshal(new DataInputStream(new ByteArrayInputStream(toBytes(cached.marshal(dispatch)))));
+        assertEquals(message.getMessageId(), decodedCached.getMessage().getMessageId());
+
+        message.decrementReferenceCount();
+        assertNull(message.getCachedMarshalledForm(first));
+    }
+
+    private OpenWireFormat createWireFormat(boolean passThroughEnabled) {
+        OpenWireFormat wf = new OpenWireFormat(10);
+        wf.setTightEncodingEnabled(true);
+        wf.setCacheEnabled(false);
+        wf.setPassThroughEnabled(passThroughEnabled);
+        return wf;
+    }
+
+    private Message createMessage() throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        ProducerId producerId = new ProducerId("connection:1:1:1");
+        message.setMessageId(new MessageId(producerId, 1));
+        message.setProducerId(producerId);
+        message.setDestination(new ActiveMQQueue("test"));
+        message.setPersistent(true);
+        message.setTimestamp(System.currentTimeMillis());
+        message.setPriority((byte) 4);
+        message.setText("hello");
+        message.setProperty("key", "value");
+        return message;
+    }
+
+    private byte[] toBytes(ByteSequence sequence) {
+        return Arrays.copyOfRange(sequence.getData(), sequence.getOffset(), sequence.getOffset() + sequence.getLength());
+    }
+}
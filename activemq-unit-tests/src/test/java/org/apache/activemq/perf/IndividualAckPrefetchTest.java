@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.ActiveMQSession;
+import org.apache.activemq.broker.BrokerService;
+import org.apache.activemq.broker.region.policy.PolicyEntry;
+import org.apache.activemq.broker.region.policy.PolicyMap;
+import org.apache.activemq.broker.region.policy.VMPendingQueueMessageStoragePolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the rate at which a broker can process individual acks as the
+ * prefetch window, and so the subscription's dispatched list, grows.
+ *
+ * Messages are acked newest first so each ack refers to the far end of the
+ * broker's dispatched list.
+ */
+public class IndividualAckPrefetchTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndividualAckPrefetchTest.class);
+    private static final int[] PREFETCH_SIZES = new int[] {1000, 5000, 10000, 30000};
+
+    protected BrokerService broker;
+    protected String bindAddress = "vm://localhost";
+
+    public void testIndividualAckRateAsPrefetchGrows() throws Exception {
+        for (int prefetch : PREFETCH_SIZES) {
+            double rate = measureAckRate(prefetch);
+            LOG.info("prefetch: " + prefetch + ", individual acks/sec: " + (long) rate);
+        }
+    }
+
+    protected double measureAckRate(int prefetch) throws Exception {
+        ActiveMQConnectionFactory factory = new ActiveMQConnectionFactory(bindAddress);
+        factory.getPrefetchPolicy().setQueuePrefetch(prefetch);
+        factory.setWatchTopicAdvisories(false);
+        Connection connection = factory.createConnection();
+        try {
+            connection.start();
+            Session producerSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            Queue queue = producerSession.createQueue(getClass().getName() + "." + prefetch);
+            MessageProducer producer = producerSession.createProducer(queue);
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+            for (int i = 0; i < prefetch; i++) {
+                producer.send(producerSession.createTextMessage("message: " + i));
+            }
+
+            Session session = connection.createSession(false, ActiveMQSession.INDIVIDUAL_ACKNOWLEDGE);
+            MessageConsumer consumer = session.createConsumer(queue);
+            List<Message> received = new ArrayList<Message>(prefetch);
+            for (int i = 0; i < prefetch; i++) {
+                Message message = consumer.receive(5000);
+                assertNotNull("message " + i + " received", message);
+                received.add(message);
+            }
+
+            long start = System.nanoTime();
+            for (int i = received.size() - 1; i >= 0; i--) {
+                received.get(i).acknowledge();
+            }
+            // closing the consumer is a sync round trip, so the broker has processed every ack
+            consumer.close();
+            long elapsed = System.nanoTime() - start;
+            return prefetch * 1000000000d / elapsed;
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        broker = new BrokerService();
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        // keep pending messages in memory and page in a whole prefetch window at
+        // once so only the ack path is measured
+        PolicyEntry policy = new PolicyEntry();
+        policy.setPendingQueuePolicy(new VMPendingQueueMessageStoragePolicy());
+        policy.setMaxPageSize(PREFETCH_SIZES[PREFETCH_SIZES.length - 1]);
+        PolicyMap policyMap = new PolicyMap();
+        policyMap.setDefaultEntry(policy);
+        broker.setDestinationPolicy(policyMap);
+        broker.addConnector(bindAddress);
+        broker.start();
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        if (broker != null) {
+            broker.stop();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.activemq.perf;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.apache.activemq.broker.ConnectionContext;
+import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTextMessage;
+import org.apache.activemq.command.Message;
+import org.apache.activemq.command.MessageId;
+import org.apache.activemq.store.MessageRecoveryListener;
+import org.apache.activemq.store.MessageStore;
+import org.apache.activemq.store.kahadb.KahaDBStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures how the rate at which KahaDB can refill cursors from its index
+ * scales as more destinations are read concurrently, while one busy queue
+ * keeps adding messages.
+ *
+ * Each reader thread owns a destination and repeatedly pages through it with
+ * recoverNextMessages, as a store cursor does when it refills.
+ */
+public class KahaDBMultiDestinationThroughputTest extends TestCase {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KahaDBMultiDestinationThroughputTest.class);
+    private static final int DESTINATIONS = 16;
+    private static final int MESSAGES_PER_DESTINATION = 2000;
+    private static final int BATCH_SIZE = 200;
+    private static final long RUN_MILLIS = 10000;
+
+    protected KahaDBStore store;
+    private final ConnectionContext context = new ConnectionContext();
+    private final String text = new String(new byte[1024]);
+    private long sequence;
+
+    public void testRecoverThroughputAsReadersGrow() throws Exception {
+        List<MessageStore> stores = new ArrayList<MessageStore>();
+        for (int i = 0; i < DESTINATIONS; i++) {
+            MessageStore messageStore = store.createQueueMessageStore(new ActiveMQQueue("perf.dest." + i));
+            messageStore.start();
+            for (int j = 0; j < MESSAGES_PER_DESTINATION; j++) {
+                messageStore.addMessage(context, createMessage(messageStore));
+            }
+            stores.add(messageStore);
+        }
+
+        for (int readers = 1; readers <= DESTINATIONS; readers *= 2) {
+            double rate = measureRecoverRate(stores.subList(0, readers));
+            LOG.info("readers: " + readers + ", recovered messages/sec: " + (long) rate);
+        }
+    }
+
+    protected double measureRecoverRate(List<MessageStore> readStores) throws Exception {
+        final MessageStore busy = store.createQueueMessageStore(new ActiveMQQueue("perf.busy"));
+        busy.start();
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicLong recovered = new AtomicLong();
+        final CountDownLatch finished = new CountDownLatch(readStores.size() + 1);
+
+        Thread writer = new Thread("busy writer") {
+            @Override
+            public void run() {
+                try {
+                    while (!done.get()) {
+                        busy.addMessage(context, createMessage(busy));
+                    }
+                } catch (Exception e) {
+                    LOG.error("busy writer failed", e);
+                } finally {
+                    finished.countDown();
+                }
+            }
+        };
+        writer.start();
+
+        for (final MessageStore messageStore : readStores) {
+            new Thread("reader " + messageStore.getDestination()) {
+                @Override
+                public void run() {
+                    try {
+                        CountingListener listener = new CountingListener();
+                        while (!done.get()) {
+                            messageStore.resetBatching();
+                            do {
+                                listener.batch = 0;
+                                messageStore.recoverNextMessages(BATCH_SIZE, listener);
+                                recovered.addAndGet(listener.batch);
+                            } while (listener.batch == BATCH_SIZE && !done.get());
+                        }
+                    } catch (Exception e) {
+                        LOG.error("reader failed", e);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        long start = System.nanoTime();
+        Thread.sleep(RUN_MILLIS);
+        done.set(true);
+        long elapsed = System.nanoTime() - start;
+        assertTrue("readers and writer stopped", finished.await(30, TimeUnit.SECONDS));
+        busy.removeAllMessages(context);
+        return recovered.get() * 1000000000d / elapsed;
+    }
+
+    protected synchronized ActiveMQTextMessage createMessage(MessageStore messageStore) throws Exception {
+        ActiveMQTextMessage message = new ActiveMQTextMessage();
+        long id = ++sequence;
+        MessageId messageId = new MessageId("ID:perf-producer:1:1:1", id);
+        messageId.setBrokerSequenceId(id);
+        message.setMessageId(messageId);
+        message.setDestination(messageStore.getDestination());
+        message.setPersistent(true);
+        message.setText(text);
+        return message;
+    }
+
+    private static class CountingListener implements MessageRecoveryListener {
+        int batch;
+
+        @Override
+        public boolean recoverMessage(Message message) throws Exception {
+            batch++;
+            return true;
+        }
+
+        @Override
+        public boolean recoverMessageReference(MessageId ref) throws Exception {
+            return true;
+        }
+
+        @Override
+        public boolean hasSpace() {
+            return true;
+        }
+
+        @Override
+        public boolean isDuplicate(MessageId ref) {
+            return false;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        store = new KahaDBStore();
+        store.setDirectory(new File("target/test-amq-data/perfTest/multiDestination"));
+        store.deleteAllMessages();
+        store.start();
+        super.setUp();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        super.tearDown();
+        if (store != null) {
+            store.stop();
+        }
+    }
+}
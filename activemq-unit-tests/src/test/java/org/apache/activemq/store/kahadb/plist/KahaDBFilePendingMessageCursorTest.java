@@ -20,15 +20,19 @@ import org.apache.activemq.broker.BrokerService;
 import org.apache.activemq.broker.region.*;
 import org.apache.activemq.broker.region.cursors.FilePendingMessageCursor;
 import org.apache.activemq.broker.region.cursors.FilePendingMessageCursorTestSupport;
+import org.apache.activemq.broker.region.cursors.SharedMessageSpool;
 import org.apache.activemq.command.ActiveMQMessage;
 import org.apache.activemq.command.ActiveMQQueue;
+import org.apache.activemq.command.ActiveMQTopic;
 import org.apache.activemq.command.MessageId;
 import org.apache.activemq.store.kahadb.disk.page.PageFile;
 import org.apache.activemq.usage.SystemUsage;
+import org.apache.activemq.util.Wait;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author <a href="http://hiramchirino.com">Hiram Chirino</a>
@@ -93,5 +97,177 @@ public class KahaDBFilePendingMessageCursorTest extends FilePendingMessageCursor
         assertEquals("expected page usage", initialPageCount -1, pageFile.getPageCount() - pageFile.getFreePageCount() );
     }
 
+    @Test
+    public void testAsyncSpoolKeepsOrder() throws Exception {
+        brokerService = new BrokerService();
+        brokerService.setUseJmx(false);
+        SystemUsage usage = brokerService.getSystemUsage();
+        usage.getMemoryUsage().setLimit(1024*150);
+        String body = new String(new byte[1024]);
+        Destination destination = new Queue(brokerService, new ActiveMQQueue("Q"), null, new DestinationStatistics(), null);
+
+        underTest = new FilePendingMessageCursor(brokerService.getBroker(), "test", false);
+        underTest.setAsyncSpool(true);
+        underTest.setSpoolBatchSize(50);
+        underTest.setSystemUsage(usage);
+        underTest.start();
+
+        final int numMessages = 1000;
+        for (int i=0; i< numMessages; i++) {
+            ActiveMQMessage mqMessage = new ActiveMQMessage();
+            mqMessage.setStringProperty("body", body);
+            mqMessage.setMessageId(new MessageId("1:2:3:" + i));
+            mqMessage.setMemoryUsage(usage.getMemoryUsage());
+            mqMessage.setRegionDestination(destination);
+            underTest.addMessageLast(new IndirectMessageReference(mqMessage));
+            // the spool task makes space while we wait, as a producer would
+            // under flow control
+            assertTrue("memory freed", Wait.waitFor(new Wait.Condition() {
+                @Override
+                public boolean isSatisified() throws Exception {
+                    return underTest.hasSpace();
+                }
+            }));
+        }
+        assertEquals(numMessages, underTest.size());
+        assertTrue("messages spooled", underTest.getSpooledMessageCount() > 0);
+        assertTrue(underTest.getSpoolBatchCount() > 0);
+
+        // a pass over the messages lets the spool task read ahead
+        underTest.reset();
+        underTest.release();
+        assertTrue("messages read ahead", Wait.waitFor(new Wait.Condition() {
+            @Override
+            public boolean isSatisified() throws Exception {
+                return underTest.getReadAheadMessageCount() > 0;
+            }
+        }));
+
+        underTest.reset();
+        long receivedCount = 0;
+        while(underTest.hasNext()) {
+            MessageReference ref = underTest.next();
+            underTest.remove();
+            ref.decrementReferenceCount();
+            assertEquals("id is correct", receivedCount++, ref.getMessageId().getProducerSequenceId());
+        }
+        underTest.release();
+        assertEquals("got all messages back", numMessages, receivedCount);
+        assertTrue(underTest.isEmpty());
+        underTest.destroy();
+    }
+
+    @Test
+    public void testSharedSpoolWritesMessagesOnce() throws Exception {
+        brokerService = new BrokerService();
+        brokerService.setUseJmx(false);
+        SystemUsage usage = brokerService.getSystemUsage();
+        usage.getMemoryUsage().setLimit(1024*150);
+        String body = new String(new byte[1024]);
+        Destination destination = new Queue(brokerService, new ActiveMQQueue("Q"), null, new DestinationStatistics(), null);
+
+        FilePendingMessageCursor[] cursors = new FilePendingMessageCursor[2];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = new FilePendingMessageCursor(brokerService.getBroker(), "test" + i, false);
+            cursors[i].setUseSharedSpool(true);
+            cursors[i].setSystemUsage(usage);
+            cursors[i].start();
+        }
+        underTest = cursors[0];
 
+        final int numMessages = 1000;
+        for (int i=0; i< numMessages; i++) {
+            ActiveMQMessage mqMessage = new ActiveMQMessage();
+            mqMessage.setStringProperty("body", body);
+            mqMessage.setMessageId(new MessageId("1:2:3:" + i));
+            mqMessage.setMemoryUsage(usage.getMemoryUsage());
+            mqMessage.setRegionDestination(destination);
+            for (FilePendingMessageCursor cursor : cursors) {
+                cursor.addMessageLast(new IndirectMessageReference(mqMessage));
+            }
+        }
+
+        SharedMessageSpool spool = brokerService.getSharedMessageSpool();
+        assertTrue("messages spooled", spool.getMessageCount() > 0);
+        assertEquals("each message written once", spool.getMessageCount(), spool.getWriteCount());
+        assertTrue("messages shared", spool.getShareCount() > 0);
+
+        for (FilePendingMessageCursor cursor : cursors) {
+            assertEquals(numMessages, cursor.size());
+            cursor.reset();
+            long receivedCount = 0;
+            while(cursor.hasNext()) {
+                MessageReference ref = cursor.next();
+                cursor.remove();
+                ref.decrementReferenceCount();
+                assertEquals("id is correct", receivedCount++, ref.getMessageId().getProducerSequenceId());
+            }
+            cursor.release();
+            assertEquals("got all messages back", numMessages, receivedCount);
+        }
+        assertEquals("spool released", 0, spool.getMessageCount());
+
+        for (FilePendingMessageCursor cursor : cursors) {
+            cursor.destroy();
+        }
+    }
+
+    @Test
+    public void testSharedSpoolKeepsCopiesOfDestinationsApart() throws Exception {
+        brokerService = new BrokerService();
+        brokerService.setUseJmx(false);
+        SystemUsage usage = brokerService.getSystemUsage();
+        usage.getMemoryUsage().setLimit(1024*150);
+        String body = new String(new byte[1024]);
+        ActiveMQTopic[] topics = new ActiveMQTopic[] {new ActiveMQTopic("A"), new ActiveMQTopic("B")};
+        Destination[] destinations = new Destination[topics.length];
+
+        FilePendingMessageCursor[] cursors = new FilePendingMessageCursor[topics.length];
+        for (int i = 0; i < cursors.length; i++) {
+            destinations[i] = new Topic(brokerService, topics[i], null, new DestinationStatistics(), brokerService.getTaskRunnerFactory());
+            cursors[i] = new FilePendingMessageCursor(brokerService.getBroker(), "test" + i, false);
+            cursors[i].setUseSharedSpool(true);
+            cursors[i].setSystemUsage(usage);
+            cursors[i].start();
+        }
+        underTest = cursors[0];
+
+        // as a composite destination does, send copies with the same id to each topic
+        final int numMessages = 500;
+        for (int i=0; i< numMessages; i++) {
+            ActiveMQMessage mqMessage = new ActiveMQMessage();
+            mqMessage.setStringProperty("body", body);
+            mqMessage.setMessageId(new MessageId("1:2:3:" + i));
+            mqMessage.setMemoryUsage(usage.getMemoryUsage());
+            for (int j = 0; j < topics.length; j++) {
+                ActiveMQMessage copy = (ActiveMQMessage) mqMessage.copy();
+                copy.setDestination(topics[j]);
+                copy.setRegionDestination(destinations[j]);
+                cursors[j].addMessageLast(new IndirectMessageReference(copy));
+            }
+        }
+
+        SharedMessageSpool spool = brokerService.getSharedMessageSpool();
+        assertTrue("messages spooled", spool.getMessageCount() > 0);
+        assertEquals("nothing shared between topics", 0, spool.getShareCount());
+
+        for (int j = 0; j < topics.length; j++) {
+            cursors[j].reset();
+            long receivedCount = 0;
+            while(cursors[j].hasNext()) {
+                MessageReference ref = cursors[j].next();
+                cursors[j].remove();
+                ref.decrementReferenceCount();
+                assertEquals("destination is correct", topics[j], ref.getMessage().getDestination());
+                receivedCount++;
+            }
+            cursors[j].release();
+            assertEquals("got all messages back", numMessages, receivedCount);
+        }
+        assertEquals("spool released", 0, spool.getMessageCount());
+
+        for (FilePendingMessageCursor cursor : cursors) {
+            cursor.destroy();
+        }
+    }
 }